@@ -0,0 +1,136 @@
+package net.osmand;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.osmand.binary.BenchmarkObfGenerator;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
+import net.osmand.data.LatLon;
+import net.osmand.osm.MapRenderingTypes;
+import net.osmand.render.RenderingRulesStorage;
+import net.osmand.render.RenderingRulesStorage.RenderingRulesStorageResolver;
+import net.osmand.router.RoutingConfiguration;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Fixture files of benchmarks are passed as system properties (see jmh task of build.gradle) :
+ * small obf extract, rendering style and (optionally) routing.xml.
+ * By default jmh task passes obf generated by {@link net.osmand.binary.BenchmarkObfGenerator} and rendering style
+ * and routing config of jmh/fixtures, benchmark fails if its fixture is not found.
+ */
+public class BenchmarkFixtures {
+
+	public static final String OBF_PROPERTY = "osmand.benchmark.obf";
+	public static final String RENDERING_STYLE_PROPERTY = "osmand.benchmark.render";
+	public static final String ROUTING_CONFIG_PROPERTY = "osmand.benchmark.routing";
+	// lat,lon of route start and end, by default they are taken from the routing region of obf
+	public static final String ROUTE_START_PROPERTY = "osmand.benchmark.start";
+	public static final String ROUTE_END_PROPERTY = "osmand.benchmark.end";
+
+	public static File getFile(String property) {
+		String f = System.getProperty(property);
+		if (f == null || f.length() == 0 || !new File(f).exists()) {
+			throw new IllegalStateException("Benchmark fixture is not found, specify -D" + property + "=<file>");
+		}
+		return new File(f);
+	}
+
+	public static BinaryMapIndexReader openObf() throws IOException {
+		if (MapRenderingTypes.class.getResource("poi_types.xml") == null) {
+			// poi_types.xml is copied from the resources repository by ant build only, without it only categories
+			// of the generated obf are known
+			BenchmarkObfGenerator.initPoiCategories();
+		}
+		return new BinaryMapIndexReader(new RandomAccessFile(getFile(OBF_PROPERTY), "r"));
+	}
+
+	public static RoutingConfiguration.Builder getRoutingConfiguration() throws IOException, XmlPullParserException {
+		if (System.getProperty(ROUTING_CONFIG_PROPERTY) == null) {
+			return RoutingConfiguration.getDefault();
+		}
+		InputStream is = new FileInputStream(getFile(ROUTING_CONFIG_PROPERTY));
+		try {
+			return RoutingConfiguration.parseFromInputStream(is);
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Point of the property or point on the diagonal of the first routing region (0 - top left, 1 - bottom right)
+	 */
+	public static LatLon getRoutePoint(BinaryMapIndexReader reader, String property, double diagonalPart) {
+		String p = System.getProperty(property);
+		if (p != null) {
+			String[] ll = p.split(",");
+			return new LatLon(Double.parseDouble(ll[0].trim()), Double.parseDouble(ll[1].trim()));
+		}
+		if (reader.getRoutingIndexes().isEmpty()) {
+			throw new IllegalStateException("Benchmark obf doesn't have routing data");
+		}
+		RouteRegion r = reader.getRoutingIndexes().get(0);
+		double lat = r.getTopLatitude() + (r.getBottomLatitude() - r.getTopLatitude()) * diagonalPart;
+		double lon = r.getLeftLongitude() + (r.getRightLongitude() - r.getLeftLongitude()) * diagonalPart;
+		return new LatLon(lat, lon);
+	}
+
+	public static RenderingRulesStorage loadRenderingRules() throws XmlPullParserException, IOException {
+		final File file = getFile(RENDERING_STYLE_PROPERTY);
+		String name = file.getName();
+		if (name.endsWith(".render.xml")) {
+			name = name.substring(0, name.length() - ".render.xml".length());
+		}
+		RenderingRulesStorage storage = new RenderingRulesStorage(name, readRenderingConstants(file));
+		RenderingRulesStorageResolver resolver = new RenderingRulesStorageResolver() {
+			@Override
+			public RenderingRulesStorage resolve(String name, RenderingRulesStorageResolver ref)
+					throws XmlPullParserException, IOException {
+				// dependent styles are searched in the same folder
+				File dep = new File(file.getParentFile(), name + ".render.xml");
+				RenderingRulesStorage depends = new RenderingRulesStorage(name, readRenderingConstants(dep));
+				InputStream is = new FileInputStream(dep);
+				try {
+					depends.parseRulesFromXmlInputStream(is, ref);
+				} finally {
+					is.close();
+				}
+				return depends;
+			}
+		};
+		InputStream is = new FileInputStream(file);
+		try {
+			storage.parseRulesFromXmlInputStream(is, resolver);
+		} finally {
+			is.close();
+		}
+		return storage;
+	}
+
+	private static Map<String, String> readRenderingConstants(File file) throws XmlPullParserException, IOException {
+		Map<String, String> renderingConstants = new LinkedHashMap<String, String>();
+		InputStream is = new FileInputStream(file);
+		try {
+			XmlPullParser parser = PlatformUtil.newXMLPullParser();
+			parser.setInput(is, "UTF-8");
+			int tok;
+			while ((tok = parser.next()) != XmlPullParser.END_DOCUMENT) {
+				if (tok == XmlPullParser.START_TAG && parser.getName().equals("renderingConstant")) {
+					if (!renderingConstants.containsKey(parser.getAttributeValue("", "name"))) {
+						renderingConstants.put(parser.getAttributeValue("", "name"), parser.getAttributeValue("", "value"));
+					}
+				}
+			}
+		} finally {
+			is.close();
+		}
+		return renderingConstants;
+	}
+}
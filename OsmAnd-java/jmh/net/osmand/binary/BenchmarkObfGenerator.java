@@ -0,0 +1,206 @@
+package net.osmand.binary;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.osmand.binary.BinaryMapIndexReader.MapIndex;
+import net.osmand.binary.BinaryMapIndexWriter.MapLevel;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
+import net.osmand.data.Amenity;
+import net.osmand.osm.MapPoiTypes;
+import net.osmand.osm.PoiCategory;
+import net.osmand.util.MapUtils;
+
+/**
+ * Generates the default obf fixture of benchmarks (jmh task of build.gradle runs it) :
+ * grid of named roads (every 4th road is primary) with map, routing and poi sections written by {@link BinaryMapIndexWriter}.
+ * Every cell of the grid has a building, poi and some cells are forests or lakes, so tags are the same as
+ * in the bundled benchmark.render.xml and benchmark.routing.xml.
+ */
+public class BenchmarkObfGenerator {
+
+	private static final double CENTER_LAT = 52.37;
+	private static final double CENTER_LON = 4.89;
+	// roads in each direction, spacing is about 400 m
+	private static final int GRID_SIZE = 32;
+	private static final int CELL_SHIFT = 15;
+	// roads are split to ways of few cells as real roads are
+	private static final int WAY_CELLS = 4;
+	private static final int PRIMARY_EVERY = 4;
+
+	private static final int MAP_HIGHWAY_PRIMARY = 1;
+	private static final int MAP_HIGHWAY_RESIDENTIAL = 2;
+	private static final int MAP_BUILDING = 3;
+	private static final int MAP_LANDUSE_FOREST = 4;
+	private static final int MAP_NATURAL_WATER = 5;
+	private static final int MAP_NAME = 6;
+
+	private static final int ROUTE_HIGHWAY_PRIMARY = 0;
+	private static final int ROUTE_HIGHWAY_RESIDENTIAL = 1;
+	private static final int ROUTE_NAME = 2;
+
+	private static final String[][] POI_TYPES = new String[][] {
+		{ "sustenance", "cafe" }, { "sustenance", "restaurant" }, { "shop", "supermarket" }, { "shop", "bakery" }
+	};
+
+	private final int left;
+	private final int top;
+	private final MapIndex mapIndex = new MapIndex();
+	private final RouteRegion routeRegion = new RouteRegion();
+	private final List<BinaryMapDataObject> mapObjects = new ArrayList<BinaryMapDataObject>();
+	private final List<BinaryMapDataObject> baseMapObjects = new ArrayList<BinaryMapDataObject>();
+	private final List<RouteDataObject> routeObjects = new ArrayList<RouteDataObject>();
+	private final List<RouteDataObject> baseRouteObjects = new ArrayList<RouteDataObject>();
+	private final List<Amenity> amenities = new ArrayList<Amenity>();
+	private long id = 1;
+
+	public BenchmarkObfGenerator() {
+		int size = GRID_SIZE << CELL_SHIFT;
+		// points are aligned to the cells, so crossing roads share points after coordinates are rounded by the writer
+		left = ((MapUtils.get31TileNumberX(CENTER_LON) - size / 2) >> CELL_SHIFT) << CELL_SHIFT;
+		top = ((MapUtils.get31TileNumberY(CENTER_LAT) - size / 2) >> CELL_SHIFT) << CELL_SHIFT;
+		mapIndex.initMapEncodingRule(0, MAP_HIGHWAY_PRIMARY, "highway", "primary");
+		mapIndex.initMapEncodingRule(0, MAP_HIGHWAY_RESIDENTIAL, "highway", "residential");
+		mapIndex.initMapEncodingRule(0, MAP_BUILDING, "building", "yes");
+		mapIndex.initMapEncodingRule(0, MAP_LANDUSE_FOREST, "landuse", "forest");
+		mapIndex.initMapEncodingRule(0, MAP_NATURAL_WATER, "natural", "water");
+		mapIndex.initMapEncodingRule(0, MAP_NAME, "name", "");
+		mapIndex.finishInitializingTags();
+		routeRegion.initRouteEncodingRule(ROUTE_HIGHWAY_PRIMARY, "highway", "primary");
+		routeRegion.initRouteEncodingRule(ROUTE_HIGHWAY_RESIDENTIAL, "highway", "residential");
+		routeRegion.initRouteEncodingRule(ROUTE_NAME, "name", "");
+	}
+
+	private int x(int cell) {
+		return left + (cell << CELL_SHIFT);
+	}
+
+	private int y(int cell) {
+		return top + (cell << CELL_SHIFT);
+	}
+
+	public void generate() {
+		for (int line = 0; line < GRID_SIZE; line++) {
+			boolean primary = line % PRIMARY_EVERY == 0;
+			for (int from = 0; from < GRID_SIZE - 1; from += WAY_CELLS) {
+				int to = Math.min(from + WAY_CELLS, GRID_SIZE - 1);
+				int[] xs = new int[to - from + 1];
+				int[] ys = new int[to - from + 1];
+				// vertical road of the line
+				for (int i = from; i <= to; i++) {
+					xs[i - from] = x(line);
+					ys[i - from] = y(i);
+				}
+				addRoad(xs, ys, primary, "Avenue " + (line + 1));
+				xs = new int[to - from + 1];
+				ys = new int[to - from + 1];
+				// horizontal road of the line
+				for (int i = from; i <= to; i++) {
+					xs[i - from] = x(i);
+					ys[i - from] = y(line);
+				}
+				addRoad(xs, ys, primary, "Street " + (line + 1));
+			}
+		}
+		MapPoiTypes poiTypes = initPoiCategories();
+		int quarter = 1 << (CELL_SHIFT - 2);
+		for (int cx = 0; cx < GRID_SIZE - 1; cx++) {
+			for (int cy = 0; cy < GRID_SIZE - 1; cy++) {
+				int cell = cx * GRID_SIZE + cy;
+				int l = x(cx) + quarter;
+				int t = y(cy) + quarter;
+				if (cell % 7 == 3) {
+					addArea(MAP_LANDUSE_FOREST, x(cx) + quarter / 2, y(cy) + quarter / 2, 3 * quarter, "Wood " + cell);
+				} else if (cell % 11 == 5) {
+					addArea(MAP_NATURAL_WATER, x(cx) + quarter / 2, y(cy) + quarter / 2, 3 * quarter, "Lake " + cell);
+				} else {
+					addArea(MAP_BUILDING, l, t, quarter, null);
+				}
+				String[] type = POI_TYPES[cell % POI_TYPES.length];
+				PoiCategory category = poiTypes.getPoiCategoryByName(type[0], true);
+				Amenity am = new Amenity();
+				am.setId(id++);
+				am.setType(category);
+				am.setSubType(type[1]);
+				am.setName(type[1] + " " + cell);
+				am.setLocation(MapUtils.get31LatitudeY(t + quarter * 2), MapUtils.get31LongitudeX(l + quarter * 2));
+				am.setOpeningHours("Mo-Fr 08:00-20:00");
+				amenities.add(am);
+			}
+		}
+	}
+
+	/**
+	 * Registers poi categories of the generated obf in the default poi types (if they are not read from poi_types.xml)
+	 */
+	public static MapPoiTypes initPoiCategories() {
+		MapPoiTypes poiTypes = MapPoiTypes.getDefaultNoInit();
+		for (String[] type : POI_TYPES) {
+			poiTypes.getPoiCategoryByName(type[0], true);
+		}
+		return poiTypes;
+	}
+
+	private void addRoad(int[] xs, int[] ys, boolean primary, String name) {
+		int[] coordinates = new int[xs.length * 2];
+		for (int i = 0; i < xs.length; i++) {
+			coordinates[2 * i] = xs[i];
+			coordinates[2 * i + 1] = ys[i];
+		}
+		BinaryMapDataObject o = new BinaryMapDataObject(coordinates,
+				new int[] { primary ? MAP_HIGHWAY_PRIMARY : MAP_HIGHWAY_RESIDENTIAL }, null, id);
+		o.setMapIndex(mapIndex);
+		o.putObjectName(MAP_NAME, name);
+		mapObjects.add(o);
+		if (primary) {
+			baseMapObjects.add(o);
+		}
+
+		RouteDataObject r = new RouteDataObject(routeRegion, new int[] { ROUTE_NAME }, new String[] { name });
+		r.id = id;
+		r.types = new int[] { primary ? ROUTE_HIGHWAY_PRIMARY : ROUTE_HIGHWAY_RESIDENTIAL };
+		r.pointsX = xs;
+		r.pointsY = ys;
+		routeObjects.add(r);
+		if (primary) {
+			baseRouteObjects.add(r);
+		}
+		id++;
+	}
+
+	private void addArea(int type, int l, int t, int size, String name) {
+		int[] coordinates = new int[] { l, t, l + size, t, l + size, t + size, l, t + size, l, t };
+		BinaryMapDataObject o = new BinaryMapDataObject(coordinates, new int[] { type }, null, id++);
+		o.setMapIndex(mapIndex);
+		o.setArea(true);
+		if (name != null) {
+			o.putObjectName(MAP_NAME, name);
+		}
+		mapObjects.add(o);
+	}
+
+	public void write(File output) throws IOException {
+		output.getParentFile().mkdirs();
+		BinaryMapIndexWriter writer = new BinaryMapIndexWriter(new RandomAccessFile(output, "rw"));
+		List<MapLevel> levels = new ArrayList<MapLevel>();
+		levels.add(new MapLevel(13, 22, mapObjects));
+		levels.add(new MapLevel(5, 12, baseMapObjects));
+		writer.writeMapIndex("Benchmark", levels);
+		writer.writeRouteIndex("Benchmark", routeObjects, baseRouteObjects);
+		writer.writePoiIndex("Benchmark", amenities);
+		writer.close();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.out.println("Usage : generator output.obf");
+			return;
+		}
+		BenchmarkObfGenerator generator = new BenchmarkObfGenerator();
+		generator.generate();
+		generator.write(new File(args[0]));
+	}
+}
@@ -0,0 +1,81 @@
+package net.osmand.binary;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.osmand.BenchmarkFixtures;
+import net.osmand.binary.BinaryMapIndexReader.MapIndex;
+import net.osmand.binary.BinaryMapIndexReader.MapRoot;
+import net.osmand.data.Amenity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Map and poi search in the center of the fixture obf (area is quarter of the map in each dimension)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BinaryMapIndexReaderBenchmark {
+
+	@Param({ "15", "17" })
+	public int zoom;
+
+	private BinaryMapIndexReader reader;
+	private int left;
+	private int right;
+	private int top;
+	private int bottom;
+
+	@Setup
+	public void setUp() throws IOException {
+		reader = BenchmarkFixtures.openObf();
+		left = Integer.MAX_VALUE;
+		right = 0;
+		top = Integer.MAX_VALUE;
+		bottom = 0;
+		for (MapIndex mi : reader.getMapIndexes()) {
+			for (MapRoot root : mi.getRoots()) {
+				left = Math.min(left, root.getLeft());
+				right = Math.max(right, root.getRight());
+				top = Math.min(top, root.getTop());
+				bottom = Math.max(bottom, root.getBottom());
+			}
+		}
+		if (left > right) {
+			throw new IllegalStateException("Benchmark obf doesn't have map data");
+		}
+		int w = (right - left) / 8;
+		int h = (bottom - top) / 8;
+		int cx = left / 2 + right / 2;
+		int cy = top / 2 + bottom / 2;
+		left = cx - w;
+		right = cx + w;
+		top = cy - h;
+		bottom = cy + h;
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		reader.close();
+	}
+
+	@Benchmark
+	public List<BinaryMapDataObject> searchMapIndex() throws IOException {
+		return reader.searchMapIndex(BinaryMapIndexReader.buildSearchRequest(left, right, top, bottom, zoom, null));
+	}
+
+	@Benchmark
+	public List<Amenity> searchPoi() throws IOException {
+		return reader.searchPoi(BinaryMapIndexReader.buildSearchPoiRequest(left, right, top, bottom, zoom, null, null));
+	}
+}
@@ -0,0 +1,80 @@
+package net.osmand.render;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import net.osmand.BenchmarkFixtures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Search of rendering rules for a few frequent tags as the renderer does it for every object
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RenderingRuleSearchRequestBenchmark {
+
+	private static final String[][] TAGS = new String[][] {
+		{ "highway", "residential" }, { "highway", "primary" }, { "building", "yes" },
+		{ "landuse", "forest" }, { "natural", "water" }, { "amenity", "cafe" }
+	};
+
+	@Param({ "15", "17" })
+	public int zoom;
+
+	@Param({ "false", "true" })
+	public boolean resultCache;
+
+	@Param({ "false", "true" })
+	public boolean compiledRules;
+
+	private RenderingRulesStorage storage;
+	private RenderingRuleSearchRequest request;
+
+	@Setup
+	public void setUp() throws XmlPullParserException, IOException {
+		storage = BenchmarkFixtures.loadRenderingRules();
+		request = new RenderingRuleSearchRequest(storage);
+		request.setResultCacheEnabled(resultCache);
+		request.setCompiledRulesEnabled(compiledRules);
+	}
+
+	@Benchmark
+	public int searchLines() {
+		return search(RenderingRulesStorage.LINE_RULES);
+	}
+
+	@Benchmark
+	public int searchPolygons() {
+		return search(RenderingRulesStorage.POLYGON_RULES);
+	}
+
+	@Benchmark
+	public int searchPoints() {
+		return search(RenderingRulesStorage.POINT_RULES);
+	}
+
+	private int search(int state) {
+		int found = 0;
+		for (String[] tv : TAGS) {
+			request.clearState();
+			request.setStringFilter(storage.PROPS.R_TAG, tv[0]);
+			request.setStringFilter(storage.PROPS.R_VALUE, tv[1]);
+			request.setIntFilter(storage.PROPS.R_MINZOOM, zoom);
+			request.setIntFilter(storage.PROPS.R_MAXZOOM, zoom);
+			if (request.search(state)) {
+				found++;
+			}
+		}
+		return found;
+	}
+}
@@ -0,0 +1,88 @@
+package net.osmand.router;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.osmand.BenchmarkFixtures;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.data.LatLon;
+import net.osmand.router.BinaryRoutePlanner.FinalRouteSegment;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Route between 2 points of the fixture obf : A* search (with tiles loading) and preparation of the result.
+ * Every invocation uses new routing context, so tiles are loaded from the file (or block cache) each time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RoutingBenchmark {
+
+	@Param({ "car" })
+	public String profile;
+
+	private BinaryMapIndexReader reader;
+	private RoutingConfiguration config;
+	private LatLon start;
+	private LatLon end;
+
+	private RoutingContext ctx;
+	private RouteSegmentPoint startSegment;
+	private RouteSegmentPoint endSegment;
+	// calculated once for result preparation benchmark
+	private RoutingContext preparedCtx;
+	private FinalRouteSegment finalSegment;
+
+	@Setup
+	public void setUp() throws IOException, XmlPullParserException, InterruptedException {
+		reader = BenchmarkFixtures.openObf();
+		config = BenchmarkFixtures.getRoutingConfiguration().build(profile, RoutingConfiguration.DEFAULT_MEMORY_LIMIT);
+		start = BenchmarkFixtures.getRoutePoint(reader, BenchmarkFixtures.ROUTE_START_PROPERTY, 0.3);
+		end = BenchmarkFixtures.getRoutePoint(reader, BenchmarkFixtures.ROUTE_END_PROPERTY, 0.7);
+		initContext();
+		preparedCtx = ctx;
+		finalSegment = new BinaryRoutePlanner().searchRouteInternal(preparedCtx, startSegment, endSegment);
+		if (finalSegment == null) {
+			throw new IllegalStateException("Route is not found between " + start + " and " + end);
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void initContext() throws IOException {
+		RoutePlannerFrontEnd fe = new RoutePlannerFrontEnd(false);
+		ctx = fe.buildRoutingContext(config, null, new BinaryMapIndexReader[] { reader });
+		startSegment = fe.findRouteSegment(start.getLatitude(), start.getLongitude(), ctx);
+		endSegment = fe.findRouteSegment(end.getLatitude(), end.getLongitude(), ctx);
+		if (startSegment == null || endSegment == null) {
+			throw new IllegalStateException("Route points are not found on roads " + start + " " + end);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		reader.close();
+	}
+
+	@Benchmark
+	public FinalRouteSegment searchRouteInternal() throws IOException, InterruptedException {
+		return new BinaryRoutePlanner().searchRouteInternal(ctx, startSegment, endSegment);
+	}
+
+	@Benchmark
+	public List<RouteSegmentResult> prepareResult() throws IOException {
+		return new RouteResultPreparation().prepareResult(preparedCtx, finalSegment);
+	}
+}
@@ -0,0 +1,56 @@
+package net.osmand.util;
+
+import java.util.concurrent.TimeUnit;
+
+import net.osmand.util.GeoPointParserUtil.GeoParsedPoint;
+import net.osmand.util.OpeningHoursParser.OpeningHours;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsers called for every shown poi / opened link, they don't need fixture files
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParserBenchmark {
+
+	private static final String[] OPENING_HOURS = new String[] {
+		"Mo-Fr 08:30-20:00; Sa 08:00-14:00; Su off",
+		"Mo-Su 07:00-23:00",
+		"24/7",
+		"Mo-Th 10:00-24:00, Fr 10:00-02:00; Sa 12:00-02:00; Su 12:00-24:00; PH off",
+		"Apr-Sep: Mo-Su 09:00-19:00; Oct-Mar: Mo-Su 10:00-17:00"
+	};
+
+	private static final String[] GEO_URIS = new String[] {
+		"geo:34.99393,-106.61568",
+		"geo:0,0?q=34.99393,-106.61568(Treasure Island)",
+		"http://osmand.net/go?lat=34.99393&lon=-106.61568&z=11",
+		"http://www.openstreetmap.org/#map=11/34.99393/-106.61568",
+		"https://maps.google.com/maps?q=loc:34.99393,-106.61568&z=11",
+		"http://maps.yandex.ru/?ll=-106.61568,34.99393&z=11"
+	};
+
+	@Benchmark
+	public void parseOpenedHours(Blackhole bh) {
+		for (String s : OPENING_HOURS) {
+			OpeningHours h = OpeningHoursParser.parseOpenedHours(s);
+			bh.consume(h);
+		}
+	}
+
+	@Benchmark
+	public void parseGeoPoint(Blackhole bh) {
+		for (String s : GEO_URIS) {
+			GeoParsedPoint p = GeoPointParserUtil.parse(s);
+			bh.consume(p);
+		}
+	}
+}
@@ -33,6 +33,7 @@ package com.google.protobuf;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -76,6 +77,16 @@ public final class CodedInputStream {
   public static CodedInputStream newInstance(RandomAccessFile raf) {
     return new CodedInputStream(raf);
   }
+
+  /**
+   * Create a new CodedInputStream reading directly from memory mapped file
+   * segments. Every segment except the last one must be exactly
+   * {@code 1 << segmentShift} bytes long, so files larger than 2GB could be
+   * addressed. Segments are duplicated so several streams could share them.
+   */
+  public static CodedInputStream newInstance(ByteBuffer[] segments, int segmentShift, long length) {
+    return new CodedInputStream(segments, segmentShift, length);
+  }
   // end osmand change
 
 
@@ -485,6 +496,11 @@ public final class CodedInputStream {
 
   private final byte[] buffer;
   private RandomAccessFile raf;
+  // osmand change : memory mapped segments and absolute position of the next byte to load
+  private ByteBuffer[] mappedSegments;
+  private int mappedSegmentShift;
+  private long mappedLength;
+  private long mappedPointer;
   private int bufferSize;
   private int bufferSizeAfterLimit;
   private int bufferPos;
@@ -540,6 +556,43 @@ public final class CodedInputStream {
 	 input = null;
   }
 
+  private CodedInputStream(final ByteBuffer[] segments, int segmentShift, long length) {
+	 buffer = new byte[BUFFER_SIZE];
+	 this.bufferSize = 0;
+	 bufferPos = 0;
+	 totalBytesRetired = 0;
+	 mappedSegments = new ByteBuffer[segments.length];
+	 for (int i = 0; i < segments.length; i++) {
+		 mappedSegments[i] = segments[i].duplicate();
+	 }
+	 mappedSegmentShift = segmentShift;
+	 mappedLength = length;
+	 mappedPointer = 0;
+	 input = null;
+  }
+
+  /**
+   * Copies bytes starting from {@code mappedPointer} crossing segment
+   * boundaries if needed. There are no system calls involved, bytes come
+   * straight from the page cache.
+   */
+  private void readMapped(final byte[] dst, int off, int len) throws IOException {
+	 if (mappedPointer + len > mappedLength) {
+		 throw InvalidProtocolBufferException.truncatedMessage();
+	 }
+	 final long segmentMask = (1L << mappedSegmentShift) - 1;
+	 while (len > 0) {
+		 final ByteBuffer segment = mappedSegments[(int) (mappedPointer >>> mappedSegmentShift)];
+		 final int segmentPos = (int) (mappedPointer & segmentMask);
+		 final int n = Math.min(len, segment.limit() - segmentPos);
+		 segment.position(segmentPos);
+		 segment.get(dst, off, n);
+		 mappedPointer += n;
+		 off += n;
+		 len -= n;
+	 }
+  }
+
   /**
    * Set the maximum message recursion depth.  In order to prevent malicious
    * messages from causing stack overflows, {@code CodedInputStream} limits
@@ -706,6 +759,14 @@ public final class CodedInputStream {
     	} else {
     		bufferSize = -1;
     	}
+    } else if (mappedSegments != null) {
+    	// osmand change
+    	bufferSize = (int) Math.min(mappedLength - mappedPointer, buffer.length);
+    	if(bufferSize > 0) {
+    		readMapped(buffer, 0, bufferSize);
+    	} else {
+    		bufferSize = -1;
+    	}
     } else {
     	bufferSize = (input == null) ? -1 : input.read(buffer);
     }
@@ -828,6 +889,9 @@ public final class CodedInputStream {
           if(raf != null) {
         	  raf.readFully(chunk, pos, chunk.length - pos);
         	  n = chunk.length - pos;
+          } else if(mappedSegments != null) {
+        	  readMapped(chunk, pos, chunk.length - pos);
+        	  n = chunk.length - pos;
           } else {
               n = (input == null) ? -1 :
               input.read(chunk, pos, chunk.length - pos);
@@ -893,6 +957,9 @@ public final class CodedInputStream {
     	final int n ;
     	if(raf != null) {
     	 n = raf.skipBytes(size - pos);
+    	} else if(mappedSegments != null) {
+    	 n = (int) Math.min(size - pos, mappedLength - mappedPointer);
+    	 mappedPointer += n;
     	} else {
     	 n = (input == null) ? -1 : (int) input.skip(size - pos);
     	}
@@ -916,7 +983,11 @@ public final class CodedInputStream {
 		} else {
 			totalBytesRetired = (int) pointer;
 			bufferSizeAfterLimit = 0;
-			raf.seek(pointer);
+			if (mappedSegments != null) {
+				mappedPointer = pointer;
+			} else {
+				raf.seek(pointer);
+			}
 			bufferPos = 0;
 			bufferSize = 0;
 		}
@@ -8,4 +8,9 @@ public interface Collator extends java.util.Comparator<Object>, Cloneable {
 	public boolean equals(String source, String target);
 	
 	public abstract int compare(String source, String target);
+	
+	/**
+	 * Binary form of collation key : strings are equal by collator only if their keys are equal
+	 */
+	public byte[] getCollationKey(String source);
 }
\ No newline at end of file
@@ -14,27 +14,48 @@ public class OsmAndCollator {
 	}
 	
 	public static net.osmand.Collator wrapCollator(final java.text.Collator instance) {
-		return new net.osmand.Collator() {
-			
-			@Override
-			public int compare(Object o1, Object o2) {
-				return instance.compare(o1, o2);
-			}
+		return new JavaCollator(instance);
+	}
+	
+	private static class JavaCollator implements net.osmand.Collator {
+		private final java.text.Collator instance;
+		
+		public JavaCollator(java.text.Collator instance) {
+			this.instance = instance;
+		}
 			
-			@Override
-			public boolean equals(Object obj) {
-				return instance.equals(obj);
+		@Override
+		public int compare(Object o1, Object o2) {
+			return instance.compare(o1, o2);
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			// collators of the same locale and strength are equal (used to reuse precomputed collation keys)
+			if (obj instanceof JavaCollator) {
+				return instance.equals(((JavaCollator) obj).instance);
 			}
+			return instance.equals(obj);
+		}
+		
+		@Override
+		public int hashCode() {
+			return instance.hashCode();
+		}
 
-			@Override
-			public boolean equals(String source, String target) {
-				return instance.equals(source, target);
-			}
+		@Override
+		public boolean equals(String source, String target) {
+			return instance.equals(source, target);
+		}
 
-			@Override
-			public int compare(String source, String target) {
-				return instance.compare(source, target);
-			}
-		};
+		@Override
+		public int compare(String source, String target) {
+			return instance.compare(source, target);
+		}
+		
+		@Override
+		public byte[] getCollationKey(String source) {
+			return instance.getCollationKey(source).toByteArray();
+		}
 	}
 }
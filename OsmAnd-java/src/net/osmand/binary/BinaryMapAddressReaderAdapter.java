@@ -1,6 +1,7 @@
 package net.osmand.binary;
 
 import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -42,6 +43,8 @@ public class BinaryMapAddressReaderAdapter {
 	public static class AddressRegion extends BinaryIndexPart {
 		String enName;
 		int indexNameOffset = -1;
+		// name index table with collation keys, read on first search by name
+		volatile IndexedStringTableCache nameIndexCache;
 		List<CitiesBlock> cities = new ArrayList<BinaryMapAddressReaderAdapter.CitiesBlock>();
 		
 		LatLon calculatedCenter = null;
@@ -441,6 +444,23 @@ public class BinaryMapAddressReaderAdapter {
 	}
 
 	public void searchAddressDataByName(AddressRegion reg, SearchRequest<MapObject> req, int[] typeFilter) throws IOException {
+		searchAddressDataByName(reg, req, typeFilter, null);
+	}
+	
+	/**
+	 * Decoded name index atoms, cities and streets of the region kept between searches of {@link NameSearchSession}
+	 */
+	static class AddressNameSearchCache {
+		// references of name index atoms by their file pointer
+		final TIntObjectHashMap<TIntArrayList[]> atoms = new TIntObjectHashMap<TIntArrayList[]>();
+		// cities read without name matcher (null if city couldn't be read)
+		final TIntObjectHashMap<City> cities = new TIntObjectHashMap<City>();
+		final TIntObjectHashMap<Street> streets = new TIntObjectHashMap<Street>();
+		int size;
+	}
+	
+	void searchAddressDataByName(AddressRegion reg, SearchRequest<MapObject> req, int[] typeFilter,
+			AddressNameSearchCache cache) throws IOException {
 		TIntArrayList loffsets = new TIntArrayList();
 		CollatorStringMatcher matcher = new CollatorStringMatcher( req.nameQuery, StringMatcherMode.CHECK_STARTS_FROM_SPACE);
 		long time = System.currentTimeMillis();
@@ -459,7 +479,14 @@ public class BinaryMapAddressReaderAdapter {
 				indexOffset = codedIS.getTotalBytesRead();
 				int oldLimit = codedIS.pushLimit(length);
 				// here offsets are sorted by distance
-				map.readIndexedStringTable(matcher.getCollator(), req.nameQuery, "", loffsets, 0);
+				IndexedStringTableCache tableCache = reg.nameIndexCache;
+				if (tableCache == null || !tableCache.isCachedFor(matcher.getCollator(), indexOffset)) {
+					tableCache = map.readIndexedStringTable(matcher.getCollator());
+					reg.nameIndexCache = tableCache;
+				} else {
+					codedIS.skipRawBytes(codedIS.getBytesUntilLimit());
+				}
+				tableCache.search(req.nameQuery, loffsets, map);
 				codedIS.popLimit(oldLimit);
 				break;
 			case OsmAndAddressNameIndexData.ATOM_FIELD_NUMBER:
@@ -474,6 +501,13 @@ public class BinaryMapAddressReaderAdapter {
 						+ " subtress");
 				for (int j = 0; j < loffsets.size(); j++) {
 					int fp = indexOffset + loffsets.get(j);
+					if (cache != null) {
+						readCachedAddressNameData(req, refs, fp, cache);
+						if (req.isCancelled()) {
+							return;
+						}
+						continue;
+					}
 					codedIS.seek(fp);
 					int len = codedIS.readRawVarint32();
 					int oldLim = codedIS.pushLimit(len);
@@ -501,7 +535,9 @@ public class BinaryMapAddressReaderAdapter {
 				}
 				for (int i = 0; i < typeFilter.length && !req.isCancelled(); i++) {
 					TIntArrayList list = refs[typeFilter[i]];
-					if (typeFilter[i] == STREET_TYPE) {
+					if (cache != null) {
+						publishCachedAddressData(typeFilter[i], list, matcher, req, cache);
+					} else if (typeFilter[i] == STREET_TYPE) {
 						for (int j = 0; j < list.size() && !req.isCancelled(); j += 2) {
 							City obj = null;
 							{
@@ -551,6 +587,88 @@ public class BinaryMapAddressReaderAdapter {
 
 	}
 
+	private void readCachedAddressNameData(SearchRequest<MapObject> req, TIntArrayList[] refs, int fp,
+			AddressNameSearchCache cache) throws IOException {
+		TIntArrayList[] atomRefs = cache.atoms.get(fp);
+		if (atomRefs == null) {
+			// read without request, so cancelled search doesn't leave partially read atom in cache
+			SearchRequest<MapObject> fullReq = new SearchRequest<MapObject>();
+			atomRefs = new TIntArrayList[refs.length];
+			for (int i = 0; i < atomRefs.length; i++) {
+				atomRefs[i] = new TIntArrayList();
+			}
+			codedIS.seek(fp);
+			int len = codedIS.readRawVarint32();
+			int oldLim = codedIS.pushLimit(len);
+			int stag = 0;
+			do {
+				int st = codedIS.readTag();
+				stag = WireFormat.getTagFieldNumber(st);
+				if (stag == AddressNameIndexData.ATOM_FIELD_NUMBER) {
+					int slen = codedIS.readRawVarint32();
+					int soldLim = codedIS.pushLimit(slen);
+					readAddressNameData(fullReq, atomRefs, fp);
+					codedIS.popLimit(soldLim);
+				} else if (stag != 0) {
+					skipUnknownField(st);
+				}
+			} while (stag != 0);
+			codedIS.popLimit(oldLim);
+			cache.atoms.put(fp, atomRefs);
+		}
+		for (int i = 0; i < refs.length; i++) {
+			refs[i].addAll(atomRefs[i]);
+		}
+	}
+	
+	private void publishCachedAddressData(int type, TIntArrayList list, StringMatcher matcher, SearchRequest<MapObject> req,
+			AddressNameSearchCache cache) throws IOException {
+		if (type == STREET_TYPE) {
+			for (int j = 0; j < list.size() && !req.isCancelled(); j += 2) {
+				int streetOffset = list.get(j);
+				Street s = cache.streets.get(streetOffset);
+				if (!cache.streets.containsKey(streetOffset)) {
+					City obj = readCachedCity(list.get(j + 1), cache);
+					if (obj != null) {
+						codedIS.seek(streetOffset);
+						int len = codedIS.readRawVarint32();
+						int old = codedIS.pushLimit(len);
+						LatLon l = obj.getLocation();
+						s = new Street(obj);
+						readStreet(s, null, false, MapUtils.get31TileNumberX(l.getLongitude()) >> 7,
+								MapUtils.get31TileNumberY(l.getLatitude()) >> 7, obj.isPostcode() ? obj.getName() : null);
+						codedIS.popLimit(old);
+					}
+					cache.streets.put(streetOffset, s);
+					cache.size++;
+				}
+				if (s != null && matcher.matches(s.getName())) {
+					req.publish(s);
+				}
+			}
+		} else {
+			list.sort();
+			for (int j = 0; j < list.size() && !req.isCancelled(); j++) {
+				City obj = readCachedCity(list.get(j), cache);
+				if (obj != null && matcher.matches(obj.getName())) {
+					req.publish(obj);
+				}
+			}
+		}
+	}
+	
+	private City readCachedCity(int offset, AddressNameSearchCache cache) throws IOException {
+		if (!cache.cities.containsKey(offset)) {
+			codedIS.seek(offset);
+			int len = codedIS.readRawVarint32();
+			int old = codedIS.pushLimit(len);
+			cache.cities.put(offset, readCityHeader(null, offset, false));
+			codedIS.popLimit(old);
+			cache.size++;
+		}
+		return cache.cities.get(offset);
+	}
+	
 	private void readAddressNameData(SearchRequest<MapObject> req, TIntArrayList[] refs, int fp) throws IOException {
 		TIntArrayList toAdd = null;
 		while(true){
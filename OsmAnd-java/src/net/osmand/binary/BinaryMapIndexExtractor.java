@@ -0,0 +1,213 @@
+package net.osmand.binary;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.osmand.PlatformUtil;
+import net.osmand.ResultMatcher;
+import net.osmand.binary.BinaryMapAddressReaderAdapter.AddressRegion;
+import net.osmand.binary.BinaryMapIndexReader.MapIndex;
+import net.osmand.binary.BinaryMapIndexReader.MapRoot;
+import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
+import net.osmand.binary.BinaryMapIndexWriter.MapLevel;
+import net.osmand.binary.BinaryMapPoiReaderAdapter.PoiRegion;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteSubregion;
+import net.osmand.data.Amenity;
+import net.osmand.data.City;
+import net.osmand.data.LatLon;
+import net.osmand.data.Street;
+import net.osmand.util.MapUtils;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Extracts data of the bbox from obf files to a new obf file written by {@link BinaryMapIndexWriter}.
+ * Sections are processed one by one in one pass through the source files (map by zoom levels), so only data
+ * of the bbox of one section is kept in memory. Every source section is written as a section with the same name.
+ *
+ * Objects intersecting the bbox are written completely (they are not cut), cities are kept if they are inside the bbox
+ * or have streets inside it, only streets inside the bbox are written.
+ */
+public class BinaryMapIndexExtractor {
+
+	private static final Log log = PlatformUtil.getLog(BinaryMapIndexExtractor.class);
+
+	private final int left;
+	private final int right;
+	private final int top;
+	private final int bottom;
+
+	/**
+	 * @param left, right, top, bottom bbox in 31 tile numbers
+	 */
+	public BinaryMapIndexExtractor(int left, int right, int top, int bottom) {
+		this.left = left;
+		this.right = right;
+		this.top = top;
+		this.bottom = bottom;
+	}
+
+	public void extract(List<File> files, File output) throws IOException {
+		RandomAccessFile out = new RandomAccessFile(output, "rw");
+		BinaryMapIndexWriter writer = new BinaryMapIndexWriter(out);
+		boolean finished = false;
+		try {
+			for (File f : files) {
+				BinaryMapIndexReader reader = new BinaryMapIndexReader(new RandomAccessFile(f, "r"));
+				try {
+					extract(reader, writer);
+				} finally {
+					reader.close();
+				}
+			}
+			writer.close();
+			finished = true;
+		} finally {
+			if (!finished) {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Writes sections of the reader cut by the bbox
+	 */
+	public void extract(BinaryMapIndexReader reader, BinaryMapIndexWriter writer) throws IOException {
+		for (MapIndex mapIndex : reader.getMapIndexes()) {
+			extractMapIndex(reader, mapIndex, writer);
+		}
+		for (RouteRegion region : reader.getRoutingIndexes()) {
+			extractRouteIndex(reader, region, writer);
+		}
+		for (PoiRegion region : reader.getPoiIndexes()) {
+			List<Amenity> amenities = reader.searchPoi(region,
+					BinaryMapIndexReader.buildSearchPoiRequest(left, right, top, bottom, -1, null, null));
+			log.info("Poi " + region.getName() + " : " + amenities.size() + " objects");
+			writer.writePoiIndex(region.getName(), amenities);
+		}
+		for (AddressRegion region : reader.getAddressIndexes()) {
+			extractAddressIndex(reader, region, writer);
+		}
+	}
+
+	private void extractMapIndex(BinaryMapIndexReader reader, MapIndex mapIndex, BinaryMapIndexWriter writer)
+			throws IOException {
+		List<MapLevel> levels = new ArrayList<MapLevel>();
+		for (MapRoot root : mapIndex.getRoots()) {
+			// levels are found by zoom, so the level is searched by its min zoom
+			SearchRequest<BinaryMapDataObject> req = BinaryMapIndexReader.buildSearchRequest(left, right, top, bottom,
+					root.getMinZoom(), null);
+			List<BinaryMapDataObject> objects = new ArrayList<BinaryMapDataObject>(reader.searchMapIndex(req, mapIndex));
+			log.info("Map " + mapIndex.getName() + " " + root.getMinZoom() + "-" + root.getMaxZoom() + " : "
+					+ objects.size() + " objects");
+			levels.add(new MapLevel(root.getMinZoom(), root.getMaxZoom(), objects));
+		}
+		writer.writeMapIndex(mapIndex.getName(), levels);
+	}
+
+	private void extractRouteIndex(BinaryMapIndexReader reader, RouteRegion region, BinaryMapIndexWriter writer)
+			throws IOException {
+		List<RouteDataObject> objects = loadRouteObjects(reader, region.getSubregions());
+		List<RouteDataObject> baseObjects = loadRouteObjects(reader, region.getBaseSubregions());
+		log.info("Routing " + region.getName() + " : " + objects.size() + " objects, " + baseObjects.size()
+				+ " base objects");
+		writer.writeRouteIndex(region.getName(), objects, baseObjects);
+	}
+
+	private List<RouteDataObject> loadRouteObjects(BinaryMapIndexReader reader, List<RouteSubregion> subregions)
+			throws IOException {
+		final List<RouteDataObject> objects = new ArrayList<RouteDataObject>();
+		SearchRequest<RouteDataObject> req = BinaryMapIndexReader.buildSearchRouteRequest(left, right, top, bottom, null);
+		List<RouteSubregion> toLoad = reader.searchRouteIndexTree(req, subregions);
+		// blocks contain objects outside of the bbox
+		reader.loadRouteIndexData(toLoad, new ResultMatcher<RouteDataObject>() {
+			@Override
+			public boolean publish(RouteDataObject o) {
+				if (intersects(o)) {
+					objects.add(o);
+					return true;
+				}
+				return false;
+			}
+
+			@Override
+			public boolean isCancelled() {
+				return false;
+			}
+		});
+		return objects;
+	}
+
+	private boolean intersects(RouteDataObject o) {
+		int minX = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE;
+		int minY = Integer.MAX_VALUE;
+		int maxY = Integer.MIN_VALUE;
+		for (int i = 0; i < o.getPointsLength(); i++) {
+			minX = Math.min(minX, o.getPoint31XTile(i));
+			maxX = Math.max(maxX, o.getPoint31XTile(i));
+			minY = Math.min(minY, o.getPoint31YTile(i));
+			maxY = Math.max(maxY, o.getPoint31YTile(i));
+		}
+		return o.getPointsLength() > 0 && minX <= right && maxX >= left && minY <= bottom && maxY >= top;
+	}
+
+	private boolean contains(LatLon l) {
+		if (l == null) {
+			return false;
+		}
+		int x = MapUtils.get31TileNumberX(l.getLongitude());
+		int y = MapUtils.get31TileNumberY(l.getLatitude());
+		return x >= left && x <= right && y >= top && y <= bottom;
+	}
+
+	private void extractAddressIndex(BinaryMapIndexReader reader, AddressRegion region, BinaryMapIndexWriter writer)
+			throws IOException {
+		List<City> cities = new ArrayList<City>();
+		int[] types = new int[] { BinaryMapAddressReaderAdapter.CITY_TOWN_TYPE,
+				BinaryMapAddressReaderAdapter.POSTCODES_TYPE, BinaryMapAddressReaderAdapter.VILLAGES_TYPE };
+		for (int type : types) {
+			for (City c : reader.getCities(region, null, type)) {
+				reader.preloadStreets(c, null);
+				List<Street> outside = new ArrayList<Street>();
+				for (Street s : c.getStreets()) {
+					if (contains(s.getLocation())) {
+						reader.preloadBuildings(s, null);
+					} else {
+						outside.add(s);
+					}
+				}
+				for (Street s : outside) {
+					c.unregisterStreet(s.getName());
+				}
+				if (contains(c.getLocation()) || !c.isEmptyWithStreets()) {
+					cities.add(c);
+				}
+			}
+		}
+		log.info("Address " + region.getName() + " : " + cities.size() + " cities");
+		writer.writeAddressIndex(region.getName(), region.getEnName(), cities);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3 || !args[0].startsWith("-bbox=")) {
+			System.out.println("Usage : extractor -bbox=LeftLon,TopLat,RightLon,BottomLat output.obf input.obf [input2.obf ...]");
+			return;
+		}
+		String[] values = args[0].substring("-bbox=".length()).split(",");
+		BinaryMapIndexExtractor extractor = new BinaryMapIndexExtractor(
+				MapUtils.get31TileNumberX(Double.parseDouble(values[0])),
+				MapUtils.get31TileNumberX(Double.parseDouble(values[2])),
+				MapUtils.get31TileNumberY(Double.parseDouble(values[1])),
+				MapUtils.get31TileNumberY(Double.parseDouble(values[3])));
+		List<File> files = new ArrayList<File>();
+		for (int i = 2; i < args.length; i++) {
+			files.add(new File(args[i]));
+		}
+		extractor.extract(files, new File(args[1]));
+	}
+}
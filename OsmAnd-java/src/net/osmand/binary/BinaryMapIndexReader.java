@@ -43,6 +43,8 @@ import net.osmand.binary.BinaryMapPoiReaderAdapter.PoiRegion;
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteSubregion;
 import net.osmand.binary.BinaryMapTransportReaderAdapter.TransportIndex;
+import net.osmand.binary.NameSearchSession.AddressSearchSession;
+import net.osmand.binary.NameSearchSession.PoiSearchSession;
 import net.osmand.binary.OsmandOdb.MapDataBlock;
 import net.osmand.binary.OsmandOdb.OsmAndMapIndex.MapDataBox;
 import net.osmand.binary.OsmandOdb.OsmAndMapIndex.MapEncodingRule;
@@ -80,6 +82,7 @@ public class BinaryMapIndexReader {
 	public static boolean READ_STATS = false;
 	
 	private final RandomAccessFile raf;
+	private final MappedIndexFile mappedFile;
 	/*private*/ int version;
 	/*private */long dateCreated;
 	// keep them immutable inside
@@ -93,29 +96,51 @@ public class BinaryMapIndexReader {
 	
 	protected CodedInputStream codedIS;
 	
+	/*private */DecodedBlockCache blockCache;
+	/*private */String blockCacheFile;
+	
 	private final BinaryMapTransportReaderAdapter transportAdapter;
 	private final BinaryMapPoiReaderAdapter poiAdapter;
 	private final BinaryMapAddressReaderAdapter addressAdapter;
 	private final BinaryMapRouteReaderAdapter routeAdapter;
 	
+	// not null till indexes of the file are read (reader created from cached metadata)
+	private volatile IndexesLoader indexesLoader;
+	private boolean loadingIndexes;
+	private final Object indexesLock = new Object();
+	
 	private static String BASEMAP_NAME = "basemap";
+	
+	/**
+	 * Reads indexes of the file on the first use of the reader
+	 */
+	interface IndexesLoader {
+		void loadIndexes(BinaryMapIndexReader reader) throws IOException;
+	}
 
 	
 	public BinaryMapIndexReader(final RandomAccessFile raf) throws IOException {
-		this.raf = raf;
-		codedIS = CodedInputStream.newInstance(raf);
-		codedIS.setSizeLimit(Integer.MAX_VALUE); // 2048 MB
-		transportAdapter = new BinaryMapTransportReaderAdapter(this);
-		addressAdapter = new BinaryMapAddressReaderAdapter(this);
-		poiAdapter = new BinaryMapPoiReaderAdapter(this);
-		routeAdapter = new BinaryMapRouteReaderAdapter(this);
-		init();
+		this(raf, true, false);
 	}
 	
 	/*private */BinaryMapIndexReader(final RandomAccessFile raf, boolean init) throws IOException {
+		this(raf, init, false);
+	}
+	
+	/**
+	 * @param useMemoryMapping read file through memory mapped segments ({@link MappedIndexFile}) 
+	 * instead of seeking and reading RandomAccessFile 
+	 */
+	public BinaryMapIndexReader(final RandomAccessFile raf, boolean init, boolean useMemoryMapping) throws IOException {
 		this.raf = raf;
-		codedIS = CodedInputStream.newInstance(raf);
-		codedIS.setSizeLimit(Integer.MAX_VALUE); // 2048 MB
+		if (useMemoryMapping) {
+			mappedFile = new MappedIndexFile(raf);
+			codedIS = mappedFile.newCodedInputStream();
+		} else {
+			mappedFile = null;
+			codedIS = CodedInputStream.newInstance(raf);
+			codedIS.setSizeLimit(Integer.MAX_VALUE); // 2048 MB
+		}
 		transportAdapter = new BinaryMapTransportReaderAdapter(this);
 		addressAdapter = new BinaryMapAddressReaderAdapter(this);
 		poiAdapter = new BinaryMapPoiReaderAdapter(this);
@@ -125,23 +150,96 @@ public class BinaryMapIndexReader {
 		}
 	}
 	
-	public BinaryMapIndexReader(final RandomAccessFile raf, BinaryMapIndexReader referenceToSameFile) throws IOException {
+	public BinaryMapIndexReader(final RandomAccessFile raf, final BinaryMapIndexReader referenceToSameFile) throws IOException {
 		this.raf = raf;
-		codedIS = CodedInputStream.newInstance(raf);
-		codedIS.setSizeLimit(Integer.MAX_VALUE); // 2048 MB
+		if (referenceToSameFile.mappedFile != null) {
+			// mapping is immutable and could be shared
+			mappedFile = referenceToSameFile.mappedFile;
+			codedIS = mappedFile.newCodedInputStream();
+		} else {
+			mappedFile = null;
+			codedIS = CodedInputStream.newInstance(raf);
+			codedIS.setSizeLimit(Integer.MAX_VALUE); // 2048 MB
+		}
 		version = referenceToSameFile.version;
 		dateCreated = referenceToSameFile.dateCreated;
 		transportAdapter = new BinaryMapTransportReaderAdapter(this);
 		addressAdapter = new BinaryMapAddressReaderAdapter(this);
 		poiAdapter = new BinaryMapPoiReaderAdapter(this);
 		routeAdapter = new BinaryMapRouteReaderAdapter(this);
+		basemap = referenceToSameFile.basemap;
+		blockCache = referenceToSameFile.blockCache;
+		blockCacheFile = referenceToSameFile.blockCacheFile;
+		if (referenceToSameFile.indexesLoader != null) {
+			// don't force reading indexes of the reference, they are copied when this reader is used
+			indexesLoader = new IndexesLoader() {
+				@Override
+				public void loadIndexes(BinaryMapIndexReader reader) {
+					referenceToSameFile.checkIndexesLoaded();
+					reader.copyIndexes(referenceToSameFile);
+				}
+			};
+		} else {
+			copyIndexes(referenceToSameFile);
+		}
+	}
+	
+	private void copyIndexes(BinaryMapIndexReader referenceToSameFile) {
 		mapIndexes = new ArrayList<BinaryMapIndexReader.MapIndex>(referenceToSameFile.mapIndexes);
 		poiIndexes = new ArrayList<PoiRegion>(referenceToSameFile.poiIndexes);
 		addressIndexes = new ArrayList<AddressRegion>(referenceToSameFile.addressIndexes);
 		transportIndexes = new ArrayList<TransportIndex>(referenceToSameFile.transportIndexes);
 		routingIndexes = new ArrayList<RouteRegion>(referenceToSameFile.routingIndexes);
 		indexes = new ArrayList<BinaryIndexPart>(referenceToSameFile.indexes);
-		basemap = referenceToSameFile.basemap;
+	}
+	
+	/**
+	 * Version, date and basemap flag should be set before, other methods read indexes on the first call
+	 */
+	void setIndexesLoader(IndexesLoader indexesLoader) {
+		this.indexesLoader = indexesLoader;
+	}
+	
+	void checkIndexesLoaded() {
+		if (indexesLoader != null) {
+			loadIndexes();
+		}
+	}
+	
+	private void loadIndexes() {
+		synchronized (indexesLock) {
+			IndexesLoader loader = indexesLoader;
+			// loader itself fills indexes through the methods checking them
+			if (loader == null || loadingIndexes) {
+				return;
+			}
+			loadingIndexes = true;
+			try {
+				loader.loadIndexes(this);
+			} catch (IOException e) {
+				log.warn("Cached indexes could not be read, file is read again", e);
+				readIndexesFromFile();
+			} finally {
+				loadingIndexes = false;
+				indexesLoader = null;
+			}
+		}
+	}
+	
+	private void readIndexesFromFile() {
+		mapIndexes.clear();
+		poiIndexes.clear();
+		addressIndexes.clear();
+		transportIndexes.clear();
+		routingIndexes.clear();
+		indexes.clear();
+		basemap = false;
+		try {
+			codedIS.seek(0);
+			init();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
 	}
 	
 	
@@ -261,14 +359,17 @@ public class BinaryMapIndexReader {
 	}
 	
 	public List<BinaryIndexPart> getIndexes() {
+		checkIndexesLoaded();
 		return indexes;
 	}
 	
 	public List<MapIndex> getMapIndexes() {
+		checkIndexesLoaded();
 		return mapIndexes;
 	}
 	
 	public List<RouteRegion> getRoutingIndexes() {
+		checkIndexesLoaded();
 		return routingIndexes;
 	}
 	
@@ -277,18 +378,22 @@ public class BinaryMapIndexReader {
 	}
 	
 	public boolean containsMapData(){
+		checkIndexesLoaded();
 		return mapIndexes.size() > 0;
 	}
 	
 	public boolean containsPoiData(){
+		checkIndexesLoaded();
 		return poiIndexes.size() > 0;
 	}
 	
 	public boolean containsRouteData(){
+		checkIndexesLoaded();
 		return routingIndexes.size() > 0;
 	}
 	
 	public boolean containsPoiData(double latitude, double longitude) {
+		checkIndexesLoaded();
 		for (PoiRegion index : poiIndexes) {
 			if (index.rightLongitude >= longitude && index.leftLongitude <= longitude &&
 					index.topLatitude >= latitude && index.bottomLatitude <= latitude) {
@@ -300,6 +405,7 @@ public class BinaryMapIndexReader {
 	
 	
 	public boolean containsPoiData(double topLatitude, double leftLongitude, double bottomLatitude, double rightLongitude) {
+		checkIndexesLoaded();
 		for (PoiRegion index : poiIndexes) {
 			if (index.rightLongitude >= leftLongitude && index.leftLongitude <= rightLongitude && 
 					index.topLatitude >= bottomLatitude && index.bottomLatitude <= topLatitude) {
@@ -310,6 +416,7 @@ public class BinaryMapIndexReader {
 	}
 	
 	public boolean containsMapData(int tile31x, int tile31y, int zoom){
+		checkIndexesLoaded();
 		for(MapIndex mapIndex :  mapIndexes){
 			for(MapRoot root : mapIndex.getRoots()){
 				if (root.minZoom <= zoom && root.maxZoom >= zoom) {
@@ -323,6 +430,7 @@ public class BinaryMapIndexReader {
 	}
 	
 	public boolean containsMapData(int left31x, int top31y, int right31x, int bottom31y, int zoom){
+		checkIndexesLoaded();
 		for(MapIndex mapIndex :  mapIndexes){
 			for(MapRoot root : mapIndex.getRoots()){
 				if (root.minZoom <= zoom && root.maxZoom >= zoom) {
@@ -336,10 +444,12 @@ public class BinaryMapIndexReader {
 	}
 	
 	public boolean containsAddressData(){
+		checkIndexesLoaded();
 		return addressIndexes.size() > 0;
 	}
 	
 	public boolean hasTransportData(){
+		checkIndexesLoaded();
 		return transportIndexes.size() > 0;
 	}
 	
@@ -349,6 +459,27 @@ public class BinaryMapIndexReader {
 		return raf;
 	}
 	
+	public boolean isMemoryMapped() {
+		return mappedFile != null;
+	}
+	
+	/**
+	 * Decoded map, route and poi blocks will be kept in the cache (possibly shared with other readers).
+	 * File is used to identify blocks, so the same file should be passed for all readers of it.
+	 */
+	public void setBlockCache(DecodedBlockCache blockCache, File file) {
+		this.blockCache = blockCache;
+		this.blockCacheFile = file == null ? null : file.getAbsolutePath() + ":" + file.lastModified();
+	}
+	
+	public DecodedBlockCache getBlockCache() {
+		return blockCache;
+	}
+	
+	/*private */boolean isBlockCacheEnabled() {
+		return blockCache != null && blockCacheFile != null && !READ_STATS;
+	}
+	
 	public int readByte() throws IOException{
 		byte b = codedIS.readRawByte();
 		if(b < 0){
@@ -400,19 +531,22 @@ public class BinaryMapIndexReader {
 			}
 		}
 		Iterator<Entry<TransportIndex, TIntArrayList> > it = groupPoints.entrySet().iterator();
-		if(it.hasNext()){
+		while(it.hasNext()){
 			Entry<TransportIndex, TIntArrayList> e = it.next();
 			TransportIndex ind = e.getKey();
 			TIntArrayList pointers = e.getValue();
 			pointers.sort();
 			TIntObjectHashMap<String> stringTable = new TIntObjectHashMap<String>();
+			List<TransportRoute> indexRoutes = new ArrayList<TransportRoute>();
 			for (int i = 0; i < pointers.size(); i++) {
 				int filePointer = pointers.get(i);
 				TransportRoute transportRoute = transportAdapter.getTransportRoute(filePointer, stringTable, false);
 				result.put(filePointer, transportRoute);
+				indexRoutes.add(transportRoute);
 			}
+			// string table is separate for every index
 			transportAdapter.initializeStringTable(ind, stringTable);
-			for(TransportRoute r : result.values(new TransportRoute[result.size()])){
+			for(TransportRoute r : indexRoutes){
 				transportAdapter.initializeNames(false, r, stringTable);
 			}
 		}
@@ -447,10 +581,12 @@ public class BinaryMapIndexReader {
 	}
 	
 	public List<TransportIndex> getTransportIndexes() {
+		checkIndexesLoaded();
 		return transportIndexes;
 	}
 	
 	private TransportIndex getTransportIndex(int filePointer) {
+		checkIndexesLoaded();
 		TransportIndex ind = null;
 		for(TransportIndex i : transportIndexes){
 			if(i.filePointer <= filePointer && (filePointer - i.filePointer) < i.length){
@@ -462,6 +598,7 @@ public class BinaryMapIndexReader {
 	}
 	
 	public boolean containTransportData(double latitude, double longitude) {
+		checkIndexesLoaded();
 		double x = MapUtils.getTileNumberX(TRANSPORT_STOP_ZOOM, longitude);
 		double y = MapUtils.getTileNumberY(TRANSPORT_STOP_ZOOM, latitude);
 		for (TransportIndex index : transportIndexes) {
@@ -473,6 +610,7 @@ public class BinaryMapIndexReader {
 	}
 	
 	public boolean containTransportData(double topLatitude, double leftLongitude, double bottomLatitude, double rightLongitude){
+		checkIndexesLoaded();
 		double leftX = MapUtils.getTileNumberX(TRANSPORT_STOP_ZOOM, leftLongitude);
 		double topY = MapUtils.getTileNumberY(TRANSPORT_STOP_ZOOM, topLatitude);
 		double rightX = MapUtils.getTileNumberX(TRANSPORT_STOP_ZOOM, rightLongitude);
@@ -486,6 +624,7 @@ public class BinaryMapIndexReader {
 	}
 	
 	public List<TransportStop> searchTransportIndex(SearchRequest<TransportStop> req) throws IOException {
+		checkIndexesLoaded();
 		for (TransportIndex index : transportIndexes) {
 			if (index.stopsFileLength == 0 || index.right < req.left || index.left > req.right || index.top > req.bottom
 					|| index.bottom < req.top) {
@@ -515,6 +654,7 @@ public class BinaryMapIndexReader {
 	 * Address public methods
 	 */
 	public List<String> getRegionNames(){
+		checkIndexesLoaded();
 		List<String> names = new ArrayList<String>();
 		for(AddressRegion r : addressIndexes){
 			names.add(r.name);
@@ -531,6 +671,7 @@ public class BinaryMapIndexReader {
 	}
 	
 	private AddressRegion getRegionByName(String name){
+		checkIndexesLoaded();
 		for(AddressRegion r : addressIndexes){
 			if(r.name.equals(name)){
 				return r;
@@ -587,6 +728,7 @@ public class BinaryMapIndexReader {
 	}
 	
 	private void checkAddressIndex(int offset){
+		checkIndexesLoaded();
 		boolean ok = false;
 		for(AddressRegion r : addressIndexes){
 			if(offset >= r.filePointer  && offset <= (r.length + r.filePointer)){
@@ -783,7 +925,32 @@ public class BinaryMapIndexReader {
 	
 	
 	
+	// lazy initialization modifies metadata shared with other readers of the same file (see SharedBinaryMapIndexReader)
+	private void initMapEncodingRules(MapIndex mapIndex) throws IOException {
+		synchronized (mapIndex) {
+			if (mapIndex.encodingRules.isEmpty()) {
+				codedIS.seek(mapIndex.filePointer);
+				int oldLimit = codedIS.pushLimit(mapIndex.length);
+				readMapIndex(mapIndex, true);
+				codedIS.popLimit(oldLimit);
+			}
+		}
+	}
+	
+	private void initMapLevelTrees(MapRoot level) throws IOException {
+		synchronized (level) {
+			if (level.trees == null) {
+				level.trees = new ArrayList<MapTree>();
+				codedIS.seek(level.filePointer);
+				int oldLimit = codedIS.pushLimit(level.length);
+				readMapLevel(level);
+				codedIS.popLimit(oldLimit);
+			}
+		}
+	}
+	
 	public List<BinaryMapDataObject> searchMapIndex(SearchRequest<BinaryMapDataObject> req) throws IOException {
+		checkIndexesLoaded();
 		req.numberOfVisitedObjects = 0;
 		req.numberOfAcceptedObjects = 0;
 		req.numberOfAcceptedSubtrees = 0;
@@ -791,12 +958,7 @@ public class BinaryMapIndexReader {
 		List<MapTree> foundSubtrees = new ArrayList<MapTree>();
 		for (MapIndex mapIndex : mapIndexes) {
 			// lazy initializing rules
-			if(mapIndex.encodingRules.isEmpty()) {
-				codedIS.seek(mapIndex.filePointer);
-				int oldLimit = codedIS.pushLimit(mapIndex.length);
-				readMapIndex(mapIndex, true);
-				codedIS.popLimit(oldLimit);
-			}
+			initMapEncodingRules(mapIndex);
 			for (MapRoot index : mapIndex.getRoots()) {
 				if (index.minZoom <= req.zoom && index.maxZoom >= req.zoom) {
 					if (index.right < req.left || index.left > req.right || index.top > req.bottom || index.bottom < req.top) {
@@ -804,13 +966,7 @@ public class BinaryMapIndexReader {
 					}
 					
 					// lazy initializing trees
-					if(index.trees == null){
-						index.trees = new ArrayList<MapTree>();
-						codedIS.seek(index.filePointer);
-						int oldLimit = codedIS.pushLimit(index.length);
-						readMapLevel(index);
-						codedIS.popLimit(oldLimit);
-					}
+					initMapLevelTrees(index);
 					
 					for (MapTree tree : index.trees) {
 						if (tree.right < req.left || tree.left > req.right || tree.top > req.bottom || tree.bottom < req.top) {
@@ -830,11 +986,7 @@ public class BinaryMapIndexReader {
 					});
 					for(MapTree tree : foundSubtrees) {
 						if(!req.isCancelled()){
-							codedIS.seek(tree.mapDataBlock);
-							int length = codedIS.readRawVarint32();
-							int oldLimit = codedIS.pushLimit(length);
-							readMapDataBlocks(req, tree, mapIndex);
-							codedIS.popLimit(oldLimit);
+							readMapDataBlock(req, tree, mapIndex);
 						}
 					}
 					foundSubtrees.clear();
@@ -850,6 +1002,7 @@ public class BinaryMapIndexReader {
 	}
 	
 	public List<BinaryMapDataObject> searchMapIndex(SearchRequest<BinaryMapDataObject> req, MapIndex mapIndex) throws IOException {
+		checkIndexesLoaded();
 		req.numberOfVisitedObjects = 0;
 		req.numberOfAcceptedObjects = 0;
 		req.numberOfAcceptedSubtrees = 0;
@@ -857,12 +1010,7 @@ public class BinaryMapIndexReader {
 		List<MapTree> foundSubtrees = new ArrayList<MapTree>();
 		
 		// lazy initializing rules
-		if(mapIndex.encodingRules.isEmpty()) {
-			codedIS.seek(mapIndex.filePointer);
-			int oldLimit = codedIS.pushLimit(mapIndex.length);
-			readMapIndex(mapIndex, true);
-			codedIS.popLimit(oldLimit);
-		}
+		initMapEncodingRules(mapIndex);
 		
 		for (MapRoot level : mapIndex.getRoots()) {
 			if ((level.minZoom <= req.zoom && level.maxZoom >= req.zoom) || req.zoom == -1) {
@@ -871,13 +1019,7 @@ public class BinaryMapIndexReader {
 				}
 				
 				// lazy initializing trees
-				if(level.trees == null){
-					level.trees = new ArrayList<MapTree>();
-					codedIS.seek(level.filePointer);
-					int oldLimit = codedIS.pushLimit(level.length);
-					readMapLevel(level);
-					codedIS.popLimit(oldLimit);
-				}
+				initMapLevelTrees(level);
 				
 				for (MapTree tree : level.trees) {
 					if (tree.right < req.left || tree.left > req.right || tree.top > req.bottom || tree.bottom < req.top) {
@@ -897,11 +1039,7 @@ public class BinaryMapIndexReader {
 				});
 				for(MapTree tree : foundSubtrees) {
 					if(!req.isCancelled()){
-						codedIS.seek(tree.mapDataBlock);
-						int length = codedIS.readRawVarint32();
-						int oldLimit = codedIS.pushLimit(length);
-						readMapDataBlocks(req, tree, mapIndex);
-						codedIS.popLimit(oldLimit);
+						readMapDataBlock(req, tree, mapIndex);
 					}
 				}
 				foundSubtrees.clear();
@@ -917,6 +1055,82 @@ public class BinaryMapIndexReader {
 		return req.getSearchResults();
 	}
 	
+	@SuppressWarnings("unchecked")
+	private void readMapDataBlock(SearchRequest<BinaryMapDataObject> req, MapTree tree, MapIndex mapIndex) throws IOException {
+		if (!isBlockCacheEnabled()) {
+			codedIS.seek(tree.mapDataBlock);
+			int length = codedIS.readRawVarint32();
+			int oldLimit = codedIS.pushLimit(length);
+			readMapDataBlocks(req, tree, mapIndex);
+			codedIS.popLimit(oldLimit);
+			return;
+		}
+		List<BinaryMapDataObject> block = (List<BinaryMapDataObject>) blockCache.get(blockCacheFile, tree.mapDataBlock);
+		if (block == null) {
+			// decode whole block without filters, so it could be reused by any request
+			SearchRequest<BinaryMapDataObject> fullReq = new SearchRequest<BinaryMapDataObject>();
+			fullReq.left = 0;
+			fullReq.right = Integer.MAX_VALUE;
+			fullReq.top = 0;
+			fullReq.bottom = Integer.MAX_VALUE;
+			codedIS.seek(tree.mapDataBlock);
+			int length = codedIS.readRawVarint32();
+			int oldLimit = codedIS.pushLimit(length);
+			readMapDataBlocks(fullReq, tree, mapIndex);
+			codedIS.popLimit(oldLimit);
+			block = fullReq.getSearchResults();
+			blockCache.put(blockCacheFile, tree.mapDataBlock, block, getEstimatedSize(block));
+		}
+		for (BinaryMapDataObject obj : block) {
+			if (req.isCancelled()) {
+				return;
+			}
+			req.numberOfVisitedObjects++;
+			int minX = Integer.MAX_VALUE;
+			int maxX = 0;
+			int minY = Integer.MAX_VALUE;
+			int maxY = 0;
+			for (int i = 0; i < obj.coordinates.length; i += 2) {
+				minX = Math.min(minX, obj.coordinates[i]);
+				maxX = Math.max(maxX, obj.coordinates[i]);
+				minY = Math.min(minY, obj.coordinates[i + 1]);
+				maxY = Math.max(maxY, obj.coordinates[i + 1]);
+			}
+			if (maxX < req.left || minX > req.right || minY > req.bottom || maxY < req.top) {
+				continue;
+			}
+			if (req.searchFilter != null) {
+				req.cacheTypes.clear();
+				req.cacheTypes.add(obj.types);
+				if (!req.searchFilter.accept(req.cacheTypes, mapIndex)) {
+					continue;
+				}
+			}
+			req.numberOfAcceptedObjects++;
+			req.publish(obj);
+		}
+	}
+	
+	private static int getEstimatedSize(List<BinaryMapDataObject> block) {
+		int sz = 16 + 4 * block.size();
+		for (BinaryMapDataObject o : block) {
+			sz += 64;
+			sz += 16 + 4 * o.coordinates.length;
+			sz += 16 + 4 * o.types.length;
+			sz += 16 + 4 * o.additionalTypes.length;
+			for (int[] inner : o.polygonInnerCoordinates) {
+				sz += 16 + 4 * inner.length;
+			}
+			if (o.objectNames != null) {
+				sz += 48;
+				for (String name : o.objectNames.valueCollection()) {
+					sz += 48 + 2 * name.length();
+				}
+			}
+		}
+		return sz;
+	}
+	
 	protected void readMapDataBlocks(SearchRequest<BinaryMapDataObject> req, MapTree tree, MapIndex root) throws IOException {
 		List<BinaryMapDataObject> tempResults = null;
 		long baseId  = 0;
@@ -1249,6 +1463,11 @@ public class BinaryMapIndexReader {
 	}
 	
 	public List<MapObject> searchAddressDataByName(SearchRequest<MapObject> req) throws IOException {
+		return searchAddressDataByName(req, null);
+	}
+	
+	List<MapObject> searchAddressDataByName(SearchRequest<MapObject> req, AddressSearchSession session) throws IOException {
+		checkIndexesLoaded();
 		if (req.nameQuery == null || req.nameQuery.length() == 0) {
 			throw new IllegalArgumentException();
 		}
@@ -1257,18 +1476,30 @@ public class BinaryMapIndexReader {
 				codedIS.seek(reg.indexNameOffset);
 				int len = readInt();
 				int old = codedIS.pushLimit(len);
-				addressAdapter.searchAddressDataByName(reg, req, null);
+				addressAdapter.searchAddressDataByName(reg, req, null, session == null ? null : session.getCache(reg));
 				codedIS.popLimit(old);
 			}
 		}
 		return req.getSearchResults();
 	}
 	
+	/**
+	 * Session for search by name while user types the query, see {@link NameSearchSession}
+	 */
+	public NameSearchSession<MapObject> createAddressSearchSession() {
+		return new AddressSearchSession(this);
+	}
+	
 	public void initCategories(PoiRegion poiIndex) throws IOException {
 		poiAdapter.initCategories(poiIndex);
 	}
 	
 	public List<Amenity> searchPoiByName(SearchRequest<Amenity> req) throws IOException {
+		return searchPoiByName(req, null);
+	}
+	
+	List<Amenity> searchPoiByName(SearchRequest<Amenity> req, PoiSearchSession session) throws IOException {
+		checkIndexesLoaded();
 		if (req.nameQuery == null || req.nameQuery.length() == 0) {
 			throw new IllegalArgumentException();
 		}
@@ -1276,13 +1507,22 @@ public class BinaryMapIndexReader {
 			poiAdapter.initCategories(poiIndex);
 			codedIS.seek(poiIndex.filePointer);
 			int old = codedIS.pushLimit(poiIndex.length);
-			poiAdapter.searchPoiByName(poiIndex, req);
+			poiAdapter.searchPoiByName(poiIndex, req, session == null ? null : session.getCache(poiIndex));
 			codedIS.popLimit(old);
 		}
 		return req.getSearchResults();
 	}
 	
+	/**
+	 * Session for search of poi by name while user types the query, see {@link NameSearchSession}.
+	 * Poi are searched in the bbox and sorted by distance from x, y (31 zoom).
+	 */
+	public NameSearchSession<Amenity> createPoiSearchSession(int x, int y, int left, int right, int top, int bottom) {
+		return new PoiSearchSession(this, x, y, left, right, top, bottom);
+	}
+	
 	public Map<PoiCategory, List<String> > searchPoiCategoriesByName(String query, Map<PoiCategory, List<String> > map) throws IOException {
+		checkIndexesLoaded();
 		if (query == null || query.length() == 0) {
 			throw new IllegalArgumentException();
 		}
@@ -1315,6 +1555,7 @@ public class BinaryMapIndexReader {
 	}
 	
 	public List<Amenity> searchPoi(SearchRequest<Amenity> req) throws IOException {
+		checkIndexesLoaded();
 		req.numberOfVisitedObjects = 0;
 		req.numberOfAcceptedObjects = 0;
 		req.numberOfAcceptedSubtrees = 0;
@@ -1332,7 +1573,20 @@ public class BinaryMapIndexReader {
 		return req.getSearchResults();
 	}
 	
+	/**
+	 * Offers nearest poi of the region to the heap, see {@link ParallelPoiSearch}
+	 */
+	void searchNearestPoi(PoiRegion poiIndex, int x31, int y31, SearchRequest<Amenity> req,
+			ParallelPoiSearch.NearestPoiHeap heap) throws IOException {
+		poiAdapter.initCategories(poiIndex);
+		codedIS.seek(poiIndex.filePointer);
+		int old = codedIS.pushLimit(poiIndex.length);
+		poiAdapter.searchNearestPoi(x31, y31, req, poiIndex, heap);
+		codedIS.popLimit(old);
+	}
+	
 	public List<Amenity> searchPoi(PoiRegion poiIndex, SearchRequest<Amenity> req) throws IOException {
+		checkIndexesLoaded();
 		req.numberOfVisitedObjects = 0;
 		req.numberOfAcceptedObjects = 0;
 		req.numberOfAcceptedSubtrees = 0;
@@ -1370,10 +1624,12 @@ public class BinaryMapIndexReader {
 	
 
 	protected List<AddressRegion> getAddressIndexes() {
+		checkIndexesLoaded();
 		return addressIndexes;
 	}
 	
 	protected List<PoiRegion> getPoiIndexes() {
+		checkIndexesLoaded();
 		return poiIndexes;
 	}
 
@@ -1520,6 +1776,7 @@ public class BinaryMapIndexReader {
 	}
 	
 	public void close() throws IOException{
+		indexesLoader = null;
 		if(codedIS != null){
 			raf.close();
 			codedIS = null;
@@ -2147,58 +2404,60 @@ public class BinaryMapIndexReader {
 		
 	}
 
-	int readIndexedStringTable(Collator instance, String query, String prefix, TIntArrayList list, int charMatches) throws IOException {
+	/**
+	 * Reads IndexedStringTable (limit should be pushed) into cache which is used instead of matching keys while reading,
+	 * subtables are not read (only their positions), they are read by cache when search needs them
+	 */
+	IndexedStringTableCache readIndexedStringTable(Collator instance) throws IOException {
+		IndexedStringTableCache cache = new IndexedStringTableCache(instance, codedIS.getTotalBytesRead());
+		cache.setRoot(readIndexedStringTable(cache, "", null));
+		return cache;
+	}
+
+	/**
+	 * Reads subtable of IndexedStringTable at the position of the file, current position is kept
+	 */
+	IndexedStringTableCache.Table readIndexedStringSubtable(IndexedStringTableCache cache, int offset, int length,
+			String prefix, int[] prefixLengths) throws IOException {
+		int pos = codedIS.getTotalBytesRead();
+		codedIS.seek(offset);
+		int oldLim = codedIS.pushLimit(length);
+		IndexedStringTableCache.Table table = readIndexedStringTable(cache, prefix, prefixLengths);
+		codedIS.popLimit(oldLim);
+		codedIS.seek(pos);
+		return table;
+	}
+
+	private IndexedStringTableCache.Table readIndexedStringTable(IndexedStringTableCache cache, String prefix,
+			int[] prefixLengths) throws IOException {
+		IndexedStringTableCache.Table table = cache.newTable(prefixLengths);
 		String key = null;
 		while(true){
 			int t = codedIS.readTag();
 			int tag = WireFormat.getTagFieldNumber(t);
 			switch (tag) {
 			case 0:
-				return charMatches;
+				table.finish();
+				return table;
 			case OsmandOdb.IndexedStringTable.KEY_FIELD_NUMBER :
 				key = codedIS.readString();
 				if(prefix.length() > 0){
 					key = prefix + key;
 				}
-				// check query is part of key (the best matching)
-				if(CollatorStringMatcher.cmatches(instance, key, query, StringMatcherMode.CHECK_ONLY_STARTS_WITH)){
-					if(query.length() >= charMatches){
-						if(query.length() > charMatches){
-							charMatches = query.length();
-							list.clear();
-						}
-					} else {
-						key = null;
-					}
-					// check key is part of query
-				} else if (CollatorStringMatcher.cmatches(instance, query, key, StringMatcherMode.CHECK_ONLY_STARTS_WITH)) {
-					if (key.length() >= charMatches) {
-						if (key.length() > charMatches) {
-							charMatches = key.length();
-							list.clear();
-						}
-					} else {
-						key = null;
-					}
-				} else {
-					key = null;
-				}
+				table.addKey(key);
 				break;
 			case OsmandOdb.IndexedStringTable.VAL_FIELD_NUMBER :
 				int val = readInt();
 				if (key != null) {
-					list.add(val);
+					table.addValue(val);
 				}
 				break;
 			case OsmandOdb.IndexedStringTable.SUBTABLES_FIELD_NUMBER :
 				int len = codedIS.readRawVarint32();
-				int oldLim = codedIS.pushLimit(len);
 				if (key != null) {
-					charMatches = readIndexedStringTable(instance, query, key, list, charMatches);
-				} else {
-					codedIS.skipRawBytes(codedIS.getBytesUntilLimit());
+					table.addSubtable(codedIS.getTotalBytesRead(), len);
 				}
-				codedIS.popLimit(oldLim);
+				codedIS.skipRawBytes(len);
 				break;
 			default:
 				skipUnknownField(t);
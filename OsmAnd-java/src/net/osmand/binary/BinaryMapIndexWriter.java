@@ -0,0 +1,1333 @@
+package net.osmand.binary;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TIntHashSet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import net.osmand.IndexConstants;
+import net.osmand.binary.BinaryMapIndexReader.MapIndex;
+import net.osmand.binary.BinaryMapIndexReader.TagValuePair;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteTypeRule;
+import net.osmand.data.Amenity;
+import net.osmand.data.Building;
+import net.osmand.data.City;
+import net.osmand.data.City.CityType;
+import net.osmand.data.LatLon;
+import net.osmand.data.MapObject;
+import net.osmand.data.Street;
+import net.osmand.util.Algorithms;
+import net.osmand.util.MapUtils;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Writes obf files readable by {@link BinaryMapIndexReader} : map, routing, poi and address sections with their tree indexes.
+ * Sections are written one after another (every section is written by one call), tree boxes are written before the data
+ * blocks and the shifts to data are patched when the blocks are written, so only data of the current section is kept in memory.
+ *
+ * Encoding rules are renumbered per section (most used rules get the shortest ids), objects could come from different files.
+ * Name indexes of poi and address sections are keyed by first letters of every word of the names
+ * (search by name reads all objects with such words and checks their names).
+ */
+public class BinaryMapIndexWriter {
+
+	private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+
+	private static final int MAP_BLOCK_SIZE = 256;
+	private static final int ROUTE_BLOCK_SIZE = 128;
+	private static final int POI_BOX_SIZE = 64;
+	private static final int MAX_TREE_DEPTH = 20;
+	private static final int POI_MAX_ZOOM = 16;
+
+	private static final int MAP_SHIFT_COORDINATES = 5;
+	private static final int MAP_MASK_TO_READ = ~((1 << MAP_SHIFT_COORDINATES) - 1);
+	private static final int ROUTE_SHIFT_COORDINATES = 4;
+	private static final int POI_SHIFT_COORDINATES = 7;
+	private static final int NAME_INDEX_PREFIX_LENGTH = 3;
+	private static final int POI_CATEGORY_SHIFT = 7;
+
+	private final RandomAccessFile raf;
+	private final CodedOutputStream codedOutStream;
+	// positions of the length placeholders of the opened fixed32 fields
+	private final TLongArrayList fixed32Fields = new TLongArrayList();
+
+	private final MessageBuffer blockBuffer = new MessageBuffer();
+	private final MessageBuffer objectBuffer = new MessageBuffer();
+	private final MessageBuffer fieldBuffer = new MessageBuffer();
+	private final MessageBuffer innerBuffer = new MessageBuffer();
+
+	/**
+	 * Objects of one zoom level of the map section
+	 */
+	public static class MapLevel {
+		private final int minZoom;
+		private final int maxZoom;
+		private final List<BinaryMapDataObject> objects;
+
+		public MapLevel(int minZoom, int maxZoom, List<BinaryMapDataObject> objects) {
+			this.minZoom = minZoom;
+			this.maxZoom = maxZoom;
+			this.objects = objects;
+		}
+
+		public int getMinZoom() {
+			return minZoom;
+		}
+
+		public int getMaxZoom() {
+			return maxZoom;
+		}
+
+		public List<BinaryMapDataObject> getObjects() {
+			return objects;
+		}
+	}
+
+	public BinaryMapIndexWriter(final RandomAccessFile raf) throws IOException {
+		this.raf = raf;
+		raf.seek(0);
+		codedOutStream = CodedOutputStream.newInstance(new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				raf.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				raf.write(b, off, len);
+			}
+		});
+		codedOutStream.writeInt32(OsmandOdb.OsmAndStructure.VERSION_FIELD_NUMBER, IndexConstants.BINARY_MAP_VERSION);
+		codedOutStream.writeInt64(OsmandOdb.OsmAndStructure.DATECREATED_FIELD_NUMBER, System.currentTimeMillis());
+	}
+
+	/**
+	 * Finishes the file (writer could not be used after)
+	 */
+	public void close() throws IOException {
+		if (!fixed32Fields.isEmpty()) {
+			throw new IllegalStateException("Section is not finished");
+		}
+		codedOutStream.writeInt32(OsmandOdb.OsmAndStructure.VERSIONCONFIRM_FIELD_NUMBER,
+				IndexConstants.BINARY_MAP_VERSION);
+		codedOutStream.flush();
+		raf.setLength(raf.getFilePointer());
+		raf.close();
+	}
+
+	private long getFilePointer() {
+		return codedOutStream.getWrittenBytes();
+	}
+
+	/**
+	 * @return position of the length of the field (data of the field is counted from the position after it)
+	 */
+	private long startFixed32Field(int fieldNumber) throws IOException {
+		codedOutStream.writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED32_LENGTH_DELIMITED);
+		long pointer = getFilePointer();
+		fixed32Fields.add(pointer);
+		BinaryInspector.writeInt(codedOutStream, 0);
+		return pointer;
+	}
+
+	private void endFixed32Field() throws IOException {
+		long pointer = fixed32Fields.removeAt(fixed32Fields.size() - 1);
+		writeIntAt(pointer, (int) (getFilePointer() - pointer - 4));
+	}
+
+	/**
+	 * Writes fixed32 placeholder for the shift which is patched by {@link #writeIntAt(long, int)}
+	 * @return position of the placeholder
+	 */
+	private long writeShiftPlaceholder(int fieldNumber) throws IOException {
+		codedOutStream.writeFixed32(fieldNumber, 0);
+		return getFilePointer() - 4;
+	}
+
+	private void writeIntAt(long pointer, int value) throws IOException {
+		codedOutStream.flush();
+		long current = raf.getFilePointer();
+		raf.seek(pointer);
+		raf.writeInt(value);
+		raf.seek(current);
+	}
+
+	/**
+	 * Length delimited message composed in memory (length should be written before the message)
+	 */
+	private static class MessageBuffer extends ByteArrayOutputStream {
+		private final CodedOutputStream out = CodedOutputStream.newInstance(this);
+		private long start;
+
+		public CodedOutputStream start() throws IOException {
+			out.flush();
+			reset();
+			start = out.getWrittenBytes();
+			return out;
+		}
+
+		/**
+		 * @return position in the message
+		 */
+		public int position() {
+			return (int) (out.getWrittenBytes() - start);
+		}
+
+		public int length() throws IOException {
+			out.flush();
+			return count;
+		}
+
+		public void writeContent(CodedOutputStream target) throws IOException {
+			out.flush();
+			target.writeRawBytes(buf, 0, count);
+		}
+
+		public void writeDelimited(CodedOutputStream target) throws IOException {
+			target.writeRawVarint32(length());
+			writeContent(target);
+		}
+
+		public void writeTo(CodedOutputStream target, int fieldNumber) throws IOException {
+			target.writeTag(fieldNumber, WIRETYPE_LENGTH_DELIMITED);
+			writeDelimited(target);
+		}
+	}
+
+	private void writePacked(CodedOutputStream out, int fieldNumber, int[] values) throws IOException {
+		CodedOutputStream packed = innerBuffer.start();
+		for (int v : values) {
+			packed.writeRawVarint32(v);
+		}
+		innerBuffer.writeTo(out, fieldNumber);
+	}
+
+	/**
+	 * Rules of the section, most used rules get smaller ids
+	 */
+	private static class EncodingRules {
+		private final Map<TagValuePair, int[]> counts = new HashMap<TagValuePair, int[]>();
+		private final List<TagValuePair> rules = new ArrayList<TagValuePair>();
+		private final Map<TagValuePair, Integer> ids = new HashMap<TagValuePair, Integer>();
+
+		public void register(TagValuePair pair) {
+			int[] c = counts.get(pair);
+			if (c == null) {
+				c = new int[1];
+				counts.put(pair, c);
+			}
+			c[0]++;
+		}
+
+		public void assignIds(int firstId) {
+			rules.addAll(counts.keySet());
+			Collections.sort(rules, new Comparator<TagValuePair>() {
+				@Override
+				public int compare(TagValuePair o1, TagValuePair o2) {
+					int c1 = counts.get(o1)[0];
+					int c2 = counts.get(o2)[0];
+					return c1 == c2 ? 0 : (c1 > c2 ? -1 : 1);
+				}
+			});
+			for (int i = 0; i < rules.size(); i++) {
+				ids.put(rules.get(i), firstId + i);
+			}
+		}
+
+		public List<TagValuePair> getRules() {
+			return rules;
+		}
+
+		public int getId(TagValuePair pair) {
+			return ids.get(pair);
+		}
+	}
+
+	/**
+	 * Box of the map or routing tree, leaf boxes reference data blocks
+	 */
+	private static class DataBox<T> {
+		int left = Integer.MAX_VALUE;
+		int right = Integer.MIN_VALUE;
+		int top = Integer.MAX_VALUE;
+		int bottom = Integer.MIN_VALUE;
+		final List<DataBox<T>> children = new ArrayList<DataBox<T>>();
+		final List<T> objects = new ArrayList<T>();
+		long filePointer;
+		long shiftPointer;
+
+		boolean isLeaf() {
+			return children.isEmpty();
+		}
+
+		void extend(int[] bbox, int ind) {
+			left = Math.min(left, bbox[ind * 4]);
+			right = Math.max(right, bbox[ind * 4 + 1]);
+			top = Math.min(top, bbox[ind * 4 + 2]);
+			bottom = Math.max(bottom, bbox[ind * 4 + 3]);
+		}
+	}
+
+	/**
+	 * @param bbox left, right, top, bottom of every object
+	 */
+	private static <T> DataBox<T> buildTree(List<T> objects, int[] bbox, int blockSize) {
+		TIntArrayList all = new TIntArrayList(objects.size());
+		for (int i = 0; i < objects.size(); i++) {
+			all.add(i);
+		}
+		return buildTree(objects, bbox, all, blockSize, 0);
+	}
+
+	private static <T> DataBox<T> buildTree(List<T> objects, int[] bbox, TIntArrayList inds, int blockSize, int depth) {
+		DataBox<T> box = new DataBox<T>();
+		for (int i = 0; i < inds.size(); i++) {
+			box.extend(bbox, inds.get(i));
+		}
+		if (inds.size() <= blockSize) {
+			for (int i = 0; i < inds.size(); i++) {
+				box.objects.add(objects.get(inds.get(i)));
+			}
+			return box;
+		}
+		if (depth < MAX_TREE_DEPTH) {
+			// objects are split to quarters of the box by their centers
+			long midX = ((long) box.left + box.right) / 2;
+			long midY = ((long) box.top + box.bottom) / 2;
+			TIntArrayList[] quarters = new TIntArrayList[4];
+			int nonEmpty = 0;
+			for (int i = 0; i < inds.size(); i++) {
+				int ind = inds.get(i);
+				long cx = ((long) bbox[ind * 4] + bbox[ind * 4 + 1]) / 2;
+				long cy = ((long) bbox[ind * 4 + 2] + bbox[ind * 4 + 3]) / 2;
+				int q = (cx > midX ? 1 : 0) + (cy > midY ? 2 : 0);
+				if (quarters[q] == null) {
+					quarters[q] = new TIntArrayList();
+					nonEmpty++;
+				}
+				quarters[q].add(ind);
+			}
+			if (nonEmpty > 1) {
+				for (TIntArrayList q : quarters) {
+					if (q != null) {
+						box.children.add(buildTree(objects, bbox, q, blockSize, depth + 1));
+					}
+				}
+				return box;
+			}
+		}
+		// objects couldn't be split by location, so they are divided into leaf boxes by order
+		for (int s = 0; s < inds.size(); s += blockSize) {
+			DataBox<T> leaf = new DataBox<T>();
+			for (int i = s; i < Math.min(s + blockSize, inds.size()); i++) {
+				leaf.extend(bbox, inds.get(i));
+				leaf.objects.add(objects.get(inds.get(i)));
+			}
+			box.children.add(leaf);
+		}
+		return box;
+	}
+
+	private static int registerString(Map<String, Integer> stringTable, String s) {
+		Integer ind = stringTable.get(s);
+		if (ind == null) {
+			ind = stringTable.size();
+			if (ind > Character.MAX_VALUE) {
+				throw new IllegalArgumentException("Too many names in the data block");
+			}
+			stringTable.put(s, ind);
+		}
+		return ind;
+	}
+
+	private void writeStringTable(CodedOutputStream out, int fieldNumber, Map<String, Integer> stringTable)
+			throws IOException {
+		if (stringTable.isEmpty()) {
+			return;
+		}
+		CodedOutputStream st = fieldBuffer.start();
+		for (String s : stringTable.keySet()) {
+			st.writeString(OsmandOdb.StringTable.S_FIELD_NUMBER, s);
+		}
+		fieldBuffer.writeTo(out, fieldNumber);
+	}
+
+	/////////////////////////////// MAP ///////////////////////////////
+
+	private static TagValuePair decodeMapType(BinaryMapDataObject o, int type) {
+		MapIndex mi = o.getMapIndex();
+		TagValuePair pair = mi == null ? null : mi.decodeType(type);
+		if (pair == null) {
+			throw new IllegalArgumentException("Unknown type " + type + " of map object " + o.getId());
+		}
+		return pair;
+	}
+
+	public void writeMapIndex(String name, List<MapLevel> levels) throws IOException {
+		EncodingRules rules = new EncodingRules();
+		List<List<BinaryMapDataObject>> levelObjects = new ArrayList<List<BinaryMapDataObject>>();
+		for (MapLevel level : levels) {
+			List<BinaryMapDataObject> objects = new ArrayList<BinaryMapDataObject>();
+			for (BinaryMapDataObject o : level.getObjects()) {
+				if (o.getPointsLength() == 0) {
+					continue;
+				}
+				objects.add(o);
+				for (int t : o.getTypes()) {
+					rules.register(decodeMapType(o, t));
+				}
+				if (o.getAdditionalTypes() != null) {
+					for (int t : o.getAdditionalTypes()) {
+						rules.register(decodeMapType(o, t));
+					}
+				}
+				if (o.getObjectNames() != null) {
+					for (int t : o.getObjectNames().keys()) {
+						rules.register(decodeMapType(o, t));
+					}
+				}
+			}
+			levelObjects.add(objects);
+		}
+		rules.assignIds(1);
+
+		startFixed32Field(OsmandOdb.OsmAndStructure.MAPINDEX_FIELD_NUMBER);
+		codedOutStream.writeString(OsmandOdb.OsmAndMapIndex.NAME_FIELD_NUMBER, name);
+		for (TagValuePair p : rules.getRules()) {
+			CodedOutputStream r = objectBuffer.start();
+			r.writeString(OsmandOdb.OsmAndMapIndex.MapEncodingRule.TAG_FIELD_NUMBER, p.tag);
+			if (p.value != null) {
+				r.writeString(OsmandOdb.OsmAndMapIndex.MapEncodingRule.VALUE_FIELD_NUMBER, p.value);
+			}
+			r.writeUInt32(OsmandOdb.OsmAndMapIndex.MapEncodingRule.ID_FIELD_NUMBER, rules.getId(p));
+			if (p.additionalAttribute != 0) {
+				r.writeUInt32(OsmandOdb.OsmAndMapIndex.MapEncodingRule.TYPE_FIELD_NUMBER, p.additionalAttribute);
+			}
+			objectBuffer.writeTo(codedOutStream, OsmandOdb.OsmAndMapIndex.RULES_FIELD_NUMBER);
+		}
+		for (int i = 0; i < levels.size(); i++) {
+			if (!levelObjects.get(i).isEmpty()) {
+				writeMapLevel(levels.get(i), levelObjects.get(i), rules);
+			}
+		}
+		endFixed32Field();
+	}
+
+	private void writeMapLevel(MapLevel level, List<BinaryMapDataObject> objects, EncodingRules rules)
+			throws IOException {
+		int[] bbox = new int[objects.size() * 4];
+		for (int i = 0; i < objects.size(); i++) {
+			BinaryMapDataObject o = objects.get(i);
+			// inner rings are inside of the outer one
+			bbox[i * 4] = bbox[i * 4 + 2] = Integer.MAX_VALUE;
+			bbox[i * 4 + 1] = bbox[i * 4 + 3] = Integer.MIN_VALUE;
+			for (int j = 0; j < o.getPointsLength(); j++) {
+				bbox[i * 4] = Math.min(bbox[i * 4], o.getPoint31XTile(j));
+				bbox[i * 4 + 1] = Math.max(bbox[i * 4 + 1], o.getPoint31XTile(j));
+				bbox[i * 4 + 2] = Math.min(bbox[i * 4 + 2], o.getPoint31YTile(j));
+				bbox[i * 4 + 3] = Math.max(bbox[i * 4 + 3], o.getPoint31YTile(j));
+			}
+		}
+		DataBox<BinaryMapDataObject> root = buildTree(objects, bbox, MAP_BLOCK_SIZE);
+		startFixed32Field(OsmandOdb.OsmAndMapIndex.LEVELS_FIELD_NUMBER);
+		codedOutStream.writeInt32(OsmandOdb.OsmAndMapIndex.MapRootLevel.MAXZOOM_FIELD_NUMBER, level.getMaxZoom());
+		codedOutStream.writeInt32(OsmandOdb.OsmAndMapIndex.MapRootLevel.MINZOOM_FIELD_NUMBER, level.getMinZoom());
+		codedOutStream.writeInt32(OsmandOdb.OsmAndMapIndex.MapRootLevel.LEFT_FIELD_NUMBER, root.left);
+		codedOutStream.writeInt32(OsmandOdb.OsmAndMapIndex.MapRootLevel.RIGHT_FIELD_NUMBER, root.right);
+		codedOutStream.writeInt32(OsmandOdb.OsmAndMapIndex.MapRootLevel.TOP_FIELD_NUMBER, root.top);
+		codedOutStream.writeInt32(OsmandOdb.OsmAndMapIndex.MapRootLevel.BOTTOM_FIELD_NUMBER, root.bottom);
+		List<DataBox<BinaryMapDataObject>> leaves = new ArrayList<DataBox<BinaryMapDataObject>>();
+		// reader stops reading boxes at the first block, so all boxes are written before
+		writeMapBox(root, root, OsmandOdb.OsmAndMapIndex.MapRootLevel.BOXES_FIELD_NUMBER, leaves);
+		for (DataBox<BinaryMapDataObject> leaf : leaves) {
+			codedOutStream.writeTag(OsmandOdb.OsmAndMapIndex.MapRootLevel.BLOCKS_FIELD_NUMBER,
+					WIRETYPE_LENGTH_DELIMITED);
+			writeIntAt(leaf.shiftPointer, (int) (getFilePointer() - leaf.filePointer));
+			writeMapDataBlock(leaf, rules);
+			blockBuffer.writeDelimited(codedOutStream);
+		}
+		endFixed32Field();
+	}
+
+	private void writeMapBox(DataBox<BinaryMapDataObject> box, DataBox<BinaryMapDataObject> parent, int fieldNumber,
+			List<DataBox<BinaryMapDataObject>> leaves) throws IOException {
+		box.filePointer = startFixed32Field(fieldNumber) + 4;
+		codedOutStream.writeSInt32(OsmandOdb.OsmAndMapIndex.MapDataBox.LEFT_FIELD_NUMBER, box.left - parent.left);
+		codedOutStream.writeSInt32(OsmandOdb.OsmAndMapIndex.MapDataBox.RIGHT_FIELD_NUMBER, box.right - parent.right);
+		codedOutStream.writeSInt32(OsmandOdb.OsmAndMapIndex.MapDataBox.TOP_FIELD_NUMBER, box.top - parent.top);
+		codedOutStream.writeSInt32(OsmandOdb.OsmAndMapIndex.MapDataBox.BOTTOM_FIELD_NUMBER, box.bottom - parent.bottom);
+		if (box.isLeaf()) {
+			box.shiftPointer = writeShiftPlaceholder(OsmandOdb.OsmAndMapIndex.MapDataBox.SHIFTTOMAPDATA_FIELD_NUMBER);
+			leaves.add(box);
+		} else {
+			for (DataBox<BinaryMapDataObject> child : box.children) {
+				writeMapBox(child, box, OsmandOdb.OsmAndMapIndex.MapDataBox.BOXES_FIELD_NUMBER, leaves);
+			}
+		}
+		endFixed32Field();
+	}
+
+	private void writeMapDataBlock(DataBox<BinaryMapDataObject> leaf, EncodingRules rules) throws IOException {
+		long baseId = Long.MAX_VALUE;
+		for (BinaryMapDataObject o : leaf.objects) {
+			baseId = Math.min(baseId, o.getId());
+		}
+		Map<String, Integer> stringTable = new LinkedHashMap<String, Integer>();
+		CodedOutputStream block = blockBuffer.start();
+		block.writeUInt64(OsmandOdb.MapDataBlock.BASEID_FIELD_NUMBER, baseId);
+		// coordinates are counted from the box corner with cut lower bits
+		int px = leaf.left & MAP_MASK_TO_READ;
+		int py = leaf.top & MAP_MASK_TO_READ;
+		for (BinaryMapDataObject o : leaf.objects) {
+			CodedOutputStream out = objectBuffer.start();
+			writeMapCoordinates(out, o.isArea() ? OsmandOdb.MapData.AREACOORDINATES_FIELD_NUMBER
+					: OsmandOdb.MapData.COORDINATES_FIELD_NUMBER, o.coordinates, px, py);
+			if (o.getPolygonInnerCoordinates() != null) {
+				for (int[] ring : o.getPolygonInnerCoordinates()) {
+					writeMapCoordinates(out, OsmandOdb.MapData.POLYGONINNERCOORDINATES_FIELD_NUMBER, ring, px, py);
+				}
+			}
+			if (o.getAdditionalTypes() != null && o.getAdditionalTypes().length > 0) {
+				writePacked(out, OsmandOdb.MapData.ADDITIONALTYPES_FIELD_NUMBER,
+						remapMapTypes(o, o.getAdditionalTypes(), rules));
+			}
+			writePacked(out, OsmandOdb.MapData.TYPES_FIELD_NUMBER, remapMapTypes(o, o.getTypes(), rules));
+			TIntObjectHashMap<String> names = o.getObjectNames();
+			if (names != null && !names.isEmpty()) {
+				int[] order = o.getNamesOrder() != null && o.getNamesOrder().size() == names.size() ? o
+						.getNamesOrder().toArray() : names.keys();
+				int[] pairs = new int[order.length * 2];
+				for (int i = 0; i < order.length; i++) {
+					pairs[i * 2] = rules.getId(decodeMapType(o, order[i]));
+					pairs[i * 2 + 1] = registerString(stringTable, names.get(order[i]));
+				}
+				writePacked(out, OsmandOdb.MapData.STRINGNAMES_FIELD_NUMBER, pairs);
+			}
+			out.writeSInt64(OsmandOdb.MapData.ID_FIELD_NUMBER, o.getId() - baseId);
+			objectBuffer.writeTo(block, OsmandOdb.MapDataBlock.DATAOBJECTS_FIELD_NUMBER);
+		}
+		writeStringTable(block, OsmandOdb.MapDataBlock.STRINGTABLE_FIELD_NUMBER, stringTable);
+	}
+
+	private static int[] remapMapTypes(BinaryMapDataObject o, int[] types, EncodingRules rules) {
+		int[] res = new int[types.length];
+		for (int i = 0; i < types.length; i++) {
+			res[i] = rules.getId(decodeMapType(o, types[i]));
+		}
+		return res;
+	}
+
+	private void writeMapCoordinates(CodedOutputStream out, int fieldNumber, int[] coordinates, int px, int py)
+			throws IOException {
+		CodedOutputStream c = innerBuffer.start();
+		int x = px >> MAP_SHIFT_COORDINATES;
+		int y = py >> MAP_SHIFT_COORDINATES;
+		for (int i = 0; i + 1 < coordinates.length; i += 2) {
+			int nx = coordinates[i] >> MAP_SHIFT_COORDINATES;
+			int ny = coordinates[i + 1] >> MAP_SHIFT_COORDINATES;
+			c.writeSInt32NoTag(nx - x);
+			c.writeSInt32NoTag(ny - y);
+			x = nx;
+			y = ny;
+		}
+		innerBuffer.writeTo(out, fieldNumber);
+	}
+
+	/////////////////////////////// ROUTING ///////////////////////////////
+
+	private static TagValuePair decodeRouteType(RouteDataObject o, int type) {
+		RouteTypeRule rule = o.region.quickGetEncodingRule(type);
+		if (rule == null) {
+			throw new IllegalArgumentException("Unknown type " + type + " of route object " + o.getId());
+		}
+		return new TagValuePair(rule.getTag(), rule.getValue(), 0);
+	}
+
+	/**
+	 * @param baseObjects objects of the routing basemap (used for long routes), could be empty
+	 */
+	public void writeRouteIndex(String name, List<RouteDataObject> objects, List<RouteDataObject> baseObjects)
+			throws IOException {
+		EncodingRules rules = new EncodingRules();
+		List<RouteDataObject> all = new ArrayList<RouteDataObject>(objects);
+		all.addAll(baseObjects);
+		for (RouteDataObject o : all) {
+			for (int t : o.getTypes()) {
+				rules.register(decodeRouteType(o, t));
+			}
+			if (o.pointTypes != null) {
+				for (int[] pt : o.pointTypes) {
+					if (pt != null) {
+						for (int t : pt) {
+							rules.register(decodeRouteType(o, t));
+						}
+					}
+				}
+			}
+			if (o.names != null) {
+				for (int t : o.names.keys()) {
+					rules.register(decodeRouteType(o, t));
+				}
+			}
+		}
+		// rule 0 is not read
+		rules.assignIds(1);
+
+		startFixed32Field(OsmandOdb.OsmAndStructure.ROUTINGINDEX_FIELD_NUMBER);
+		codedOutStream.writeString(OsmandOdb.OsmAndRoutingIndex.NAME_FIELD_NUMBER, name);
+		for (TagValuePair p : rules.getRules()) {
+			CodedOutputStream r = objectBuffer.start();
+			r.writeString(OsmandOdb.OsmAndRoutingIndex.RouteEncodingRule.TAG_FIELD_NUMBER, p.tag);
+			r.writeString(OsmandOdb.OsmAndRoutingIndex.RouteEncodingRule.VALUE_FIELD_NUMBER, p.value == null ? ""
+					: p.value);
+			r.writeUInt32(OsmandOdb.OsmAndRoutingIndex.RouteEncodingRule.ID_FIELD_NUMBER, rules.getId(p));
+			objectBuffer.writeTo(codedOutStream, OsmandOdb.OsmAndRoutingIndex.RULES_FIELD_NUMBER);
+		}
+		List<DataBox<RouteDataObject>> leaves = new ArrayList<DataBox<RouteDataObject>>();
+		writeRouteTree(objects, OsmandOdb.OsmAndRoutingIndex.ROOTBOXES_FIELD_NUMBER, leaves);
+		writeRouteTree(baseObjects, OsmandOdb.OsmAndRoutingIndex.BASEMAPBOXES_FIELD_NUMBER, leaves);
+		// reader stops reading boxes at the first block, so all boxes are written before
+		for (DataBox<RouteDataObject> leaf : leaves) {
+			codedOutStream.writeTag(OsmandOdb.OsmAndRoutingIndex.BLOCKS_FIELD_NUMBER, WIRETYPE_LENGTH_DELIMITED);
+			writeIntAt(leaf.shiftPointer, (int) (getFilePointer() - leaf.filePointer));
+			writeRouteDataBlock(leaf, rules);
+			blockBuffer.writeDelimited(codedOutStream);
+		}
+		endFixed32Field();
+	}
+
+	private void writeRouteTree(List<RouteDataObject> objects, int fieldNumber, List<DataBox<RouteDataObject>> leaves)
+			throws IOException {
+		List<RouteDataObject> nonEmpty = new ArrayList<RouteDataObject>(objects.size());
+		for (RouteDataObject o : objects) {
+			if (o.getPointsLength() > 0) {
+				nonEmpty.add(o);
+			}
+		}
+		if (nonEmpty.isEmpty()) {
+			return;
+		}
+		int[] bbox = new int[nonEmpty.size() * 4];
+		for (int i = 0; i < nonEmpty.size(); i++) {
+			RouteDataObject o = nonEmpty.get(i);
+			bbox[i * 4] = bbox[i * 4 + 2] = Integer.MAX_VALUE;
+			bbox[i * 4 + 1] = bbox[i * 4 + 3] = Integer.MIN_VALUE;
+			for (int j = 0; j < o.getPointsLength(); j++) {
+				bbox[i * 4] = Math.min(bbox[i * 4], o.getPoint31XTile(j));
+				bbox[i * 4 + 1] = Math.max(bbox[i * 4 + 1], o.getPoint31XTile(j));
+				bbox[i * 4 + 2] = Math.min(bbox[i * 4 + 2], o.getPoint31YTile(j));
+				bbox[i * 4 + 3] = Math.max(bbox[i * 4 + 3], o.getPoint31YTile(j));
+			}
+		}
+		writeRouteBox(buildTree(nonEmpty, bbox, ROUTE_BLOCK_SIZE), null, fieldNumber, leaves);
+	}
+
+	private void writeRouteBox(DataBox<RouteDataObject> box, DataBox<RouteDataObject> parent, int fieldNumber,
+			List<DataBox<RouteDataObject>> leaves) throws IOException {
+		box.filePointer = startFixed32Field(fieldNumber) + 4;
+		// root boxes have absolute coordinates
+		codedOutStream.writeSInt32(OsmandOdb.OsmAndRoutingIndex.RouteDataBox.LEFT_FIELD_NUMBER, box.left
+				- (parent == null ? 0 : parent.left));
+		codedOutStream.writeSInt32(OsmandOdb.OsmAndRoutingIndex.RouteDataBox.RIGHT_FIELD_NUMBER, box.right
+				- (parent == null ? 0 : parent.right));
+		codedOutStream.writeSInt32(OsmandOdb.OsmAndRoutingIndex.RouteDataBox.TOP_FIELD_NUMBER, box.top
+				- (parent == null ? 0 : parent.top));
+		codedOutStream.writeSInt32(OsmandOdb.OsmAndRoutingIndex.RouteDataBox.BOTTOM_FIELD_NUMBER, box.bottom
+				- (parent == null ? 0 : parent.bottom));
+		if (box.isLeaf()) {
+			box.shiftPointer = writeShiftPlaceholder(OsmandOdb.OsmAndRoutingIndex.RouteDataBox.SHIFTTODATA_FIELD_NUMBER);
+			leaves.add(box);
+		} else {
+			for (DataBox<RouteDataObject> child : box.children) {
+				writeRouteBox(child, box, OsmandOdb.OsmAndRoutingIndex.RouteDataBox.BOXES_FIELD_NUMBER, leaves);
+			}
+		}
+		endFixed32Field();
+	}
+
+	private void writeRouteDataBlock(DataBox<RouteDataObject> leaf, EncodingRules rules) throws IOException {
+		// objects and restriction targets are referenced by index in the id table of the block
+		TLongArrayList idTable = new TLongArrayList();
+		TLongObjectHashMap<Integer> localIds = new TLongObjectHashMap<Integer>();
+		for (RouteDataObject o : leaf.objects) {
+			localIds.put(o.getId(), idTable.size());
+			idTable.add(o.getId());
+		}
+		for (RouteDataObject o : leaf.objects) {
+			for (int k = 0; k < o.getRestrictionLength(); k++) {
+				long to = o.getRestrictionId(k);
+				if (!localIds.containsKey(to)) {
+					localIds.put(to, idTable.size());
+					idTable.add(to);
+				}
+			}
+		}
+		CodedOutputStream block = blockBuffer.start();
+		CodedOutputStream ids = objectBuffer.start();
+		long prev = 0;
+		for (int i = 0; i < idTable.size(); i++) {
+			ids.writeSInt64(OsmandOdb.IdTable.ROUTEID_FIELD_NUMBER, idTable.get(i) - prev);
+			prev = idTable.get(i);
+		}
+		objectBuffer.writeTo(block, OsmandOdb.OsmAndRoutingIndex.RouteDataBlock.IDTABLE_FIELD_NUMBER);
+
+		Map<String, Integer> stringTable = new LinkedHashMap<String, Integer>();
+		int px = leaf.left >> ROUTE_SHIFT_COORDINATES;
+		int py = leaf.top >> ROUTE_SHIFT_COORDINATES;
+		for (RouteDataObject o : leaf.objects) {
+			CodedOutputStream out = objectBuffer.start();
+			writePacked(out, OsmandOdb.RouteData.TYPES_FIELD_NUMBER, remapRouteTypes(o, o.getTypes(), rules));
+			CodedOutputStream points = innerBuffer.start();
+			int x = px;
+			int y = py;
+			for (int i = 0; i < o.getPointsLength(); i++) {
+				int nx = o.getPoint31XTile(i) >> ROUTE_SHIFT_COORDINATES;
+				int ny = o.getPoint31YTile(i) >> ROUTE_SHIFT_COORDINATES;
+				points.writeSInt32NoTag(nx - x);
+				points.writeSInt32NoTag(ny - y);
+				x = nx;
+				y = ny;
+			}
+			innerBuffer.writeTo(out, OsmandOdb.RouteData.POINTS_FIELD_NUMBER);
+			if (o.pointTypes != null) {
+				CodedOutputStream pt = fieldBuffer.start();
+				for (int i = 0; i < o.pointTypes.length && i < o.getPointsLength(); i++) {
+					if (o.pointTypes[i] != null && o.pointTypes[i].length > 0) {
+						int[] types = remapRouteTypes(o, o.pointTypes[i], rules);
+						int len = 0;
+						for (int t : types) {
+							len += CodedOutputStream.computeRawVarint32Size(t);
+						}
+						pt.writeRawVarint32(i);
+						pt.writeRawVarint32(len);
+						for (int t : types) {
+							pt.writeRawVarint32(t);
+						}
+					}
+				}
+				if (fieldBuffer.length() > 0) {
+					fieldBuffer.writeTo(out, OsmandOdb.RouteData.POINTTYPES_FIELD_NUMBER);
+				}
+			}
+			if (o.names != null && !o.names.isEmpty()) {
+				int[] keys = o.names.keys();
+				int[] pairs = new int[keys.length * 2];
+				for (int i = 0; i < keys.length; i++) {
+					pairs[i * 2] = rules.getId(decodeRouteType(o, keys[i]));
+					pairs[i * 2 + 1] = registerString(stringTable, o.names.get(keys[i]));
+				}
+				writePacked(out, OsmandOdb.RouteData.STRINGNAMES_FIELD_NUMBER, pairs);
+			}
+			out.writeInt32(OsmandOdb.RouteData.ROUTEID_FIELD_NUMBER, localIds.get(o.getId()));
+			objectBuffer.writeTo(block, OsmandOdb.OsmAndRoutingIndex.RouteDataBlock.DATAOBJECTS_FIELD_NUMBER);
+		}
+		for (RouteDataObject o : leaf.objects) {
+			for (int k = 0; k < o.getRestrictionLength(); k++) {
+				CodedOutputStream r = objectBuffer.start();
+				r.writeInt32(OsmandOdb.RestrictionData.FROM_FIELD_NUMBER, localIds.get(o.getId()));
+				r.writeInt32(OsmandOdb.RestrictionData.TO_FIELD_NUMBER, localIds.get(o.getRestrictionId(k)));
+				r.writeInt32(OsmandOdb.RestrictionData.TYPE_FIELD_NUMBER, o.getRestrictionType(k));
+				objectBuffer.writeTo(block, OsmandOdb.OsmAndRoutingIndex.RouteDataBlock.RESTRICTIONS_FIELD_NUMBER);
+			}
+		}
+		writeStringTable(block, OsmandOdb.OsmAndRoutingIndex.RouteDataBlock.STRINGTABLE_FIELD_NUMBER, stringTable);
+	}
+
+	private static int[] remapRouteTypes(RouteDataObject o, int[] types, EncodingRules rules) {
+		int[] res = new int[types.length];
+		for (int i = 0; i < types.length; i++) {
+			res[i] = rules.getId(decodeRouteType(o, types[i]));
+		}
+		return res;
+	}
+
+	/////////////////////////////// POI ///////////////////////////////
+
+	/**
+	 * Tile of the poi tree, leaf tiles reference poi data
+	 */
+	private static class PoiBox {
+		final int x;
+		final int y;
+		final int zoom;
+		final List<PoiBox> children = new ArrayList<PoiBox>();
+		final TIntArrayList amenities = new TIntArrayList();
+		int[] categories;
+		long shiftPointer;
+		// shifts to the data in the name index atoms
+		final TLongArrayList nameShiftPointers = new TLongArrayList();
+
+		PoiBox(int x, int y, int zoom) {
+			this.x = x;
+			this.y = y;
+			this.zoom = zoom;
+		}
+	}
+
+	public void writePoiIndex(String name, List<Amenity> amenities) throws IOException {
+		List<Amenity> pois = new ArrayList<Amenity>(amenities.size());
+		for (Amenity a : amenities) {
+			if (a.getType() != null && a.getLocation() != null) {
+				pois.add(a);
+			}
+		}
+		// categories and subcategories are referenced by index
+		Map<String, Integer> categories = new LinkedHashMap<String, Integer>();
+		List<Map<String, Integer>> subcategories = new ArrayList<Map<String, Integer>>();
+		Map<String, Integer> textTypes = new LinkedHashMap<String, Integer>();
+		int[][] codes = new int[pois.size()][];
+		int[] x31 = new int[pois.size()];
+		int[] y31 = new int[pois.size()];
+		int left = Integer.MAX_VALUE;
+		int right = Integer.MIN_VALUE;
+		int top = Integer.MAX_VALUE;
+		int bottom = Integer.MIN_VALUE;
+		for (int i = 0; i < pois.size(); i++) {
+			Amenity a = pois.get(i);
+			String cat = a.getType().getKeyName();
+			Integer catId = categories.get(cat);
+			if (catId == null) {
+				catId = categories.size();
+				if (catId >= (1 << POI_CATEGORY_SHIFT)) {
+					throw new IllegalArgumentException("Too many poi categories");
+				}
+				categories.put(cat, catId);
+				subcategories.add(new LinkedHashMap<String, Integer>());
+			}
+			String[] subtypes = a.getSubType() == null ? new String[] { "" } : a.getSubType().split(";");
+			codes[i] = new int[subtypes.length];
+			for (int j = 0; j < subtypes.length; j++) {
+				Map<String, Integer> subs = subcategories.get(catId);
+				Integer subId = subs.get(subtypes[j]);
+				if (subId == null) {
+					subId = subs.size();
+					subs.put(subtypes[j], subId);
+				}
+				codes[i][j] = catId | (subId << POI_CATEGORY_SHIFT);
+			}
+			for (String key : a.getAdditionalInfo().keySet()) {
+				if (!isStandardPoiField(key) && !textTypes.containsKey(key)) {
+					textTypes.put(key, textTypes.size());
+				}
+			}
+			x31[i] = MapUtils.get31TileNumberX(a.getLocation().getLongitude());
+			y31[i] = MapUtils.get31TileNumberY(a.getLocation().getLatitude());
+			left = Math.min(left, x31[i]);
+			right = Math.max(right, x31[i]);
+			top = Math.min(top, y31[i]);
+			bottom = Math.max(bottom, y31[i]);
+		}
+
+		long indexPointer = startFixed32Field(OsmandOdb.OsmAndStructure.POIINDEX_FIELD_NUMBER) + 4;
+		codedOutStream.writeString(OsmandOdb.OsmAndPoiIndex.NAME_FIELD_NUMBER, name);
+		if (!pois.isEmpty()) {
+			CodedOutputStream b = objectBuffer.start();
+			b.writeUInt32(OsmandOdb.OsmAndTileBox.LEFT_FIELD_NUMBER, left);
+			b.writeUInt32(OsmandOdb.OsmAndTileBox.RIGHT_FIELD_NUMBER, right);
+			b.writeUInt32(OsmandOdb.OsmAndTileBox.TOP_FIELD_NUMBER, top);
+			b.writeUInt32(OsmandOdb.OsmAndTileBox.BOTTOM_FIELD_NUMBER, bottom);
+			objectBuffer.writeTo(codedOutStream, OsmandOdb.OsmAndPoiIndex.BOUNDARIES_FIELD_NUMBER);
+		}
+		int catInd = 0;
+		for (String cat : categories.keySet()) {
+			CodedOutputStream c = objectBuffer.start();
+			c.writeString(OsmandOdb.OsmAndCategoryTable.CATEGORY_FIELD_NUMBER, cat);
+			for (String sub : subcategories.get(catInd++).keySet()) {
+				c.writeString(OsmandOdb.OsmAndCategoryTable.SUBCATEGORIES_FIELD_NUMBER, sub);
+			}
+			objectBuffer.writeTo(codedOutStream, OsmandOdb.OsmAndPoiIndex.CATEGORIESTABLE_FIELD_NUMBER);
+		}
+		if (!textTypes.isEmpty()) {
+			CodedOutputStream st = objectBuffer.start();
+			for (String key : textTypes.keySet()) {
+				CodedOutputStream s = fieldBuffer.start();
+				s.writeString(OsmandOdb.OsmAndPoiSubtype.NAME_FIELD_NUMBER, key);
+				s.writeString(OsmandOdb.OsmAndPoiSubtype.TAGNAME_FIELD_NUMBER, key);
+				s.writeBool(OsmandOdb.OsmAndPoiSubtype.ISTEXT_FIELD_NUMBER, true);
+				fieldBuffer.writeTo(st, OsmandOdb.OsmAndSubtypesTable.SUBTYPES_FIELD_NUMBER);
+			}
+			objectBuffer.writeTo(codedOutStream, OsmandOdb.OsmAndPoiIndex.SUBTYPESTABLE_FIELD_NUMBER);
+		}
+		if (!pois.isEmpty()) {
+			TIntArrayList all = new TIntArrayList(pois.size());
+			for (int i = 0; i < pois.size(); i++) {
+				all.add(i);
+			}
+			PoiBox root = buildPoiTree(all, x31, y31, codes, 0, 0, 0);
+			List<PoiBox> leaves = new ArrayList<PoiBox>();
+			startFixed32Field(OsmandOdb.OsmAndPoiIndex.BOXES_FIELD_NUMBER);
+			writePoiBox(root, null, leaves);
+			endFixed32Field();
+			writePoiNameIndex(pois, leaves);
+			// reader reads the offsets of all data at the first poi data, so data is written after the boxes
+			for (PoiBox leaf : leaves) {
+				long pointer = startFixed32Field(OsmandOdb.OsmAndPoiIndex.POIDATA_FIELD_NUMBER);
+				writeIntAt(leaf.shiftPointer, (int) (pointer - indexPointer));
+				for (int i = 0; i < leaf.nameShiftPointers.size(); i++) {
+					writeIntAt(leaf.nameShiftPointers.get(i), (int) (pointer - indexPointer));
+				}
+				writePoiData(leaf, pois, x31, y31, codes, textTypes);
+				endFixed32Field();
+			}
+		}
+		endFixed32Field();
+	}
+
+	/**
+	 * Name index refers to the data boxes of poi with the word, shifts to the data are patched when the data is written
+	 */
+	private void writePoiNameIndex(List<Amenity> pois, List<PoiBox> leaves) throws IOException {
+		// indexes of the leaves in increasing order by key
+		Map<String, TIntArrayList> nameIndex = new TreeMap<String, TIntArrayList>();
+		Set<String> keys = new HashSet<String>();
+		for (int l = 0; l < leaves.size(); l++) {
+			PoiBox leaf = leaves.get(l);
+			for (int i = 0; i < leaf.amenities.size(); i++) {
+				Amenity a = pois.get(leaf.amenities.get(i));
+				keys.clear();
+				addNameIndexKeys(keys, a.getName());
+				addNameIndexKeys(keys, a.getEnName());
+				for (String key : keys) {
+					TIntArrayList list = nameIndex.get(key);
+					if (list == null) {
+						list = new TIntArrayList();
+						nameIndex.put(key, list);
+					}
+					if (list.isEmpty() || list.get(list.size() - 1) != l) {
+						list.add(l);
+					}
+				}
+			}
+		}
+		if (nameIndex.isEmpty()) {
+			return;
+		}
+		startFixed32Field(OsmandOdb.OsmAndPoiIndex.NAMEINDEX_FIELD_NUMBER);
+		long tablePointer = startFixed32Field(OsmandOdb.OsmAndPoiNameIndex.TABLE_FIELD_NUMBER) + 4;
+		long[] valuePointers = writeNameIndexTable(nameIndex.keySet());
+		endFixed32Field();
+		int k = 0;
+		TLongArrayList shiftsInMessage = new TLongArrayList();
+		for (TIntArrayList list : nameIndex.values()) {
+			CodedOutputStream data = objectBuffer.start();
+			shiftsInMessage.resetQuick();
+			for (int i = 0; i < list.size(); i++) {
+				PoiBox leaf = leaves.get(list.get(i));
+				CodedOutputStream atom = fieldBuffer.start();
+				atom.writeUInt32(OsmandOdb.OsmAndPoiNameIndexDataAtom.ZOOM_FIELD_NUMBER, leaf.zoom);
+				atom.writeUInt32(OsmandOdb.OsmAndPoiNameIndexDataAtom.X_FIELD_NUMBER, leaf.x);
+				atom.writeUInt32(OsmandOdb.OsmAndPoiNameIndexDataAtom.Y_FIELD_NUMBER, leaf.y);
+				atom.writeFixed32(OsmandOdb.OsmAndPoiNameIndexDataAtom.SHIFTTO_FIELD_NUMBER, 0);
+				int shiftInAtom = fieldBuffer.position() - 4;
+				data.writeTag(OsmandOdb.OsmAndPoiNameIndex.OsmAndPoiNameIndexData.ATOMS_FIELD_NUMBER,
+						WIRETYPE_LENGTH_DELIMITED);
+				data.writeRawVarint32(fieldBuffer.length());
+				shiftsInMessage.add(objectBuffer.position() + shiftInAtom);
+				fieldBuffer.writeContent(data);
+			}
+			codedOutStream.writeTag(OsmandOdb.OsmAndPoiNameIndex.DATA_FIELD_NUMBER, WIRETYPE_LENGTH_DELIMITED);
+			writeIntAt(valuePointers[k++], (int) (getFilePointer() - tablePointer));
+			long messagePointer = getFilePointer() + CodedOutputStream.computeRawVarint32Size(objectBuffer.length());
+			for (int i = 0; i < list.size(); i++) {
+				leaves.get(list.get(i)).nameShiftPointers.add(messagePointer + shiftsInMessage.get(i));
+			}
+			objectBuffer.writeDelimited(codedOutStream);
+		}
+		endFixed32Field();
+	}
+
+	/**
+	 * Keys are written in the given order with placeholders for the values
+	 * @return positions of the value placeholders
+	 */
+	private long[] writeNameIndexTable(Collection<String> keys) throws IOException {
+		long[] valuePointers = new long[keys.size()];
+		int i = 0;
+		for (String key : keys) {
+			codedOutStream.writeString(OsmandOdb.IndexedStringTable.KEY_FIELD_NUMBER, key);
+			valuePointers[i++] = writeShiftPlaceholder(OsmandOdb.IndexedStringTable.VAL_FIELD_NUMBER);
+		}
+		return valuePointers;
+	}
+
+	/**
+	 * Name is found by the start of any word (as {@link net.osmand.CollatorStringMatcher} checks it),
+	 * so key is the start of every word
+	 */
+	private static void addNameIndexKeys(Set<String> keys, String name) {
+		if (Algorithms.isEmpty(name)) {
+			return;
+		}
+		for (String word : name.toLowerCase().split(" ")) {
+			if (word.length() > NAME_INDEX_PREFIX_LENGTH) {
+				keys.add(word.substring(0, NAME_INDEX_PREFIX_LENGTH));
+			} else if (word.length() > 0) {
+				keys.add(word);
+			}
+		}
+	}
+
+	private static boolean isStandardPoiField(String key) {
+		return Amenity.OPENING_HOURS.equals(key) || Amenity.WEBSITE.equals(key) || Amenity.PHONE.equals(key)
+				|| Amenity.DESCRIPTION.equals(key);
+	}
+
+	private static PoiBox buildPoiTree(TIntArrayList inds, int[] x31, int[] y31, int[][] codes, int x, int y, int zoom) {
+		PoiBox box = new PoiBox(x, y, zoom);
+		TIntHashSet cats = new TIntHashSet();
+		for (int i = 0; i < inds.size(); i++) {
+			cats.addAll(codes[inds.get(i)]);
+		}
+		box.categories = cats.toArray();
+		Arrays.sort(box.categories);
+		if (inds.size() <= POI_BOX_SIZE || zoom >= POI_MAX_ZOOM) {
+			box.amenities.addAll(inds);
+			return box;
+		}
+		int shift = 31 - (zoom + 1);
+		TIntArrayList[] quarters = new TIntArrayList[4];
+		for (int i = 0; i < inds.size(); i++) {
+			int ind = inds.get(i);
+			int q = ((x31[ind] >> shift) & 1) + (((y31[ind] >> shift) & 1) << 1);
+			if (quarters[q] == null) {
+				quarters[q] = new TIntArrayList();
+			}
+			quarters[q].add(ind);
+		}
+		for (int q = 0; q < 4; q++) {
+			if (quarters[q] != null) {
+				box.children.add(buildPoiTree(quarters[q], x31, y31, codes, (x << 1) + (q & 1), (y << 1) + (q >> 1),
+						zoom + 1));
+			}
+		}
+		return box;
+	}
+
+	private void writePoiBox(PoiBox box, PoiBox parent, List<PoiBox> leaves) throws IOException {
+		int pzoom = parent == null ? 0 : parent.zoom;
+		int px = parent == null ? 0 : parent.x;
+		int py = parent == null ? 0 : parent.y;
+		codedOutStream.writeUInt32(OsmandOdb.OsmAndPoiBox.ZOOM_FIELD_NUMBER, box.zoom - pzoom);
+		codedOutStream.writeSInt32(OsmandOdb.OsmAndPoiBox.LEFT_FIELD_NUMBER, box.x - (px << (box.zoom - pzoom)));
+		codedOutStream.writeSInt32(OsmandOdb.OsmAndPoiBox.TOP_FIELD_NUMBER, box.y - (py << (box.zoom - pzoom)));
+		CodedOutputStream c = objectBuffer.start();
+		for (int cat : box.categories) {
+			c.writeUInt32(OsmandOdb.OsmAndPoiCategories.CATEGORIES_FIELD_NUMBER, cat);
+		}
+		objectBuffer.writeTo(codedOutStream, OsmandOdb.OsmAndPoiBox.CATEGORIES_FIELD_NUMBER);
+		for (PoiBox child : box.children) {
+			startFixed32Field(OsmandOdb.OsmAndPoiBox.SUBBOXES_FIELD_NUMBER);
+			writePoiBox(child, box, leaves);
+			endFixed32Field();
+		}
+		if (box.children.isEmpty()) {
+			box.shiftPointer = writeShiftPlaceholder(OsmandOdb.OsmAndPoiBox.SHIFTTODATA_FIELD_NUMBER);
+			leaves.add(box);
+		}
+	}
+
+	private void writePoiData(PoiBox leaf, List<Amenity> pois, int[] x31, int[] y31, int[][] codes,
+			Map<String, Integer> textTypes) throws IOException {
+		codedOutStream.writeUInt32(OsmandOdb.OsmAndPoiBoxData.ZOOM_FIELD_NUMBER, leaf.zoom);
+		codedOutStream.writeUInt32(OsmandOdb.OsmAndPoiBoxData.X_FIELD_NUMBER, leaf.x);
+		codedOutStream.writeUInt32(OsmandOdb.OsmAndPoiBoxData.Y_FIELD_NUMBER, leaf.y);
+		int shift = 24 - leaf.zoom;
+		for (int i = 0; i < leaf.amenities.size(); i++) {
+			int ind = leaf.amenities.get(i);
+			Amenity a = pois.get(ind);
+			CodedOutputStream out = objectBuffer.start();
+			out.writeSInt32(OsmandOdb.OsmAndPoiBoxDataAtom.DX_FIELD_NUMBER, (x31[ind] >> POI_SHIFT_COORDINATES)
+					- (leaf.x << shift));
+			out.writeSInt32(OsmandOdb.OsmAndPoiBoxDataAtom.DY_FIELD_NUMBER, (y31[ind] >> POI_SHIFT_COORDINATES)
+					- (leaf.y << shift));
+			// categories should be the first fields after the coordinates
+			for (int code : codes[ind]) {
+				out.writeUInt32(OsmandOdb.OsmAndPoiBoxDataAtom.CATEGORIES_FIELD_NUMBER, code);
+			}
+			if (!Algorithms.isEmpty(a.getName())) {
+				out.writeString(OsmandOdb.OsmAndPoiBoxDataAtom.NAME_FIELD_NUMBER, a.getName());
+			}
+			if (!Algorithms.isEmpty(a.getEnName())) {
+				out.writeString(OsmandOdb.OsmAndPoiBoxDataAtom.NAMEEN_FIELD_NUMBER, a.getEnName());
+			}
+			if (a.getId() != null) {
+				out.writeUInt64(OsmandOdb.OsmAndPoiBoxDataAtom.ID_FIELD_NUMBER, a.getId());
+			}
+			writePoiString(out, OsmandOdb.OsmAndPoiBoxDataAtom.OPENINGHOURS_FIELD_NUMBER,
+					a.getAdditionalInfo(Amenity.OPENING_HOURS));
+			writePoiString(out, OsmandOdb.OsmAndPoiBoxDataAtom.SITE_FIELD_NUMBER, a.getAdditionalInfo(Amenity.WEBSITE));
+			writePoiString(out, OsmandOdb.OsmAndPoiBoxDataAtom.PHONE_FIELD_NUMBER, a.getAdditionalInfo(Amenity.PHONE));
+			writePoiString(out, OsmandOdb.OsmAndPoiBoxDataAtom.NOTE_FIELD_NUMBER,
+					a.getAdditionalInfo(Amenity.DESCRIPTION));
+			List<String> textValues = new ArrayList<String>();
+			for (Map.Entry<String, String> e : a.getAdditionalInfo().entrySet()) {
+				if (!isStandardPoiField(e.getKey()) && e.getValue() != null) {
+					int tl = textTypes.get(e.getKey());
+					out.writeUInt32(OsmandOdb.OsmAndPoiBoxDataAtom.TEXTCATEGORIES_FIELD_NUMBER, tl < 32 ? tl << 1
+							: (tl << 1) | 1);
+					textValues.add(e.getValue());
+				}
+			}
+			for (String v : textValues) {
+				out.writeString(OsmandOdb.OsmAndPoiBoxDataAtom.TEXTVALUES_FIELD_NUMBER, v);
+			}
+			objectBuffer.writeTo(codedOutStream, OsmandOdb.OsmAndPoiBoxData.POIDATA_FIELD_NUMBER);
+		}
+	}
+
+	private static void writePoiString(CodedOutputStream out, int fieldNumber, String value) throws IOException {
+		if (!Algorithms.isEmpty(value)) {
+			out.writeString(fieldNumber, value);
+		}
+	}
+
+	/////////////////////////////// ADDRESS ///////////////////////////////
+
+	/**
+	 * Cities are written with their streets and buildings, streets of postcodes should be registered
+	 * in the postcode objects ({@link City#createPostcode(String)})
+	 */
+	public void writeAddressIndex(String name, String enName, List<City> cities) throws IOException {
+		List<List<City>> types = new ArrayList<List<City>>();
+		for (int i = 0; i < 3; i++) {
+			types.add(new ArrayList<City>());
+		}
+		for (City c : cities) {
+			if (c.getLocation() == null) {
+				continue;
+			}
+			if (c.isPostcode()) {
+				types.get(BinaryMapAddressReaderAdapter.POSTCODES_TYPE - 1).add(c);
+			} else if (c.getType() == CityType.CITY || c.getType() == CityType.TOWN) {
+				types.get(BinaryMapAddressReaderAdapter.CITY_TOWN_TYPE - 1).add(c);
+			} else {
+				types.get(BinaryMapAddressReaderAdapter.VILLAGES_TYPE - 1).add(c);
+			}
+		}
+		startFixed32Field(OsmandOdb.OsmAndStructure.ADDRESSINDEX_FIELD_NUMBER);
+		codedOutStream.writeString(OsmandOdb.OsmAndAddressIndex.NAME_FIELD_NUMBER, name);
+		if (!Algorithms.isEmpty(enName)) {
+			codedOutStream.writeString(OsmandOdb.OsmAndAddressIndex.NAME_EN_FIELD_NUMBER, enName);
+		}
+		// type, position of the object and position of its city (streets only) by key
+		Map<String, TLongArrayList> nameIndex = new TreeMap<String, TLongArrayList>();
+		for (int i = 0; i < types.size(); i++) {
+			if (!types.get(i).isEmpty()) {
+				writeCitiesIndex(i + 1, types.get(i), nameIndex);
+			}
+		}
+		if (!nameIndex.isEmpty()) {
+			writeAddressNameIndex(nameIndex);
+		}
+		endFixed32Field();
+	}
+
+	private static void addAddressNameIndex(Map<String, TLongArrayList> nameIndex, MapObject o, int type,
+			long pointer, long cityPointer) {
+		Set<String> keys = new HashSet<String>();
+		addNameIndexKeys(keys, o.getName());
+		addNameIndexKeys(keys, o.getEnName());
+		for (String key : keys) {
+			TLongArrayList list = nameIndex.get(key);
+			if (list == null) {
+				list = new TLongArrayList();
+				nameIndex.put(key, list);
+			}
+			list.add(type);
+			list.add(pointer);
+			list.add(cityPointer);
+		}
+	}
+
+	/**
+	 * Objects are written before the name index, so shifts to them are known
+	 */
+	private void writeAddressNameIndex(Map<String, TLongArrayList> nameIndex) throws IOException {
+		startFixed32Field(OsmandOdb.OsmAndAddressIndex.NAMEINDEX_FIELD_NUMBER);
+		long tablePointer = startFixed32Field(OsmandOdb.OsmAndAddressNameIndexData.TABLE_FIELD_NUMBER) + 4;
+		long[] valuePointers = writeNameIndexTable(nameIndex.keySet());
+		endFixed32Field();
+		int k = 0;
+		for (TLongArrayList list : nameIndex.values()) {
+			codedOutStream.writeTag(OsmandOdb.OsmAndAddressNameIndexData.ATOM_FIELD_NUMBER, WIRETYPE_LENGTH_DELIMITED);
+			long pointer = getFilePointer();
+			writeIntAt(valuePointers[k++], (int) (pointer - tablePointer));
+			CodedOutputStream data = objectBuffer.start();
+			for (int i = 0; i < list.size(); i += 3) {
+				CodedOutputStream atom = fieldBuffer.start();
+				atom.writeInt32(OsmandOdb.AddressNameIndexDataAtom.TYPE_FIELD_NUMBER, (int) list.get(i));
+				atom.writeInt32(OsmandOdb.AddressNameIndexDataAtom.SHIFTTOINDEX_FIELD_NUMBER,
+						(int) (pointer - list.get(i + 1)));
+				if (list.get(i + 2) != -1) {
+					atom.writeInt32(OsmandOdb.AddressNameIndexDataAtom.SHIFTTOCITYINDEX_FIELD_NUMBER,
+							(int) (pointer - list.get(i + 2)));
+				}
+				fieldBuffer.writeTo(data, OsmandOdb.OsmAndAddressNameIndexData.AddressNameIndexData.ATOM_FIELD_NUMBER);
+			}
+			objectBuffer.writeDelimited(codedOutStream);
+		}
+		endFixed32Field();
+	}
+
+	private void writeCitiesIndex(int type, List<City> cities, Map<String, TLongArrayList> nameIndex)
+			throws IOException {
+		startFixed32Field(OsmandOdb.OsmAndAddressIndex.CITIES_FIELD_NUMBER);
+		codedOutStream.writeUInt32(OsmandOdb.OsmAndAddressIndex.CitiesIndex.TYPE_FIELD_NUMBER, type);
+		// shift to the city block is counted from the city message
+		long[] cityPointers = new long[cities.size()];
+		long[] shiftPointers = new long[cities.size()];
+		for (int i = 0; i < cities.size(); i++) {
+			City c = cities.get(i);
+			CodedOutputStream out = objectBuffer.start();
+			if (!c.isPostcode()) {
+				out.writeUInt32(OsmandOdb.CityIndex.CITY_TYPE_FIELD_NUMBER, c.getType().ordinal());
+			}
+			out.writeString(OsmandOdb.CityIndex.NAME_FIELD_NUMBER, c.getName());
+			writeEnName(out, OsmandOdb.CityIndex.NAME_EN_FIELD_NUMBER, c);
+			if (c.getId() != null) {
+				out.writeUInt64(OsmandOdb.CityIndex.ID_FIELD_NUMBER, c.getId());
+			}
+			out.writeUInt32(OsmandOdb.CityIndex.X_FIELD_NUMBER, MapUtils.get31TileNumberX(c.getLocation()
+					.getLongitude()));
+			out.writeUInt32(OsmandOdb.CityIndex.Y_FIELD_NUMBER, MapUtils.get31TileNumberY(c.getLocation()
+					.getLatitude()));
+			out.writeFixed32(OsmandOdb.CityIndex.SHIFTTOCITYBLOCKINDEX_FIELD_NUMBER, 0);
+			int shiftInMessage = objectBuffer.position() - 4;
+			codedOutStream.writeTag(OsmandOdb.OsmAndAddressIndex.CitiesIndex.CITIES_FIELD_NUMBER,
+					WIRETYPE_LENGTH_DELIMITED);
+			cityPointers[i] = getFilePointer();
+			codedOutStream.writeRawVarint32(objectBuffer.length());
+			shiftPointers[i] = getFilePointer() + shiftInMessage;
+			objectBuffer.writeContent(codedOutStream);
+			addAddressNameIndex(nameIndex, c, type, cityPointers[i], -1);
+		}
+		for (int i = 0; i < cities.size(); i++) {
+			codedOutStream.writeTag(OsmandOdb.OsmAndAddressIndex.CitiesIndex.BLOCKS_FIELD_NUMBER,
+					WIRETYPE_LENGTH_DELIMITED);
+			writeIntAt(shiftPointers[i], (int) (getFilePointer() - cityPointers[i]));
+			List<Street> streets = new ArrayList<Street>();
+			TIntArrayList streetPositions = writeCityBlock(cities.get(i), streets);
+			long blockPointer = getFilePointer() + CodedOutputStream.computeRawVarint32Size(blockBuffer.length());
+			for (int j = 0; j < streets.size(); j++) {
+				addAddressNameIndex(nameIndex, streets.get(j), BinaryMapAddressReaderAdapter.STREET_TYPE,
+						blockPointer + streetPositions.get(j), cityPointers[i]);
+			}
+			blockBuffer.writeDelimited(codedOutStream);
+		}
+		endFixed32Field();
+	}
+
+	private static void writeEnName(CodedOutputStream out, int fieldNumber, MapObject o) throws IOException {
+		if (!Algorithms.isEmpty(o.getEnName())) {
+			out.writeString(fieldNumber, o.getEnName());
+		}
+	}
+
+	/**
+	 * @param streets written streets
+	 * @return positions of the written streets in the block
+	 */
+	private TIntArrayList writeCityBlock(City c, List<Street> streets) throws IOException {
+		TIntArrayList positions = new TIntArrayList();
+		CodedOutputStream block = blockBuffer.start();
+		// reader restores city location from 31 coordinates and counts streets from it
+		LatLon cityLocation = new LatLon(MapUtils.get31LatitudeY(MapUtils.get31TileNumberY(c.getLocation()
+				.getLatitude())), MapUtils.get31LongitudeX(MapUtils.get31TileNumberX(c.getLocation().getLongitude())));
+		int city24X = MapUtils.get31TileNumberX(cityLocation.getLongitude()) >> 7;
+		int city24Y = MapUtils.get31TileNumberY(cityLocation.getLatitude()) >> 7;
+		for (Street s : c.getStreets()) {
+			if (s.getLocation() == null) {
+				continue;
+			}
+			CodedOutputStream out = objectBuffer.start();
+			out.writeString(OsmandOdb.StreetIndex.NAME_FIELD_NUMBER, s.getName());
+			writeEnName(out, OsmandOdb.StreetIndex.NAME_EN_FIELD_NUMBER, s);
+			int street24X = MapUtils.get31TileNumberX(s.getLocation().getLongitude()) >> 7;
+			int street24Y = MapUtils.get31TileNumberY(s.getLocation().getLatitude()) >> 7;
+			out.writeSInt32(OsmandOdb.StreetIndex.X_FIELD_NUMBER, street24X - city24X);
+			out.writeSInt32(OsmandOdb.StreetIndex.Y_FIELD_NUMBER, street24Y - city24Y);
+			// buildings and intersections are counted from the street location restored from 24 zoom tile
+			int base24X = (int) MapUtils.getTileNumberX(24, MapUtils.getLongitudeFromTile(24, street24X));
+			int base24Y = (int) MapUtils.getTileNumberY(24, MapUtils.getLatitudeFromTile(24, street24Y));
+			for (Street is : s.getIntersectedStreets()) {
+				if (is.getLocation() == null) {
+					continue;
+				}
+				CodedOutputStream i = fieldBuffer.start();
+				i.writeString(OsmandOdb.StreetIntersection.NAME_FIELD_NUMBER, is.getName());
+				writeEnName(i, OsmandOdb.StreetIntersection.NAME_EN_FIELD_NUMBER, is);
+				i.writeSInt32(OsmandOdb.StreetIntersection.INTERSECTEDX_FIELD_NUMBER,
+						get24X(is.getLocation()) - base24X);
+				i.writeSInt32(OsmandOdb.StreetIntersection.INTERSECTEDY_FIELD_NUMBER,
+						get24Y(is.getLocation()) - base24Y);
+				fieldBuffer.writeTo(out, OsmandOdb.StreetIndex.INTERSECTIONS_FIELD_NUMBER);
+			}
+			if (s.getId() != null) {
+				out.writeUInt64(OsmandOdb.StreetIndex.ID_FIELD_NUMBER, s.getId());
+			}
+			for (Building b : s.getBuildings()) {
+				if (b.getLocation() == null) {
+					continue;
+				}
+				CodedOutputStream bo = fieldBuffer.start();
+				bo.writeString(OsmandOdb.BuildingIndex.NAME_FIELD_NUMBER, b.getName());
+				writeEnName(bo, OsmandOdb.BuildingIndex.NAME_EN_FIELD_NUMBER, b);
+				if (!Algorithms.isEmpty(b.getName2())) {
+					bo.writeString(OsmandOdb.BuildingIndex.NAME2_FIELD_NUMBER, b.getName2());
+				}
+				if (b.getInterpolationInterval() > 0) {
+					bo.writeSInt32(OsmandOdb.BuildingIndex.INTERPOLATION_FIELD_NUMBER, b.getInterpolationInterval());
+				} else if (b.getInterpolationType() != null) {
+					bo.writeSInt32(OsmandOdb.BuildingIndex.INTERPOLATION_FIELD_NUMBER, b.getInterpolationType()
+							.getValue());
+				}
+				bo.writeSInt32(OsmandOdb.BuildingIndex.X_FIELD_NUMBER, get24X(b.getLocation()) - base24X);
+				bo.writeSInt32(OsmandOdb.BuildingIndex.Y_FIELD_NUMBER, get24Y(b.getLocation()) - base24Y);
+				if (b.getLatLon2() != null) {
+					bo.writeSInt32(OsmandOdb.BuildingIndex.X2_FIELD_NUMBER, get24X(b.getLatLon2()) - base24X);
+					bo.writeSInt32(OsmandOdb.BuildingIndex.Y2_FIELD_NUMBER, get24Y(b.getLatLon2()) - base24Y);
+				}
+				if (b.getId() != null) {
+					bo.writeUInt64(OsmandOdb.BuildingIndex.ID_FIELD_NUMBER, b.getId());
+				}
+				if (!Algorithms.isEmpty(b.getPostcode())) {
+					bo.writeString(OsmandOdb.BuildingIndex.POSTCODE_FIELD_NUMBER, b.getPostcode());
+				}
+				fieldBuffer.writeTo(out, OsmandOdb.StreetIndex.BUILDINGS_FIELD_NUMBER);
+			}
+			block.writeTag(OsmandOdb.CityBlockIndex.STREETS_FIELD_NUMBER, WIRETYPE_LENGTH_DELIMITED);
+			positions.add(blockBuffer.position());
+			streets.add(s);
+			objectBuffer.writeDelimited(block);
+		}
+		return positions;
+	}
+
+	private static int get24X(LatLon l) {
+		return MapUtils.get31TileNumberX(l.getLongitude()) >> 7;
+	}
+
+	private static int get24Y(LatLon l) {
+		return MapUtils.get31TileNumberY(l.getLatitude()) >> 7;
+	}
+}
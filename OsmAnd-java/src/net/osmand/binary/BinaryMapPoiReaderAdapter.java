@@ -3,12 +3,14 @@ package net.osmand.binary;
 
 import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TIntLongHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.hash.TLongHashSet;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -57,6 +59,9 @@ public class BinaryMapPoiReaderAdapter {
 		List<List<String> > subcategories = new ArrayList<List<String> >();
 		List<PoiSubType> subTypes = new ArrayList<PoiSubType>();
 		
+		// name index table with collation keys, read on first search by name
+		volatile IndexedStringTableCache nameIndexCache;
+		
 		double leftLongitude;
 		double rightLongitude;
 		double topLatitude;
@@ -263,15 +268,31 @@ public class BinaryMapPoiReaderAdapter {
 	}
 	
 	public void initCategories(PoiRegion region) throws IOException {
-		if(region.categories.isEmpty()) {
-			codedIS.seek(region.filePointer);
-			int oldLimit = codedIS.pushLimit(region.length);
-			readPoiIndex(region, true);
-			codedIS.popLimit(oldLimit);
+		synchronized (region) {
+			if (region.categories.isEmpty()) {
+				codedIS.seek(region.filePointer);
+				int oldLimit = codedIS.pushLimit(region.length);
+				readPoiIndex(region, true);
+				codedIS.popLimit(oldLimit);
+			}
 		}
 	}
 	
 	protected void searchPoiByName( PoiRegion region, SearchRequest<Amenity> req) throws IOException {
+		searchPoiByName(region, req, null);
+	}
+	
+	/**
+	 * Decoded name index data and poi boxes of the region kept between searches of {@link NameSearchSession}
+	 */
+	static class PoiNameSearchCache {
+		// x31, y31, shift of name index atoms by offset of name index data
+		final TIntObjectHashMap<int[]> nameIndexData = new TIntObjectHashMap<int[]>();
+		final TIntObjectHashMap<PoiBlock> blocks = new TIntObjectHashMap<PoiBlock>();
+		int size;
+	}
+	
+	protected void searchPoiByName( PoiRegion region, SearchRequest<Amenity> req, PoiNameSearchCache cache) throws IOException {
 		TIntLongHashMap offsets = new TIntLongHashMap();
 		CollatorStringMatcher matcher = new CollatorStringMatcher(req.nameQuery, 
 				StringMatcherMode.CHECK_STARTS_FROM_SPACE);
@@ -290,7 +311,7 @@ public class BinaryMapPoiReaderAdapter {
 				int length = readInt();
 				int oldLimit = codedIS.pushLimit(length);
 				// here offsets are sorted by distance
-				offsets = readPoiNameIndex(matcher.getCollator(), req.nameQuery, req);
+				offsets = readPoiNameIndex(region, matcher.getCollator(), req.nameQuery, req, cache);
 				codedIS.popLimit(oldLimit);
 				break;
 			case OsmandOdb.OsmAndPoiIndex.POIDATA_FIELD_NUMBER :
@@ -325,6 +346,10 @@ public class BinaryMapPoiReaderAdapter {
 				
 				LOG.info("Searched poi structure in "+(System.currentTimeMillis() - time) + 
 						"ms. Found " + offKeys.length +" subtress");
+				if (cache != null) {
+					searchCachedPoiData(offKeys, indexOffset, matcher, req, region, cache);
+					return;
+				}
 				for (int j = 0; j < offKeys.length; j++) {
 					codedIS.seek(offKeys[j] + indexOffset);
 					int len = readInt();
@@ -346,7 +371,49 @@ public class BinaryMapPoiReaderAdapter {
 		}
 	}
 	
-	private TIntLongHashMap readPoiNameIndex(Collator instance, String query, SearchRequest<Amenity> req) throws IOException {
+	private void searchCachedPoiData(Integer[] offKeys, int indexOffset, CollatorStringMatcher matcher,
+			SearchRequest<Amenity> req, PoiRegion region, PoiNameSearchCache cache) throws IOException {
+		// boxes decoded by previous queries go first, so first results are published without reading the file
+		for (int j = 0; j < offKeys.length; j++) {
+			PoiBlock block = cache.blocks.get(offKeys[j] + indexOffset);
+			if (block != null && !publishPoiBlock(block, matcher, req)) {
+				return;
+			}
+		}
+		for (int j = 0; j < offKeys.length; j++) {
+			int blockOffset = offKeys[j] + indexOffset;
+			if (!cache.blocks.containsKey(blockOffset)) {
+				PoiBlock block = readPoiBlock(blockOffset, region);
+				cache.blocks.put(blockOffset, block);
+				cache.size += block.amenities.size();
+				if (!publishPoiBlock(block, matcher, req)) {
+					return;
+				}
+			}
+		}
+	}
+	
+	// objects are counted as they are counted when the box is read from file
+	private boolean publishPoiBlock(PoiBlock block, CollatorStringMatcher matcher, SearchRequest<Amenity> req) {
+		for (int i = 0; i < block.amenities.size(); i++) {
+			if (req.isCancelled() || req.limitExceeded()) {
+				return false;
+			}
+			req.numberOfVisitedObjects++;
+			if (!block.isAccepted(i, req)) {
+				continue;
+			}
+			req.numberOfAcceptedObjects++;
+			Amenity am = block.amenities.get(i);
+			if (matcher.matches(am.getName(false)) || matcher.matches(am.getName(true))) {
+				req.publish(block.filterAmenity(i, req));
+			}
+		}
+		return true;
+	}
+	
+	private TIntLongHashMap readPoiNameIndex(PoiRegion region, Collator instance, String query, SearchRequest<Amenity> req,
+			PoiNameSearchCache cache) throws IOException {
 		TIntLongHashMap offsets = new TIntLongHashMap();
 		TIntArrayList dataOffsets = null;
 		int offset = 0;
@@ -361,18 +428,43 @@ public class BinaryMapPoiReaderAdapter {
 				int oldLimit = codedIS.pushLimit(length);
 				dataOffsets = new TIntArrayList();
 				offset = codedIS.getTotalBytesRead();
-				map.readIndexedStringTable(instance, query, "", dataOffsets, 0);
+				IndexedStringTableCache tableCache = region.nameIndexCache;
+				if (tableCache == null || !tableCache.isCachedFor(instance, offset)) {
+					tableCache = map.readIndexedStringTable(instance);
+					region.nameIndexCache = tableCache;
+				} else {
+					codedIS.skipRawBytes(codedIS.getBytesUntilLimit());
+				}
+				tableCache.search(query, dataOffsets, map);
 				codedIS.popLimit(oldLimit);
 				break; }
 			case OsmandOdb.OsmAndPoiNameIndex.DATA_FIELD_NUMBER : {
 				if(dataOffsets != null){
 					dataOffsets.sort(); // 1104125
+					TIntArrayList atoms = new TIntArrayList();
 					for (int i = 0; i < dataOffsets.size(); i++) {
-						codedIS.seek(dataOffsets.get(i) + offset);
-						int len = codedIS.readRawVarint32();
-						int oldLim = codedIS.pushLimit(len);
-						readPoiNameIndexData(offsets, req);
-						codedIS.popLimit(oldLim);
+						int dataOffset = dataOffsets.get(i) + offset;
+						int[] cached = cache == null ? null : cache.nameIndexData.get(dataOffset);
+						if (cached == null) {
+							codedIS.seek(dataOffset);
+							int len = codedIS.readRawVarint32();
+							int oldLim = codedIS.pushLimit(len);
+							atoms.resetQuick();
+							readPoiNameIndexData(atoms);
+							codedIS.popLimit(oldLim);
+							cached = atoms.toArray();
+							if (cache != null) {
+								cache.nameIndexData.put(dataOffset, cached);
+							}
+						}
+						for (int k = 0; k < cached.length; k += 3) {
+							int x31 = cached[k];
+							int y31 = cached[k + 1];
+							if (req.contains(x31, y31, x31, y31)) {
+								long d = Math.abs(req.x - x31) + Math.abs(req.y - y31);
+								offsets.put(cached[k + 2], d);
+							}
+						}
 						if (req.isCancelled()) {
 							codedIS.skipRawBytes(codedIS.getBytesUntilLimit());
 							return offsets;
@@ -389,7 +481,7 @@ public class BinaryMapPoiReaderAdapter {
 		
 	}
 
-	private void readPoiNameIndexData(TIntLongHashMap offsets, SearchRequest<Amenity> req) throws IOException {
+	private void readPoiNameIndexData(TIntArrayList atoms) throws IOException {
 		while(true){
 			int t = codedIS.readTag();
 			int tag = WireFormat.getTagFieldNumber(t);
@@ -399,7 +491,7 @@ public class BinaryMapPoiReaderAdapter {
 			case OsmAndPoiNameIndexData.ATOMS_FIELD_NUMBER :
 				int len = codedIS.readRawVarint32();
 				int oldLim = codedIS.pushLimit(len);
-				readPoiNameIndexDataAtom(offsets, req);
+				readPoiNameIndexDataAtom(atoms);
 				codedIS.popLimit(oldLim);
 				break;
 			default:
@@ -410,7 +502,7 @@ public class BinaryMapPoiReaderAdapter {
 		
 	}
 
-	private void readPoiNameIndexDataAtom(TIntLongHashMap offsets, SearchRequest<Amenity> req) throws IOException {
+	private void readPoiNameIndexDataAtom(TIntArrayList atoms) throws IOException {
 		int x = 0;
 		int y = 0;
 		int zoom = 15;
@@ -433,10 +525,9 @@ public class BinaryMapPoiReaderAdapter {
 				int x31 = (x << (31 - zoom));
 				int y31 = (y << (31 - zoom));
 				int shift = readInt();
-				if (req.contains(x31, y31, x31, y31)) {
-					long d = Math.abs(req.x - x31) + Math.abs(req.y - y31);
-					offsets.put(shift, d);
-				}
+				atoms.add(x31);
+				atoms.add(y31);
+				atoms.add(shift);
 				break;
 			default:
 				skipUnknownField(t);
@@ -471,7 +562,7 @@ public class BinaryMapPoiReaderAdapter {
 			case OsmandOdb.OsmAndPoiIndex.BOXES_FIELD_NUMBER :
 				length = readInt();
 				oldLimit = codedIS.pushLimit(length);
-				readBoxField(left31, right31, top31, bottom31, 0, 0, 0, offsetsMap,  skipTiles, req, region);
+				readBoxField(left31, right31, top31, bottom31, 0, 0, 0, offsetsMap,  skipTiles, req, region, null);
 				codedIS.popLimit(oldLimit);
 				break;
 			case OsmandOdb.OsmAndPoiIndex.POIDATA_FIELD_NUMBER :
@@ -483,12 +574,18 @@ public class BinaryMapPoiReaderAdapter {
 				}
 				LOG.info("Searched poi structure in "+(System.currentTimeMillis() - time) + 
 						"ms. Found " + offsets.length +" subtress");
+				boolean useCache = map.isBlockCacheEnabled() && req.radius <= 0;
 				for (int j = 0; j < offsets.length; j++) {
-					codedIS.seek(offsets[j] + indexOffset);
-					int len = readInt();
-					int oldLim = codedIS.pushLimit(len);
-					readPoiData(left31, right31, top31, bottom31, req, region, skipTiles, zoomToSkip);
-					codedIS.popLimit(oldLim);
+					if (useCache) {
+						readCachedPoiData(offsets[j] + indexOffset, left31, right31, top31, bottom31, req, region,
+								skipTiles, zoomToSkip);
+					} else {
+						codedIS.seek(offsets[j] + indexOffset);
+						int len = readInt();
+						int oldLim = codedIS.pushLimit(len);
+						readPoiData(left31, right31, top31, bottom31, req, region, skipTiles, zoomToSkip);
+						codedIS.popLimit(oldLim);
+					}
 					if(req.isCancelled()){
 						return;
 					}
@@ -502,6 +599,92 @@ public class BinaryMapPoiReaderAdapter {
 		}
 	}
 	
+	/**
+	 * Search of nearest poi : boxes farther from (x31, y31) than the current K-th result are not visited,
+	 * data boxes are read in order of distance until the next box is farther than the K-th result.
+	 */
+	protected void searchNearestPoi(int x31, int y31, SearchRequest<Amenity> req, PoiRegion region,
+			ParallelPoiSearch.NearestPoiHeap heap) throws IOException {
+		int indexOffset = codedIS.getTotalBytesRead();
+		final TIntArrayList blockTiles = new TIntArrayList();
+		while(true){
+			if(req.isCancelled()){
+				return;
+			}
+			int t = codedIS.readTag();
+			int tag = WireFormat.getTagFieldNumber(t);
+			switch (tag) {
+			case 0:
+				return;
+			case OsmandOdb.OsmAndPoiIndex.BOXES_FIELD_NUMBER : {
+				int left31 = req.left;
+				int right31 = req.right;
+				int top31 = req.top;
+				int bottom31 = req.bottom;
+				long threshold = heap.getThreshold();
+				if (threshold != Long.MAX_VALUE) {
+					// results of other regions limit the search area
+					long r = (long) Math.sqrt(threshold) + 1;
+					left31 = (int) Math.max(left31, x31 - r);
+					right31 = (int) Math.min(right31, x31 + r);
+					top31 = (int) Math.max(top31, y31 - r);
+					bottom31 = (int) Math.min(bottom31, y31 + r);
+				}
+				int length = readInt();
+				int oldLimit = codedIS.pushLimit(length);
+				readBoxField(left31, right31, top31, bottom31, 0, 0, 0, new TIntLongHashMap(), null, req, region, blockTiles);
+				codedIS.popLimit(oldLimit);
+			} break;
+			case OsmandOdb.OsmAndPoiIndex.POIDATA_FIELD_NUMBER : {
+				int blocks = blockTiles.size() / 4;
+				final long[] dist = new long[blocks];
+				Integer[] order = new Integer[blocks];
+				for (int i = 0; i < blocks; i++) {
+					int zoom = blockTiles.get(i * 4 + 3);
+					long xL = ((long) blockTiles.get(i * 4 + 1)) << (31 - zoom);
+					long yT = ((long) blockTiles.get(i * 4 + 2)) << (31 - zoom);
+					long size = 1l << (31 - zoom);
+					long dx = Math.max(0, Math.max(xL - x31, x31 - (xL + size - 1)));
+					long dy = Math.max(0, Math.max(yT - y31, y31 - (yT + size - 1)));
+					dist[i] = dx * dx + dy * dy;
+					order[i] = i;
+				}
+				Arrays.sort(order, new Comparator<Integer>() {
+					@Override
+					public int compare(Integer o1, Integer o2) {
+						return dist[o1] < dist[o2] ? -1 : (dist[o1] == dist[o2] ? 0 : 1);
+					}
+				});
+				boolean useCache = map.isBlockCacheEnabled() && req.radius <= 0;
+				for (int j = 0; j < blocks; j++) {
+					int i = order[j];
+					if (dist[i] > heap.getThreshold()) {
+						break;
+					}
+					int offset = blockTiles.get(i * 4) + indexOffset;
+					if (useCache) {
+						readCachedPoiData(offset, req.left, req.right, req.top, req.bottom, req, region, null, 31);
+					} else {
+						codedIS.seek(offset);
+						int len = readInt();
+						int oldLim = codedIS.pushLimit(len);
+						readPoiData(req.left, req.right, req.top, req.bottom, req, region, null, 31);
+						codedIS.popLimit(oldLim);
+					}
+					if (req.isCancelled()) {
+						return;
+					}
+				}
+				codedIS.skipRawBytes(codedIS.getBytesUntilLimit());
+				return;
+			}
+			default:
+				skipUnknownField(t);
+				break;
+			}
+		}
+	}
+	
 	private void readPoiData(CollatorStringMatcher matcher, SearchRequest<Amenity> req, PoiRegion region) throws IOException {
 		int x = 0;
 		int y = 0;
@@ -527,7 +710,7 @@ public class BinaryMapPoiReaderAdapter {
 			case OsmandOdb.OsmAndPoiBoxData.POIDATA_FIELD_NUMBER:
 				int len = codedIS.readRawVarint32();
 				int oldLim = codedIS.pushLimit(len);
-				Amenity am = readPoiPoint(0, Integer.MAX_VALUE, 0, Integer.MAX_VALUE, x, y, zoom, req, region, false);
+				Amenity am = readPoiPoint(0, Integer.MAX_VALUE, 0, Integer.MAX_VALUE, x, y, zoom, req, region, false, null);
 				codedIS.popLimit(oldLim);
 				if (am != null) {
 					if(matcher.matches(am.getName(false)) || matcher.matches(am.getName(true))) {
@@ -568,7 +751,7 @@ public class BinaryMapPoiReaderAdapter {
 			case OsmandOdb.OsmAndPoiBoxData.POIDATA_FIELD_NUMBER:
 				int len = codedIS.readRawVarint32();
 				int oldLim = codedIS.pushLimit(len);
-				Amenity am = readPoiPoint(left31, right31, top31, bottom31, x, y, zoom, req, region, true);
+				Amenity am = readPoiPoint(left31, right31, top31, bottom31, x, y, zoom, req, region, true, null);
 				codedIS.popLimit(oldLim);
 				if (am != null) {
 					if (toSkip != null) {
@@ -597,6 +780,196 @@ public class BinaryMapPoiReaderAdapter {
 		}
 	}
 	
+	private void readCachedPoiData(int blockOffset, int left31, int right31, int top31, int bottom31,
+			SearchRequest<Amenity> req, PoiRegion region, TLongHashSet toSkip, int zSkip) throws IOException {
+		PoiBlock block = (PoiBlock) map.blockCache.get(map.blockCacheFile, blockOffset);
+		if (block == null) {
+			block = readPoiBlock(blockOffset, region);
+			map.blockCache.put(map.blockCacheFile, blockOffset, block, block.getEstimatedSize());
+		}
+		for (int i = 0; i < block.amenities.size(); i++) {
+			if (req.isCancelled()) {
+				return;
+			}
+			req.numberOfVisitedObjects++;
+			int x = block.x.get(i);
+			int y = block.y.get(i);
+			if (left31 > x || right31 < x || top31 > y || bottom31 < y) {
+				continue;
+			}
+			Amenity am = block.filterAmenity(i, req);
+			if (am == null) {
+				continue;
+			}
+			req.numberOfAcceptedObjects++;
+			if (toSkip != null) {
+				int xp = (int) MapUtils.getTileNumberX(zSkip, am.getLocation().getLongitude());
+				int yp = (int) MapUtils.getTileNumberY(zSkip, am.getLocation().getLatitude());
+				long val = (((long) xp) << zSkip) | yp;
+				if (!toSkip.contains(val)) {
+					boolean publish = req.publish(am);
+					if (publish) {
+						toSkip.add(val);
+					}
+				}
+				if (zSkip <= block.zoom) {
+					return;
+				}
+			} else {
+				req.publish(am);
+			}
+		}
+	}
+	
+	private PoiBlock readPoiBlock(int blockOffset, PoiRegion region) throws IOException {
+		// decode all points without filters, so the block could be reused by any request
+		SearchRequest<Amenity> fullReq = new SearchRequest<Amenity>();
+		PoiBlock block = new PoiBlock();
+		codedIS.seek(blockOffset);
+		int len = readInt();
+		int oldLim = codedIS.pushLimit(len);
+		int x = 0;
+		int y = 0;
+		while (true) {
+			int t = codedIS.readTag();
+			int tag = WireFormat.getTagFieldNumber(t);
+			if (tag == 0) {
+				break;
+			}
+			switch (tag) {
+			case OsmandOdb.OsmAndPoiBoxData.X_FIELD_NUMBER:
+				x = codedIS.readUInt32();
+				break;
+			case OsmandOdb.OsmAndPoiBoxData.ZOOM_FIELD_NUMBER:
+				block.zoom = codedIS.readUInt32();
+				break;
+			case OsmandOdb.OsmAndPoiBoxData.Y_FIELD_NUMBER:
+				y = codedIS.readUInt32();
+				break;
+			case OsmandOdb.OsmAndPoiBoxData.POIDATA_FIELD_NUMBER:
+				int l = codedIS.readRawVarint32();
+				int old = codedIS.pushLimit(l);
+				readPoiPoint(0, Integer.MAX_VALUE, 0, Integer.MAX_VALUE, x, y, block.zoom, fullReq, region, false, block);
+				block.finishPoint();
+				codedIS.popLimit(old);
+				break;
+			default:
+				skipUnknownField(t);
+				break;
+			}
+		}
+		codedIS.popLimit(oldLim);
+		return block;
+	}
+	
+	/**
+	 * Decoded poi box with all categories of every point, so type filters could be applied later
+	 */
+	static class PoiBlock {
+		int zoom;
+		final List<Amenity> amenities = new ArrayList<Amenity>();
+		final TIntArrayList x = new TIntArrayList();
+		final TIntArrayList y = new TIntArrayList();
+		final List<PoiCategory[]> types = new ArrayList<PoiCategory[]>();
+		final List<String[]> subtypes = new ArrayList<String[]>();
+		private final List<PoiCategory> pointTypes = new ArrayList<PoiCategory>();
+		private final List<String> pointSubtypes = new ArrayList<String>();
+		
+		void addCategory(PoiCategory type, String subtype) {
+			pointTypes.add(type);
+			pointSubtypes.add(subtype);
+		}
+		
+		void add(Amenity am, int x31, int y31) {
+			amenities.add(am);
+			x.add(x31);
+			y.add(y31);
+			types.add(pointTypes.toArray(new PoiCategory[pointTypes.size()]));
+			subtypes.add(pointSubtypes.toArray(new String[pointSubtypes.size()]));
+		}
+		
+		void finishPoint() {
+			pointTypes.clear();
+			pointSubtypes.clear();
+		}
+		
+		/**
+		 * @return true if any category of the point is accepted by the request filter
+		 */
+		boolean isAccepted(int i, SearchRequest<Amenity> req) {
+			if (req.poiTypeFilter == null) {
+				return true;
+			}
+			PoiCategory[] tps = types.get(i);
+			String[] sts = subtypes.get(i);
+			for (int k = 0; k < tps.length; k++) {
+				if (req.poiTypeFilter.accept(tps[k], sts[k])) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		Amenity filterAmenity(int i, SearchRequest<Amenity> req) {
+			Amenity am = amenities.get(i);
+			if (req.poiTypeFilter == null) {
+				return copyAmenity(am, am.getType(), am.getSubType());
+			}
+			PoiCategory[] tps = types.get(i);
+			String[] sts = subtypes.get(i);
+			PoiCategory amenityType = null;
+			String subType = null;
+			int accepted = 0;
+			for (int k = 0; k < tps.length; k++) {
+				if (req.poiTypeFilter.accept(tps[k], sts[k])) {
+					accepted++;
+					if (amenityType == null) {
+						amenityType = tps[k];
+						subType = sts[k];
+					} else {
+						subType = subType + ";" + sts[k];
+					}
+				}
+			}
+			if (accepted == 0) {
+				return null;
+			} else if (accepted == tps.length) {
+				return copyAmenity(am, am.getType(), am.getSubType());
+			}
+			return copyAmenity(am, amenityType, subType);
+		}
+		
+		// cached amenities are shared by all requests, so every request gets own copies it could modify
+		private static Amenity copyAmenity(Amenity am, PoiCategory type, String subType) {
+			Amenity copy = new Amenity();
+			copy.setId(am.getId());
+			copy.setName(am.getName());
+			copy.setEnName(am.getEnName());
+			copy.setLocation(am.getLocation().getLatitude(), am.getLocation().getLongitude());
+			if (!am.getAdditionalInfo().isEmpty()) {
+				// opening hours are kept in additional info too
+				copy.setAdditionalInfo(new LinkedHashMap<String, String>(am.getAdditionalInfo()));
+			}
+			copy.setType(type);
+			copy.setSubType(subType);
+			return copy;
+		}
+		
+		int getEstimatedSize() {
+			int sz = 64 + 16 * amenities.size();
+			for (int i = 0; i < amenities.size(); i++) {
+				Amenity am = amenities.get(i);
+				sz += 96 + 8 * types.get(i).length * 2;
+				sz += am.getName() == null ? 0 : 48 + 2 * am.getName().length();
+				sz += am.getEnName() == null ? 0 : 48 + 2 * am.getEnName().length();
+				for (String v : am.getAdditionalInfo().values()) {
+					sz += 64 + 2 * v.length();
+				}
+			}
+			return sz;
+		}
+	}
+	
 	private AmenityRoutePoint dist(LatLon l, List<Location> locations, double radius) {
 		float dist = (float) (radius + 0.1);
 		AmenityRoutePoint arp = null;
@@ -616,7 +989,8 @@ public class BinaryMapPoiReaderAdapter {
 		return arp;
 	}
 	private Amenity readPoiPoint(int left31, int right31, int top31, int bottom31, 
-			int px, int py, int zoom, SearchRequest<Amenity> req, PoiRegion region, boolean checkBounds) throws IOException {
+			int px, int py, int zoom, SearchRequest<Amenity> req, PoiRegion region, boolean checkBounds, 
+			PoiBlock block) throws IOException {
 		Amenity am = null;
 		int x = 0;
 		int y = 0;
@@ -636,6 +1010,9 @@ public class BinaryMapPoiReaderAdapter {
 					am.setEnName(Junidecode.unidecode(am.getName()));
 				}
 				req.numberOfAcceptedObjects++;
+				if (block != null) {
+					block.add(am, x, y);
+				}
 				if (req.radius > 0) {
 					LatLon loc = am.getLocation();
 					List<Location> locs = req.tiles.get(req.getTileHashOnPath(loc.getLatitude(), loc.getLongitude()));
@@ -703,6 +1080,9 @@ public class BinaryMapPoiReaderAdapter {
 						subtype = subcats.get(subcatId);
 					}
 				}
+				if (block != null) {
+					block.addCategory(type, subtype);
+				}
 				if (req.poiTypeFilter == null || req.poiTypeFilter.accept(type, subtype)) {
 					if (amenityType == null) {
 						amenityType = type;
@@ -787,8 +1167,12 @@ public class BinaryMapPoiReaderAdapter {
 		}
 	}
 
+	/**
+	 * @param blockTiles if not null offset, x, y, zoom of every found data box are added
+	 */
 	private boolean readBoxField(int left31, int right31, int top31, int bottom31,
-			int px, int py, int pzoom, TIntLongHashMap offsetsMap, TLongHashSet skipTiles, SearchRequest<Amenity> req, PoiRegion region) throws IOException {
+			int px, int py, int pzoom, TIntLongHashMap offsetsMap, TLongHashSet skipTiles, SearchRequest<Amenity> req, PoiRegion region,
+			TIntArrayList blockTiles) throws IOException {
 		req.numberOfReadSubtrees++;
 		int zoomToSkip = req.zoom + ZOOM_TO_SKIP_FILTER;
 		boolean checkBox = true;
@@ -849,7 +1233,8 @@ public class BinaryMapPoiReaderAdapter {
 				
 				int length = readInt();
 				int oldLimit = codedIS.pushLimit(length);
-				boolean exists = readBoxField(left31, right31, top31, bottom31, x, y, zoom, offsetsMap, skipTiles, req, region);
+				boolean exists = readBoxField(left31, right31, top31, bottom31, x, y, zoom, offsetsMap, skipTiles, req, region,
+						blockTiles);
 				codedIS.popLimit(oldLimit);
 				
 				if (skipTiles != null && zoom >= zoomToSkip && exists) {
@@ -872,6 +1257,12 @@ public class BinaryMapPoiReaderAdapter {
 				}
 				int offset = readInt();
 				if (read) {
+					if (blockTiles != null && !offsetsMap.containsKey(offset)) {
+						blockTiles.add(offset);
+						blockTiles.add(x);
+						blockTiles.add(y);
+						blockTiles.add(zoom);
+					}
 					offsetsMap.put(offset, l);
 					if (skipTiles != null && zoom >= zoomToSkip) {
 						long val = ((((long) x) >> (zoom - zoomToSkip)) << zoomToSkip)
@@ -206,7 +206,7 @@ public class BinaryMapRouteReaderAdapter {
 			return routeEncodingRules.get(id);
 		}
 
-		private void initRouteEncodingRule(int id, String tags, String val) {
+		public void initRouteEncodingRule(int id, String tags, String val) {
 			while (routeEncodingRules.size() <= id) {
 				routeEncodingRules.add(null);
 			}
@@ -297,7 +297,6 @@ public class BinaryMapRouteReaderAdapter {
 		public int bottom;
 		public int shiftToData;
 		public List<RouteSubregion> subregions = null;
-		public List<RouteDataObject> dataObjects = null;
 		
 		public int getEstimatedSize(){
 			int shallow = 7 * INT_SIZE + 4*3;
@@ -473,9 +472,9 @@ public class BinaryMapRouteReaderAdapter {
 			}
 		}
 	}
-	private void readRouteTreeData(RouteSubregion routeTree,  TLongArrayList idTables,
+	private void readRouteTreeData(RouteSubregion routeTree, List<RouteDataObject> dataObjects, TLongArrayList idTables,
 			TLongObjectHashMap<TLongArrayList> restrictions) throws IOException {
-		routeTree.dataObjects = new ArrayList<RouteDataObject>();
+		dataObjects.clear();
 		idTables.clear();
 		restrictions.clear();
 		List<String> stringTable = null;
@@ -488,7 +487,7 @@ public class BinaryMapRouteReaderAdapter {
 				while (it.hasNext()) {
 					it.advance();
 					int from = (int) it.key();
-					RouteDataObject fromr = routeTree.dataObjects.get(from);
+					RouteDataObject fromr = dataObjects.get(from);
 					fromr.restrictions = new long[it.value().size()];
 					for (int k = 0; k < fromr.restrictions.length; k++) {
 						int to = (int) (it.value().get(k) >> RouteDataObject.RESTRICTION_SHIFT);
@@ -496,7 +495,7 @@ public class BinaryMapRouteReaderAdapter {
 						fromr.restrictions[k] = valto;
 					}
 				}
-				for (RouteDataObject o : routeTree.dataObjects) {
+				for (RouteDataObject o : dataObjects) {
 					if (o != null) {
 						if (o.id < idTables.size()) {
 							o.id = idTables.get((int) o.id);
@@ -514,10 +513,10 @@ public class BinaryMapRouteReaderAdapter {
 				int length = codedIS.readRawVarint32();
 				int oldLimit = codedIS.pushLimit(length);
 				RouteDataObject obj = readRouteDataObject(routeTree.routeReg, routeTree.left, routeTree.top);
-				while(obj.id >= routeTree.dataObjects.size()) {
-					routeTree.dataObjects.add(null);
+				while(obj.id >= dataObjects.size()) {
+					dataObjects.add(null);
 				}
-				routeTree.dataObjects.set((int) obj.id,obj);
+				dataObjects.set((int) obj.id,obj);
 				codedIS.popLimit(oldLimit);
 				break;
 			case RouteDataBlock.IDTABLE_FIELD_NUMBER :
@@ -691,11 +690,14 @@ public class BinaryMapRouteReaderAdapter {
 	}
 
 	public void initRouteRegion(RouteRegion routeReg) throws IOException, InvalidProtocolBufferException {
-		if (routeReg.routeEncodingRules.isEmpty()) {
-			codedIS.seek(routeReg.filePointer);
-			int oldLimit = codedIS.pushLimit(routeReg.length);
-			readRouteIndex(routeReg);
-			codedIS.popLimit(oldLimit);
+		// region could be shared with other readers of the same file
+		synchronized (routeReg) {
+			if (routeReg.routeEncodingRules.isEmpty()) {
+				codedIS.seek(routeReg.filePointer);
+				int oldLimit = codedIS.pushLimit(routeReg.length);
+				readRouteIndex(routeReg);
+				codedIS.popLimit(oldLimit);
+			}
 		}
 	}
 
@@ -703,18 +705,73 @@ public class BinaryMapRouteReaderAdapter {
 	public List<RouteDataObject> loadRouteRegionData(RouteSubregion rs) throws IOException {
 		TLongArrayList idMap = new TLongArrayList();
 		TLongObjectHashMap<TLongArrayList> restrictionMap = new TLongObjectHashMap<TLongArrayList>();
-		if (rs.dataObjects == null) {
-			codedIS.seek(rs.filePointer + rs.shiftToData);
-			int limit = codedIS.readRawVarint32();
-			int oldLimit = codedIS.pushLimit(limit);
-			readRouteTreeData(rs, idMap, restrictionMap);
-			codedIS.popLimit(oldLimit);
-		}
-		List<RouteDataObject> res = rs.dataObjects;
-		rs.dataObjects = null;
+		return new ArrayList<RouteDataObject>(readRouteDataBlock(rs, idMap, restrictionMap));
+	}
+	
+	@SuppressWarnings("unchecked")
+	private List<RouteDataObject> readRouteDataBlock(RouteSubregion rs, TLongArrayList idMap,
+			TLongObjectHashMap<TLongArrayList> restrictionMap) throws IOException {
+		int blockOffset = rs.filePointer + rs.shiftToData;
+		List<RouteDataObject> dataObjects = null;
+		if (map.isBlockCacheEnabled()) {
+			dataObjects = (List<RouteDataObject>) map.blockCache.get(map.blockCacheFile, blockOffset);
+			if (dataObjects != null) {
+				return copyCachedObjects(dataObjects);
+			}
+		}
+		dataObjects = new ArrayList<RouteDataObject>();
+		codedIS.seek(blockOffset);
+		int limit = codedIS.readRawVarint32();
+		int oldLimit = codedIS.pushLimit(limit);
+		readRouteTreeData(rs, dataObjects, idMap, restrictionMap);
+		codedIS.popLimit(oldLimit);
+		if (map.isBlockCacheEnabled()) {
+			int sz = 16 + 4 * dataObjects.size();
+			for (RouteDataObject o : dataObjects) {
+				if (o != null) {
+					sz += getEstimatedSize(o);
+				}
+			}
+			map.blockCache.put(map.blockCacheFile, blockOffset, dataObjects, sz);
+			return copyCachedObjects(dataObjects);
+		}
+		return dataObjects;
+	}
+	
+	// cached objects are shared by all requests and threads but objects given to routing are modified
+	// (points are inserted at the route ends), so every request gets own copies
+	private static List<RouteDataObject> copyCachedObjects(List<RouteDataObject> cached) {
+		List<RouteDataObject> res = new ArrayList<RouteDataObject>(cached.size());
+		for (RouteDataObject o : cached) {
+			res.add(o == null ? null : new RouteDataObject(o));
+		}
 		return res;
 	}
 	
+	private static int getEstimatedSize(RouteDataObject o) {
+		int sz = 48;
+		sz += 16 + 4 * o.types.length;
+		sz += 32 + 8 * o.pointsX.length;
+		if (o.restrictions != null) {
+			sz += 16 + 8 * o.restrictions.length;
+		}
+		if (o.pointTypes != null) {
+			sz += 16 + 4 * o.pointTypes.length;
+			for (int[] pt : o.pointTypes) {
+				if (pt != null) {
+					sz += 16 + 4 * pt.length;
+				}
+			}
+		}
+		if (o.names != null) {
+			sz += 48;
+			for (String name : o.names.valueCollection()) {
+				sz += 48 + 2 * name.length();
+			}
+		}
+		return sz;
+	}
+	
 	public void loadRouteRegionData(List<RouteSubregion> toLoad, ResultMatcher<RouteDataObject> matcher) throws IOException {
 		Collections.sort(toLoad, new Comparator<RouteSubregion>() {
 			@Override
@@ -727,20 +784,23 @@ public class BinaryMapRouteReaderAdapter {
 		TLongArrayList idMap = new TLongArrayList();
 		TLongObjectHashMap<TLongArrayList> restrictionMap = new TLongObjectHashMap<TLongArrayList>();
 		for (RouteSubregion rs : toLoad) {
-			if (rs.dataObjects == null) {
-				codedIS.seek(rs.filePointer + rs.shiftToData);
-				int limit = codedIS.readRawVarint32();
-				int oldLimit = codedIS.pushLimit(limit);
-				readRouteTreeData(rs, idMap, restrictionMap);
-				codedIS.popLimit(oldLimit);
-			}
-			for (RouteDataObject ro : rs.dataObjects) {
+			List<RouteDataObject> dataObjects = readRouteDataBlock(rs, idMap, restrictionMap);
+			for (RouteDataObject ro : dataObjects) {
 				if (ro != null) {
 					matcher.publish(ro);
 				}
 			}
-			// free objects
-			rs.dataObjects = null;
+		}
+	}
+
+	private void initRouteTree(RouteSubregion rs, SearchRequest<?> req) throws IOException {
+		synchronized (rs) {
+			if (rs.subregions == null) {
+				codedIS.seek(rs.filePointer);
+				int old = codedIS.pushLimit(rs.length);
+				readRouteTree(rs, null, req.contains(rs.left, rs.top, rs.right, rs.bottom) ? -1 : 1, false);
+				codedIS.popLimit(old);
+			}
 		}
 	}
 
@@ -748,12 +808,7 @@ public class BinaryMapRouteReaderAdapter {
 			List<RouteSubregion> toLoad) throws IOException {
 		for (RouteSubregion rs : list) {
 			if (req.intersects(rs.left, rs.top, rs.right, rs.bottom)) {
-				if (rs.subregions == null) {
-					codedIS.seek(rs.filePointer);
-					int old = codedIS.pushLimit(rs.length);
-					readRouteTree(rs, null, req.contains(rs.left, rs.top, rs.right, rs.bottom) ? -1 : 1, false);
-					codedIS.popLimit(old);
-				}
+				initRouteTree(rs, req);
 				searchRouteRegionTree(req, rs.subregions, toLoad);
 
 				if (rs.shiftToData != 0) {
@@ -769,12 +824,7 @@ public class BinaryMapRouteReaderAdapter {
 			List<RouteSubregion> toLoad) throws IOException {
 		for (RouteSubregion rs : list) {
 			if (req.intersects(rs.left, rs.top, rs.right, rs.bottom)) {
-				if (rs.subregions == null) {
-					codedIS.seek(rs.filePointer);
-					int old = codedIS.pushLimit(rs.length);
-					readRouteTree(rs, null, req.contains(rs.left, rs.top, rs.right, rs.bottom) ? -1 : 1, false);
-					codedIS.popLimit(old);
-				}
+				initRouteTree(rs, req);
 				searchRouteRegionTree(req, rs.subregions, toLoad);
 
 				if (rs.shiftToData != 0) {
@@ -1,10 +1,13 @@
 package net.osmand.binary;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import net.osmand.PlatformUtil;
 import net.osmand.binary.BinaryMapAddressReaderAdapter.AddressRegion;
@@ -30,28 +33,108 @@ import net.osmand.util.MapUtils;
 
 import org.apache.commons.logging.Log;
 
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Cache of obf file structures (ind.cache), so files are opened without reading their headers.
+ * Cache file is memory mapped and only names, sizes and other metadata ({@link StoredFileIndex}) of its file indexes 
+ * are read at start, file index is decoded on the first use of the reader of that file. Format is the same 
+ * OsmAndStoredIndex message (native library reads it as well), not changed file indexes are copied to the new cache as they are.
+ */
 public class CachedOsmandIndexes {
 	
-	private OsmAndStoredIndex storedIndex;
-	private OsmAndStoredIndex.Builder storedIndexBuilder;
+	private MappedIndexFile storedFile;
+	// by file name in order of the cache file
+	private Map<String, StoredFileIndex> storedIndexes = new LinkedHashMap<String, StoredFileIndex>();
 	private Log log = PlatformUtil.getLog(CachedOsmandIndexes.class);
 	private boolean hasChanged = true;
 	
 	public static final int VERSION = 2;
 
-	public void addToCache(BinaryMapIndexReader reader, File f) {
-		hasChanged = true;
-		if(storedIndexBuilder == null) {
-			storedIndexBuilder = OsmandIndex.OsmAndStoredIndex.newBuilder();
-			storedIndexBuilder.setVersion(VERSION);
-			storedIndexBuilder.setDateCreated(System.currentTimeMillis());
-			if(storedIndex != null) {
-				for(FileIndex ex : storedIndex.getFileIndexList()) {
-					storedIndexBuilder.addFileIndex(ex);
-				}
-			}
+	/**
+	 * Metadata of the cached file which is available without decoding its file index
+	 */
+	public static class StoredFileIndex {
+		String fileName;
+		long size;
+		long dateModified;
+		int version;
+		boolean basemap;
+		boolean mapData;
+		boolean poiData;
+		boolean transportData;
+		boolean routeData;
+		List<String> regionNames = new ArrayList<String>();
+		// position of the message in the cache file (-1 for the new index)
+		int offset = -1;
+		int length;
+		FileIndex index;
+		
+		public String getFileName() {
+			return fileName;
+		}
+		
+		public long getSize() {
+			return size;
+		}
+		
+		public long getDateModified() {
+			return dateModified;
 		}
 		
+		public int getVersion() {
+			return version;
+		}
+		
+		public boolean isBasemap() {
+			return basemap;
+		}
+		
+		public boolean containsMapData() {
+			return mapData;
+		}
+		
+		public boolean containsPoiData() {
+			return poiData;
+		}
+		
+		public boolean containsRouteData() {
+			return routeData;
+		}
+		
+		public boolean hasTransportData() {
+			return transportData;
+		}
+		
+		/**
+		 * @see BinaryMapIndexReader#getRegionNames()
+		 */
+		public List<String> getRegionNames() {
+			return regionNames;
+		}
+	}
+
+	public synchronized void addToCache(BinaryMapIndexReader reader, File f) {
+		hasChanged = true;
+		StoredFileIndex stored = new StoredFileIndex();
+		stored.index = buildFileIndex(reader, f);
+		stored.fileName = stored.index.getFileName();
+		stored.size = stored.index.getSize();
+		stored.dateModified = stored.index.getDateModified();
+		stored.version = reader.getVersion();
+		stored.basemap = reader.isBasemap();
+		stored.mapData = reader.containsMapData();
+		stored.poiData = reader.containsPoiData();
+		stored.transportData = reader.hasTransportData();
+		stored.routeData = reader.containsRouteData();
+		stored.regionNames.addAll(reader.getRegionNames());
+		storedIndexes.put(stored.fileName, stored);
+	}
+
+	private FileIndex buildFileIndex(BinaryMapIndexReader reader, File f) {
 		FileIndex.Builder fileIndex = OsmandIndex.FileIndex.newBuilder();
 		long d = reader.getDateCreated();
 		fileIndex.setDateModified(d== 0?f.lastModified() : d);
@@ -149,8 +232,7 @@ public class CachedOsmandIndexes {
 			fileIndex.addRoutingIndex(routing);
 		}
 		
-		storedIndexBuilder.addFileIndex(fileIndex);
-		
+		return fileIndex.build();
 	}
 
 	private void addRouteSubregion(RoutingPart.Builder routing, RouteSubregion sub, boolean base) {
@@ -166,19 +248,25 @@ public class CachedOsmandIndexes {
 		routing.addSubregions(rpart);
 	}
 	
+	/**
+	 * @return metadata of the cached file or null if file is not cached (or changed)
+	 */
+	public synchronized StoredFileIndex getFileInfo(File f) {
+		StoredFileIndex found = storedIndexes.get(f.getName());
+		if (found != null && f.length() != found.size) {
+			// f.lastModified() == found.dateModified
+			found = null;
+		}
+		return found;
+	}
+	
+	/**
+	 * Reader of the cached file reads its indexes from the cache on the first use, 
+	 * not cached file is read at once and added to the cache.
+	 */
 	public BinaryMapIndexReader getReader(File f) throws IOException {
 		RandomAccessFile mf = new RandomAccessFile(f.getPath(), "r");
-		FileIndex found = null;
-		if (storedIndex != null) {
-			for (int i = 0; i < storedIndex.getFileIndexCount(); i++) {
-				FileIndex fi = storedIndex.getFileIndex(i);
-				if (f.length() == fi.getSize() && f.getName().equals(fi.getFileName())) {
-					// f.lastModified() == fi.getDateModified()
-					found = fi;
-					break;
-				}
-			}
-		}
+		final StoredFileIndex found = getFileInfo(f);
 		BinaryMapIndexReader reader = null;
 		if (found == null) {
 			long val = System.currentTimeMillis();
@@ -188,13 +276,32 @@ public class CachedOsmandIndexes {
 				log.debug("Initializing db " + f.getAbsolutePath() + " " + (System.currentTimeMillis() - val ) + "ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 			}
 		} else {
-			reader = initFileIndex(found, mf);
+			reader = new BinaryMapIndexReader(mf, false);
+			reader.version = found.version;
+			reader.dateCreated = found.dateModified;
+			reader.basemap = found.basemap;
+			reader.setIndexesLoader(new BinaryMapIndexReader.IndexesLoader() {
+				@Override
+				public void loadIndexes(BinaryMapIndexReader r) throws IOException {
+					initFileIndex(getFileIndex(found), r);
+				}
+			});
 		}
 		return reader;
 	}
+
+	private synchronized FileIndex getFileIndex(StoredFileIndex stored) throws IOException {
+		if (stored.index == null) {
+			CodedInputStream codedIS = storedFile.newCodedInputStream();
+			codedIS.seek(stored.offset);
+			int oldLimit = codedIS.pushLimit(stored.length);
+			stored.index = OsmandIndex.FileIndex.newBuilder().mergeFrom(codedIS).build();
+			codedIS.popLimit(oldLimit);
+		}
+		return stored.index;
+	}
 	
-	private BinaryMapIndexReader initFileIndex(FileIndex found, RandomAccessFile mf) throws IOException {
-		BinaryMapIndexReader reader = new BinaryMapIndexReader(mf, false);
+	private void initFileIndex(FileIndex found, BinaryMapIndexReader reader) {
 		reader.version = found.getVersion();
 		reader.dateCreated = found.getDateModified();
 		
@@ -294,33 +401,187 @@ public class CachedOsmandIndexes {
 			reader.routingIndexes.add(mi);
 			reader.indexes.add(mi);
 		}
-		
-		return reader;
 	}
 
-	public void readFromFile(File f, int version) throws IOException {
+	public synchronized void readFromFile(File f, int version) throws IOException {
 		long time = System.currentTimeMillis();
-		FileInputStream is = new FileInputStream(f);
+		MappedIndexFile mapped = mapFile(f);
+		boolean read = false;
 		try {
-			storedIndex = OsmandIndex.OsmAndStoredIndex.newBuilder().mergeFrom(is).build();
-			hasChanged = false;
-			if(storedIndex.getVersion() != version){
-				storedIndex = null;
+			CodedInputStream codedIS = mapped.newCodedInputStream();
+			Map<String, StoredFileIndex> indexes = new LinkedHashMap<String, StoredFileIndex>();
+			int storedVersion = 0;
+			while (true) {
+				int t = codedIS.readTag();
+				int tag = WireFormat.getTagFieldNumber(t);
+				switch (tag) {
+				case 0:
+					if (storedVersion == version) {
+						releaseStoredFile();
+						storedFile = mapped;
+						storedIndexes = indexes;
+						read = true;
+					}
+					hasChanged = false;
+					log.info("Initialize cache " + (System.currentTimeMillis() - time));
+					return;
+				case OsmAndStoredIndex.VERSION_FIELD_NUMBER:
+					storedVersion = codedIS.readUInt32();
+					break;
+				case OsmAndStoredIndex.FILEINDEX_FIELD_NUMBER:
+					StoredFileIndex stored = new StoredFileIndex();
+					stored.length = codedIS.readRawVarint32();
+					stored.offset = codedIS.getTotalBytesRead();
+					int oldLimit = codedIS.pushLimit(stored.length);
+					readFileIndexHeader(codedIS, stored);
+					codedIS.popLimit(oldLimit);
+					indexes.put(stored.fileName, stored);
+					break;
+				default:
+					codedIS.skipField(t);
+					break;
+				}
+			}
+		} finally {
+			if (!read) {
+				mapped.close();
 			}
+		}
+	}
+
+	private static MappedIndexFile mapFile(File f) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			return new MappedIndexFile(raf);
 		} finally {
-			is.close();
+			raf.close();
 		}
-		log.info("Initialize cache " + (System.currentTimeMillis() - time));
 	}
 	
-	public void writeToFile(File f) throws IOException {
+	private void releaseStoredFile() {
+		if (storedFile != null) {
+			storedFile.close();
+			storedFile = null;
+		}
+	}
+
+	private void readFileIndexHeader(CodedInputStream codedIS, StoredFileIndex stored) throws IOException {
+		// only names of the parts are read, the rest of index is not read till it is needed
+		while (true) {
+			int t = codedIS.readTag();
+			int tag = WireFormat.getTagFieldNumber(t);
+			switch (tag) {
+			case 0:
+				return;
+			case FileIndex.SIZE_FIELD_NUMBER:
+				stored.size = codedIS.readInt64();
+				break;
+			case FileIndex.DATEMODIFIED_FIELD_NUMBER:
+				stored.dateModified = codedIS.readInt64();
+				break;
+			case FileIndex.FILENAME_FIELD_NUMBER:
+				stored.fileName = codedIS.readString();
+				break;
+			case FileIndex.VERSION_FIELD_NUMBER:
+				stored.version = codedIS.readInt32();
+				break;
+			case FileIndex.MAPINDEX_FIELD_NUMBER:
+				String name = readPartName(codedIS);
+				stored.mapData = true;
+				stored.basemap = stored.basemap || (name != null && name.toLowerCase().contains("basemap"));
+				break;
+			case FileIndex.ADDRESSINDEX_FIELD_NUMBER:
+				name = readPartName(codedIS);
+				stored.regionNames.add(name == null ? "" : name);
+				break;
+			case FileIndex.POIINDEX_FIELD_NUMBER:
+				readPartName(codedIS);
+				stored.poiData = true;
+				break;
+			case FileIndex.TRANSPORTINDEX_FIELD_NUMBER:
+				readPartName(codedIS);
+				stored.transportData = true;
+				break;
+			case FileIndex.ROUTINGINDEX_FIELD_NUMBER:
+				readPartName(codedIS);
+				stored.routeData = true;
+				break;
+			default:
+				codedIS.skipField(t);
+				break;
+			}
+		}
+	}
+	
+	private String readPartName(CodedInputStream codedIS) throws IOException {
+		// name field has the same number in all parts
+		int length = codedIS.readRawVarint32();
+		int oldLimit = codedIS.pushLimit(length);
+		String name = null;
+		while (true) {
+			int t = codedIS.readTag();
+			int tag = WireFormat.getTagFieldNumber(t);
+			if (tag == 0) {
+				break;
+			} else if (tag == MapPart.NAME_FIELD_NUMBER) {
+				name = codedIS.readString();
+			} else {
+				codedIS.skipField(t);
+			}
+		}
+		codedIS.popLimit(oldLimit);
+		return name;
+	}
+	
+	public synchronized void writeToFile(File f) throws IOException {
 		if (hasChanged) {
-			FileOutputStream outputStream = new FileOutputStream(f);
+			// cache file could be mapped, so new one is written aside and replaces it
+			File tmp = new File(f.getParentFile(), f.getName() + ".tmp");
+			FileOutputStream outputStream = new FileOutputStream(tmp);
+			// positions of the messages in the new file
+			Map<StoredFileIndex, Integer> offsets = new LinkedHashMap<StoredFileIndex, Integer>();
 			try {
-				storedIndexBuilder.build().writeTo(outputStream);
+				CodedOutputStream codedOS = CodedOutputStream.newInstance(outputStream);
+				codedOS.writeUInt32(OsmAndStoredIndex.VERSION_FIELD_NUMBER, VERSION);
+				int position = CodedOutputStream.computeUInt32Size(OsmAndStoredIndex.VERSION_FIELD_NUMBER, VERSION);
+				CodedInputStream codedIS = storedFile == null ? null : storedFile.newCodedInputStream();
+				for (StoredFileIndex stored : storedIndexes.values()) {
+					int length;
+					if (stored.offset == -1) {
+						length = stored.index.getSerializedSize();
+						codedOS.writeMessage(OsmAndStoredIndex.FILEINDEX_FIELD_NUMBER, stored.index);
+					} else {
+						length = stored.length;
+						codedIS.seek(stored.offset);
+						codedOS.writeBytes(OsmAndStoredIndex.FILEINDEX_FIELD_NUMBER,
+								ByteString.copyFrom(codedIS.readRawBytes(stored.length)));
+					}
+					position += CodedOutputStream.computeTagSize(OsmAndStoredIndex.FILEINDEX_FIELD_NUMBER)
+							+ CodedOutputStream.computeRawVarint32Size(length);
+					offsets.put(stored, position);
+					position += length;
+				}
+				codedOS.writeInt64(OsmAndStoredIndex.DATECREATED_FIELD_NUMBER, System.currentTimeMillis());
+				codedOS.flush();
 			} finally {
 				outputStream.close();
 			}
+			// mapped file can't be replaced on Windows, not decoded indexes are read from the new file
+			releaseStoredFile();
+			if (!tmp.renameTo(f)) {
+				f.delete();
+				if (!tmp.renameTo(f)) {
+					throw new IOException("Index cache could not be replaced " + f.getAbsolutePath());
+				}
+			}
+			for (StoredFileIndex stored : offsets.keySet()) {
+				if (stored.offset == -1) {
+					stored.length = stored.index.getSerializedSize();
+				}
+				stored.offset = offsets.get(stored);
+			}
+			storedFile = mapFile(f);
+			hasChanged = false;
 		}
 	}
 
@@ -0,0 +1,139 @@
+package net.osmand.binary;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of decoded obf data blocks (map data blocks, route data blocks, poi boxes)
+ * shared between readers. Blocks are identified by file and absolute block offset.
+ * Cached objects are shared between all requests and must not be modified : route objects and amenities
+ * are modified by their users, so readers give out copies of them.
+ */
+public class DecodedBlockCache {
+
+	private final long byteBudget;
+	private long currentSize = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private final LinkedHashMap<BlockKey, CachedBlock> blocks = new LinkedHashMap<BlockKey, CachedBlock>(256, 0.75f, true);
+
+	public DecodedBlockCache(long byteBudget) {
+		this.byteBudget = byteBudget;
+	}
+
+	public synchronized Object get(String file, long offset) {
+		CachedBlock b = blocks.get(new BlockKey(file, offset));
+		if (b == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return b.block;
+	}
+
+	public synchronized void put(String file, long offset, Object block, int estimatedSize) {
+		if (estimatedSize > byteBudget) {
+			return;
+		}
+		CachedBlock old = blocks.put(new BlockKey(file, offset), new CachedBlock(block, estimatedSize));
+		if (old != null) {
+			currentSize -= old.size;
+		}
+		currentSize += estimatedSize;
+		Iterator<Map.Entry<BlockKey, CachedBlock>> it = blocks.entrySet().iterator();
+		while (currentSize > byteBudget && it.hasNext()) {
+			CachedBlock eldest = it.next().getValue();
+			it.remove();
+			currentSize -= eldest.size;
+			evictions++;
+		}
+	}
+
+	/**
+	 * Drops all blocks of the file (i.e. file was updated or closed)
+	 */
+	public synchronized void invalidate(String file) {
+		Iterator<Map.Entry<BlockKey, CachedBlock>> it = blocks.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<BlockKey, CachedBlock> e = it.next();
+			if (e.getKey().file.equals(file)) {
+				currentSize -= e.getValue().size;
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		blocks.clear();
+		currentSize = 0;
+	}
+
+	public long getByteBudget() {
+		return byteBudget;
+	}
+
+	public synchronized long getCurrentSize() {
+		return currentSize;
+	}
+
+	public synchronized int getBlocksCount() {
+		return blocks.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "Decoded blocks " + blocks.size() + " (" + currentSize / 1024 + " KB of " + byteBudget / 1024 + " KB) hits "
+				+ hits + " misses " + misses + " evictions " + evictions;
+	}
+
+	private static class CachedBlock {
+		final Object block;
+		final int size;
+
+		CachedBlock(Object block, int size) {
+			this.block = block;
+			this.size = size;
+		}
+	}
+
+	private static class BlockKey {
+		final String file;
+		final long offset;
+
+		BlockKey(String file, long offset) {
+			this.file = file;
+			this.offset = offset;
+		}
+
+		@Override
+		public int hashCode() {
+			return file.hashCode() * 31 + (int) (offset ^ (offset >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof BlockKey)) {
+				return false;
+			}
+			BlockKey other = (BlockKey) obj;
+			return offset == other.offset && file.equals(other.file);
+		}
+	}
+}
@@ -0,0 +1,375 @@
+package net.osmand.binary;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import net.osmand.Collator;
+import net.osmand.CollatorStringMatcher;
+
+/**
+ * Name table (IndexedStringTable) of address or poi region read once and kept with precomputed collation keys.
+ * Search visits keys in the same order as reading the table with collator check of every key did
+ * (so found values and their order are the same), but keys matching the query are found by binary search
+ * over sorted collation keys instead of calling collator for every key.
+ *
+ * Collation key of string prefix is not always prefix of key of whole string (contractions, ignorable chars),
+ * so key is compared by bytes only if it was checked for all its prefixes, other keys are compared by collator.
+ *
+ * Subtables are read from the file when the search gets to them for the first time and they are kept only
+ * while the cache is smaller than {@link #MAX_CACHED_KEYS}.
+ * Keys of the table are matched by start of the key only (as reading the table did), matching words of
+ * object names (start of any word) is done on found objects and is not indexed here.
+ */
+class IndexedStringTableCache {
+
+	// limit of keys (of all loaded tables) kept in memory, subtables loaded over it are read for every search
+	private static final int MAX_CACHED_KEYS = 1 << 15;
+
+	private final Collator collator;
+	private final int tableOffset;
+	private final byte[] emptyKey;
+	private Table root;
+	private int cachedKeys;
+
+	IndexedStringTableCache(Collator collator, int tableOffset) {
+		this.collator = collator;
+		this.tableOffset = tableOffset;
+		this.emptyKey = collator.getCollationKey("");
+	}
+
+	public boolean isCachedFor(Collator collator, int tableOffset) {
+		return this.tableOffset == tableOffset && this.collator.equals(collator);
+	}
+
+	public Collator getCollator() {
+		return collator;
+	}
+
+	void setRoot(Table root) {
+		this.root = root;
+		cacheKeys(root);
+	}
+
+	private synchronized boolean cacheKeys(Table t) {
+		if (cachedKeys + t.keys.length > MAX_CACHED_KEYS && t != root) {
+			return false;
+		}
+		cachedKeys += t.keys.length;
+		return true;
+	}
+
+	/**
+	 * @param reader reader of the file of the table, it is used to read subtables (current position is kept)
+	 * @return number of matched chars as readIndexedStringTable returns
+	 */
+	public int search(String query, TIntArrayList list, BinaryMapIndexReader reader) throws IOException {
+		return search(root, new Query(query), list, 0, reader);
+	}
+
+	private int search(Table t, Query q, TIntArrayList list, int charMatches, BinaryMapIndexReader reader)
+			throws IOException {
+		TIntArrayList candidates = t.findCandidates(q);
+		for (int k = 0; k < candidates.size(); k++) {
+			int i = candidates.getQuick(k);
+			String key = t.keys[i];
+			boolean matches;
+			// check query is part of key (the best matching)
+			if (t.keyStartsWith(i, q)) {
+				if (q.query.length() >= charMatches) {
+					if (q.query.length() > charMatches) {
+						charMatches = q.query.length();
+						list.clear();
+					}
+					matches = true;
+				} else {
+					matches = false;
+				}
+				// check key is part of query
+			} else if (t.queryStartsWith(i, q)) {
+				if (key.length() >= charMatches) {
+					if (key.length() > charMatches) {
+						charMatches = key.length();
+						list.clear();
+					}
+					matches = true;
+				} else {
+					matches = false;
+				}
+			} else {
+				matches = false;
+			}
+			if (matches) {
+				for (int op : t.ops[i]) {
+					if (op >= 0) {
+						list.add(op);
+					} else {
+						charMatches = search(t.getSubtable(-op - 1, i, reader), q, list, charMatches, reader);
+					}
+				}
+			}
+		}
+		return charMatches;
+	}
+
+	/**
+	 * Collation key without trailing level separators (key of empty string),
+	 * null if key can't be compared by prefix
+	 */
+	private byte[] getPrefixKey(String s) {
+		byte[] key = collator.getCollationKey(s);
+		int l = key.length - emptyKey.length;
+		if (l < 0) {
+			return null;
+		}
+		for (int i = 0; i < emptyKey.length; i++) {
+			if (key[l + i] != emptyKey[i]) {
+				return null;
+			}
+		}
+		return Arrays.copyOf(key, l);
+	}
+
+	private static int compareKeys(byte[] a, byte[] b) {
+		int l = Math.min(a.length, b.length);
+		for (int i = 0; i < l; i++) {
+			int c = (a[i] & 0xff) - (b[i] & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return a.length - b.length;
+	}
+
+	private static boolean startsWith(byte[] key, byte[] prefix, int prefixLength) {
+		if (key.length < prefixLength || prefix.length != prefixLength) {
+			return false;
+		}
+		for (int i = 0; i < prefixLength; i++) {
+			if (key[i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private class Query {
+		final String query;
+		// key of the whole query and of its prefixes, null if any of them can't be compared by bytes
+		final byte[] key;
+		final byte[][] prefixKeys;
+
+		Query(String query) {
+			this.query = query;
+			byte[][] prefixKeys = new byte[query.length() + 1][];
+			for (int i = 0; i <= query.length(); i++) {
+				prefixKeys[i] = getPrefixKey(query.substring(0, i));
+				if (prefixKeys[i] == null) {
+					prefixKeys = null;
+					break;
+				}
+			}
+			this.prefixKeys = prefixKeys;
+			this.key = prefixKeys == null ? null : prefixKeys[query.length()];
+		}
+	}
+
+	/**
+	 * @param parentPrefixLengths prefix lengths of the parent key (keys of subtable start with it), could be null
+	 */
+	Table newTable(int[] parentPrefixLengths) {
+		return new Table(parentPrefixLengths);
+	}
+
+	class Table {
+		private final int[] parentPrefixLengths;
+		String[] keys;
+		// key of the whole string (null if it can't be compared by bytes)
+		byte[][] collationKeys;
+		// lengths of collation keys of all key prefixes (null if some of them is not prefix of key)
+		int[][] prefixLengths;
+		// values (>= 0) and subtables (-index - 1) of the key in order of the file
+		int[][] ops;
+		// subtables are read on demand from their position in the file
+		int[] subtableOffsets;
+		int[] subtableLengths;
+		Table[] subtables;
+		// keys compared by bytes sorted by collation key
+		int[] sorted;
+		// keys compared by collator
+		int[] fallback;
+
+		private List<String> keysList = new ArrayList<String>();
+		private List<TIntArrayList> opsList = new ArrayList<TIntArrayList>();
+		private TIntArrayList subtableOffsetsList = new TIntArrayList();
+		private TIntArrayList subtableLengthsList = new TIntArrayList();
+
+		Table(int[] parentPrefixLengths) {
+			this.parentPrefixLengths = parentPrefixLengths;
+		}
+
+		void addKey(String key) {
+			keysList.add(key);
+			opsList.add(new TIntArrayList());
+		}
+
+		void addValue(int val) {
+			opsList.get(opsList.size() - 1).add(val);
+		}
+
+		void addSubtable(int offset, int length) {
+			subtableOffsetsList.add(offset);
+			subtableLengthsList.add(length);
+			opsList.get(opsList.size() - 1).add(-subtableOffsetsList.size());
+		}
+
+		Table getSubtable(int s, int keyIndex, BinaryMapIndexReader reader) throws IOException {
+			synchronized (this) {
+				if (subtables[s] != null) {
+					return subtables[s];
+				}
+			}
+			Table t = reader.readIndexedStringSubtable(IndexedStringTableCache.this, subtableOffsets[s],
+					subtableLengths[s], keys[keyIndex], prefixLengths[keyIndex]);
+			synchronized (this) {
+				if (subtables[s] == null && cacheKeys(t)) {
+					subtables[s] = t;
+				}
+			}
+			return t;
+		}
+
+		void finish() {
+			int size = keysList.size();
+			keys = keysList.toArray(new String[size]);
+			subtableOffsets = subtableOffsetsList.toArray();
+			subtableLengths = subtableLengthsList.toArray();
+			subtables = new Table[subtableOffsets.length];
+			ops = new int[size][];
+			collationKeys = new byte[size][];
+			prefixLengths = new int[size][];
+			TIntArrayList fallbackList = new TIntArrayList();
+			List<Integer> sortedList = new ArrayList<Integer>();
+			for (int i = 0; i < size; i++) {
+				ops[i] = opsList.get(i).toArray();
+				collationKeys[i] = getPrefixKey(keys[i]);
+				if (collationKeys[i] != null) {
+					sortedList.add(i);
+					prefixLengths[i] = calculatePrefixLengths(keys[i], collationKeys[i]);
+				}
+				if (prefixLengths[i] == null) {
+					fallbackList.add(i);
+				}
+			}
+			Collections.sort(sortedList, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer o1, Integer o2) {
+					return compareKeys(collationKeys[o1], collationKeys[o2]);
+				}
+			});
+			sorted = new int[sortedList.size()];
+			for (int i = 0; i < sorted.length; i++) {
+				sorted[i] = sortedList.get(i);
+			}
+			fallback = fallbackList.toArray();
+			keysList = null;
+			opsList = null;
+			subtableOffsetsList = null;
+			subtableLengthsList = null;
+		}
+
+		private int[] calculatePrefixLengths(String key, byte[] collationKey) {
+			int[] lengths = new int[key.length() + 1];
+			int start = 0;
+			// keys of subtable start with parent key : its prefixes are prefixes of parent key collation key,
+			// so they are prefixes of this key if parent key is (it is checked as prefix of length start)
+			if (parentPrefixLengths != null && parentPrefixLengths.length <= key.length()) {
+				start = parentPrefixLengths.length - 1;
+				System.arraycopy(parentPrefixLengths, 0, lengths, 0, start);
+			}
+			for (int i = start; i < key.length(); i++) {
+				byte[] p = getPrefixKey(key.substring(0, i));
+				if (p == null || !startsWith(collationKey, p, p.length)) {
+					return null;
+				}
+				lengths[i] = p.length;
+			}
+			lengths[key.length()] = collationKey.length;
+			return lengths;
+		}
+
+		boolean keyStartsWith(int i, Query q) {
+			if (q.key != null && prefixLengths[i] != null) {
+				return q.query.length() <= keys[i].length()
+						&& startsWith(collationKeys[i], q.key, prefixLengths[i][q.query.length()]);
+			}
+			return CollatorStringMatcher.cmatches(collator, keys[i], q.query,
+					CollatorStringMatcher.StringMatcherMode.CHECK_ONLY_STARTS_WITH);
+		}
+
+		boolean queryStartsWith(int i, Query q) {
+			if (q.prefixKeys != null && collationKeys[i] != null) {
+				return keys[i].length() <= q.query.length()
+						&& Arrays.equals(q.prefixKeys[keys[i].length()], collationKeys[i]);
+			}
+			return CollatorStringMatcher.cmatches(collator, q.query, keys[i],
+					CollatorStringMatcher.StringMatcherMode.CHECK_ONLY_STARTS_WITH);
+		}
+
+		/**
+		 * Keys which could match query in order of the file, all other keys don't match it
+		 */
+		TIntArrayList findCandidates(Query q) {
+			TIntArrayList res = new TIntArrayList();
+			if (q.prefixKeys == null) {
+				for (int i = 0; i < keys.length; i++) {
+					res.add(i);
+				}
+				return res;
+			}
+			// keys starting with query
+			int ind = lowerBound(q.key);
+			while (ind < sorted.length && startsWith(collationKeys[sorted[ind]], q.key, q.key.length)) {
+				res.add(sorted[ind++]);
+			}
+			// keys equal to query prefix
+			for (int l = 0; l < q.prefixKeys.length; l++) {
+				ind = lowerBound(q.prefixKeys[l]);
+				while (ind < sorted.length && Arrays.equals(collationKeys[sorted[ind]], q.prefixKeys[l])) {
+					res.add(sorted[ind++]);
+				}
+			}
+			res.add(fallback);
+			res.sort();
+			int k = 0;
+			for (int i = 0; i < res.size(); i++) {
+				if (k == 0 || res.getQuick(k - 1) != res.getQuick(i)) {
+					res.setQuick(k++, res.getQuick(i));
+				}
+			}
+			if (k < res.size()) {
+				res.remove(k, res.size() - k);
+			}
+			return res;
+		}
+
+		private int lowerBound(byte[] key) {
+			int lo = 0;
+			int hi = sorted.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (compareKeys(collationKeys[sorted[mid]], key) < 0) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package net.osmand.binary;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import com.google.protobuf.CodedInputStream;
+
+/**
+ * Read only memory mapping of an obf file. One MappedByteBuffer is limited to 2GB,
+ * so the file is mapped as a sequence of fixed size segments.
+ * Mapping is immutable and could be shared between any number of {@link CodedInputStream}s.
+ */
+public class MappedIndexFile {
+
+	public static final int SEGMENT_SHIFT = 30; // 1 GB
+
+	private ByteBuffer[] segments;
+	private final long length;
+
+	public MappedIndexFile(RandomAccessFile raf) throws IOException {
+		this(raf.getChannel());
+	}
+
+	public MappedIndexFile(FileChannel channel) throws IOException {
+		this.length = channel.size();
+		int count = (int) ((length + (1L << SEGMENT_SHIFT) - 1) >>> SEGMENT_SHIFT);
+		segments = new ByteBuffer[count];
+		for (int i = 0; i < count; i++) {
+			long start = ((long) i) << SEGMENT_SHIFT;
+			long size = Math.min(1L << SEGMENT_SHIFT, length - start);
+			MappedByteBuffer segment = channel.map(MapMode.READ_ONLY, start, size);
+			segments[i] = segment;
+		}
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public CodedInputStream newCodedInputStream() {
+		CodedInputStream codedIS = CodedInputStream.newInstance(segments, SEGMENT_SHIFT, length);
+		codedIS.setSizeLimit(Integer.MAX_VALUE); // 2048 MB
+		return codedIS;
+	}
+
+	/**
+	 * Releases mapping without waiting for garbage collection, so the file could be replaced or deleted
+	 * (Windows doesn't allow that for mapped file). Streams created before must not be used after that.
+	 * Unmapping is done through non public api, if it is not available mapping is released by gc.
+	 */
+	public void close() {
+		ByteBuffer[] s = segments;
+		if (s == null) {
+			return;
+		}
+		segments = null;
+		for (ByteBuffer b : s) {
+			unmap(b);
+		}
+	}
+
+	private static void unmap(ByteBuffer buffer) {
+		try {
+			// java 9+
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			return;
+		} catch (Exception e) {
+			// not available
+		}
+		try {
+			// java 6-8
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+			return;
+		} catch (Exception e) {
+			// not available
+		}
+		try {
+			// android
+			Class<?> nioUtils = Class.forName("java.nio.NioUtils");
+			nioUtils.getMethod("freeDirectBuffer", ByteBuffer.class).invoke(null, buffer);
+		} catch (Exception e) {
+			// released by gc
+		}
+	}
+
+}
@@ -0,0 +1,201 @@
+package net.osmand.binary;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.osmand.ResultMatcher;
+import net.osmand.binary.BinaryMapAddressReaderAdapter.AddressNameSearchCache;
+import net.osmand.binary.BinaryMapAddressReaderAdapter.AddressRegion;
+import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
+import net.osmand.binary.BinaryMapPoiReaderAdapter.PoiNameSearchCache;
+import net.osmand.binary.BinaryMapPoiReaderAdapter.PoiRegion;
+import net.osmand.data.Amenity;
+import net.osmand.data.MapObject;
+
+/**
+ * Search by name for "search as you type" : name index data, poi boxes and address objects decoded for a query
+ * are kept in the session, so the next (usually longer) query matches them again and reads only new ones from file.
+ * Already decoded poi are published before anything is read, so the first results come without I/O;
+ * time limit stops reading of new data and the same query searched again continues from the decoded data.
+ *
+ * Session uses the reader which is not thread safe, only {@link #cancel()} could be called from another thread.
+ */
+public abstract class NameSearchSession<T> {
+
+	// cached objects of all regions, after that cache is dropped before the next query
+	private static final int MAX_CACHED_OBJECTS = 200000;
+
+	protected final BinaryMapIndexReader reader;
+	private volatile boolean cancelled;
+	// query of the last search, cancellation is reset by search of another query
+	private String lastQuery;
+	private long timeLimit = -1;
+	private boolean complete;
+
+	NameSearchSession(BinaryMapIndexReader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Limits time of reading data in every search (-1 no limit)
+	 */
+	public void setTimeLimit(long timeLimitMs) {
+		this.timeLimit = timeLimitMs;
+	}
+
+	/**
+	 * @return false if the last search was cancelled or stopped by time limit
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Cancels the running search and searches of the same query which are not started yet (as cancel could come before
+	 * the search thread starts it), search of another query resets cancellation
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Searches all objects matching query from the beginning, results are published to the matcher
+	 * (it could be null) as soon as they are found.
+	 */
+	public List<T> search(String query, final ResultMatcher<T> matcher) throws IOException {
+		if (query == null || query.length() == 0) {
+			throw new IllegalArgumentException();
+		}
+		if (lastQuery != null && !lastQuery.equals(query)) {
+			cancelled = false;
+		}
+		lastQuery = query;
+		if (getCachedSize() > MAX_CACHED_OBJECTS) {
+			clearCache();
+		}
+		final long deadline = timeLimit < 0 ? -1 : System.currentTimeMillis() + timeLimit;
+		final boolean[] stopped = new boolean[1];
+		SearchRequest<T> req = newRequest(query, new ResultMatcher<T>() {
+			@Override
+			public boolean publish(T object) {
+				return matcher == null || matcher.publish(object);
+			}
+
+			@Override
+			public boolean isCancelled() {
+				if (cancelled || (matcher != null && matcher.isCancelled())
+						|| (deadline != -1 && System.currentTimeMillis() > deadline)) {
+					stopped[0] = true;
+				}
+				return stopped[0];
+			}
+		});
+		search(req);
+		complete = !stopped[0];
+		return req.getSearchResults();
+	}
+
+	abstract SearchRequest<T> newRequest(String query, ResultMatcher<T> matcher);
+
+	abstract void search(SearchRequest<T> req) throws IOException;
+
+	abstract int getCachedSize();
+
+	public abstract void clearCache();
+
+	static class PoiSearchSession extends NameSearchSession<Amenity> {
+		private final int x;
+		private final int y;
+		private final int left;
+		private final int right;
+		private final int top;
+		private final int bottom;
+		private final Map<PoiRegion, PoiNameSearchCache> caches = new HashMap<PoiRegion, PoiNameSearchCache>();
+
+		PoiSearchSession(BinaryMapIndexReader reader, int x, int y, int left, int right, int top, int bottom) {
+			super(reader);
+			this.x = x;
+			this.y = y;
+			this.left = left;
+			this.right = right;
+			this.top = top;
+			this.bottom = bottom;
+		}
+
+		PoiNameSearchCache getCache(PoiRegion region) {
+			PoiNameSearchCache cache = caches.get(region);
+			if (cache == null) {
+				cache = new PoiNameSearchCache();
+				caches.put(region, cache);
+			}
+			return cache;
+		}
+
+		@Override
+		SearchRequest<Amenity> newRequest(String query, ResultMatcher<Amenity> matcher) {
+			return BinaryMapIndexReader.buildSearchPoiRequest(x, y, query, left, right, top, bottom, matcher);
+		}
+
+		@Override
+		void search(SearchRequest<Amenity> req) throws IOException {
+			reader.searchPoiByName(req, this);
+		}
+
+		@Override
+		int getCachedSize() {
+			int size = 0;
+			for (PoiNameSearchCache c : caches.values()) {
+				size += c.size;
+			}
+			return size;
+		}
+
+		@Override
+		public void clearCache() {
+			caches.clear();
+		}
+	}
+
+	static class AddressSearchSession extends NameSearchSession<MapObject> {
+		private final Map<AddressRegion, AddressNameSearchCache> caches = new HashMap<AddressRegion, AddressNameSearchCache>();
+
+		AddressSearchSession(BinaryMapIndexReader reader) {
+			super(reader);
+		}
+
+		AddressNameSearchCache getCache(AddressRegion region) {
+			AddressNameSearchCache cache = caches.get(region);
+			if (cache == null) {
+				cache = new AddressNameSearchCache();
+				caches.put(region, cache);
+			}
+			return cache;
+		}
+
+		@Override
+		SearchRequest<MapObject> newRequest(String query, ResultMatcher<MapObject> matcher) {
+			return BinaryMapIndexReader.buildAddressByNameRequest(matcher, query);
+		}
+
+		@Override
+		void search(SearchRequest<MapObject> req) throws IOException {
+			reader.searchAddressDataByName(req, this);
+		}
+
+		@Override
+		int getCachedSize() {
+			int size = 0;
+			for (AddressNameSearchCache c : caches.values()) {
+				size += c.size;
+			}
+			return size;
+		}
+
+		@Override
+		public void clearCache() {
+			caches.clear();
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package net.osmand.binary;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.osmand.PlatformUtil;
+import net.osmand.ResultMatcher;
+import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
+import net.osmand.util.ParallelTasks;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Runs one map search request over several obf files in parallel.
+ * Every file is searched by its own copy of the request, results are published to the original request
+ * on the calling thread in the order of readers, so the output doesn't depend on thread scheduling.
+ *
+ * Readers are not thread safe, so the same reader must not be passed twice or be used by someone else
+ * during the search. Search filter of the request and {@link ResultMatcher#isCancelled()} are called from worker threads,
+ * {@link ResultMatcher#publish(Object)} is called only from the calling thread.
+ */
+public class ParallelMapIndexSearch {
+
+	private static final Log log = PlatformUtil.getLog(ParallelMapIndexSearch.class);
+
+	private final ExecutorService executor;
+
+	public ParallelMapIndexSearch(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	public ParallelMapIndexSearch(int threads) {
+		this(ParallelTasks.newDaemonThreadPool(threads, "Map search"));
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	public static class FileSearchResult {
+		public final BinaryMapIndexReader reader;
+		List<BinaryMapDataObject> results = new ArrayList<BinaryMapDataObject>();
+		boolean ocean;
+		boolean land;
+		IOException error;
+
+		FileSearchResult(BinaryMapIndexReader reader) {
+			this.reader = reader;
+		}
+
+		public List<BinaryMapDataObject> getResults() {
+			return results;
+		}
+
+		public boolean isOcean() {
+			return ocean;
+		}
+
+		public boolean isLand() {
+			return land;
+		}
+
+		public IOException getError() {
+			return error;
+		}
+	}
+
+	/**
+	 * Searches all readers and publishes found objects to request (reader by reader in the order of the list).
+	 * Ocean/land flags of the request are combined over all files. Failure of one file cancels search of others.
+	 */
+	public List<BinaryMapDataObject> searchMapIndex(List<BinaryMapIndexReader> readers, SearchRequest<BinaryMapDataObject> req)
+			throws IOException {
+		List<FileSearchResult> results = searchMapIndexByFile(readers, req, true);
+		for (FileSearchResult r : results) {
+			if (r.error != null) {
+				throw r.error;
+			}
+		}
+		for (FileSearchResult r : results) {
+			if (r.ocean) {
+				req.publishOceanTile(true);
+			}
+			if (r.land) {
+				req.publishOceanTile(false);
+			}
+			for (BinaryMapDataObject o : r.results) {
+				if (req.isCancelled()) {
+					return req.getSearchResults();
+				}
+				req.publish(o);
+			}
+		}
+		return req.getSearchResults();
+	}
+
+	/**
+	 * Searches all readers and returns results per file in the order of readers, request itself is not modified.
+	 * Failure of one file doesn't stop others, error is stored in the file result.
+	 */
+	public List<FileSearchResult> searchMapIndexByFile(List<BinaryMapIndexReader> readers,
+			SearchRequest<BinaryMapDataObject> req) throws IOException {
+		return searchMapIndexByFile(readers, req, false);
+	}
+
+	private List<FileSearchResult> searchMapIndexByFile(List<BinaryMapIndexReader> readers,
+			final SearchRequest<BinaryMapDataObject> req, final boolean stopOnError) throws IOException {
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		final ResultMatcher<BinaryMapDataObject> collectAll = new ResultMatcher<BinaryMapDataObject>() {
+
+			@Override
+			public boolean publish(BinaryMapDataObject object) {
+				return true;
+			}
+
+			@Override
+			public boolean isCancelled() {
+				return failed.get() || req.isCancelled();
+			}
+		};
+		List<FileSearchResult> results = new ArrayList<FileSearchResult>();
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (final BinaryMapIndexReader reader : readers) {
+			final FileSearchResult res = new FileSearchResult(reader);
+			results.add(res);
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					if (collectAll.isCancelled()) {
+						return null;
+					}
+					SearchRequest<BinaryMapDataObject> fileReq = BinaryMapIndexReader.buildSearchRequest(req.left,
+							req.right, req.top, req.bottom, req.zoom, req.searchFilter, collectAll);
+					try {
+						reader.searchMapIndex(fileReq);
+						res.results = fileReq.getSearchResults();
+						res.ocean = fileReq.isOcean();
+						res.land = fileReq.isLand();
+					} catch (IOException e) {
+						log.error("Search failed " + reader.getRegionNames(), e); //$NON-NLS-1$
+						res.error = e;
+						if (stopOnError) {
+							failed.set(true);
+						}
+					} catch (RuntimeException e) {
+						failed.set(true);
+						throw e;
+					}
+					return null;
+				}
+			}));
+		}
+		ParallelTasks.waitAll(futures, failed, "Search was interrupted");
+		return results;
+	}
+}
@@ -0,0 +1,260 @@
+package net.osmand.binary;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.osmand.PlatformUtil;
+import net.osmand.ResultMatcher;
+import net.osmand.binary.BinaryMapIndexReader.SearchPoiTypeFilter;
+import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
+import net.osmand.binary.BinaryMapPoiReaderAdapter.PoiRegion;
+import net.osmand.data.Amenity;
+import net.osmand.data.LatLon;
+import net.osmand.util.MapUtils;
+import net.osmand.util.ParallelTasks;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Search of K nearest poi over all poi regions of several obf files in parallel.
+ * Every region is searched by its own task (regions closer to the point go first) and all tasks share one bounded heap,
+ * so boxes and regions farther than the current K-th result are skipped and search stops early.
+ * Distance is measured in 31 tile coordinates, mercator is conformal so nearby poi are ordered as by meters.
+ *
+ * Type filter and {@link ResultMatcher#isCancelled()} are called from worker threads,
+ * {@link ResultMatcher#publish(Object)} is called from the calling thread in order of distance.
+ */
+public class ParallelPoiSearch {
+
+	private static final Log log = PlatformUtil.getLog(ParallelPoiSearch.class);
+
+	private final ExecutorService executor;
+
+	public ParallelPoiSearch(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	public ParallelPoiSearch(int threads) {
+		this(ParallelTasks.newDaemonThreadPool(threads, "Poi search"));
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	public List<Amenity> searchNearest(List<SharedBinaryMapIndexReader> files, LatLon point, int k,
+			SearchPoiTypeFilter filter, ResultMatcher<Amenity> matcher) throws IOException {
+		return searchNearest(files, MapUtils.get31TileNumberX(point.getLongitude()),
+				MapUtils.get31TileNumberY(point.getLatitude()), 0, Integer.MAX_VALUE, 0, Integer.MAX_VALUE, k, filter, matcher);
+	}
+
+	/**
+	 * @return up to k poi inside the bbox nearest to (x31, y31) sorted by distance
+	 */
+	public List<Amenity> searchNearest(List<SharedBinaryMapIndexReader> files, final int x31, final int y31,
+			final int left31, final int right31, final int top31, final int bottom31, int k,
+			final SearchPoiTypeFilter filter, final ResultMatcher<Amenity> matcher) throws IOException {
+		final NearestPoiHeap heap = new NearestPoiHeap(x31, y31, k);
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		final ResultMatcher<Amenity> collector = new ResultMatcher<Amenity>() {
+
+			@Override
+			public boolean publish(Amenity object) {
+				heap.offer(object);
+				return false;
+			}
+
+			@Override
+			public boolean isCancelled() {
+				return failed.get() || (matcher != null && matcher.isCancelled());
+			}
+		};
+		List<RegionTask> tasks = new ArrayList<RegionTask>();
+		for (SharedBinaryMapIndexReader file : files) {
+			List<PoiRegion> regions = file.getReferenceReader().getPoiIndexes();
+			for (int i = 0; i < regions.size(); i++) {
+				RegionTask task = new RegionTask(file, i, regions.get(i), x31, y31);
+				if (task.box.intersects(left31, top31, right31, bottom31)) {
+					tasks.add(task);
+				}
+			}
+		}
+		Collections.sort(tasks, new Comparator<RegionTask>() {
+			@Override
+			public int compare(RegionTask o1, RegionTask o2) {
+				return o1.dist < o2.dist ? -1 : (o1.dist == o2.dist ? 0 : 1);
+			}
+		});
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (final RegionTask task : tasks) {
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					if (collector.isCancelled() || task.dist > heap.getThreshold()) {
+						return null;
+					}
+					BinaryMapIndexReader reader = task.file.getReader();
+					SearchRequest<Amenity> req = BinaryMapIndexReader.buildSearchPoiRequest(left31, right31, top31,
+							bottom31, -1, filter, collector);
+					try {
+						reader.searchNearestPoi(reader.getPoiIndexes().get(task.regionIndex), x31, y31, req, heap);
+					} catch (IOException e) {
+						log.error("Search failed " + task.file.getFile().getName(), e); //$NON-NLS-1$
+						task.error = e;
+					} catch (RuntimeException e) {
+						failed.set(true);
+						throw e;
+					}
+					return null;
+				}
+			}));
+		}
+		ParallelTasks.waitAll(futures, failed, "Search was interrupted");
+		for (RegionTask task : tasks) {
+			if (task.error != null) {
+				throw task.error;
+			}
+		}
+		List<Amenity> res = new ArrayList<Amenity>();
+		for (Amenity a : heap.getSortedResults()) {
+			if (matcher != null && matcher.isCancelled()) {
+				break;
+			}
+			if (matcher == null || matcher.publish(a)) {
+				res.add(a);
+			}
+		}
+		return res;
+	}
+
+	private static class RegionTask {
+		final SharedBinaryMapIndexReader file;
+		final int regionIndex;
+		final QuadBox box;
+		final long dist;
+		IOException error;
+
+		RegionTask(SharedBinaryMapIndexReader file, int regionIndex, PoiRegion region, int x31, int y31) {
+			this.file = file;
+			this.regionIndex = regionIndex;
+			this.box = new QuadBox(MapUtils.get31TileNumberX(region.getLeftLongitude()),
+					MapUtils.get31TileNumberY(region.getTopLatitude()),
+					MapUtils.get31TileNumberX(region.getRightLongitude()),
+					MapUtils.get31TileNumberY(region.getBottomLatitude()));
+			this.dist = box.squareDistance(x31, y31);
+		}
+	}
+
+	private static class QuadBox {
+		final int left;
+		final int top;
+		final int right;
+		final int bottom;
+
+		QuadBox(int left, int top, int right, int bottom) {
+			this.left = left;
+			this.top = top;
+			this.right = right;
+			this.bottom = bottom;
+		}
+
+		boolean intersects(int l, int t, int r, int b) {
+			return r >= left && l <= right && t <= bottom && b >= top;
+		}
+
+		long squareDistance(int x31, int y31) {
+			long dx = Math.max(0, Math.max((long) left - x31, (long) x31 - right));
+			long dy = Math.max(0, Math.max((long) top - y31, (long) y31 - bottom));
+			return dx * dx + dy * dy;
+		}
+	}
+
+	/**
+	 * K nearest poi found so far, could be used from several threads.
+	 * Equal distances are ordered by id, so result doesn't depend on the order of tasks.
+	 */
+	static class NearestPoiHeap {
+		private final int x31;
+		private final int y31;
+		private final int k;
+		// the farthest poi is the head
+		private final PriorityQueue<NearestPoi> queue;
+		private volatile long threshold = Long.MAX_VALUE;
+
+		NearestPoiHeap(int x31, int y31, int k) {
+			this.x31 = x31;
+			this.y31 = y31;
+			this.k = k;
+			this.queue = new PriorityQueue<NearestPoi>(Math.max(1, k), Collections.reverseOrder());
+		}
+
+		/**
+		 * Square distance of the K-th poi (Long.MAX_VALUE till K poi are found),
+		 * anything farther couldn't get into result
+		 */
+		public long getThreshold() {
+			return threshold;
+		}
+
+		public synchronized void offer(Amenity a) {
+			if (k <= 0) {
+				return;
+			}
+			LatLon l = a.getLocation();
+			long dx = MapUtils.get31TileNumberX(l.getLongitude()) - (long) x31;
+			long dy = MapUtils.get31TileNumberY(l.getLatitude()) - (long) y31;
+			NearestPoi p = new NearestPoi(a, dx * dx + dy * dy);
+			if (queue.size() < k) {
+				queue.add(p);
+			} else if (p.compareTo(queue.peek()) < 0) {
+				queue.poll();
+				queue.add(p);
+			}
+			if (queue.size() == k) {
+				threshold = queue.peek().dist;
+			}
+		}
+
+		public synchronized List<Amenity> getSortedResults() {
+			List<NearestPoi> l = new ArrayList<NearestPoi>(queue);
+			Collections.sort(l);
+			List<Amenity> res = new ArrayList<Amenity>(l.size());
+			for (NearestPoi p : l) {
+				res.add(p.amenity);
+			}
+			return res;
+		}
+	}
+
+	private static class NearestPoi implements Comparable<NearestPoi> {
+		final Amenity amenity;
+		final long dist;
+
+		NearestPoi(Amenity amenity, long dist) {
+			this.amenity = amenity;
+			this.dist = dist;
+		}
+
+		@Override
+		public int compareTo(NearestPoi o) {
+			if (dist != o.dist) {
+				return dist < o.dist ? -1 : 1;
+			}
+			long id1 = amenity.getId() == null ? 0 : amenity.getId();
+			long id2 = o.amenity.getId() == null ? 0 : o.amenity.getId();
+			return id1 < id2 ? -1 : (id1 == id2 ? 0 : 1);
+		}
+	}
+}
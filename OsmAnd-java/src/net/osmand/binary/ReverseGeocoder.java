@@ -0,0 +1,429 @@
+package net.osmand.binary;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapAddressReaderAdapter.AddressRegion;
+import net.osmand.data.Building;
+import net.osmand.data.Building.BuildingInterpolation;
+import net.osmand.data.City;
+import net.osmand.data.LatLon;
+import net.osmand.data.QuadPoint;
+import net.osmand.data.QuadRect;
+import net.osmand.data.QuadTree;
+import net.osmand.data.Street;
+import net.osmand.router.RoutingContext;
+import net.osmand.util.Algorithms;
+import net.osmand.util.MapUtils;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Reverse geocoding : the nearest named road of the routing data and the street / building of the address index.
+ * Cities of all files are indexed once, streets of a city are loaded into a copy of the city and put into spatial index
+ * on the first use (indexes of least recently used cities are dropped, loaded cities are not changed after, so results
+ * keep them), buildings are loaded only for found streets.
+ * Batch lookup processes points in order of Z-curve, so neighbouring points reuse loaded routing tiles and cities.
+ *
+ * Not thread safe (as readers and routing context are not).
+ */
+public class ReverseGeocoder {
+
+	private static final Log log = PlatformUtil.getLog(ReverseGeocoder.class);
+
+	public static final double DEFAULT_MAX_ROAD_DISTANCE = 100;
+	private static final int MAX_CACHED_CITIES = 64;
+	// meters around the point to look for the nearest street of the city
+	private static final int[] STREET_SEARCH_RADIUS = new int[] { 200, 1000, 5000 };
+	// the biggest radius of city type
+	private static final double MAX_CITY_RADIUS = City.CityType.CITY.getRadius();
+
+	private final RoutingContext ctx;
+	private final List<BinaryMapIndexReader> readers;
+	private double maxRoadDistance = DEFAULT_MAX_ROAD_DISTANCE;
+	private QuadTree<CityEntry> cities;
+	private final Map<City, CityIndex> cityIndexes = new LinkedHashMap<City, CityIndex>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<City, CityIndex> eldest) {
+			return size() > MAX_CACHED_CITIES;
+		}
+	};
+
+	/**
+	 * @param ctx routing context built on the same files (roads are used for street names), could be null
+	 * @param readers files with address index
+	 */
+	public ReverseGeocoder(RoutingContext ctx, List<BinaryMapIndexReader> readers) {
+		this.ctx = ctx;
+		this.readers = readers;
+	}
+
+	public void setMaxRoadDistance(double maxRoadDistance) {
+		this.maxRoadDistance = maxRoadDistance;
+	}
+
+	public static class GeocodingResult {
+		LatLon point;
+		RouteDataObject road;
+		LatLon roadPoint;
+		double roadDistance = -1;
+		City city;
+		Street street;
+		Building building;
+		String buildingNumber;
+		LatLon buildingPoint;
+		double buildingDistance = -1;
+
+		public LatLon getPoint() {
+			return point;
+		}
+
+		/**
+		 * Nearest road with name or ref (null if there is no road in max road distance)
+		 */
+		public RouteDataObject getRoad() {
+			return road;
+		}
+
+		public LatLon getRoadPoint() {
+			return roadPoint;
+		}
+
+		public double getRoadDistance() {
+			return roadDistance;
+		}
+
+		public City getCity() {
+			return city;
+		}
+
+		public Street getStreet() {
+			return street;
+		}
+
+		public String getStreetName() {
+			if (street != null) {
+				return street.getName();
+			}
+			if (road != null) {
+				return road.getName() != null ? road.getName() : road.getRef();
+			}
+			return null;
+		}
+
+		public Building getBuilding() {
+			return building;
+		}
+
+		/**
+		 * House number of the building (calculated for interpolation lines)
+		 */
+		public String getBuildingNumber() {
+			return buildingNumber;
+		}
+
+		public LatLon getBuildingPoint() {
+			return buildingPoint;
+		}
+
+		public double getBuildingDistance() {
+			return buildingDistance;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder bld = new StringBuilder();
+			if (buildingNumber != null) {
+				bld.append(buildingNumber).append(" ");
+			}
+			if (getStreetName() != null) {
+				bld.append(getStreetName()).append(" ");
+			}
+			if (city != null) {
+				bld.append(city.getName());
+			}
+			return bld.toString().trim();
+		}
+	}
+
+	private static class CityEntry {
+		final City city;
+		final BinaryMapIndexReader reader;
+
+		CityEntry(City city, BinaryMapIndexReader reader) {
+			this.city = city;
+			this.reader = reader;
+		}
+	}
+
+	private static class CityIndex {
+		// copy of the indexed city with loaded streets
+		final City city;
+		final BinaryMapIndexReader reader;
+		final QuadTree<Street> streets = new QuadTree<Street>(new QuadRect(0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE),
+				8, 0.55f);
+		final Set<Street> loadedBuildings = new HashSet<Street>();
+
+		CityIndex(City city, BinaryMapIndexReader reader) {
+			this.city = city;
+			this.reader = reader;
+		}
+	}
+
+	/**
+	 * Results are returned in the order of points
+	 */
+	public List<GeocodingResult> reverseGeocode(List<LatLon> points) throws IOException {
+		final long[] zorder = new long[points.size()];
+		Integer[] order = new Integer[points.size()];
+		for (int i = 0; i < points.size(); i++) {
+			LatLon l = points.get(i);
+			zorder[i] = interleave(MapUtils.get31TileNumberX(l.getLongitude()), MapUtils.get31TileNumberY(l.getLatitude()));
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return zorder[o1] < zorder[o2] ? -1 : (zorder[o1] == zorder[o2] ? 0 : 1);
+			}
+		});
+		GeocodingResult[] res = new GeocodingResult[points.size()];
+		for (Integer i : order) {
+			LatLon l = points.get(i);
+			res[i] = reverseGeocode(l.getLatitude(), l.getLongitude());
+		}
+		return Arrays.asList(res);
+	}
+
+	private static long interleave(int x, int y) {
+		long z = 0;
+		for (int i = 0; i < 31; i++) {
+			z |= ((long) ((x >> i) & 1)) << (2 * i + 1);
+			z |= ((long) ((y >> i) & 1)) << (2 * i);
+		}
+		return z;
+	}
+
+	public GeocodingResult reverseGeocode(double lat, double lon) throws IOException {
+		GeocodingResult res = new GeocodingResult();
+		res.point = new LatLon(lat, lon);
+		int x31 = MapUtils.get31TileNumberX(lon);
+		int y31 = MapUtils.get31TileNumberY(lat);
+		if (ctx != null) {
+			findNearestRoad(x31, y31, res);
+		}
+		List<CityEntry> candidates = getCityCandidates(lat, lon);
+		String roadName = res.road == null ? null : res.road.getName();
+		CityIndex index = null;
+		if (!Algorithms.isEmpty(roadName)) {
+			for (CityEntry c : candidates) {
+				CityIndex ci = getCityIndex(c);
+				Street s = ci.city.getStreet(roadName);
+				if (s != null) {
+					index = ci;
+					res.street = s;
+					break;
+				}
+			}
+		}
+		if (res.street == null && !candidates.isEmpty()) {
+			index = getCityIndex(candidates.get(0));
+			res.street = findNearestStreet(index, lat, lon);
+		}
+		if (index != null) {
+			res.city = index.city;
+		}
+		if (res.street != null) {
+			findNearestBuilding(res, index, lat, lon);
+		}
+		return res;
+	}
+
+	private void findNearestRoad(int x31, int y31, GeocodingResult res) {
+		List<RouteDataObject> dataObjects = new ArrayList<RouteDataObject>();
+		ctx.loadTileData(x31, y31, 17, dataObjects);
+		double minDist = -1;
+		for (RouteDataObject r : dataObjects) {
+			if (r.getPointsLength() < 2 || (Algorithms.isEmpty(r.getName()) && Algorithms.isEmpty(r.getRef()))) {
+				continue;
+			}
+			for (int j = 1; j < r.getPointsLength(); j++) {
+				QuadPoint pr = MapUtils.getProjectionPoint31(x31, y31, r.getPoint31XTile(j - 1), r.getPoint31YTile(j - 1),
+						r.getPoint31XTile(j), r.getPoint31YTile(j));
+				double d = MapUtils.measuredDist31(x31, y31, (int) pr.x, (int) pr.y);
+				if (d <= maxRoadDistance && (minDist < 0 || d < minDist)) {
+					minDist = d;
+					res.road = r;
+					res.roadDistance = d;
+					res.roadPoint = new LatLon(MapUtils.get31LatitudeY((int) pr.y), MapUtils.get31LongitudeX((int) pr.x));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Cities which radius covers the point sorted by distance relative to radius
+	 */
+	private List<CityEntry> getCityCandidates(double lat, double lon) throws IOException {
+		if (cities == null) {
+			loadCities();
+		}
+		List<CityEntry> list = cities.queryInBox(getBox(lat, lon, MAX_CITY_RADIUS), new ArrayList<CityEntry>());
+		final Map<CityEntry, Double> dist = new LinkedHashMap<CityEntry, Double>();
+		for (CityEntry c : list) {
+			double d = MapUtils.getDistance(c.city.getLocation(), lat, lon) / c.city.getType().getRadius();
+			if (d <= 1) {
+				dist.put(c, d);
+			}
+		}
+		List<CityEntry> res = new ArrayList<CityEntry>(dist.keySet());
+		Collections.sort(res, new Comparator<CityEntry>() {
+			@Override
+			public int compare(CityEntry o1, CityEntry o2) {
+				return Double.compare(dist.get(o1), dist.get(o2));
+			}
+		});
+		return res;
+	}
+
+	private void loadCities() throws IOException {
+		cities = new QuadTree<CityEntry>(new QuadRect(0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE), 8, 0.55f);
+		int count = 0;
+		for (BinaryMapIndexReader reader : readers) {
+			for (AddressRegion region : reader.getAddressIndexes()) {
+				for (int type : new int[] { BinaryMapAddressReaderAdapter.CITY_TOWN_TYPE,
+						BinaryMapAddressReaderAdapter.VILLAGES_TYPE }) {
+					for (City c : reader.getCities(region, null, type)) {
+						if (c.getLocation() != null && c.getType() != null) {
+							LatLon l = c.getLocation();
+							cities.insert(new CityEntry(c, reader), MapUtils.get31TileNumberX(l.getLongitude()),
+									MapUtils.get31TileNumberY(l.getLatitude()));
+							count++;
+						}
+					}
+				}
+			}
+		}
+		log.info("Reverse geocoding : " + count + " cities indexed");
+	}
+
+	private CityIndex getCityIndex(CityEntry c) throws IOException {
+		CityIndex index = cityIndexes.get(c.city);
+		if (index == null) {
+			index = new CityIndex(copyCity(c.city), c.reader);
+			c.reader.preloadStreets(index.city, null);
+			for (Street s : index.city.getStreets()) {
+				LatLon l = s.getLocation();
+				if (l != null) {
+					index.streets.insert(s, MapUtils.get31TileNumberX(l.getLongitude()),
+							MapUtils.get31TileNumberY(l.getLatitude()));
+				}
+			}
+			cityIndexes.put(c.city, index);
+		}
+		return index;
+	}
+
+	// streets are loaded into the copy, so the indexed city stays without streets
+	private static City copyCity(City c) {
+		City copy = new City(c.getType());
+		copy.setId(c.getId());
+		copy.setName(c.getName());
+		copy.setEnName(c.getEnName());
+		copy.setLocation(c.getLocation().getLatitude(), c.getLocation().getLongitude());
+		copy.setFileOffset(c.getFileOffset());
+		copy.setIsin(c.getIsInValue());
+		copy.setPostcode(c.getPostcode());
+		copy.setClosestCity(c.getClosestCity());
+		return copy;
+	}
+
+	private Street findNearestStreet(CityIndex index, double lat, double lon) {
+		List<Street> list = new ArrayList<Street>();
+		for (int radius : STREET_SEARCH_RADIUS) {
+			index.streets.queryInBox(getBox(lat, lon, radius), list);
+			Street nearest = null;
+			double minDist = 0;
+			for (Street s : list) {
+				double d = MapUtils.getDistance(s.getLocation(), lat, lon);
+				if (d <= radius && (nearest == null || d < minDist)) {
+					nearest = s;
+					minDist = d;
+				}
+			}
+			if (nearest != null) {
+				return nearest;
+			}
+		}
+		return null;
+	}
+
+	private void findNearestBuilding(GeocodingResult res, CityIndex index, double lat, double lon) throws IOException {
+		if (!index.loadedBuildings.contains(res.street)) {
+			index.reader.preloadBuildings(res.street, null);
+			index.loadedBuildings.add(res.street);
+		}
+		for (Building b : res.street.getBuildings()) {
+			LatLon l = b.getLocation();
+			if (l == null) {
+				continue;
+			}
+			LatLon l2 = b.getLatLon2();
+			LatLon p = l;
+			float fraction = 0;
+			if (l2 != null) {
+				p = MapUtils.getProjection(lat, lon, l.getLatitude(), l.getLongitude(), l2.getLatitude(), l2.getLongitude());
+				double len = MapUtils.getDistance(l, l2);
+				fraction = len == 0 ? 0 : (float) Math.min(1, MapUtils.getDistance(l, p) / len);
+			}
+			double d = MapUtils.getDistance(p, lat, lon);
+			if (res.building == null || d < res.buildingDistance) {
+				res.building = b;
+				res.buildingDistance = d;
+				res.buildingPoint = p;
+				res.buildingNumber = l2 == null ? b.getName() : getInterpolatedNumber(b, fraction);
+			}
+		}
+	}
+
+	private static String getInterpolatedNumber(Building b, float fraction) {
+		if (b.getInterpolationType() == BuildingInterpolation.ALPHABETIC || b.getName2() == null) {
+			return b.getName();
+		}
+		int numB = Algorithms.extractFirstIntegerNumber(b.getName());
+		int numT = Algorithms.extractFirstIntegerNumber(b.getName2());
+		int step = 1;
+		if (b.getInterpolationInterval() > 0) {
+			step = b.getInterpolationInterval();
+		} else if (b.getInterpolationType() == BuildingInterpolation.EVEN
+				|| b.getInterpolationType() == BuildingInterpolation.ODD) {
+			step = 2;
+		}
+		if (numT <= numB) {
+			return b.getName();
+		}
+		int steps = Math.round((numT - numB) * fraction / step);
+		return String.valueOf(numB + steps * step);
+	}
+
+	private static QuadRect getBox(double lat, double lon, double meters) {
+		double dlat = meters / 111000d;
+		double dlon = dlat / Math.max(0.01, Math.cos(Math.toRadians(lat)));
+		int left = MapUtils.get31TileNumberX(lon - dlon);
+		int right = MapUtils.get31TileNumberX(lon + dlon);
+		int top = MapUtils.get31TileNumberY(Math.min(85, lat + dlat));
+		int bottom = MapUtils.get31TileNumberY(Math.max(-85, lat - dlat));
+		return new QuadRect(left, top, right, bottom);
+	}
+}
@@ -0,0 +1,101 @@
+package net.osmand.binary;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import net.osmand.ResultMatcher;
+import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteSubregion;
+import net.osmand.data.Amenity;
+
+/**
+ * One obf file opened once and shared between threads.
+ * Index metadata (map, route, poi, address regions) is parsed only once and the file is memory mapped,
+ * every thread reads through its own cheap cursor (a {@link BinaryMapIndexReader} with separate
+ * decoding state), so there is one file descriptor and one mapping per file.
+ */
+public class SharedBinaryMapIndexReader {
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final BinaryMapIndexReader reference;
+	private final ThreadLocal<BinaryMapIndexReader> cursors = new ThreadLocal<BinaryMapIndexReader>() {
+		@Override
+		protected BinaryMapIndexReader initialValue() {
+			try {
+				return newCursor();
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	public SharedBinaryMapIndexReader(File file) throws IOException {
+		this(file, null);
+	}
+
+	/**
+	 * @param blockCache cache of decoded blocks used by all cursors (could be shared between files), nullable
+	 */
+	public SharedBinaryMapIndexReader(File file, DecodedBlockCache blockCache) throws IOException {
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "r");
+		this.reference = new BinaryMapIndexReader(raf, true, true);
+		if (blockCache != null) {
+			reference.setBlockCache(blockCache, file);
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Reader holding parsed metadata. It should be used only to inspect indexes, not to read data
+	 */
+	public BinaryMapIndexReader getReferenceReader() {
+		return reference;
+	}
+
+	/**
+	 * Creates new independent cursor over the shared mapping.
+	 * Cursor must be used by one thread at a time and must not be closed.
+	 */
+	public BinaryMapIndexReader newCursor() throws IOException {
+		return new BinaryMapIndexReader(raf, reference);
+	}
+
+	/**
+	 * @return cursor bound to the current thread
+	 */
+	public BinaryMapIndexReader getReader() {
+		return cursors.get();
+	}
+
+	public List<BinaryMapDataObject> searchMapIndex(SearchRequest<BinaryMapDataObject> req) throws IOException {
+		return getReader().searchMapIndex(req);
+	}
+
+	public List<Amenity> searchPoi(SearchRequest<Amenity> req) throws IOException {
+		return getReader().searchPoi(req);
+	}
+
+	public List<RouteSubregion> searchRouteIndexTree(SearchRequest<?> req, List<RouteSubregion> list) throws IOException {
+		return getReader().searchRouteIndexTree(req, list);
+	}
+
+	public void loadRouteIndexData(List<RouteSubregion> toLoad, ResultMatcher<RouteDataObject> matcher) throws IOException {
+		getReader().loadRouteIndexData(toLoad, matcher);
+	}
+
+	public List<RouteDataObject> loadRouteIndexData(RouteSubregion rs) throws IOException {
+		return getReader().loadRouteIndexData(rs);
+	}
+
+	public void close() throws IOException {
+		raf.close();
+	}
+
+}
@@ -0,0 +1,353 @@
+package net.osmand.render;
+
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.binary.BinaryMapIndexReader.MapIndex;
+import net.osmand.util.MapAlgorithms;
+import net.osmand.util.MapUtils;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Builds land and water polygons of the bbox from coastline segments (water is on the right side of the coastline).
+ * Used by map rendering on Android and by the java renderer.
+ */
+public class CoastlineProcessor {
+
+	private final static Log log = PlatformUtil.getLog(CoastlineProcessor.class);
+
+	// returns true if coastlines were added!
+	public static boolean processCoastlines(List<BinaryMapDataObject> coastLines, int leftX, int rightX, 
+			int bottomY, int topY, int zoom, boolean doNotAddIfIncompleted, boolean addDebugIncompleted, List<BinaryMapDataObject> result) {
+		List<TLongList> completedRings = new ArrayList<TLongList>();
+		List<TLongList> uncompletedRings = new ArrayList<TLongList>();
+		MapIndex mapIndex = null;
+		long dbId = 0;
+		for (BinaryMapDataObject o : coastLines) {
+			int len = o.getPointsLength();
+			if (len < 2) {
+				continue;
+			}
+			mapIndex = o.getMapIndex();
+			dbId = o.getId() >> 1;
+			TLongList coordinates = new TLongArrayList(o.getPointsLength() / 2);
+			int px = o.getPoint31XTile(0);
+			int py = o.getPoint31YTile(0);
+			int x = px;
+			int y = py;
+			boolean pinside = leftX <= x && x <= rightX && y >= topY && y <= bottomY;
+			if (pinside) {
+				coordinates.add(combine2Points(x, y));
+			}
+			for (int i = 1; i < len; i++) {
+				x = o.getPoint31XTile(i);
+				y = o.getPoint31YTile(i);
+				boolean inside = leftX <= x && x <= rightX && y >= topY && y <= bottomY;
+				boolean lineEnded = calculateLineCoordinates(inside, x, y, pinside, px, py, leftX, rightX, bottomY, topY, coordinates);
+				if (lineEnded) {
+					combineMultipolygonLine(completedRings, uncompletedRings, coordinates);
+					// create new line if it goes outside
+					coordinates = new TLongArrayList();
+				}
+				px = x;
+				py = y;
+				pinside = inside;
+			}
+			combineMultipolygonLine(completedRings, uncompletedRings, coordinates);
+		}
+		if (completedRings.size() == 0 && uncompletedRings.size() == 0) {
+			return false;
+		}
+		if (uncompletedRings.size() > 0) {
+			unifyIncompletedRings(uncompletedRings, completedRings, leftX, rightX, bottomY, topY, dbId, zoom);
+		}
+		long mask = 0xffffffffL;
+		// draw uncompleted for debug purpose
+		for (int i = 0; i < uncompletedRings.size(); i++) {
+			TLongList ring = uncompletedRings.get(i);
+			int[] coordinates = new int[ring.size() * 2];
+			for (int j = 0; j < ring.size(); j++) {
+				coordinates[j * 2] = (int) (ring.get(j) >> 32);
+				coordinates[j * 2 + 1] = (int) (ring.get(j) & mask);
+			}
+			BinaryMapDataObject o = new BinaryMapDataObject(coordinates, new int[] { mapIndex.coastlineBrokenEncodingType }, null, dbId);
+			o.setMapIndex(mapIndex);
+			result.add(o);
+		}
+		if(!doNotAddIfIncompleted && uncompletedRings.size() > 0){
+			return false;
+		}
+		boolean clockwiseFound = false;
+		
+		for (int i = 0; i < completedRings.size(); i++) {
+			TLongList ring = completedRings.get(i);
+			int[] coordinates = new int[ring.size() * 2];
+			for (int j = 0; j < ring.size(); j++) {
+				coordinates[j * 2] = (int) (ring.get(j) >> 32);
+				coordinates[j * 2 + 1] = (int) (ring.get(j) & mask);
+			}
+			boolean clockwise = MapAlgorithms.isClockwiseWay(ring);
+			clockwiseFound = clockwiseFound || clockwise;
+			BinaryMapDataObject o = new BinaryMapDataObject(coordinates, new int[] { clockwise ? mapIndex.coastlineEncodingType
+					: mapIndex.landEncodingType }, null, dbId);
+			o.setMapIndex(mapIndex);
+			o.setArea(true);
+			result.add(o);
+		}
+		
+		if (!clockwiseFound && uncompletedRings.size() == 0) {
+			// add complete water tile
+			BinaryMapDataObject o = new BinaryMapDataObject(new int[] { leftX, topY, rightX, topY, rightX, bottomY, leftX, bottomY, leftX,
+					topY }, new int[] { mapIndex.coastlineEncodingType }, null, dbId);
+			o.setMapIndex(mapIndex);
+			log.info("!!! Isolated islands !!!"); //$NON-NLS-1$
+			result.add(o);
+
+		}
+		return true;
+	}
+	
+	private static boolean eq(long i1, long i2){
+		return i1 == i2;
+	}
+	
+	private static void combineMultipolygonLine(List<TLongList> completedRings, List<TLongList> incompletedRings,	TLongList coordinates) {
+		if (coordinates.size() > 0) {
+			if (eq(coordinates.get(0), coordinates.get(coordinates.size() - 1))) {
+				completedRings.add(coordinates);
+			} else {
+				boolean add = true;
+				for (int k = 0; k < incompletedRings.size();) {
+					boolean remove = false;
+					TLongList i = incompletedRings.get(k);
+					if (eq(coordinates.get(0), i.get(i.size() - 1))) {
+						i.addAll(coordinates.subList(1, coordinates.size()));
+						remove = true;
+						coordinates = i;
+					} else if (eq(coordinates.get(coordinates.size() - 1), i.get(0))) {
+						coordinates.addAll(i.subList(1, i.size()));
+						remove = true;
+					}
+					if (remove) {
+						incompletedRings.remove(k);
+					} else {
+						k++;
+					}
+					if (eq(coordinates.get(0), coordinates.get(coordinates.size() - 1))) {
+						completedRings.add(coordinates);
+						add = false;
+						break;
+					}
+				}
+				if (add) {
+					incompletedRings.add(coordinates);
+				}
+			}
+		}
+	}
+
+	private static void unifyIncompletedRings(List<TLongList> toProcces, List<TLongList> completedRings, int leftX, int rightX, int bottomY, int topY, long dbId, int zoom) {
+		int mask = 0xffffffff;
+		List<TLongList> uncompletedRings = new ArrayList<TLongList>(toProcces);
+		toProcces.clear();
+		Set<Integer> nonvisitedRings = new LinkedHashSet<Integer>();
+		for (int j = 0; j < uncompletedRings.size(); j++) {
+			TLongList i = uncompletedRings.get(j);
+			int x = (int) (i.get(i.size() - 1) >> 32);
+			int y = (int) (i.get(i.size() - 1) & mask);
+			int sx = (int) (i.get(0) >> 32);
+			int sy = (int) (i.get(0) & mask);
+			boolean st = y == topY || x == rightX || y == bottomY || x == leftX;
+			boolean end = sy == topY || sx == rightX || sy == bottomY || sx == leftX;
+			// something goes wrong
+			// These exceptions are used to check logic about processing multipolygons
+			// However this situation could happen because of broken multipolygons (so it should data causes app error)
+			// that's why these exceptions could be replaced with return; statement.
+			if (!end || !st) {
+				float dx = (float) MapUtils.get31LongitudeX(x);
+				float dsx = (float) MapUtils.get31LongitudeX(sx);
+				float dy = (float) MapUtils.get31LatitudeY(y);
+				float dsy = (float) MapUtils.get31LatitudeY(sy);
+				String str;
+				if (!end) {
+					str = " Starting point (to close) not found : end_x = {0}, end_y = {1}, start_x = {2}, start_y = {3} : bounds {4} {5} - {6} {7}"; //$NON-NLS-1$
+					System.err
+							.println(MessageFormat.format(dbId + str, dx, dy, dsx, dsy, leftX + "", topY + "", rightX + "", bottomY + "")); //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$//$NON-NLS-4$
+				}
+				if (!st) {
+					str = " End not found : end_x = {0}, end_y = {1}, start_x = {2}, start_y = {3} : bounds {4} {5} - {6} {7}"; //$NON-NLS-1$
+					System.err
+							.println(MessageFormat.format(dbId + str, dx, dy, dsx, dsy, leftX + "", topY + "", rightX + "", bottomY + "")); //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$//$NON-NLS-4$
+				}
+				toProcces.add(i);
+			} else {
+				nonvisitedRings.add(j);
+			}
+		}
+		for (int j = 0; j < uncompletedRings.size(); j++) {
+			TLongList i = uncompletedRings.get(j);
+			if (!nonvisitedRings.contains(j)) {
+				continue;
+			}
+
+			int x = (int) (i.get(i.size() - 1) >> 32);
+			int y = (int) (i.get(i.size() - 1) & mask);
+			// 31 - (zoom + 8)
+			int EVAL_DELTA = 6 << (23 - zoom);
+			int UNDEFINED_MIN_DIFF = -1 - EVAL_DELTA;
+			while (true) {
+				int st = 0; // st already checked to be one of the four
+				if (y == topY) {
+					st = 0;
+				} else if (x == rightX) {
+					st = 1;
+				} else if (y == bottomY) {
+					st = 2;
+				} else if (x == leftX) {
+					st = 3;
+				}
+				int nextRingIndex = -1;
+				// BEGIN go clockwise around rectangle
+				for (int h = st; h < st + 4; h++) {
+
+					// BEGIN find closest nonvisited start (including current)
+					int mindiff = UNDEFINED_MIN_DIFF;
+					for (Integer ni : nonvisitedRings) {
+						TLongList cni = uncompletedRings.get(ni);
+						int csx = (int) (cni.get(0) >> 32);
+						int csy = (int) (cni.get(0) & mask);
+						if (h % 4 == 0) {
+							// top
+							if (csy == topY && csx >= safelyAddDelta(x, -EVAL_DELTA)) {
+								if (mindiff == UNDEFINED_MIN_DIFF || (csx - x) <= mindiff) {
+									mindiff = (csx - x);
+									nextRingIndex = ni;
+								}
+							}
+						} else if (h % 4 == 1) {
+							// right
+							if (csx == rightX && csy >= safelyAddDelta(y, -EVAL_DELTA)) {
+								if (mindiff == UNDEFINED_MIN_DIFF || (csy - y) <= mindiff) {
+									mindiff = (csy - y);
+									nextRingIndex = ni;
+								}
+							}
+						} else if (h % 4 == 2) {
+							// bottom
+							if (csy == bottomY && csx <= safelyAddDelta(x, EVAL_DELTA)) {
+								if (mindiff == UNDEFINED_MIN_DIFF || (x - csx) <= mindiff) {
+									mindiff = (x - csx);
+									nextRingIndex = ni;
+								}
+							}
+						} else if (h % 4 == 3) {
+							// left
+							if (csx == leftX && csy <= safelyAddDelta(y, EVAL_DELTA)) {
+								if (mindiff == UNDEFINED_MIN_DIFF || (y - csy) <= mindiff) {
+									mindiff = (y - csy);
+									nextRingIndex = ni;
+								}
+							}
+						}
+					} // END find closest start (including current)
+
+					// we found start point
+					if (mindiff != UNDEFINED_MIN_DIFF) {
+						break;
+					} else {
+						if (h % 4 == 0) {
+							// top
+							y = topY;
+							x = rightX;
+						} else if (h % 4 == 1) {
+							// right
+							y = bottomY;
+							x = rightX;
+						} else if (h % 4 == 2) {
+							// bottom
+							y = bottomY;
+							x = leftX;
+						} else if (h % 4 == 3) {
+							y = topY;
+							x = leftX;
+						}
+						i.add((((long) x) << 32) | ((long) y));
+					}
+
+				} // END go clockwise around rectangle
+				if (nextRingIndex == -1) {
+					// it is impossible (current start should always be found)
+				} else if (nextRingIndex == j) {
+					i.add(i.get(0));
+					nonvisitedRings.remove(j);
+					break;
+				} else {
+					i.addAll(uncompletedRings.get(nextRingIndex));
+					nonvisitedRings.remove(nextRingIndex);
+					// get last point and start again going clockwise
+					x = (int) (i.get(i.size() - 1) >> 32);
+					y = (int) (i.get(i.size() - 1) & mask);
+				}
+			}
+
+			completedRings.add(i);
+		}
+	}
+
+	private static int safelyAddDelta(int number, int delta) {
+		int res = number + delta;
+		if (delta > 0 && res < number) {
+			return Integer.MAX_VALUE;
+		} else if (delta < 0 && res > number) {
+			return Integer.MIN_VALUE;
+		}
+		return res;
+	}
+	
+	private static long combine2Points(int x, int y) {
+		return (((long) x ) <<32) | ((long)y );
+	}
+	
+	private static boolean calculateLineCoordinates(boolean inside, int x, int y, boolean pinside, int px, int py, int leftX, int rightX,
+			int bottomY, int topY, TLongList coordinates) {
+		boolean lineEnded = false;
+		if (pinside) {
+			if (!inside) {
+				long is = MapAlgorithms.calculateIntersection(x, y, px, py, leftX, rightX, bottomY, topY);
+				if (is == -1) {
+					// it is an error (!)
+					is = combine2Points(px, py);
+				}
+				coordinates.add(is);
+				lineEnded = true;
+			} else {
+				coordinates.add(combine2Points(x, y));
+			}
+		} else {
+			long is = MapAlgorithms.calculateIntersection(x, y, px, py, leftX, rightX, bottomY, topY);
+			if (inside) {
+				// assert is != -1;
+				coordinates.add(is);
+				coordinates.add(combine2Points(x, y));
+			} else if (is != -1) {
+				int bx = (int) (is >> 32);
+				int by = (int) (is & 0xffffffff);
+				coordinates.add(is);
+				is = MapAlgorithms.calculateIntersection(x, y, bx, by, leftX, rightX, bottomY, topY);
+				coordinates.add(is);
+				lineEnded = true;
+			}
+		}
+
+		return lineEnded;
+	}
+}
@@ -0,0 +1,839 @@
+package net.osmand.render;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.TexturePaint;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.binary.BinaryMapIndexReader.TagValuePair;
+import net.osmand.data.QuadRect;
+import net.osmand.data.QuadTree;
+import net.osmand.render.Java2DTextRenderer.TextDrawInfo;
+import net.osmand.util.Algorithms;
+import net.osmand.util.MapUtils;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Pure java renderer of map objects to BufferedImage (port of android OsmandRenderer).
+ * Objects are ordered and styled by the same rendering rules, polygons, lines, points, icons and text
+ * are drawn in the same order. Android shadow layer (shadowRenderingMode = 1) has no analogue in java2d
+ * and is not drawn, blurred shadow (2) is drawn as solid border (3).
+ *
+ * Renderer keeps paint state and is not thread safe, use one renderer per thread.
+ */
+public class Java2DRenderer {
+	private static final Log log = PlatformUtil.getLog(Java2DRenderer.class);
+
+	public static final int TILE_SIZE = 256;
+	private static final int MAX_V = 75;
+	private static final int ONEWAY_COLOR = 0xff6c70d5;
+
+	private final IconProvider icons;
+	private final Java2DTextRenderer textRenderer;
+	private final Paint paint = new Paint();
+
+	private Map<String, float[]> parsedDashEffects = new HashMap<String, float[]>();
+	private Map<String, TexturePaint> shaders = new HashMap<String, TexturePaint>();
+
+	/**
+	 * Provides icons and shaders referenced by rendering rules, it is shared by all renderers so should be thread safe.
+	 */
+	public interface IconProvider {
+
+		/**
+		 * @return icon or null if there is no icon with the name
+		 */
+		public BufferedImage getIcon(String name);
+	}
+
+	static class MapDataObjectPrimitive {
+		BinaryMapDataObject obj;
+		int typeInd;
+		double order;
+		int objectType;
+	}
+
+	private static class IconDrawInfo {
+		float x = 0;
+		float y = 0;
+		String resId_1;
+		String resId;
+		String resId2;
+		String resId3;
+		String resId4;
+		String resId5;
+		String shieldId;
+		int iconOrder;
+		float iconSize;
+	}
+
+	/**
+	 * Stroke/fill state of the current drawing (analogue of android Paint)
+	 */
+	private static class Paint {
+		boolean fill;
+		int color;
+		float strokeWidth;
+		int cap = BasicStroke.CAP_BUTT;
+		float[] dash;
+		float dashPhase;
+		TexturePaint shader;
+
+		void reset() {
+			fill = false;
+			color = 0;
+			strokeWidth = 0;
+			cap = BasicStroke.CAP_BUTT;
+			dash = null;
+			dashPhase = 0;
+			shader = null;
+		}
+
+		BasicStroke getStroke() {
+			return new BasicStroke(strokeWidth, cap, BasicStroke.JOIN_MITER, 10f, dash, dashPhase);
+		}
+	}
+
+	public static class RenderingContext extends net.osmand.RenderingContext {
+		List<TextDrawInfo> textToDraw = new ArrayList<TextDrawInfo>();
+		List<IconDrawInfo> iconsToDraw = new ArrayList<IconDrawInfo>();
+		Paint[] oneWay;
+		Paint[] reverseOneWay;
+
+		// use to calculate points
+		Point2D.Float tempPoint = new Point2D.Float();
+		float cosRotateTileSize;
+		float sinRotateTileSize;
+
+		int shadowLevelMin = 256;
+		int shadowLevelMax = 0;
+	}
+
+	public Java2DRenderer(IconProvider icons) {
+		this.icons = icons;
+		this.textRenderer = new Java2DTextRenderer(this);
+	}
+
+	BufferedImage getIcon(String name) {
+		if (name == null || icons == null) {
+			return null;
+		}
+		return icons.getIcon(name);
+	}
+
+	public void clearCachedResources() {
+		shaders.clear();
+	}
+
+	/**
+	 * Draws objects over the image, width and height of the context should be set to the image size
+	 */
+	public void generateNewBitmap(RenderingContext rc, List<BinaryMapDataObject> objects, BufferedImage bmp,
+			RenderingRuleSearchRequest render) {
+		long now = System.currentTimeMillis();
+		Graphics2D cv = bmp.createGraphics();
+		try {
+			cv.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			cv.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+			cv.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			cv.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+			// fill area
+			if (rc.defaultColor != 0) {
+				cv.setComposite(AlphaComposite.Src);
+				cv.setColor(new Color(rc.defaultColor, true));
+				cv.fillRect(0, 0, bmp.getWidth(), bmp.getHeight());
+				cv.setComposite(AlphaComposite.SrcOver);
+			}
+			if (objects != null && !objects.isEmpty() && rc.width > 0 && rc.height > 0) {
+				rc.cosRotateTileSize = (float) Math.cos(Math.toRadians(rc.rotate)) * TILE_SIZE;
+				rc.sinRotateTileSize = (float) Math.sin(Math.toRadians(rc.rotate)) * TILE_SIZE;
+
+				// put in order map
+				List<MapDataObjectPrimitive> pointsArray = new ArrayList<MapDataObjectPrimitive>();
+				List<MapDataObjectPrimitive> polygonsArray = new ArrayList<MapDataObjectPrimitive>();
+				List<MapDataObjectPrimitive> linesArray = new ArrayList<MapDataObjectPrimitive>();
+				sortObjectsByProperOrder(rc, objects, render, pointsArray, polygonsArray, linesArray);
+
+				rc.lastRenderedKey = 0;
+				drawObject(rc, cv, render, polygonsArray, 0);
+				rc.lastRenderedKey = 5;
+				if (rc.shadowRenderingMode > 1) {
+					drawObject(rc, cv, render, linesArray, 1);
+				}
+				rc.lastRenderedKey = 40;
+				drawObject(rc, cv, render, linesArray, 2);
+				rc.lastRenderedKey = 60;
+				drawObject(rc, cv, render, pointsArray, 3);
+				rc.lastRenderedKey = 125;
+
+				long beforeIconTextTime = System.currentTimeMillis() - now;
+				drawIconsOverCanvas(rc, cv);
+				textRenderer.drawTextOverCanvas(rc, cv, rc.preferredLocale);
+
+				long time = System.currentTimeMillis() - now;
+				rc.textRenderingTime = (int) (time - beforeIconTextTime);
+				rc.renderingDebugInfo = String.format("Rendering: %s ms  (%s text)\n"
+						+ "(%s points, %s points inside, %s of %s objects visible)",//$NON-NLS-1$
+						time, time - beforeIconTextTime, rc.pointCount, rc.pointInsideCount, rc.visible, rc.allObjects);
+				log.debug(rc.renderingDebugInfo);
+			}
+		} finally {
+			cv.dispose();
+		}
+	}
+
+	void drawObject(RenderingContext rc, Graphics2D cv, RenderingRuleSearchRequest req,
+			List<MapDataObjectPrimitive> array, int objOrder) {
+		double minPolygonSize = 1. / rc.polygonMinSizeToDisplay;
+		for (int i = 0; i < array.size(); i++) {
+			rc.allObjects++;
+			BinaryMapDataObject mObj = array.get(i).obj;
+			TagValuePair pair = mObj.getMapIndex().decodeType(mObj.getTypes()[array.get(i).typeInd]);
+			if (objOrder == 0) {
+				if (array.get(i).order > minPolygonSize + ((int) array.get(i).order)) {
+					continue;
+				}
+				// polygon
+				drawPolygon(mObj, req, cv, rc, pair);
+			} else if (objOrder == 1 || objOrder == 2) {
+				drawPolyline(mObj, req, cv, rc, pair, mObj.getSimpleLayer(), objOrder == 1);
+			} else if (objOrder == 3) {
+				drawPoint(mObj, req, cv, rc, pair, array.get(i).typeInd == 0);
+			}
+			if (i % 25 == 0 && rc.interrupted) {
+				return;
+			}
+		}
+	}
+
+	private void drawIconsOverCanvas(RenderingContext rc, Graphics2D cv) {
+		// 1. Sort text using text order
+		Collections.sort(rc.iconsToDraw, new Comparator<IconDrawInfo>() {
+			@Override
+			public int compare(IconDrawInfo object1, IconDrawInfo object2) {
+				return object1.iconOrder - object2.iconOrder;
+			}
+		});
+		QuadRect bounds = new QuadRect(0, 0, rc.width, rc.height);
+		bounds.inset(-bounds.width() / 4, -bounds.height() / 4);
+		QuadTree<QuadRect> boundIntersections = new QuadTree<QuadRect>(bounds, 4, 0.6f);
+		List<QuadRect> result = new ArrayList<QuadRect>();
+
+		for (IconDrawInfo icon : rc.iconsToDraw) {
+			if (icon.resId != null) {
+				BufferedImage ico = getIcon(icon.resId);
+				if (ico != null) {
+					if (icon.y >= 0 && icon.y < rc.height && icon.x >= 0 && icon.x < rc.width) {
+						int visbleWidth = icon.iconSize >= 0 ? (int) icon.iconSize : ico.getWidth();
+						int visbleHeight = icon.iconSize >= 0 ? (int) icon.iconSize : ico.getHeight();
+						boolean intersects = false;
+						QuadRect rf = calculateRect(rc, icon, ico.getWidth(), ico.getHeight());
+						QuadRect visibleRect = null;
+						if (visbleHeight > 0 && visbleWidth > 0) {
+							visibleRect = calculateRect(rc, icon, visbleWidth, visbleHeight);
+							boundIntersections.queryInBox(visibleRect, result);
+							for (QuadRect r : result) {
+								if (QuadRect.intersects(r, visibleRect)) {
+									intersects = true;
+									break;
+								}
+							}
+						}
+
+						if (!intersects) {
+							BufferedImage shield = getIcon(icon.shieldId);
+							if (shield != null) {
+								drawBitmap(cv, shield, calculateRect(rc, icon, shield.getWidth(), shield.getHeight()));
+							}
+							drawBitmap(cv, getIcon(icon.resId_1), rf);
+							drawBitmap(cv, ico, rf);
+							drawBitmap(cv, getIcon(icon.resId2), rf);
+							drawBitmap(cv, getIcon(icon.resId3), rf);
+							drawBitmap(cv, getIcon(icon.resId4), rf);
+							drawBitmap(cv, getIcon(icon.resId5), rf);
+							if (visibleRect != null) {
+								visibleRect.inset(-visibleRect.width() / 4, -visibleRect.height() / 4);
+								boundIntersections.insert(visibleRect, visibleRect);
+							}
+						}
+					}
+				}
+			}
+			if (rc.interrupted) {
+				return;
+			}
+		}
+	}
+
+	void drawBitmap(Graphics2D cv, BufferedImage ico, QuadRect rf) {
+		if (ico == null) {
+			return;
+		}
+		int left = (int) Math.round(rf.left);
+		int top = (int) Math.round(rf.top);
+		int w = (int) Math.round(rf.right) - left;
+		int h = (int) Math.round(rf.bottom) - top;
+		if (w == ico.getWidth() && h == ico.getHeight()) {
+			cv.drawImage(ico, left, top, null);
+		} else {
+			cv.drawImage(ico, left, top, w, h, null);
+		}
+	}
+
+	private QuadRect calculateRect(RenderingContext rc, IconDrawInfo icon, int visbleWidth, int visbleHeight) {
+		float coeff = rc.getDensityValue(rc.screenDensityRatio * rc.textScale);
+		float left = icon.x - visbleWidth / 2 * coeff;
+		float top = icon.y - visbleHeight / 2 * coeff;
+		float right = left + visbleWidth * coeff;
+		float bottom = top + visbleHeight * coeff;
+		return new QuadRect(left, top, right, bottom);
+	}
+
+	Comparator<MapDataObjectPrimitive> sortByOrder() {
+		return new Comparator<MapDataObjectPrimitive>() {
+
+			@Override
+			public int compare(MapDataObjectPrimitive i, MapDataObjectPrimitive j) {
+				if (i.order == j.order) {
+					if (i.typeInd == j.typeInd) {
+						if (i.obj.getPointsLength() == j.obj.getPointsLength()) {
+							return 0;
+						}
+						return i.obj.getPointsLength() < j.obj.getPointsLength() ? -1 : 1;
+					}
+					return i.typeInd < j.typeInd ? -1 : 1;
+				}
+				return (i.order < j.order ? -1 : 1);
+			}
+
+		};
+	}
+
+	private void sortObjectsByProperOrder(RenderingContext rc, List<BinaryMapDataObject> objects,
+			RenderingRuleSearchRequest render,
+			List<MapDataObjectPrimitive> pointsArray, List<MapDataObjectPrimitive> polygonsArray,
+			List<MapDataObjectPrimitive> linesArray) {
+		int sz = objects.size();
+		if (render != null) {
+			render.clearState();
+
+			float mult = (float) (1. / MapUtils.getPowZoom(Math.max(31 - (rc.zoom + 8), 0)));
+			for (int i = 0; i < sz; i++) {
+				BinaryMapDataObject o = objects.get(i);
+				for (int j = 0; j < o.getTypes().length; j++) {
+					int wholeType = o.getTypes()[j];
+					int layer = 0;
+					if (o.getPointsLength() > 1) {
+						layer = o.getSimpleLayer();
+					}
+
+					TagValuePair pair = o.getMapIndex().decodeType(wholeType);
+					if (pair != null) {
+						render.setTagValueZoomLayer(pair.tag, pair.value, rc.zoom, layer, o);
+						render.setBooleanFilter(render.ALL.R_AREA, o.isArea());
+						render.setBooleanFilter(render.ALL.R_POINT, o.getPointsLength() == 1);
+						render.setBooleanFilter(render.ALL.R_CYCLE, o.isCycle());
+						if (render.search(RenderingRulesStorage.ORDER_RULES)) {
+							int objectType = render.getIntPropertyValue(render.ALL.R_OBJECT_TYPE);
+							int order = render.getIntPropertyValue(render.ALL.R_ORDER);
+							MapDataObjectPrimitive mapObj = new MapDataObjectPrimitive();
+							mapObj.objectType = objectType;
+							mapObj.order = order;
+							mapObj.typeInd = j;
+							mapObj.obj = o;
+							if (objectType == 3) {
+								double area = polygonArea(mapObj, mult);
+								if (area > MAX_V) {
+									MapDataObjectPrimitive pointObj = new MapDataObjectPrimitive();
+									pointObj.objectType = 1;
+									pointObj.order = order;
+									pointObj.typeInd = j;
+									pointObj.obj = o;
+									mapObj.order = mapObj.order + (1. / area);
+									polygonsArray.add(mapObj);
+									pointsArray.add(pointObj);
+								}
+							} else if (objectType == 1) {
+								pointsArray.add(mapObj);
+							} else {
+								linesArray.add(mapObj);
+							}
+							if (render.isSpecified(render.ALL.R_SHADOW_LEVEL)) {
+								rc.shadowLevelMin = Math.min(rc.shadowLevelMin, order);
+								rc.shadowLevelMax = Math.max(rc.shadowLevelMax, order);
+								render.clearValue(render.ALL.R_SHADOW_LEVEL);
+							}
+						}
+					}
+				}
+
+				if (rc.interrupted) {
+					return;
+				}
+			}
+		}
+		Collections.sort(polygonsArray, sortByOrder());
+		Collections.sort(pointsArray, sortByOrder());
+		Collections.sort(linesArray, sortByOrder());
+	}
+
+	private double polygonArea(MapDataObjectPrimitive mapObj, float mult) {
+		double area = 0.;
+		int j = mapObj.obj.getPointsLength() - 1;
+		for (int i = 0; i < mapObj.obj.getPointsLength(); i++) {
+			int px = mapObj.obj.getPoint31XTile(i);
+			int py = mapObj.obj.getPoint31YTile(i);
+			int sx = mapObj.obj.getPoint31XTile(j);
+			int sy = mapObj.obj.getPoint31YTile(j);
+			area += (sx + ((float) px)) * (sy - ((float) py));
+			j = i;
+		}
+		return Math.abs(area) * mult * mult * .5;
+	}
+
+	private Point2D.Float calcPoint(int xt, int yt, RenderingContext rc) {
+		rc.pointCount++;
+		double tx = xt / rc.tileDivisor;
+		double ty = yt / rc.tileDivisor;
+		double dTileX = (tx - rc.leftX);
+		double dTileY = (ty - rc.topY);
+		float x = (float) (rc.cosRotateTileSize * dTileX - rc.sinRotateTileSize * dTileY);
+		float y = (float) (rc.sinRotateTileSize * dTileX + rc.cosRotateTileSize * dTileY);
+		rc.tempPoint.setLocation(x, y);
+		if (x >= 0 && x < rc.width && y >= 0 && y < rc.height) {
+			rc.pointInsideCount++;
+		}
+		return rc.tempPoint;
+	}
+
+	private Point2D.Float calcPoint(BinaryMapDataObject o, int ind, RenderingContext rc) {
+		return calcPoint(o.getPoint31XTile(ind), o.getPoint31YTile(ind), rc);
+	}
+
+	private void drawPath(Graphics2D cv, Path2D path, Paint p) {
+		if (p.shader != null) {
+			cv.setPaint(p.shader);
+		} else {
+			cv.setColor(new Color(p.color, true));
+		}
+		if (p.fill) {
+			cv.fill(path);
+		} else {
+			cv.setStroke(p.getStroke());
+			cv.draw(path);
+		}
+	}
+
+	private void drawPolygon(BinaryMapDataObject obj, RenderingRuleSearchRequest render, Graphics2D canvas,
+			RenderingContext rc, TagValuePair pair) {
+		if (render == null || pair == null) {
+			return;
+		}
+		float xText = 0;
+		float yText = 0;
+		int zoom = rc.zoom;
+		Path2D.Float path = null;
+
+		render.setInitialTagValueZoom(pair.tag, pair.value, zoom, obj);
+		boolean rendered = render.search(RenderingRulesStorage.POLYGON_RULES);
+		if (!rendered || !updatePaint(render, paint, 0, true, rc)) {
+			return;
+		}
+		rc.visible++;
+		int len = obj.getPointsLength();
+		for (int i = 0; i < len; i++) {
+			Point2D.Float p = calcPoint(obj, i, rc);
+			xText += p.x;
+			yText += p.y;
+			if (path == null) {
+				path = new Path2D.Float();
+				path.moveTo(p.x, p.y);
+			} else {
+				path.lineTo(p.x, p.y);
+			}
+		}
+		int[][] polygonInnerCoordinates = obj.getPolygonInnerCoordinates();
+		if (polygonInnerCoordinates != null && path != null) {
+			path.setWindingRule(Path2D.WIND_EVEN_ODD);
+			for (int j = 0; j < polygonInnerCoordinates.length; j++) {
+				for (int i = 0; i < polygonInnerCoordinates[j].length; i += 2) {
+					Point2D.Float p = calcPoint(polygonInnerCoordinates[j][i], polygonInnerCoordinates[j][i + 1], rc);
+					if (i == 0) {
+						path.moveTo(p.x, p.y);
+					} else {
+						path.lineTo(p.x, p.y);
+					}
+				}
+			}
+		}
+
+		if (path != null && len > 0) {
+			drawPath(canvas, path, paint);
+			if (updatePaint(render, paint, 1, false, rc)) {
+				drawPath(canvas, path, paint);
+			}
+			textRenderer.renderText(obj, render, rc, pair, xText / len, yText / len, null);
+		}
+	}
+
+	private boolean updatePaint(RenderingRuleSearchRequest req, Paint p, int ind, boolean area, RenderingContext rc) {
+		RenderingRuleProperty rColor;
+		RenderingRuleProperty rStrokeW;
+		RenderingRuleProperty rCap;
+		RenderingRuleProperty rPathEff;
+
+		if (ind == 0) {
+			rColor = req.ALL.R_COLOR;
+			rStrokeW = req.ALL.R_STROKE_WIDTH;
+			rCap = req.ALL.R_CAP;
+			rPathEff = req.ALL.R_PATH_EFFECT;
+		} else if (ind == 1) {
+			rColor = req.ALL.R_COLOR_2;
+			rStrokeW = req.ALL.R_STROKE_WIDTH_2;
+			rCap = req.ALL.R_CAP_2;
+			rPathEff = req.ALL.R_PATH_EFFECT_2;
+		} else if (ind == -1) {
+			rColor = req.ALL.R_COLOR_0;
+			rStrokeW = req.ALL.R_STROKE_WIDTH_0;
+			rCap = req.ALL.R_CAP_0;
+			rPathEff = req.ALL.R_PATH_EFFECT_0;
+		} else if (ind == -2) {
+			rColor = req.ALL.R_COLOR__1;
+			rStrokeW = req.ALL.R_STROKE_WIDTH__1;
+			rCap = req.ALL.R_CAP__1;
+			rPathEff = req.ALL.R_PATH_EFFECT__1;
+		} else if (ind == 2) {
+			rColor = req.ALL.R_COLOR_3;
+			rStrokeW = req.ALL.R_STROKE_WIDTH_3;
+			rCap = req.ALL.R_CAP_3;
+			rPathEff = req.ALL.R_PATH_EFFECT_3;
+		} else if (ind == -3) {
+			rColor = req.ALL.R_COLOR__2;
+			rStrokeW = req.ALL.R_STROKE_WIDTH__2;
+			rCap = req.ALL.R_CAP__2;
+			rPathEff = req.ALL.R_PATH_EFFECT__2;
+		} else if (ind == 3) {
+			rColor = req.ALL.R_COLOR_4;
+			rStrokeW = req.ALL.R_STROKE_WIDTH_4;
+			rCap = req.ALL.R_CAP_4;
+			rPathEff = req.ALL.R_PATH_EFFECT_4;
+		} else {
+			rColor = req.ALL.R_COLOR_5;
+			rStrokeW = req.ALL.R_STROKE_WIDTH_5;
+			rCap = req.ALL.R_CAP_5;
+			rPathEff = req.ALL.R_PATH_EFFECT_5;
+		}
+		if (area) {
+			if (!req.isSpecified(rColor) && !req.isSpecified(req.ALL.R_SHADER)) {
+				return false;
+			}
+			p.reset();
+			p.fill = true;
+		} else {
+			if (!req.isSpecified(rStrokeW)) {
+				return false;
+			}
+			p.reset();
+			p.strokeWidth = rc.getComplexValue(req, rStrokeW);
+			p.cap = parseCap(req.getStringPropertyValue(rCap));
+			String pathEffect = req.getStringPropertyValue(rPathEff);
+			if (!Algorithms.isEmpty(pathEffect)) {
+				p.dash = getDashEffect(rc, getParsedDashEffect(pathEffect));
+			}
+		}
+		p.color = req.getIntPropertyValue(rColor);
+		if (ind == 0) {
+			String resId = req.getStringPropertyValue(req.ALL.R_SHADER);
+			if (resId != null) {
+				p.shader = getShader(resId);
+			}
+		}
+		return true;
+	}
+
+	private static int parseCap(String cap) {
+		if ("round".equalsIgnoreCase(cap)) {
+			return BasicStroke.CAP_ROUND;
+		} else if ("square".equalsIgnoreCase(cap)) {
+			return BasicStroke.CAP_SQUARE;
+		}
+		return BasicStroke.CAP_BUTT;
+	}
+
+	private float[] getParsedDashEffect(String pathEffect) {
+		float[] vs = parsedDashEffects.get(pathEffect);
+		if (vs == null) {
+			String[] vls = pathEffect.split("_");
+			vs = new float[vls.length * 2];
+			for (int i = 0; i < vls.length; i++) {
+				int s = vls[i].indexOf(':');
+				String pre = vls[i];
+				String post = "";
+				if (s != -1) {
+					pre = vls[i].substring(0, s);
+					post = vls[i].substring(s + 1);
+				}
+				if (pre.length() > 0) {
+					vs[i * 2] = Float.parseFloat(pre);
+				}
+				if (post.length() > 0) {
+					vs[i * 2 + 1] = Float.parseFloat(post);
+				}
+			}
+			parsedDashEffects.put(pathEffect, vs);
+		}
+		return vs;
+	}
+
+	private float[] getDashEffect(RenderingContext rc, float[] cachedValues) {
+		float[] dashes = new float[cachedValues.length / 2];
+		float sum = 0;
+		for (int i = 0; i < dashes.length; i++) {
+			dashes[i] = Math.max(0, rc.getDensityValue(cachedValues[i * 2]) + cachedValues[i * 2 + 1]);
+			sum += dashes[i];
+		}
+		// java2d doesn't accept empty dash pattern
+		return sum > 0 ? dashes : null;
+	}
+
+	private TexturePaint getShader(String resId) {
+		if (!shaders.containsKey(resId)) {
+			BufferedImage bmp = getIcon(resId);
+			TexturePaint sh = null;
+			if (bmp != null) {
+				sh = new TexturePaint(bmp, new Rectangle2D.Float(0, 0, bmp.getWidth(), bmp.getHeight()));
+			}
+			shaders.put(resId, sh);
+		}
+		return shaders.get(resId);
+	}
+
+	private void drawPoint(BinaryMapDataObject obj, RenderingRuleSearchRequest render, Graphics2D canvas,
+			RenderingContext rc, TagValuePair pair, boolean renderText) {
+		if (render == null || pair == null) {
+			return;
+		}
+		render.setInitialTagValueZoom(pair.tag, pair.value, rc.zoom, obj);
+		render.search(RenderingRulesStorage.POINT_RULES);
+
+		String resId = render.getStringPropertyValue(render.ALL.R_ICON);
+		if (resId == null && !renderText) {
+			return;
+		}
+		int len = obj.getPointsLength();
+		rc.visible++;
+		float psx = 0;
+		float psy = 0;
+		for (int i = 0; i < len; i++) {
+			Point2D.Float p = calcPoint(obj, i, rc);
+			psx += p.x;
+			psy += p.y;
+		}
+		if (len > 1) {
+			psx /= len;
+			psy /= len;
+		}
+
+		if (resId != null) {
+			IconDrawInfo ico = new IconDrawInfo();
+			ico.x = psx;
+			ico.y = psy;
+			ico.iconOrder = render.getIntPropertyValue(render.ALL.R_ICON_ORDER, 100);
+			ico.iconSize = rc.getComplexValue(render, render.ALL.R_ICON_VISIBLE_SIZE, -1);
+			ico.shieldId = render.getStringPropertyValue(render.ALL.R_SHIELD);
+			ico.resId_1 = render.getStringPropertyValue(render.ALL.R_ICON__1);
+			ico.resId = resId;
+			ico.resId2 = render.getStringPropertyValue(render.ALL.R_ICON_2);
+			ico.resId3 = render.getStringPropertyValue(render.ALL.R_ICON_3);
+			ico.resId4 = render.getStringPropertyValue(render.ALL.R_ICON_4);
+			ico.resId5 = render.getStringPropertyValue(render.ALL.R_ICON_5);
+			rc.iconsToDraw.add(ico);
+		}
+		if (renderText) {
+			textRenderer.renderText(obj, render, rc, pair, psx, psy, null);
+		}
+	}
+
+	private void drawPolylineShadow(Graphics2D canvas, RenderingContext rc, Path2D path, int shadowColor, int shadowRadius) {
+		// blurred shadow (2) is drawn as solid border (3)
+		if ((rc.shadowRenderingMode == 2 || rc.shadowRenderingMode == 3) && shadowRadius > 0) {
+			paint.strokeWidth += shadowRadius * 2;
+			paint.color = shadowColor;
+			paint.shader = null;
+			drawPath(canvas, path, paint);
+		}
+	}
+
+	private void drawPolyline(BinaryMapDataObject obj, RenderingRuleSearchRequest render, Graphics2D canvas,
+			RenderingContext rc, TagValuePair pair, int layer, boolean drawOnlyShadow) {
+		if (render == null || pair == null) {
+			return;
+		}
+		int length = obj.getPointsLength();
+		if (length < 2) {
+			return;
+		}
+		render.setInitialTagValueZoom(pair.tag, pair.value, rc.zoom, obj);
+		render.setIntFilter(render.ALL.R_LAYER, layer);
+		boolean rendered = render.search(RenderingRulesStorage.LINE_RULES);
+		if (!rendered || !updatePaint(render, paint, 0, false, rc)) {
+			return;
+		}
+		int oneway = 0;
+		if (rc.zoom >= 16 && "highway".equals(pair.tag)) { //$NON-NLS-1$
+			if (obj.containsAdditionalType(obj.getMapIndex().onewayAttribute)) {
+				oneway = 1;
+			} else if (obj.containsAdditionalType(obj.getMapIndex().onewayReverseAttribute)) {
+				oneway = -1;
+			}
+		}
+
+		rc.visible++;
+
+		Path2D.Float path = null;
+		float xMid = 0;
+		float yMid = 0;
+		int middle = obj.getPointsLength() / 2;
+		Point2D.Float[] textPoints = null;
+		if (!drawOnlyShadow) {
+			textPoints = new Point2D.Float[length];
+		}
+
+		boolean intersect = false;
+		float prevX = 0;
+		float prevY = 0;
+		for (int i = 0; i < length; i++) {
+			Point2D.Float p = calcPoint(obj, i, rc);
+			if (textPoints != null) {
+				textPoints[i] = new Point2D.Float(p.x, p.y);
+			}
+			if (!intersect) {
+				if (p.x >= 0 && p.y >= 0 && p.x < rc.width && p.y < rc.height) {
+					intersect = true;
+				}
+				if (!intersect && i > 0) {
+					if ((p.x < 0 && prevX < 0) || (p.y < 0 && prevY < 0) || (p.x > rc.width && prevX > rc.width)
+							|| (p.y > rc.height && prevY > rc.height)) {
+						intersect = false;
+					} else {
+						intersect = true;
+					}
+				}
+			}
+			if (path == null) {
+				path = new Path2D.Float();
+				path.moveTo(p.x, p.y);
+			} else {
+				if (i == middle) {
+					xMid = p.x;
+					yMid = p.y;
+				}
+				path.lineTo(p.x, p.y);
+			}
+			prevX = p.x;
+			prevY = p.y;
+		}
+		if (!intersect) {
+			return;
+		}
+		if (drawOnlyShadow) {
+			int shadowColor = render.getIntPropertyValue(render.ALL.R_SHADOW_COLOR);
+			int shadowRadius = (int) rc.getComplexValue(render, render.ALL.R_SHADOW_RADIUS);
+			if (shadowColor == 0) {
+				shadowColor = rc.shadowRenderingColor;
+			}
+			drawPolylineShadow(canvas, rc, path, shadowColor, shadowRadius);
+		} else {
+			boolean update = false;
+			if (updatePaint(render, paint, -3, false, rc)) {
+				update = true;
+				drawPath(canvas, path, paint);
+			}
+			if (updatePaint(render, paint, -2, false, rc)) {
+				update = true;
+				drawPath(canvas, path, paint);
+			}
+			if (updatePaint(render, paint, -1, false, rc)) {
+				update = true;
+				drawPath(canvas, path, paint);
+			}
+			if (update) {
+				updatePaint(render, paint, 0, false, rc);
+			}
+			drawPath(canvas, path, paint);
+			if (updatePaint(render, paint, 1, false, rc)) {
+				drawPath(canvas, path, paint);
+			}
+			if (updatePaint(render, paint, 2, false, rc)) {
+				drawPath(canvas, path, paint);
+			}
+			if (updatePaint(render, paint, 3, false, rc)) {
+				drawPath(canvas, path, paint);
+			}
+			if (updatePaint(render, paint, 4, false, rc)) {
+				drawPath(canvas, path, paint);
+			}
+			if (oneway != 0) {
+				Paint[] paints = oneway == -1 ? getReverseOneWayPaints(rc) : getOneWayPaints(rc);
+				for (int i = 0; i < paints.length; i++) {
+					drawPath(canvas, path, paints[i]);
+				}
+			}
+			textRenderer.renderText(obj, render, rc, pair, xMid, yMid, textPoints);
+		}
+	}
+
+	private static Paint oneWayPaint(float strokeWidth, float[] dash, float phase) {
+		Paint oneWay = new Paint();
+		oneWay.color = ONEWAY_COLOR;
+		oneWay.strokeWidth = strokeWidth;
+		oneWay.dash = dash;
+		oneWay.dashPhase = phase;
+		return oneWay;
+	}
+
+	private Paint[] getReverseOneWayPaints(RenderingContext rc) {
+		if (rc.reverseOneWay == null) {
+			int rmin = (int) rc.getDensityValue(1);
+			if (rmin > 2) {
+				rmin = rmin / 2;
+			}
+			rc.reverseOneWay = new Paint[4];
+			rc.reverseOneWay[0] = oneWayPaint(rmin * 2, new float[] { 0, 12, 10 * rmin, 152 }, 0);
+			rc.reverseOneWay[1] = oneWayPaint(rmin, new float[] { 0, 12 + rmin, 9 * rmin, 152 }, 1);
+			rc.reverseOneWay[2] = oneWayPaint(rmin * 3, new float[] { 0, 12 + 2 * rmin, 2 * rmin, 152 + 6 * rmin }, 1);
+			rc.reverseOneWay[3] = oneWayPaint(rmin * 4, new float[] { 0, 12 + 3 * rmin, 1 * rmin, 152 + 6 * rmin }, 1);
+		}
+		return rc.reverseOneWay;
+	}
+
+	private Paint[] getOneWayPaints(RenderingContext rc) {
+		if (rc.oneWay == null) {
+			float rmin = rc.getDensityValue(1);
+			if (rmin > 1) {
+				rmin = rmin * 2 / 3;
+			}
+			rc.oneWay = new Paint[4];
+			rc.oneWay[0] = oneWayPaint(rmin, new float[] { 0, 12, 10 * rmin, 152 }, 0);
+			rc.oneWay[1] = oneWayPaint(rmin * 2, new float[] { 0, 12, 9 * rmin, 152 + rmin }, 1);
+			rc.oneWay[2] = oneWayPaint(rmin * 3, new float[] { 0, 12 + 6 * rmin, 2 * rmin, 152 + 2 * rmin }, 1);
+			rc.oneWay[3] = oneWayPaint(rmin * 4, new float[] { 0, 12 + 6 * rmin, 1 * rmin, 152 + 3 * rmin }, 1);
+		}
+		return rc.oneWay;
+	}
+}
@@ -0,0 +1,514 @@
+package net.osmand.render;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.procedure.TIntObjectProcedure;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.LineMetrics;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.binary.BinaryMapIndexReader.TagValuePair;
+import net.osmand.data.QuadRect;
+import net.osmand.data.QuadTree;
+import net.osmand.render.Java2DRenderer.RenderingContext;
+import net.osmand.util.Algorithms;
+import net.sf.junidecode.Junidecode;
+
+/**
+ * Text placement of {@link Java2DRenderer} (port of android TextRenderer) : texts are drawn in order of text order,
+ * text intersecting already drawn text (checked with quad tree of text bounds) is skipped.
+ */
+class Java2DTextRenderer {
+
+	private static final int BLACK = 0xff000000;
+	private static final int WHITE = 0xffffffff;
+
+	private final Java2DRenderer renderer;
+	private final Font baseFont;
+	private final FontRenderContext frc = new FontRenderContext(null, true, true);
+	private List<TextDrawInfo> tempSearch = new ArrayList<TextDrawInfo>();
+
+	static class TextDrawInfo {
+
+		public TextDrawInfo(String text) {
+			this.text = text;
+		}
+
+		String text = null;
+		Point2D.Float[] drawOnPath = null;
+		QuadRect bounds = null;
+		float vOffset = 0;
+		float centerX = 0;
+		float pathRotate = 0;
+		float centerY = 0;
+		float textSize = 0;
+		float minDistance = 0;
+		int textColor = BLACK;
+		int textShadow = 0;
+		int textWrap = 0;
+		boolean bold = false;
+		String shieldRes = null;
+		int textOrder = 100;
+		int textShadowColor = WHITE;
+
+		public void fillProperties(RenderingContext rc, RenderingRuleSearchRequest render, float centerX, float centerY) {
+			this.centerX = centerX;
+			// used only for draw on path where centerY doesn't play role
+			this.vOffset = (int) rc.getComplexValue(render, render.ALL.R_TEXT_DY);
+			this.centerY = centerY + this.vOffset;
+			textColor = render.getIntPropertyValue(render.ALL.R_TEXT_COLOR);
+			if (textColor == 0) {
+				textColor = BLACK;
+			}
+			textSize = rc.getComplexValue(render, render.ALL.R_TEXT_SIZE);
+			textShadow = (int) rc.getComplexValue(render, render.ALL.R_TEXT_HALO_RADIUS);
+			textShadowColor = render.getIntPropertyValue(render.ALL.R_TEXT_HALO_COLOR);
+			if (textShadowColor == 0) {
+				textShadowColor = WHITE;
+			}
+			textWrap = (int) rc.getComplexValue(render, render.ALL.R_TEXT_WRAP_WIDTH);
+			bold = render.getIntPropertyValue(render.ALL.R_TEXT_BOLD, 0) > 0;
+			minDistance = rc.getComplexValue(render, render.ALL.R_TEXT_MIN_DISTANCE);
+			if (render.isSpecified(render.ALL.R_TEXT_SHIELD)) {
+				shieldRes = render.getStringPropertyValue(render.ALL.R_TEXT_SHIELD);
+			}
+			textOrder = render.getIntPropertyValue(render.ALL.R_TEXT_ORDER, 100);
+		}
+	}
+
+	Java2DTextRenderer(Java2DRenderer renderer) {
+		this.renderer = renderer;
+		this.baseFont = new Font(Font.SERIF, Font.PLAIN, 12);
+	}
+
+	private Font getFont(float textSize, boolean bold) {
+		return baseFont.deriveFont(bold ? Font.BOLD : Font.PLAIN, textSize);
+	}
+
+	private static double sqr(double a) {
+		return a * a;
+	}
+
+	boolean intersects(QuadRect tRect, float tRot, QuadRect sRect, float sRot) {
+		if (Math.abs(tRot) < Math.PI / 15 && Math.abs(sRot) < Math.PI / 15) {
+			return QuadRect.intersects(tRect, sRect);
+		}
+		double dist = Math.sqrt(sqr(tRect.centerX() - sRect.centerX()) + sqr(tRect.centerY() - sRect.centerY()));
+		if (dist < 3) {
+			return true;
+		}
+
+		// difference close to 90/270 degrees
+		if (Math.abs(Math.cos(tRot - sRot)) < 0.3) {
+			// rotate one rectangle to 90 degrees
+			tRot += Math.PI / 2;
+			double l = tRect.centerX() - tRect.height() / 2;
+			double t = tRect.centerY() - tRect.width() / 2;
+			tRect = new QuadRect(l, t, l + tRect.height(), t + tRect.width());
+		}
+
+		// determine difference close to 180/0 degrees
+		if (Math.abs(Math.sin(tRot - sRot)) < 0.3) {
+			// rotate t box
+			// (calculate offset for t center suppose we rotate around s center)
+			float diff = (float) (-Math.atan2(tRect.centerX() - sRect.centerX(), tRect.centerY() - sRect.centerY()) + Math.PI / 2);
+			diff -= sRot;
+			double left = sRect.centerX() + dist * Math.cos(diff) - tRect.width() / 2;
+			double top = sRect.centerY() - dist * Math.sin(diff) - tRect.height() / 2;
+			QuadRect nRect = new QuadRect(left, top, left + tRect.width(), top + tRect.height());
+			return QuadRect.intersects(nRect, sRect);
+		}
+
+		// other cases are not covered
+		return QuadRect.intersects(tRect, sRect);
+	}
+
+	private boolean findTextIntersection(RenderingContext rc, QuadTree<TextDrawInfo> boundIntersections, TextDrawInfo text) {
+		boundIntersections.queryInBox(text.bounds, tempSearch);
+		for (int i = 0; i < tempSearch.size(); i++) {
+			TextDrawInfo t = tempSearch.get(i);
+			if (intersects(text.bounds, text.pathRotate, t.bounds, t.pathRotate)) {
+				return true;
+			}
+		}
+		if (text.minDistance > 0) {
+			QuadRect boundsSearch = new QuadRect(text.bounds);
+			boundsSearch.inset(-Math.max(rc.getDensityValue(5.0f), text.minDistance), -rc.getDensityValue(15));
+			boundIntersections.queryInBox(boundsSearch, tempSearch);
+			for (int i = 0; i < tempSearch.size(); i++) {
+				TextDrawInfo t = tempSearch.get(i);
+				if (t.minDistance > 0 && t.text.equals(text.text) &&
+						intersects(boundsSearch, text.pathRotate, t.bounds, t.pathRotate)) {
+					return true;
+				}
+			}
+		}
+		boundIntersections.insert(text, text.bounds);
+		return false;
+	}
+
+	private void drawShape(Graphics2D cv, Shape shape, int color, int shadowColor, float textShadow) {
+		if (textShadow > 0) {
+			cv.setColor(new Color(shadowColor, true));
+			cv.setStroke(new BasicStroke(2 + textShadow, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+			cv.draw(shape);
+		}
+		cv.setColor(new Color(color, true));
+		cv.fill(shape);
+	}
+
+	private void drawTextOnCanvas(Graphics2D cv, Font font, String text, float centerX, float centerY, int color,
+			int shadowColor, float textShadow) {
+		GlyphVector gv = font.createGlyphVector(frc, text);
+		// align center
+		float x = centerX - (float) gv.getLogicalBounds().getWidth() / 2;
+		drawShape(cv, gv.getOutline(x, centerY), color, shadowColor, textShadow);
+	}
+
+	void drawTextOverCanvas(RenderingContext rc, Graphics2D cv, String preferredLocale) {
+		int size = rc.textToDraw.size();
+
+		// 1. Sort text using text order
+		Collections.sort(rc.textToDraw, new Comparator<TextDrawInfo>() {
+			@Override
+			public int compare(TextDrawInfo object1, TextDrawInfo object2) {
+				return object1.textOrder - object2.textOrder;
+			}
+		});
+		QuadRect r = new QuadRect(0, 0, rc.width, rc.height);
+		r.inset(-100, -100);
+		QuadTree<TextDrawInfo> nonIntersectedBounds = new QuadTree<TextDrawInfo>(r, 4, 0.6f);
+
+		for (int i = 0; i < size; i++) {
+			TextDrawInfo text = rc.textToDraw.get(i);
+			if (text.text != null && text.text.length() > 0) {
+				if (preferredLocale.length() > 0) {
+					text.text = Junidecode.unidecode(text.text);
+				}
+
+				// set text size before finding intersection (it is used there)
+				float textSize = text.textSize * rc.textScale;
+				Font font = getFont(textSize, text.bold);
+				LineMetrics lm = font.getLineMetrics(text.text, frc);
+				// align center y
+				text.centerY += lm.getAscent();
+
+				// calculate if there is intersection
+				boolean intersects = findTextIntersection(rc, nonIntersectedBounds, text);
+				if (!intersects) {
+					if (text.drawOnPath != null) {
+						float vOffset = text.vOffset + lm.getAscent() / 2 - lm.getDescent();
+						Shape shape = createTextOnPath(font, text.text, text.drawOnPath, vOffset);
+						drawShape(cv, shape, text.textColor, text.textShadowColor, text.textShadow);
+					} else {
+						if (text.shieldRes != null) {
+							float coef = rc.getDensityValue(rc.screenDensityRatio * rc.textScale);
+							BufferedImage ico = renderer.getIcon(text.shieldRes);
+							if (ico != null) {
+								float left = text.centerX - ico.getWidth() / 2 * coef - 0.5f;
+								float top = text.centerY - ico.getHeight() / 2 * coef - lm.getDescent() - 0.5f;
+								renderer.drawBitmap(cv, ico, new QuadRect(left, top, left + ico.getWidth() * coef,
+										top + ico.getHeight() * coef));
+							}
+						}
+						drawWrappedText(cv, font, text, textSize);
+					}
+				}
+			}
+			if (rc.interrupted) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Glyphs placed along the polyline centered at the middle of it (as android Canvas.drawTextOnPath with center align)
+	 */
+	private Shape createTextOnPath(Font font, String text, Point2D.Float[] points, float vOffset) {
+		GlyphVector gv = font.createGlyphVector(frc, text);
+		float[] distances = new float[points.length];
+		for (int i = 1; i < points.length; i++) {
+			distances[i] = distances[i - 1] + (float) points[i].distance(points[i - 1]);
+		}
+		float pathLength = distances[points.length - 1];
+		float start = (pathLength - (float) gv.getLogicalBounds().getWidth()) / 2;
+		Path2D.Float res = new Path2D.Float();
+		int segment = 1;
+		for (int g = 0; g < gv.getNumGlyphs(); g++) {
+			Point2D pos = gv.getGlyphPosition(g);
+			float advance = gv.getGlyphMetrics(g).getAdvance();
+			float mid = start + (float) pos.getX() + advance / 2;
+			if (mid < 0 || mid > pathLength) {
+				continue;
+			}
+			while (segment < points.length - 1 && distances[segment] < mid) {
+				segment++;
+			}
+			Point2D.Float p1 = points[segment - 1];
+			Point2D.Float p2 = points[segment];
+			float segLength = distances[segment] - distances[segment - 1];
+			float t = segLength == 0 ? 0 : (mid - distances[segment - 1]) / segLength;
+			AffineTransform at = new AffineTransform();
+			at.translate(p1.x + (p2.x - p1.x) * t, p1.y + (p2.y - p1.y) * t);
+			at.rotate(Math.atan2(p2.y - p1.y, p2.x - p1.x));
+			at.translate(-pos.getX() - advance / 2, vOffset);
+			res.append(at.createTransformedShape(gv.getGlyphOutline(g)), false);
+		}
+		return res;
+	}
+
+	private void drawWrappedText(Graphics2D cv, Font font, TextDrawInfo text, float textSize) {
+		if (text.textWrap == 0) {
+			// set maximum for all text
+			text.textWrap = 40;
+		}
+
+		if (text.text.length() > text.textWrap) {
+			int start = 0;
+			int end = text.text.length();
+			int lastSpace = -1;
+			int line = 0;
+			int pos = 0;
+			int limit = 0;
+			while (pos < end) {
+				lastSpace = -1;
+				limit += text.textWrap;
+				while (pos < limit && pos < end) {
+					if (!Character.isLetterOrDigit(text.text.charAt(pos))) {
+						lastSpace = pos;
+					}
+					pos++;
+				}
+				if (lastSpace == -1 || pos == end) {
+					drawTextOnCanvas(cv, font, text.text.substring(start, pos), text.centerX, text.centerY + line * (textSize + 2),
+							text.textColor, text.textShadowColor, text.textShadow);
+					start = pos;
+				} else {
+					drawTextOnCanvas(cv, font, text.text.substring(start, lastSpace), text.centerX, text.centerY + line * (textSize + 2),
+							text.textColor, text.textShadowColor, text.textShadow);
+					start = lastSpace + 1;
+					limit += (start - pos) - 1;
+				}
+				line++;
+			}
+		} else {
+			drawTextOnCanvas(cv, font, text.text, text.centerX, text.centerY, text.textColor, text.textShadowColor, text.textShadow);
+		}
+	}
+
+	private void createTextDrawInfo(final BinaryMapDataObject o, RenderingRuleSearchRequest render, RenderingContext rc,
+			TagValuePair pair, final float xMid, float yMid, final Point2D.Float[] points, String name, String tagName) {
+		render.setInitialTagValueZoom(pair.tag, pair.value, rc.zoom, o);
+		render.setIntFilter(render.ALL.R_TEXT_LENGTH, name.length());
+		render.setStringFilter(render.ALL.R_NAME_TAG, tagName);
+		if (render.search(RenderingRulesStorage.TEXT_RULES)) {
+			if (render.getFloatPropertyValue(render.ALL.R_TEXT_SIZE) > 0) {
+				final TextDrawInfo text = new TextDrawInfo(name);
+				text.fillProperties(rc, render, xMid, yMid);
+				final String tagName2 = render.getStringPropertyValue(render.ALL.R_NAME_TAG2);
+				if (!Algorithms.isEmpty(tagName2)) {
+					o.getObjectNames().forEachEntry(new TIntObjectProcedure<String>() {
+						@Override
+						public boolean execute(int tagid, String nname) {
+							String tagNameN2 = o.getMapIndex().decodeType(tagid).tag;
+							if (tagName2.equals(tagNameN2)) {
+								if (nname != null && nname.trim().length() > 0) {
+									text.text += " " + nname;
+								}
+								return false;
+							}
+							return true;
+						}
+					});
+				}
+				Rectangle2D bs = getFont(text.textSize, text.bold).createGlyphVector(frc, name).getVisualBounds();
+				text.bounds = new QuadRect(bs.getMinX(), bs.getMinY(), bs.getMaxX(), bs.getMaxY());
+				text.bounds.inset(-rc.getDensityValue(3), -rc.getDensityValue(10));
+				boolean display = true;
+				if (points != null) {
+					text.drawOnPath = points;
+					display = calculatePathToRotate(rc, text, points,
+							render.getIntPropertyValue(render.ALL.R_TEXT_ON_PATH, 0) != 0);
+				}
+				if (text.drawOnPath == null) {
+					text.bounds.offset(text.centerX, text.centerY);
+					// shift to match alignment
+					text.bounds.offset(-text.bounds.width() / 2, 0);
+				} else {
+					text.bounds.offset(text.centerX - text.bounds.width() / 2, text.centerY - text.bounds.height() / 2);
+				}
+				if (display) {
+					rc.textToDraw.add(text);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param points points of the line (text could be drawn along it) or null for polygons and points
+	 */
+	void renderText(final BinaryMapDataObject obj, final RenderingRuleSearchRequest render, final RenderingContext rc,
+			final TagValuePair pair, final float xMid, final float yMid, final Point2D.Float[] points) {
+		final TIntObjectHashMap<String> map = obj.getObjectNames();
+		if (map != null) {
+			map.forEachEntry(new TIntObjectProcedure<String>() {
+				@Override
+				public boolean execute(int tag, String name) {
+					if (name != null && name.trim().length() > 0) {
+						boolean isName = tag == obj.getMapIndex().nameEncodingType;
+						String nameTag = isName ? "" : obj.getMapIndex().decodeType(tag).tag;
+						boolean skip = false;
+						// not completely correct we should check "name"+rc.preferredLocale
+						if (isName && !rc.preferredLocale.equals("") &&
+								map.containsKey(obj.getMapIndex().nameEnEncodingType)) {
+							skip = true;
+						}
+						if (!skip) {
+							createTextDrawInfo(obj, render, rc, pair, xMid, yMid, points, name, nameTag);
+						}
+					}
+					return true;
+				}
+			});
+		}
+	}
+
+	private static Point2D.Float[] subPath(Point2D.Float[] points, int startInd, int endInd, boolean inverse) {
+		Point2D.Float[] res = new Point2D.Float[endInd - startInd];
+		for (int i = 0; i < res.length; i++) {
+			res[i] = inverse ? points[endInd - 1 - i] : points[startInd + i];
+		}
+		return res;
+	}
+
+	boolean calculatePathToRotate(RenderingContext rc, TextDrawInfo p, Point2D.Float[] points, boolean drawOnPath) {
+		int len = points.length;
+		if (!drawOnPath) {
+			p.drawOnPath = null;
+			// simply calculate rotation of path used for shields
+			float px = 0;
+			float py = 0;
+			for (int i = 1; i < len; i++) {
+				px += points[i].x - points[i - 1].x;
+				py += points[i].y - points[i - 1].y;
+			}
+			if (px != 0 || py != 0) {
+				p.pathRotate = (float) (-Math.atan2(px, py) + Math.PI / 2);
+			}
+			return true;
+		}
+
+		boolean inverse = false;
+		float roadLength = 0;
+		boolean prevInside = false;
+		float visibleRoadLength = 0;
+		float textw = (float) p.bounds.width();
+		int last = 0;
+		int startVisible = 0;
+		float[] distances = new float[points.length - 1];
+
+		float normalTextLen = 1.5f * textw;
+		for (int i = 0; i < len; i++, last++) {
+			boolean inside = points[i].x >= 0 && points[i].x <= rc.width &&
+					points[i].x >= 0 && points[i].y <= rc.height;
+			if (i > 0) {
+				float d = (float) points[i].distance(points[i - 1]);
+				distances[i - 1] = d;
+				roadLength += d;
+				if (inside) {
+					visibleRoadLength += d;
+					if (!prevInside) {
+						startVisible = i - 1;
+					}
+				} else if (prevInside) {
+					if (visibleRoadLength >= normalTextLen) {
+						break;
+					}
+					visibleRoadLength = 0;
+				}
+			}
+			prevInside = inside;
+		}
+		if (textw >= roadLength) {
+			return false;
+		}
+		int startInd = 0;
+		int endInd = len;
+
+		if (textw < visibleRoadLength && last - startVisible > 1) {
+			startInd = startVisible;
+			endInd = last;
+			// display long road name in center
+			if (visibleRoadLength > 3 * textw) {
+				boolean ch;
+				do {
+					ch = false;
+					if (endInd - startInd > 2 && visibleRoadLength - distances[startInd] > normalTextLen) {
+						visibleRoadLength -= distances[startInd];
+						startInd++;
+						ch = true;
+					}
+					if (endInd - startInd > 2 && visibleRoadLength - distances[endInd - 2] > normalTextLen) {
+						visibleRoadLength -= distances[endInd - 2];
+						endInd--;
+						ch = true;
+					}
+				} while (ch);
+			}
+		}
+		// shrink path to display more text
+		if (startInd > 0 || endInd < len) {
+			p.drawOnPath = subPath(points, startInd, endInd, false);
+		}
+		// calculate vector of the road (px, py) to proper rotate it
+		float px = 0;
+		float py = 0;
+		for (int i = startInd + 1; i < endInd; i++) {
+			px += points[i].x - points[i - 1].x;
+			py += points[i].y - points[i - 1].y;
+		}
+		float scale = 0.5f;
+		float plen = (float) Math.sqrt(px * px + py * py);
+		// vector ox,oy orthogonal to px,py to measure height
+		float ox = -py;
+		float oy = px;
+		if (plen > 0) {
+			float rot = (float) (-Math.atan2(px, py) + Math.PI / 2);
+			if (rot < 0) {
+				rot += Math.PI * 2;
+			}
+			if (rot > Math.PI / 2f && rot < 3 * Math.PI / 2f) {
+				rot += Math.PI;
+				inverse = true;
+				ox = -ox;
+				oy = -oy;
+			}
+			p.pathRotate = rot;
+			ox *= (p.bounds.height() / plen) / 2;
+			oy *= (p.bounds.height() / plen) / 2;
+		}
+
+		p.centerX = points[startInd].x + scale * px + ox;
+		p.centerY = points[startInd].y + scale * py + oy;
+
+		if (inverse) {
+			p.drawOnPath = subPath(points, startInd, endInd, true);
+		}
+		return true;
+	}
+}
@@ -0,0 +1,346 @@
+package net.osmand.render;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.render.Java2DRenderer.IconProvider;
+import net.osmand.render.Java2DRenderer.RenderingContext;
+import net.osmand.util.Algorithms;
+import net.osmand.util.MapUtils;
+import net.osmand.util.ParallelTasks;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Renders map tiles (standard 256 px slippy map grid) with {@link Java2DRenderer}.
+ * Tiles could be rendered by metatiles : data of N x N tiles is read once and drawn as one image which is cut into tiles,
+ * so texts and icons on tile borders are not cut and not duplicated. Metatiles could be rendered in parallel,
+ * every rendering takes its own renderer and rendering request from the pool of the tile renderer.
+ * Settings could be changed between renderings, requests created with previous settings are dropped.
+ */
+public class Java2DTileRenderer {
+
+	private static final Log log = PlatformUtil.getLog(Java2DTileRenderer.class);
+
+	private final RenderingRulesStorage storage;
+	private final MapDataLoader loader;
+	private final IconProvider icons;
+	private final Map<String, String> renderingProperties = new LinkedHashMap<String, String>();
+	private volatile boolean nightMode;
+	private volatile float density = 1;
+	private volatile String preferredLocale = "";
+	private volatile boolean resultCacheEnabled;
+	private volatile boolean compiledRulesEnabled;
+
+	// renderers and requests are not thread safe : free ones are kept by the tile renderer (not by threads of
+	// callers' executors) and are dropped when settings are changed
+	private final Queue<RenderingState> freeStates = new ConcurrentLinkedQueue<RenderingState>();
+	private final AtomicInteger settingsVersion = new AtomicInteger();
+
+	private static class RenderingState {
+		final Java2DRenderer renderer;
+		final RenderingRuleSearchRequest request;
+		final int settingsVersion;
+
+		RenderingState(Java2DRenderer renderer, RenderingRuleSearchRequest request, int settingsVersion) {
+			this.renderer = renderer;
+			this.request = request;
+			this.settingsVersion = settingsVersion;
+		}
+	}
+
+	public interface TileCallback {
+
+		/**
+		 * Called from worker threads, image shares data with metatile image and should not be modified
+		 */
+		public void tileRendered(int zoom, int x, int y, BufferedImage tile) throws IOException;
+	}
+
+	/**
+	 * @param icons provider of icons and shaders, nullable
+	 */
+	public Java2DTileRenderer(RenderingRulesStorage storage, MapDataLoader loader, IconProvider icons) {
+		this.storage = storage;
+		this.loader = loader;
+		this.icons = icons;
+	}
+
+	public MapDataLoader getLoader() {
+		return loader;
+	}
+
+	/**
+	 * Custom property of the rendering style (as set in the rendering preferences), renderings started after the change use it
+	 */
+	public void setRenderingProperty(String attrName, String value) {
+		synchronized (renderingProperties) {
+			renderingProperties.put(attrName, value);
+		}
+		settingsChanged();
+	}
+
+	public void setNightMode(boolean nightMode) {
+		this.nightMode = nightMode;
+		settingsChanged();
+	}
+
+	/**
+	 * Tile is rendered to 256 * density pixels
+	 */
+	public void setDensity(float density) {
+		this.density = density;
+	}
+
+	public int getTileSize() {
+		return Math.round(Java2DRenderer.TILE_SIZE * density);
+	}
+
+	public void setPreferredLocale(String preferredLocale) {
+		this.preferredLocale = preferredLocale;
+	}
+
+	/**
+	 * Search results of rendering rules are cached (see {@link RenderingRuleSearchRequest#setResultCacheEnabled(boolean)}),
+	 * disabled by default
+	 */
+	public void setResultCacheEnabled(boolean resultCacheEnabled) {
+		this.resultCacheEnabled = resultCacheEnabled;
+		settingsChanged();
+	}
+
+	/**
+	 * Rendering rules are evaluated by compiled program (see {@link RenderingRulesProgramTest} for the check of
+	 * the style), disabled by default
+	 */
+	public void setCompiledRulesEnabled(boolean compiledRulesEnabled) {
+		this.compiledRulesEnabled = compiledRulesEnabled;
+		settingsChanged();
+	}
+
+	private void settingsChanged() {
+		settingsVersion.incrementAndGet();
+		freeStates.clear();
+	}
+
+	private RenderingState takeState() {
+		int version = settingsVersion.get();
+		RenderingState s;
+		while ((s = freeStates.poll()) != null) {
+			if (s.settingsVersion == version) {
+				return s;
+			}
+		}
+		// version is read before the request is created, so request of changed settings is not returned to pool
+		return new RenderingState(new Java2DRenderer(icons), createSearchRequest(), version);
+	}
+
+	private void releaseState(RenderingState s) {
+		if (s.settingsVersion == settingsVersion.get()) {
+			freeStates.offer(s);
+		}
+	}
+
+	public RenderingRuleSearchRequest createSearchRequest() {
+		RenderingRuleSearchRequest renderingReq = new RenderingRuleSearchRequest(storage);
+		renderingReq.setResultCacheEnabled(resultCacheEnabled);
+		renderingReq.setCompiledRulesEnabled(compiledRulesEnabled);
+		renderingReq.setBooleanFilter(renderingReq.ALL.R_NIGHT_MODE, nightMode);
+		for (RenderingRuleProperty customProp : storage.PROPS.getCustomRules()) {
+			if (customProp.isBoolean() && customProp.getAttrName().equals(RenderingRuleStorageProperties.A_ENGINE_V1)) {
+				renderingReq.setBooleanFilter(customProp, true);
+				continue;
+			}
+			String res;
+			synchronized (renderingProperties) {
+				res = renderingProperties.get(customProp.getAttrName());
+			}
+			if (!Algorithms.isEmpty(res)) {
+				if (customProp.isString()) {
+					renderingReq.setStringFilter(customProp, res);
+				} else if (customProp.isBoolean()) {
+					renderingReq.setBooleanFilter(customProp, "true".equalsIgnoreCase(res));
+				} else {
+					try {
+						renderingReq.setIntFilter(customProp, Integer.parseInt(res));
+					} catch (NumberFormatException e) {
+						log.error("Wrong value of " + customProp.getAttrName() + " : " + res); //$NON-NLS-1$
+					}
+				}
+			}
+		}
+		renderingReq.saveState();
+		return renderingReq;
+	}
+
+	public BufferedImage renderTile(int zoom, int x, int y) throws IOException {
+		return renderMetatile(zoom, x, y, 1);
+	}
+
+	/**
+	 * Renders metaSize x metaSize tiles starting from (tileX, tileY) as one image (smaller near the world edge)
+	 */
+	public BufferedImage renderMetatile(int zoom, int tileX, int tileY, int metaSize) throws IOException {
+		List<BinaryMapDataObject> objects = loadObjects(zoom, tileX, tileY, metaSize);
+		return renderObjects(objects, zoom, tileX, tileY, metaSize);
+	}
+
+	/**
+	 * Reads objects to render metaSize x metaSize tiles starting from (tileX, tileY)
+	 */
+	public List<BinaryMapDataObject> loadObjects(int zoom, int tileX, int tileY, int metaSize) throws IOException {
+		return loadObjects(zoom, tileX, tileY, metaSize, metaSize);
+	}
+
+	/**
+	 * Reads objects to render width x height tiles starting from (tileX, tileY)
+	 */
+	public List<BinaryMapDataObject> loadObjects(int zoom, int tileX, int tileY, int width, int height) throws IOException {
+		checkTile(zoom, tileX, tileY);
+		int shift = 31 - zoom;
+		int leftX = get31Coordinate(tileX, shift);
+		int rightX = get31Coordinate(tileX + getMetatileSize(zoom, tileX, width), shift);
+		int topY = get31Coordinate(tileY, shift);
+		int bottomY = get31Coordinate(tileY + getMetatileSize(zoom, tileY, height), shift);
+		return loadObjectsInBox(zoom, leftX, rightX, topY, bottomY);
+	}
+
+	/**
+	 * Reads objects to render in the bbox (31 tile numbers)
+	 */
+	public List<BinaryMapDataObject> loadObjectsInBox(int zoom, int leftX, int rightX, int topY, int bottomY)
+			throws IOException {
+		RenderingState s = takeState();
+		try {
+			return loader.loadMapObjects(s.request, leftX, rightX, topY, bottomY, zoom);
+		} finally {
+			releaseState(s);
+		}
+	}
+
+	/**
+	 * Draws objects to the image of metaSize x metaSize tiles starting from (tileX, tileY)
+	 */
+	public BufferedImage renderObjects(List<BinaryMapDataObject> objects, int zoom, int tileX, int tileY, int metaSize) {
+		checkTile(zoom, tileX, tileY);
+		RenderingState s = takeState();
+		try {
+			return renderObjects(s, objects, zoom, tileX, tileY, metaSize);
+		} finally {
+			releaseState(s);
+		}
+	}
+
+	private BufferedImage renderObjects(RenderingState s, List<BinaryMapDataObject> objects, int zoom, int tileX,
+			int tileY, int metaSize) {
+		RenderingRuleSearchRequest renderingReq = s.request;
+		int tileSize = getTileSize();
+		RenderingContext rc = createRenderingContext(renderingReq, zoom);
+		double cfd = tileSize / (double) Java2DRenderer.TILE_SIZE;
+		rc.leftX = tileX * cfd;
+		rc.topY = tileY * cfd;
+		rc.tileDivisor = MapUtils.getPowZoom(31 - zoom) / cfd;
+		rc.width = getMetatileSize(zoom, tileX, metaSize) * tileSize;
+		rc.height = getMetatileSize(zoom, tileY, metaSize) * tileSize;
+		BufferedImage img = new BufferedImage(rc.width, rc.height, BufferedImage.TYPE_INT_ARGB);
+		s.renderer.generateNewBitmap(rc, objects, img, renderingReq);
+		return img;
+	}
+
+	private static void checkTile(int zoom, int tileX, int tileY) {
+		if (tileX < 0 || tileY < 0 || tileX >= (1 << zoom) || tileY >= (1 << zoom)) {
+			throw new IllegalArgumentException("Tile is out of the world " + zoom + " " + tileX + " " + tileY);
+		}
+	}
+
+	private static int getMetatileSize(int zoom, int tile, int metaSize) {
+		return Math.min(metaSize, (1 << zoom) - tile);
+	}
+
+	private static int get31Coordinate(int tile, int shift) {
+		return (int) Math.min(Integer.MAX_VALUE, ((long) tile) << shift);
+	}
+
+	private RenderingContext createRenderingContext(RenderingRuleSearchRequest renderingReq, int zoom) {
+		RenderingContext rc = new RenderingContext();
+		renderingReq.clearState();
+		renderingReq.setIntFilter(renderingReq.ALL.R_MINZOOM, zoom);
+		if (renderingReq.searchRenderingAttribute(RenderingRuleStorageProperties.A_DEFAULT_COLOR)) {
+			rc.defaultColor = renderingReq.getIntPropertyValue(renderingReq.ALL.R_ATTR_COLOR_VALUE);
+		}
+		renderingReq.clearState();
+		renderingReq.setIntFilter(renderingReq.ALL.R_MINZOOM, zoom);
+		if (renderingReq.searchRenderingAttribute(RenderingRuleStorageProperties.A_SHADOW_RENDERING)) {
+			rc.shadowRenderingMode = renderingReq.getIntPropertyValue(renderingReq.ALL.R_ATTR_INT_VALUE);
+			rc.shadowRenderingColor = renderingReq.getIntPropertyValue(renderingReq.ALL.R_SHADOW_COLOR);
+		}
+		if (renderingReq.searchRenderingAttribute("polygonMinSizeToDisplay")) {
+			rc.polygonMinSizeToDisplay = renderingReq.getIntPropertyValue(renderingReq.ALL.R_ATTR_INT_VALUE);
+		}
+		rc.zoom = zoom;
+		rc.nightMode = nightMode;
+		rc.preferredLocale = preferredLocale;
+		rc.setDensityValue(density);
+		rc.textScale = 1;
+		rc.screenDensityRatio = 1 / Math.max(1, density);
+		return rc;
+	}
+
+	/**
+	 * Renders all tiles of the range [left, right] x [top, bottom] by metatiles in parallel,
+	 * every tile is passed to the callback as soon as its metatile is rendered.
+	 */
+	public void renderTiles(ExecutorService executor, final int zoom, int left, int top, int right, int bottom,
+			final int metaSize, final TileCallback callback) throws IOException {
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		// metatiles are aligned to the grid of metaSize, so neighbour ranges produce the same images
+		int startX = left - left % metaSize;
+		int startY = top - top % metaSize;
+		final int fleft = left;
+		final int ftop = top;
+		final int fright = Math.min(right, (1 << zoom) - 1);
+		final int fbottom = Math.min(bottom, (1 << zoom) - 1);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int y = startY; y <= fbottom; y += metaSize) {
+			for (int x = startX; x <= fright; x += metaSize) {
+				final int mx = x;
+				final int my = y;
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						if (failed.get()) {
+							return null;
+						}
+						BufferedImage img = renderMetatile(zoom, mx, my, metaSize);
+						int tileSize = getTileSize();
+						for (int ty = 0; ty * tileSize < img.getHeight(); ty++) {
+							for (int tx = 0; tx * tileSize < img.getWidth(); tx++) {
+								int x = mx + tx;
+								int y = my + ty;
+								if (x >= fleft && x <= fright && y >= ftop && y <= fbottom) {
+									callback.tileRendered(zoom, x, y,
+											img.getSubimage(tx * tileSize, ty * tileSize, tileSize, tileSize));
+								}
+							}
+						}
+						return null;
+					}
+				}));
+			}
+		}
+		ParallelTasks.waitAll(futures, failed, "Rendering was interrupted");
+	}
+}
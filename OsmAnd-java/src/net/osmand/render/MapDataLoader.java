@@ -0,0 +1,177 @@
+package net.osmand.render;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapIndexReader.MapIndex;
+import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
+import net.osmand.binary.BinaryMapIndexReader.TagValuePair;
+import net.osmand.binary.SharedBinaryMapIndexReader;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Reads map objects of the bbox for rendering from several obf files (as android MapRenderRepositories does) :
+ * only objects rendered by the rules are read, detailed maps are preferred to the basemap
+ * and coastlines are combined to land and water polygons.
+ *
+ * Files are shared, so loader could be used from several threads, but every thread should use its own request.
+ */
+public class MapDataLoader {
+
+	private final static Log log = PlatformUtil.getLog(MapDataLoader.class);
+	private final static int zoomOnlyForBasemaps = 11;
+	private final static int zoomForBaseRouteRendering = 14;
+
+	private final List<SharedBinaryMapIndexReader> files;
+	private boolean checkForDuplicateObjectIds = true;
+
+	public MapDataLoader(List<SharedBinaryMapIndexReader> files) {
+		this.files = files;
+	}
+
+	public List<SharedBinaryMapIndexReader> getFiles() {
+		return files;
+	}
+
+	public void setCheckForDuplicateObjectIds(boolean checkForDuplicateObjectIds) {
+		this.checkForDuplicateObjectIds = checkForDuplicateObjectIds;
+	}
+
+	/**
+	 * Filter of types having any rendering rule at the zoom (request state is changed)
+	 */
+	public static BinaryMapIndexReader.SearchFilter createSearchFilter(final RenderingRuleSearchRequest renderingReq,
+			final int zoom) {
+		if (zoom > 16) {
+			return null;
+		}
+		return new BinaryMapIndexReader.SearchFilter() {
+			@Override
+			public boolean accept(TIntArrayList types, BinaryMapIndexReader.MapIndex root) {
+				for (int j = 0; j < types.size(); j++) {
+					int type = types.get(j);
+					TagValuePair pair = root.decodeType(type);
+					if (pair != null) {
+						for (int i = 1; i <= 3; i++) {
+							renderingReq.setIntFilter(renderingReq.ALL.R_MINZOOM, zoom);
+							renderingReq.setStringFilter(renderingReq.ALL.R_TAG, pair.tag);
+							renderingReq.setStringFilter(renderingReq.ALL.R_VALUE, pair.value);
+							if (renderingReq.search(i, false)) {
+								return true;
+							}
+						}
+						renderingReq.setStringFilter(renderingReq.ALL.R_TAG, pair.tag);
+						renderingReq.setStringFilter(renderingReq.ALL.R_VALUE, pair.value);
+						if (renderingReq.search(RenderingRulesStorage.TEXT_RULES, false)) {
+							return true;
+						}
+					}
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @return objects to render in the bbox (31 tile numbers)
+	 */
+	public List<BinaryMapDataObject> loadMapObjects(RenderingRuleSearchRequest renderingReq, int leftX, int rightX,
+			int topY, int bottomY, int zoom) throws IOException {
+		long now = System.currentTimeMillis();
+		List<BinaryMapDataObject> tempResult = new ArrayList<BinaryMapDataObject>();
+		List<BinaryMapDataObject> basemapResult = new ArrayList<BinaryMapDataObject>();
+		List<BinaryMapDataObject> coastLines = new ArrayList<BinaryMapDataObject>();
+		List<BinaryMapDataObject> basemapCoastLines = new ArrayList<BinaryMapDataObject>();
+		boolean ocean = false;
+		boolean land = false;
+		MapIndex mi = null;
+		int count = 0;
+		TLongSet ids = new TLongHashSet();
+
+		SearchRequest<BinaryMapDataObject> searchRequest = BinaryMapIndexReader.buildSearchRequest(leftX, rightX, topY,
+				bottomY, zoom, createSearchFilter(renderingReq, zoom));
+		for (SharedBinaryMapIndexReader c : files) {
+			boolean basemap = c.getReferenceReader().isBasemap();
+			searchRequest.clearSearchResults();
+			List<BinaryMapDataObject> res;
+			try {
+				res = c.searchMapIndex(searchRequest);
+			} catch (IOException e) {
+				res = new ArrayList<BinaryMapDataObject>();
+				log.debug("Search failed " + c.getFile().getName(), e); //$NON-NLS-1$
+			}
+			for (BinaryMapDataObject r : res) {
+				if (checkForDuplicateObjectIds && !basemap) {
+					if (ids.contains(r.getId()) && r.getId() > 0) {
+						// do not add object twice
+						continue;
+					}
+					ids.add(r.getId());
+				}
+				count++;
+
+				if (r.containsType(r.getMapIndex().coastlineEncodingType)) {
+					if (basemap) {
+						basemapCoastLines.add(r);
+					} else {
+						coastLines.add(r);
+					}
+				} else {
+					// do not mess coastline and other types
+					if (basemap) {
+						basemapResult.add(r);
+					} else {
+						tempResult.add(r);
+					}
+				}
+			}
+			if (searchRequest.isOcean()) {
+				mi = c.getReferenceReader().getMapIndexes().get(0);
+				ocean = true;
+			}
+			if (searchRequest.isLand()) {
+				mi = c.getReferenceReader().getMapIndexes().get(0);
+				land = true;
+			}
+		}
+
+		boolean addBasemapCoastlines = true;
+		boolean emptyData = zoom > zoomOnlyForBasemaps && tempResult.isEmpty() && coastLines.isEmpty();
+		boolean detailedLandData = zoom >= zoomForBaseRouteRendering && tempResult.size() > 0;
+		if (!coastLines.isEmpty()) {
+			boolean coastlinesWereAdded = CoastlineProcessor.processCoastlines(coastLines, leftX, rightX, bottomY, topY,
+					zoom, basemapCoastLines.isEmpty(), true, tempResult);
+			addBasemapCoastlines = (!coastlinesWereAdded && !detailedLandData) || zoom <= zoomOnlyForBasemaps;
+		} else {
+			addBasemapCoastlines = !detailedLandData;
+		}
+		if (addBasemapCoastlines) {
+			boolean coastlinesWereAdded = CoastlineProcessor.processCoastlines(basemapCoastLines, leftX, rightX, bottomY,
+					topY, zoom, true, true, tempResult);
+			addBasemapCoastlines = !coastlinesWereAdded;
+		}
+		if (addBasemapCoastlines && mi != null) {
+			BinaryMapDataObject o = new BinaryMapDataObject(new int[] { leftX, topY, rightX, topY, rightX, bottomY, leftX,
+					bottomY, leftX, topY }, new int[] { ocean && !land ? mi.coastlineEncodingType : (mi.landEncodingType) },
+					null, -1);
+			o.setMapIndex(mi);
+			tempResult.add(o);
+		}
+		if (zoom <= zoomOnlyForBasemaps || emptyData) {
+			tempResult.addAll(basemapResult);
+		}
+		if (log.isDebugEnabled()) {
+			log.debug(String.format("Searching: %s ms (%s results found)", System.currentTimeMillis() - now, count)); //$NON-NLS-1$
+		}
+		return tempResult;
+	}
+}
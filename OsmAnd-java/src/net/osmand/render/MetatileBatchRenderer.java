@@ -0,0 +1,318 @@
+package net.osmand.render;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.render.Java2DTileRenderer.TileCallback;
+import net.osmand.util.ParallelTasks;
+
+/**
+ * Batch processing of all tiles of a region (pre-rendering of offline packs).
+ * Map data is read once for every block of N x N tiles (one search per file, so map tree blocks are decoded once),
+ * objects are partitioned by metatiles with the grid index and every metatile is rendered or passed to serialization
+ * as a separate task, so the work is spread over all threads of the executor.
+ *
+ * Labels and icons are placed once per rendered image, so renderTiles draws metatiles of metaSize x metaSize
+ * tiles and splits them : labels are not cut or duplicated inside of the metatile, but they could still be
+ * at the metatile borders (as with {@link Java2DTileRenderer#renderTiles}), bigger metatiles make it rarer.
+ *
+ * Number of blocks loaded at once is limited, the next block is read only when all tiles of a loaded block are done.
+ */
+public class MetatileBatchRenderer {
+
+	private final Java2DTileRenderer renderer;
+	private final ExecutorService executor;
+	private int blockSize = 8;
+	private int maxLoadedBlocks = 2;
+	private int tileMargin = 32;
+	private int metaSize = 4;
+
+	public interface TileObjectsCallback {
+
+		/**
+		 * Called from worker threads with objects of the tile (objects are shared with neighbour tiles
+		 * and should not be modified)
+		 */
+		public void tileObjects(int zoom, int x, int y, List<BinaryMapDataObject> objects) throws IOException;
+	}
+
+	public interface MetatileObjectsCallback {
+
+		/**
+		 * Called from worker threads with objects of the metatile starting from tile (x, y) (objects are shared with
+		 * neighbour metatiles and should not be modified)
+		 */
+		public void metatileObjects(int zoom, int x, int y, List<BinaryMapDataObject> objects) throws IOException;
+	}
+
+	public MetatileBatchRenderer(Java2DTileRenderer renderer, ExecutorService executor) {
+		this.renderer = renderer;
+		this.executor = executor;
+	}
+
+	/**
+	 * Tiles in the block read at once (N x N), blocks are aligned to multiples of N as metatiles are,
+	 * so it should be a multiple of the metatile size
+	 */
+	public void setBlockSize(int blockSize) {
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Tiles rendered as one image (N x N) by renderTiles, metatiles are aligned to multiples of N
+	 */
+	public void setMetaSize(int metaSize) {
+		this.metaSize = metaSize;
+	}
+
+	public void setMaxLoadedBlocks(int maxLoadedBlocks) {
+		this.maxLoadedBlocks = maxLoadedBlocks;
+	}
+
+	/**
+	 * Objects closer to the tile than margin (pixels) are drawn on the tile too (wide lines, icons)
+	 */
+	public void setTileMargin(int tileMargin) {
+		this.tileMargin = tileMargin;
+	}
+
+	/**
+	 * Renders metatiles of the range [left, right] x [top, bottom] and passes every tile of the range to the callback
+	 */
+	public void renderTiles(int zoom, final int left, final int top, final int right, final int bottom,
+			final TileCallback callback) throws IOException {
+		final int metaSize = this.metaSize;
+		processMetatiles(zoom, left, top, right, bottom, metaSize, new MetatileObjectsCallback() {
+			@Override
+			public void metatileObjects(int zoom, int mx, int my, List<BinaryMapDataObject> objects)
+					throws IOException {
+				BufferedImage img = renderer.renderObjects(objects, zoom, mx, my, metaSize);
+				int tileSize = renderer.getTileSize();
+				for (int ty = 0; ty * tileSize < img.getHeight(); ty++) {
+					for (int tx = 0; tx * tileSize < img.getWidth(); tx++) {
+						int x = mx + tx;
+						int y = my + ty;
+						if (x >= left && x <= right && y >= top && y <= bottom) {
+							callback.tileRendered(zoom, x, y,
+									img.getSubimage(tx * tileSize, ty * tileSize, tileSize, tileSize));
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Reads objects of all tiles of the range [left, right] x [top, bottom] by blocks and passes every tile
+	 * to the callback in parallel
+	 */
+	public void processTiles(int zoom, int left, int top, int right, int bottom, final TileObjectsCallback callback)
+			throws IOException {
+		processMetatiles(zoom, left, top, right, bottom, 1, new MetatileObjectsCallback() {
+			@Override
+			public void metatileObjects(int zoom, int x, int y, List<BinaryMapDataObject> objects) throws IOException {
+				callback.tileObjects(zoom, x, y, objects);
+			}
+		});
+	}
+
+	/**
+	 * Reads objects of all metatiles (metaSize x metaSize tiles aligned to multiples of metaSize) intersecting
+	 * the range [left, right] x [top, bottom] by blocks and passes every metatile to the callback in parallel,
+	 * objects of a metatile are read only for its tiles in the range.
+	 */
+	public void processMetatiles(final int zoom, int left, int top, int right, int bottom, final int metaSize,
+			final MetatileObjectsCallback callback) throws IOException {
+		if (metaSize <= 0 || blockSize % metaSize != 0) {
+			throw new IllegalArgumentException("Block size " + blockSize + " is not a multiple of metatile size " + metaSize);
+		}
+		final int fright = Math.min(right, (1 << zoom) - 1);
+		final int fbottom = Math.min(bottom, (1 << zoom) - 1);
+		final int margin31 = (int) Math.min(Integer.MAX_VALUE,
+				((long) tileMargin << (31 - zoom)) / renderer.getTileSize());
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		final Semaphore loadedBlocks = new Semaphore(maxLoadedBlocks);
+		final ConcurrentLinkedQueue<Future<?>> tileFutures = new ConcurrentLinkedQueue<Future<?>>();
+		List<Future<?>> blockFutures = new ArrayList<Future<?>>();
+		boolean done = false;
+		try {
+			// blocks of the range border are cut by the range
+			for (int y = top - top % blockSize; y <= fbottom && !failed.get(); y += blockSize) {
+				for (int x = left - left % blockSize; x <= fright && !failed.get(); x += blockSize) {
+					loadedBlocks.acquire();
+					final int bx = Math.max(x, left);
+					final int by = Math.max(y, top);
+					final int bw = Math.min(x + blockSize - 1, fright) - bx + 1;
+					final int bh = Math.min(y + blockSize - 1, fbottom) - by + 1;
+					blockFutures.add(executor.submit(new Callable<Void>() {
+						@Override
+						public Void call() throws Exception {
+							boolean submitted = false;
+							try {
+								if (failed.get()) {
+									return null;
+								}
+								// objects near the block are read too, they could be drawn on the border tiles
+								int shift = 31 - zoom;
+								List<BinaryMapDataObject> objects = renderer.loadObjectsInBox(zoom,
+										extend((long) bx << shift, -margin31), extend((long) (bx + bw) << shift, margin31),
+										extend((long) by << shift, -margin31), extend((long) (by + bh) << shift, margin31));
+								final TileObjectsIndex index = new TileObjectsIndex(zoom, bx, by, bw, bh, metaSize, margin31);
+								index.addAll(objects);
+								final AtomicInteger tilesLeft = new AtomicInteger(index.getCellsCount());
+								for (int cy = 0; cy < index.cellsHeight; cy++) {
+									for (int cx = 0; cx < index.cellsWidth; cx++) {
+										final int x = (index.cellLeft + cx) * metaSize;
+										final int y = (index.cellTop + cy) * metaSize;
+										tileFutures.add(executor.submit(new Callable<Void>() {
+											@Override
+											public Void call() throws Exception {
+												try {
+													if (!failed.get()) {
+														callback.metatileObjects(zoom, x, y, index.getObjects(x, y));
+													}
+												} catch (Exception e) {
+													failed.set(true);
+													throw e;
+												} finally {
+													if (tilesLeft.decrementAndGet() == 0) {
+														loadedBlocks.release();
+													}
+												}
+												return null;
+											}
+										}));
+									}
+								}
+								submitted = true;
+							} catch (Exception e) {
+								failed.set(true);
+								throw e;
+							} finally {
+								if (!submitted) {
+									loadedBlocks.release();
+								}
+							}
+							return null;
+						}
+					}));
+				}
+			}
+			// block tasks are done before their tiles are submitted completely
+			ParallelTasks.waitAll(blockFutures, failed);
+			ParallelTasks.waitAll(tileFutures, failed);
+			done = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Rendering was interrupted");
+		} finally {
+			if (!done) {
+				// tasks of other blocks are not needed after failure
+				ParallelTasks.stop(blockFutures, failed);
+				ParallelTasks.stop(tileFutures, failed);
+			}
+		}
+	}
+
+	private static int extend(long coordinate31, int delta) {
+		return (int) Math.max(0, Math.min(Integer.MAX_VALUE, coordinate31 + delta));
+	}
+
+	/**
+	 * Grid index of the block : every object is put to all metatiles (cells of cellSize x cellSize tiles aligned
+	 * to multiples of cellSize) whose tiles of the block its bbox (extended by margin) intersects.
+	 * Order of objects in every cell is the order of adding.
+	 */
+	static class TileObjectsIndex {
+		private final int shift;
+		private final int left;
+		private final int top;
+		private final int width;
+		private final int height;
+		private final int cellSize;
+		private final int margin31;
+		final int cellLeft;
+		final int cellTop;
+		final int cellsWidth;
+		final int cellsHeight;
+		private final List<List<BinaryMapDataObject>> cells;
+
+		TileObjectsIndex(int zoom, int left, int top, int width, int height, int cellSize, int margin31) {
+			this.shift = 31 - zoom;
+			this.left = left;
+			this.top = top;
+			this.width = width;
+			this.height = height;
+			this.cellSize = cellSize;
+			this.margin31 = margin31;
+			this.cellLeft = left / cellSize;
+			this.cellTop = top / cellSize;
+			this.cellsWidth = (left + width - 1) / cellSize - cellLeft + 1;
+			this.cellsHeight = (top + height - 1) / cellSize - cellTop + 1;
+			this.cells = new ArrayList<List<BinaryMapDataObject>>(cellsWidth * cellsHeight);
+			for (int i = 0; i < cellsWidth * cellsHeight; i++) {
+				cells.add(new ArrayList<BinaryMapDataObject>());
+			}
+		}
+
+		int getCellsCount() {
+			return cells.size();
+		}
+
+		void addAll(List<BinaryMapDataObject> objects) {
+			for (BinaryMapDataObject o : objects) {
+				add(o);
+			}
+		}
+
+		void add(BinaryMapDataObject o) {
+			int len = o.getPointsLength();
+			if (len == 0) {
+				return;
+			}
+			// inner rings are inside of the outer one
+			long minX = Long.MAX_VALUE;
+			long maxX = Long.MIN_VALUE;
+			long minY = Long.MAX_VALUE;
+			long maxY = Long.MIN_VALUE;
+			for (int i = 0; i < len; i++) {
+				int x = o.getPoint31XTile(i);
+				int y = o.getPoint31YTile(i);
+				minX = Math.min(minX, x);
+				maxX = Math.max(maxX, x);
+				minY = Math.min(minY, y);
+				maxY = Math.max(maxY, y);
+			}
+			int tl = Math.max(left, (int) ((minX - margin31) >> shift));
+			int tr = Math.min(left + width - 1, (int) ((maxX + margin31) >> shift));
+			int tt = Math.max(top, (int) ((minY - margin31) >> shift));
+			int tb = Math.min(top + height - 1, (int) ((maxY + margin31) >> shift));
+			if (tl > tr || tt > tb) {
+				return;
+			}
+			for (int cy = tt / cellSize; cy <= tb / cellSize; cy++) {
+				for (int cx = tl / cellSize; cx <= tr / cellSize; cx++) {
+					cells.get((cy - cellTop) * cellsWidth + (cx - cellLeft)).add(o);
+				}
+			}
+		}
+
+		/**
+		 * Objects of the metatile containing tile (x, y)
+		 */
+		List<BinaryMapDataObject> getObjects(int x, int y) {
+			return cells.get((y / cellSize - cellTop) * cellsWidth + (x / cellSize - cellLeft));
+		}
+	}
+}
@@ -1,5 +1,11 @@
 package net.osmand.render;
 
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
 import net.osmand.binary.BinaryMapDataObject;
 import net.osmand.util.Algorithms;
 
@@ -17,6 +23,14 @@ public class RenderingRuleSearchRequest {
 	
 	boolean searchResult = false;
 	
+	// results of search by values of all properties before search (null if cache is disabled)
+	private Map<SearchKey, SearchResult> resultCache;
+	private int cacheModificationCount;
+	private final SearchKey probeKey = new SearchKey();
+	private static final int MAX_CACHED_RESULTS = 1024;
+	// rules compiled to flat code (null if rules tree is visited)
+	private RenderingRulesProgram compiledRules;
+	int[] callStack;
 	
 	public final RenderingRuleStorageProperties ALL;
 
@@ -50,7 +64,45 @@ public class RenderingRuleSearchRequest {
 		values[p.getId()] = filter ? RenderingRuleProperty.TRUE_VALUE : RenderingRuleProperty.FALSE_VALUE;
 	}
 
+	/**
+	 * Objects of one map view mostly have a few combinations of tag, value, zoom and layer, 
+	 * so when cache is enabled {@link #search(int, boolean)} doesn't visit rules again for the same input
+	 * and restores output of the previous search. Cache is cleared when state is saved (custom filters are changed)
+	 * or rules of storage are changed.
+	 */
+	public void setResultCacheEnabled(boolean enabled) {
+		resultCache = enabled ? new HashMap<SearchKey, SearchResult>() : null;
+		cacheModificationCount = storage.getModificationCount();
+	}
+	
+	public boolean isResultCacheEnabled() {
+		return resultCache != null;
+	}
+	
+	/**
+	 * Rules are evaluated by {@link RenderingRulesProgram} (compiled once for storage) 
+	 * instead of visiting rules tree, values after search are the same.
+	 */
+	public void setCompiledRulesEnabled(boolean enabled) {
+		compiledRules = enabled ? storage.getCompiledRules() : null;
+		callStack = enabled ? new int[32] : null;
+	}
+	
+	public boolean isCompiledRulesEnabled() {
+		return compiledRules != null;
+	}
+	
+	private RenderingRulesProgram getCompiledRules() {
+		if (!compiledRules.isCompiledFor(storage)) {
+			compiledRules = storage.getCompiledRules();
+		}
+		return compiledRules;
+	}
+
 	public void saveState() {
+		if (resultCache != null) {
+			resultCache.clear();
+		}
 		savedValues = new int[values.length];
 		savedFvalues = new float[fvalues.length];
 		System.arraycopy(values, 0, savedValues, 0, values.length);
@@ -100,6 +152,15 @@ public class RenderingRuleSearchRequest {
 	
 	public boolean searchRenderingAttribute(String attribute) {
 		searchResult = false;
+		if (compiledRules != null) {
+			RenderingRulesProgram program = getCompiledRules();
+			int entry = program.getAttributeEntry(attribute);
+			if (entry == -1) {
+				return false;
+			}
+			searchResult = program.execute(entry, this, true);
+			return searchResult;
+		}
 		RenderingRule rule = storage.getRenderingAttributeRule(attribute);
 		if(rule == null){
 			return false;
@@ -114,6 +175,42 @@ public class RenderingRuleSearchRequest {
 	}
 	
 	public boolean search(int state, boolean loadOutput) {
+		if (resultCache != null && isCacheable()) {
+			return searchCached(state, loadOutput);
+		}
+		return searchRules(state, loadOutput);
+	}
+	
+	private boolean isCacheable() {
+		// additional tags of object are checked by rules but they are not the part of values
+		return object == null || object.getAdditionalTypes() == null || object.getAdditionalTypes().length == 0;
+	}
+	
+	private boolean searchCached(int state, boolean loadOutput) {
+		if (cacheModificationCount != storage.getModificationCount()) {
+			resultCache.clear();
+			cacheModificationCount = storage.getModificationCount();
+		}
+		probeKey.set(state, loadOutput, object != null, values, fvalues);
+		SearchResult cached = resultCache.get(probeKey);
+		if (cached != null) {
+			for (int i = 0; i < cached.changed.length; i++) {
+				values[cached.changed[i]] = cached.values[i];
+				fvalues[cached.changed[i]] = cached.fvalues[i];
+			}
+			searchResult = cached.found;
+			return searchResult;
+		}
+		SearchKey key = probeKey.copy();
+		boolean found = searchRules(state, loadOutput);
+		if (resultCache.size() >= MAX_CACHED_RESULTS) {
+			resultCache.clear();
+		}
+		resultCache.put(key, new SearchResult(found, key, values, fvalues));
+		return found;
+	}
+	
+	private boolean searchRules(int state, boolean loadOutput) {
 		searchResult = false;
 		int tagKey = values[storage.PROPS.R_TAG.getId()];
 		int valueKey = values[storage.PROPS.R_VALUE.getId()];
@@ -141,11 +238,21 @@ public class RenderingRuleSearchRequest {
 		values[storage.PROPS.R_TAG.getId()] = tagKey;
 		values[storage.PROPS.R_VALUE.getId()] = valueKey;
 		values[storage.PROPS.R_DISABLE.getId()] = 0;
-		RenderingRule accept = storage.getRule(state, tagKey, valueKey);
-		if (accept == null) {
-			return false;
+		boolean match;
+		if (compiledRules != null) {
+			RenderingRulesProgram program = getCompiledRules();
+			int entry = program.getEntry(state, tagKey, valueKey);
+			if (entry == -1) {
+				return false;
+			}
+			match = program.execute(entry, this, loadOutput);
+		} else {
+			RenderingRule accept = storage.getRule(state, tagKey, valueKey);
+			if (accept == null) {
+				return false;
+			}
+			match = visitRule(accept, loadOutput);
 		}
-		boolean match = visitRule(accept, loadOutput);
 		if(match && values[storage.PROPS.R_DISABLE.getId()] != 0) {
 			return false;
 		}
@@ -287,4 +394,81 @@ public class RenderingRuleSearchRequest {
 		return storage;
 	}
 
-}
\ No newline at end of file
+	private static class SearchKey {
+		int state;
+		boolean loadOutput;
+		boolean withObject;
+		int[] values;
+		float[] fvalues;
+		int hash;
+		
+		void set(int state, boolean loadOutput, boolean withObject, int[] values, float[] fvalues) {
+			this.state = state;
+			this.loadOutput = loadOutput;
+			this.withObject = withObject;
+			this.values = values;
+			this.fvalues = fvalues;
+			int h = 31 * state + (loadOutput ? 1 : 0);
+			h = 31 * h + (withObject ? 1 : 0);
+			h = 31 * h + Arrays.hashCode(values);
+			hash = 31 * h + Arrays.hashCode(fvalues);
+		}
+		
+		SearchKey copy() {
+			SearchKey k = new SearchKey();
+			k.state = state;
+			k.loadOutput = loadOutput;
+			k.withObject = withObject;
+			k.values = values.clone();
+			k.fvalues = fvalues.clone();
+			k.hash = hash;
+			return k;
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof SearchKey)) {
+				return false;
+			}
+			SearchKey other = (SearchKey) obj;
+			return hash == other.hash && state == other.state && loadOutput == other.loadOutput
+					&& withObject == other.withObject && Arrays.equals(values, other.values)
+					&& Arrays.equals(fvalues, other.fvalues);
+		}
+	}
+	
+	private static class SearchResult {
+		final boolean found;
+		// properties changed by search and their new values
+		final int[] changed;
+		final int[] values;
+		final float[] fvalues;
+		
+		SearchResult(boolean found, SearchKey before, int[] values, float[] fvalues) {
+			this.found = found;
+			TIntArrayList ch = new TIntArrayList();
+			for (int i = 0; i < values.length; i++) {
+				if (values[i] != before.values[i]
+						|| Float.floatToIntBits(fvalues[i]) != Float.floatToIntBits(before.fvalues[i])) {
+					ch.add(i);
+				}
+			}
+			this.changed = ch.toArray();
+			this.values = new int[changed.length];
+			this.fvalues = new float[changed.length];
+			for (int i = 0; i < changed.length; i++) {
+				this.values[i] = values[changed[i]];
+				this.fvalues[i] = fvalues[changed[i]];
+			}
+		}
+	}
+
+}
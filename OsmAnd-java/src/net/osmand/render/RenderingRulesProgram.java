@@ -0,0 +1,407 @@
+package net.osmand.render;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rules of the storage compiled to flat code: every rule is a subroutine of fixed size instructions
+ * (opcode and 3 int arguments), calls of children use explicit stack instead of recursion and input properties
+ * are checked by opcode without calling {@link RenderingRuleProperty#accept(int, int, RenderingRuleSearchRequest)}
+ * (only properties with own accept, as additional, still call it).
+ * Execution changes values of request exactly as {@link RenderingRuleSearchRequest} visiting rules does.
+ */
+class RenderingRulesProgram {
+
+	// input checks, return false from rule if check fails
+	private static final int IN_EQUALS = 1;
+	private static final int IN_FLOAT_EQUALS = 2;
+	// rule value >= property value (maxzoom)
+	private static final int IN_LESS = 3;
+	// rule value <= property value (minzoom)
+	private static final int IN_GREATER = 4;
+	private static final int IN_ACCEPT = 5;
+	private static final int IN_FLOAT_ACCEPT = 6;
+	// disable is set while input is checked
+	private static final int SET_INT = 7;
+	// outputs
+	private static final int OUT_INT = 8;
+	private static final int OUT_FLOAT = 9;
+	// value of attribute rule called before
+	private static final int OUT_ATTR = 10;
+	private static final int JUMP_IF_SPECIFIED = 11;
+	private static final int CALL = 12;
+	private static final int JUMP_IF_TRUE = 13;
+	private static final int RETURN_TRUE_IF_NO_OUTPUT = 14;
+	private static final int RETURN_TRUE = 15;
+	private static final int RETURN_FALSE = 16;
+
+	private static final int INSTRUCTION_SIZE = 4;
+
+	private static final byte SPECIFIED_INT = 0;
+	private static final byte SPECIFIED_FLOAT = 1;
+	private static final byte SPECIFIED_COLOR = 2;
+
+	private final int[] code;
+	private final float[] floatConstants;
+	private final RenderingRuleProperty[] props;
+	// how property is checked to be specified
+	private final byte[] specifiedTypes;
+	private final int attrColorId;
+	private final int attrIntId;
+	// by state: sorted tag-value keys and addresses of their rules
+	private final int[][] entryKeys;
+	private final int[][] entryAddresses;
+	private final Map<String, Integer> attributeEntries = new HashMap<String, Integer>();
+	private final int modificationCount;
+
+	RenderingRulesProgram(RenderingRulesStorage storage) {
+		this.modificationCount = storage.getModificationCount();
+		RenderingRuleStorageProperties p = storage.PROPS;
+		props = p.getPoperties();
+		specifiedTypes = new byte[props.length];
+		for (int i = 0; i < props.length; i++) {
+			specifiedTypes[props[i].getId()] = props[i].isFloat() ? SPECIFIED_FLOAT
+					: (props[i].isColor() ? SPECIFIED_COLOR : SPECIFIED_INT);
+		}
+		attrColorId = p.R_ATTR_COLOR_VALUE.getId();
+		attrIntId = p.R_ATTR_INT_VALUE.getId();
+
+		Compiler c = new Compiler(storage);
+		entryKeys = new int[storage.tagValueGlobalRules.length][];
+		entryAddresses = new int[entryKeys.length][];
+		for (int state = 0; state < entryKeys.length; state++) {
+			TIntObjectHashMap<RenderingRule> rules = storage.tagValueGlobalRules[state];
+			if (rules != null) {
+				int[] keys = rules.keys();
+				Arrays.sort(keys);
+				int[] addresses = new int[keys.length];
+				for (int i = 0; i < keys.length; i++) {
+					addresses[i] = c.getAddress(rules.get(keys[i]));
+				}
+				entryKeys[state] = keys;
+				entryAddresses[state] = addresses;
+			}
+		}
+		for (String attr : storage.getRenderingAttributeNames()) {
+			attributeEntries.put(attr, c.getAddress(storage.getRenderingAttributeRule(attr)));
+		}
+		c.compileAll();
+		code = c.code.toArray();
+		floatConstants = new float[c.floatConstants.size()];
+		for (int i = 0; i < floatConstants.length; i++) {
+			floatConstants[i] = Float.intBitsToFloat(c.floatConstants.get(i));
+		}
+	}
+
+	public boolean isCompiledFor(RenderingRulesStorage storage) {
+		return modificationCount == storage.getModificationCount();
+	}
+
+	/**
+	 * @return address of the rule for tag and value or -1
+	 */
+	public int getEntry(int state, int tagKey, int valueKey) {
+		if (state >= entryKeys.length || entryKeys[state] == null) {
+			return -1;
+		}
+		int i = Arrays.binarySearch(entryKeys[state], (tagKey << RenderingRulesStorage.SHIFT_TAG_VAL) | valueKey);
+		return i < 0 ? -1 : entryAddresses[state][i];
+	}
+
+	public int getAttributeEntry(String attribute) {
+		Integer e = attributeEntries.get(attribute);
+		return e == null ? -1 : e;
+	}
+
+	/**
+	 * Visits the rule at address as {@link RenderingRuleSearchRequest} does it
+	 */
+	public boolean execute(int entry, RenderingRuleSearchRequest req, boolean loadOutput) {
+		final int[] code = this.code;
+		final int[] values = req.values;
+		final float[] fvalues = req.fvalues;
+		int[] stack = req.callStack;
+		int sp = 0;
+		stack[sp++] = -1;
+		boolean result = false;
+		int pc = entry;
+		while (true) {
+			int op = code[pc];
+			int a = code[pc + 1];
+			int b = code[pc + 2];
+			pc += INSTRUCTION_SIZE;
+			boolean ret = false;
+			switch (op) {
+			case IN_EQUALS:
+				if (values[a] != b) {
+					ret = true;
+					result = false;
+				}
+				break;
+			case IN_FLOAT_EQUALS:
+				if (fvalues[a] != floatConstants[b]) {
+					ret = true;
+					result = false;
+				}
+				break;
+			case IN_LESS:
+				if (b < values[a]) {
+					ret = true;
+					result = false;
+				}
+				break;
+			case IN_GREATER:
+				if (b > values[a]) {
+					ret = true;
+					result = false;
+				}
+				break;
+			case IN_ACCEPT:
+				if (!props[a].accept(b, values[a], req)) {
+					ret = true;
+					result = false;
+				}
+				break;
+			case IN_FLOAT_ACCEPT:
+				if (!props[a].accept(floatConstants[b], fvalues[a], req)) {
+					ret = true;
+					result = false;
+				}
+				break;
+			case SET_INT:
+			case OUT_INT:
+				values[a] = b;
+				break;
+			case OUT_FLOAT:
+				values[a] = b;
+				fvalues[a] = floatConstants[code[pc - 1]];
+				break;
+			case OUT_ATTR:
+				if (values[attrColorId] != 0) {
+					values[a] = values[attrColorId];
+				} else if (values[attrIntId] != -1) {
+					values[a] = values[attrIntId];
+					fvalues[a] = fvalues[attrIntId];
+				}
+				break;
+			case JUMP_IF_SPECIFIED:
+				if (isSpecified(a, values, fvalues)) {
+					pc = b;
+				}
+				break;
+			case CALL:
+				if (sp == stack.length) {
+					int[] n = new int[stack.length * 2];
+					System.arraycopy(stack, 0, n, 0, sp);
+					stack = n;
+					req.callStack = n;
+				}
+				stack[sp++] = pc;
+				pc = a;
+				break;
+			case JUMP_IF_TRUE:
+				if (result) {
+					pc = a;
+				}
+				break;
+			case RETURN_TRUE_IF_NO_OUTPUT:
+				if (!loadOutput) {
+					ret = true;
+					result = true;
+				}
+				break;
+			case RETURN_TRUE:
+				ret = true;
+				result = true;
+				break;
+			case RETURN_FALSE:
+				ret = true;
+				result = false;
+				break;
+			default:
+				throw new IllegalStateException("Unknown instruction " + op);
+			}
+			if (ret) {
+				pc = stack[--sp];
+				if (pc == -1) {
+					return result;
+				}
+			}
+		}
+	}
+
+	private boolean isSpecified(int id, int[] values, float[] fvalues) {
+		switch (specifiedTypes[id]) {
+		case SPECIFIED_FLOAT:
+			return fvalues[id] != 0 || values[id] != -1;
+		case SPECIFIED_COLOR:
+			return values[id] != 0;
+		default:
+			return values[id] != -1;
+		}
+	}
+
+	private static class Compiler {
+		final RenderingRulesStorage storage;
+		final TIntArrayList code = new TIntArrayList();
+		// bits of float constants
+		final TIntArrayList floatConstants = new TIntArrayList();
+		// address of every rule is known before its code is written
+		final Map<RenderingRule, Integer> addresses = new IdentityHashMap<RenderingRule, Integer>();
+		final LinkedList<RenderingRule> queue = new LinkedList<RenderingRule>();
+		// instructions calling the rule which is not compiled yet
+		final Map<RenderingRule, List<Integer>> calls = new IdentityHashMap<RenderingRule, List<Integer>>();
+
+		Compiler(RenderingRulesStorage storage) {
+			this.storage = storage;
+		}
+
+		int getAddress(RenderingRule rule) {
+			Integer a = addresses.get(rule);
+			if (a == null) {
+				a = compile(rule);
+			}
+			return a;
+		}
+
+		void compileAll() {
+			while (!queue.isEmpty()) {
+				RenderingRule rule = queue.poll();
+				if (!addresses.containsKey(rule)) {
+					compile(rule);
+				}
+			}
+		}
+
+		private int compile(RenderingRule rule) {
+			int address = code.size();
+			addresses.put(rule, address);
+			List<Integer> waiting = calls.remove(rule);
+			if (waiting != null) {
+				for (int c : waiting) {
+					code.setQuick(c + 1, address);
+				}
+			}
+			RenderingRuleProperty[] properties = rule.getProperties();
+			for (int i = 0; i < properties.length; i++) {
+				RenderingRuleProperty rp = properties[i];
+				if (rp.isInputProperty()) {
+					boolean ownAccept = rp.getClass() != RenderingRuleProperty.class;
+					if (rp.isFloat()) {
+						emit(ownAccept ? IN_FLOAT_ACCEPT : IN_FLOAT_EQUALS, rp.getId(), floatConstant(rule.getFloatProp(i)), 0);
+					} else if (rp == storage.PROPS.R_MINZOOM) {
+						emit(IN_GREATER, rp.getId(), rule.getIntProp(i), 0);
+					} else if (rp == storage.PROPS.R_MAXZOOM) {
+						emit(IN_LESS, rp.getId(), rule.getIntProp(i), 0);
+					} else {
+						emit(ownAccept ? IN_ACCEPT : IN_EQUALS, rp.getId(), rule.getIntProp(i), 0);
+					}
+				} else if (rp == storage.PROPS.R_DISABLE) {
+					emit(SET_INT, rp.getId(), rule.getIntProp(i), 0);
+				}
+			}
+			List<RenderingRule> ifElse = rule.getIfElseChildren();
+			if (!rule.isGroup()) {
+				emit(RETURN_TRUE_IF_NO_OUTPUT, 0, 0, 0);
+				compileOutput(rule, true);
+				List<Integer> jumps = compileIfElse(ifElse);
+				patch(jumps, code.size());
+				compileIf(rule.getIfChildren());
+				emit(RETURN_TRUE, 0, 0, 0);
+			} else {
+				List<Integer> jumps = compileIfElse(ifElse);
+				emit(RETURN_FALSE, 0, 0, 0);
+				patch(jumps, code.size());
+				emit(RETURN_TRUE_IF_NO_OUTPUT, 0, 0, 0);
+				compileOutput(rule, false);
+				compileIf(rule.getIfChildren());
+				emit(RETURN_TRUE, 0, 0, 0);
+			}
+			return address;
+		}
+
+		private List<Integer> compileIfElse(List<RenderingRule> ifElse) {
+			List<Integer> jumps = new ArrayList<Integer>();
+			for (RenderingRule rr : ifElse) {
+				emitCall(rr);
+				jumps.add(code.size());
+				emit(JUMP_IF_TRUE, 0, 0, 0);
+			}
+			return jumps;
+		}
+
+		private void compileIf(List<RenderingRule> ifChildren) {
+			for (RenderingRule rr : ifChildren) {
+				emitCall(rr);
+			}
+		}
+
+		private void compileOutput(RenderingRule rule, boolean override) {
+			RenderingRuleProperty[] properties = rule.getProperties();
+			for (int i = 0; i < properties.length; i++) {
+				RenderingRuleProperty rp = properties[i];
+				if (!rp.isOutputProperty()) {
+					continue;
+				}
+				int jump = -1;
+				if (!override) {
+					jump = code.size();
+					emit(JUMP_IF_SPECIFIED, rp.getId(), 0, 0);
+				}
+				RenderingRule rr = rule.getAttrProp(i);
+				if (rr != null) {
+					emitCall(rr);
+					emit(OUT_ATTR, rp.getId(), 0, 0);
+				} else if (rp.isFloat()) {
+					emit(OUT_FLOAT, rp.getId(), rule.getIntProp(i), floatConstant(rule.getFloatProp(i)));
+				} else {
+					emit(OUT_INT, rp.getId(), rule.getIntProp(i), 0);
+				}
+				if (jump != -1) {
+					code.setQuick(jump + 2, code.size());
+				}
+			}
+		}
+
+		private void patch(List<Integer> jumps, int address) {
+			for (int j : jumps) {
+				code.setQuick(j + 1, address);
+			}
+		}
+
+		private void emitCall(RenderingRule rule) {
+			Integer a = addresses.get(rule);
+			if (a == null) {
+				List<Integer> l = calls.get(rule);
+				if (l == null) {
+					l = new ArrayList<Integer>();
+					calls.put(rule, l);
+					queue.add(rule);
+				}
+				l.add(code.size());
+				a = -1;
+			}
+			emit(CALL, a, 0, 0);
+		}
+
+		private int floatConstant(float f) {
+			floatConstants.add(Float.floatToRawIntBits(f));
+			return floatConstants.size() - 1;
+		}
+
+		private void emit(int op, int a, int b, int c) {
+			code.add(op);
+			code.add(a);
+			code.add(b);
+			code.add(c);
+		}
+	}
+}
@@ -0,0 +1,339 @@
+package net.osmand.render;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.binary.BinaryMapIndexReader.MapIndex;
+import net.osmand.render.RenderingRulesStorage.RenderingRulesStorageResolver;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Checks that {@link RenderingRulesProgram} and cache of search results give the same output as visiting rules tree.
+ * Random requests (tag-value pairs of the style, zooms, layers, additional tags, custom properties, night mode)
+ * are searched by all modes of {@link RenderingRuleSearchRequest} and all values after search are compared.
+ *
+ * Arguments are files of the styles, by default bundled styles are loaded from the classpath.
+ * Exits with code 1 if any difference is found or no style is loaded.
+ */
+public class RenderingRulesProgramTest {
+
+	private static final String[] BUNDLED_STYLES = new String[] { "default",
+			"Touring-view_(more-contrast-and-details)", "UniRS", "LightRS", "nautical", "skimap" };
+	private static final int[] STATES = new int[] { RenderingRulesStorage.POINT_RULES,
+			RenderingRulesStorage.LINE_RULES, RenderingRulesStorage.POLYGON_RULES, RenderingRulesStorage.TEXT_RULES,
+			RenderingRulesStorage.ORDER_RULES };
+	private static final int SETTINGS = 20;
+	private static final int REQUESTS = 20000;
+	private static final int MAX_PRINTED = 10;
+
+	private final RenderingRulesStorage storage;
+	private final Random rnd;
+	// tree, compiled, cached tree, cached compiled
+	private final RenderingRuleSearchRequest[] reqs;
+	private final List<String> dictionary;
+	private final List<String> additional = new ArrayList<String>();
+	private final MapIndex mapIndex = new MapIndex();
+	private int searches;
+	private int differences;
+	// random inputs of the next search
+	private boolean point;
+	private boolean area;
+	private boolean cycle;
+	private int textLength;
+	private String nameTag;
+	private String additionalTag;
+
+	public RenderingRulesProgramTest(RenderingRulesStorage storage, long seed) {
+		this.storage = storage;
+		this.rnd = new Random(seed);
+		this.dictionary = new ArrayList<String>(storage.dictionary);
+		reqs = new RenderingRuleSearchRequest[4];
+		for (int i = 0; i < reqs.length; i++) {
+			reqs[i] = new RenderingRuleSearchRequest(storage);
+			reqs[i].setCompiledRulesEnabled(i % 2 == 1);
+			reqs[i].setResultCacheEnabled(i >= 2);
+		}
+		for (String s : dictionary) {
+			int k = s.indexOf('=');
+			if (k > 0) {
+				mapIndex.initMapEncodingRule(0, additional.size() + 1, s.substring(0, k), s.substring(k + 1));
+				additional.add(s);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int styles = 0;
+		int differences = 0;
+		if (args.length > 0) {
+			for (String f : args) {
+				File file = new File(f);
+				String name = file.getName().substring(0, file.getName().length() - ".render.xml".length());
+				differences += testStyle(loadStorage(name, file.getParentFile()));
+				styles++;
+			}
+		} else {
+			for (String name : BUNDLED_STYLES) {
+				RenderingRulesStorage storage = loadStorage(name, null);
+				if (storage == null) {
+					System.out.println("Style " + name + " is not found in the classpath");
+					continue;
+				}
+				differences += testStyle(storage);
+				styles++;
+			}
+		}
+		if (styles == 0) {
+			System.out.println("No styles were tested");
+			System.exit(1);
+		}
+		if (differences > 0) {
+			System.out.println("FAILED : " + differences + " differences");
+			System.exit(1);
+		}
+		System.out.println("OK : " + styles + " styles");
+	}
+
+	private static int testStyle(RenderingRulesStorage storage) {
+		RenderingRulesProgramTest test = new RenderingRulesProgramTest(storage, 0);
+		test.run();
+		System.out.println(storage.getName() + " : " + test.searches + " searches, " + test.differences
+				+ " differences");
+		return test.differences;
+	}
+
+	public void run() {
+		for (int s = 0; s < SETTINGS; s++) {
+			setRandomSettings();
+			for (int i = 0; i < REQUESTS; i++) {
+				searchRandom();
+			}
+			for (String attr : storage.getRenderingAttributeNames()) {
+				setRandomInput();
+				for (RenderingRuleSearchRequest r : reqs) {
+					r.clearState();
+					applyInput(r);
+					r.searchRenderingAttribute(attr);
+				}
+				compare("attribute " + attr);
+			}
+		}
+	}
+
+	private void setRandomSettings() {
+		boolean nightMode = rnd.nextBoolean();
+		List<RenderingRuleProperty> custom = storage.PROPS.getCustomRules();
+		String[] values = new String[custom.size()];
+		for (int i = 0; i < values.length; i++) {
+			String[] possible = custom.get(i).getPossibleValues();
+			if (custom.get(i).isBoolean()) {
+				values[i] = String.valueOf(rnd.nextBoolean());
+			} else if (possible != null && possible.length > 0 && rnd.nextInt(4) > 0) {
+				values[i] = possible[rnd.nextInt(possible.length)];
+			} else {
+				values[i] = "";
+			}
+		}
+		for (RenderingRuleSearchRequest r : reqs) {
+			r.clearState();
+			r.setBooleanFilter(r.ALL.R_NIGHT_MODE, nightMode);
+			for (int i = 0; i < values.length; i++) {
+				RenderingRuleProperty p = custom.get(i);
+				if (p.isBoolean()) {
+					r.setBooleanFilter(p, Boolean.parseBoolean(values[i]));
+				} else if (p.isString()) {
+					r.setStringFilter(p, values[i]);
+				} else if (values[i].length() > 0) {
+					try {
+						r.setIntFilter(p, Integer.parseInt(values[i]));
+					} catch (NumberFormatException e) {
+						// not a number
+					}
+				}
+			}
+			r.saveState();
+		}
+	}
+
+	private void searchRandom() {
+		int state = STATES[rnd.nextInt(STATES.length)];
+		String tag;
+		String value;
+		int[] keys = storage.tagValueGlobalRules[state] == null ? new int[0]
+				: storage.tagValueGlobalRules[state].keys();
+		int choice = rnd.nextInt(10);
+		if (keys.length > 0 && choice < 8) {
+			int key = keys[rnd.nextInt(keys.length)];
+			tag = storage.getTagString(key);
+			value = choice < 7 ? storage.getValueString(key) : randomString();
+		} else {
+			tag = randomString();
+			value = randomString();
+		}
+		int zoom = 1 + rnd.nextInt(21);
+		int layer = rnd.nextInt(5) - 2;
+		BinaryMapDataObject obj = randomObject();
+		boolean loadOutput = rnd.nextInt(10) > 0;
+		// second search of the same input restores results from cache
+		int repeat = 1 + rnd.nextInt(2);
+		setRandomInput();
+		for (int k = 0; k < repeat; k++) {
+			for (RenderingRuleSearchRequest r : reqs) {
+				r.setInitialTagValueZoom(tag, value, zoom, obj);
+				if (layer != 0) {
+					r.setIntFilter(r.ALL.R_LAYER, layer);
+				}
+				applyInput(r);
+				r.search(state, loadOutput);
+			}
+			compare("state " + state + " " + tag + "=" + value + " zoom " + zoom + " layer " + layer
+					+ (obj == null ? "" : " object " + Arrays.toString(obj.getAdditionalTypes())));
+		}
+	}
+
+	private void setRandomInput() {
+		point = rnd.nextBoolean();
+		area = rnd.nextBoolean();
+		cycle = rnd.nextInt(4) == 0;
+		textLength = rnd.nextInt(3) == 0 ? -1 : rnd.nextInt(30);
+		nameTag = rnd.nextInt(3) == 0 ? "" : randomString();
+		additionalTag = additional.isEmpty() || rnd.nextInt(3) > 0 ? null : additional.get(rnd.nextInt(additional.size()));
+	}
+
+	// inputs set by renderer in addition to tag, value and zoom
+	private void applyInput(RenderingRuleSearchRequest r) {
+		r.setBooleanFilter(r.ALL.R_POINT, point);
+		r.setBooleanFilter(r.ALL.R_AREA, area);
+		r.setBooleanFilter(r.ALL.R_CYCLE, cycle);
+		r.setIntFilter(r.ALL.R_TEXT_LENGTH, textLength);
+		r.setStringFilter(r.ALL.R_NAME_TAG, nameTag);
+		if (additionalTag != null) {
+			r.setStringFilter(r.ALL.R_ADDITIONAL, additionalTag);
+		}
+	}
+
+	private BinaryMapDataObject randomObject() {
+		int kind = rnd.nextInt(3);
+		if (kind == 0) {
+			return null;
+		}
+		final int[] addTypes;
+		if (kind == 1 || additional.isEmpty()) {
+			addTypes = new int[0];
+		} else {
+			addTypes = new int[1 + rnd.nextInt(3)];
+			for (int i = 0; i < addTypes.length; i++) {
+				addTypes[i] = 1 + rnd.nextInt(additional.size());
+			}
+		}
+		BinaryMapDataObject obj = new BinaryMapDataObject(new int[] { 0, 0 }, new int[0], null, 1) {
+			{
+				additionalTypes = addTypes;
+			}
+		};
+		obj.setMapIndex(mapIndex);
+		return obj;
+	}
+
+	private String randomString() {
+		return dictionary.get(rnd.nextInt(dictionary.size()));
+	}
+
+	private void compare(String description) {
+		searches++;
+		RenderingRuleSearchRequest tree = reqs[0];
+		for (int i = 1; i < reqs.length; i++) {
+			RenderingRuleSearchRequest r = reqs[i];
+			if (r.isFound() != tree.isFound() || !Arrays.equals(r.values, tree.values)
+					|| !Arrays.equals(r.fvalues, tree.fvalues)) {
+				if (differences++ < MAX_PRINTED) {
+					System.out.println("Difference of " + (r.isCompiledRulesEnabled() ? "compiled " : "")
+							+ (r.isResultCacheEnabled() ? "cached " : "") + "search : " + description);
+					printDifference(tree, r);
+				}
+			}
+		}
+	}
+
+	private static void printDifference(RenderingRuleSearchRequest expected, RenderingRuleSearchRequest r) {
+		if (expected.isFound() != r.isFound()) {
+			System.out.println("\tfound " + expected.isFound() + " != " + r.isFound());
+		}
+		for (RenderingRuleProperty p : expected.getProperties()) {
+			int id = p.getId();
+			if (expected.values[id] != r.values[id] || expected.fvalues[id] != r.fvalues[id]) {
+				System.out.println("\t" + p.getAttrName() + " " + expected.values[id] + "/" + expected.fvalues[id]
+						+ " != " + r.values[id] + "/" + r.fvalues[id]);
+			}
+		}
+	}
+
+	/**
+	 * Loads the style with rendering constants and dependencies as the application does,
+	 * styles are looked in the dir and then in the classpath
+	 * @return null if the style is not found
+	 */
+	public static RenderingRulesStorage loadStorage(String name, File dir) throws XmlPullParserException,
+			IOException {
+		return loadStorage(name, dir, new LinkedHashMap<String, String>());
+	}
+
+	private static RenderingRulesStorage loadStorage(String name, final File dir,
+			final Map<String, String> renderingConstants) throws XmlPullParserException, IOException {
+		InputStream is = openStyle(name, dir);
+		if (is == null) {
+			return null;
+		}
+		try {
+			XmlPullParser parser = PlatformUtil.newXMLPullParser();
+			parser.setInput(is, "UTF-8");
+			int tok;
+			while ((tok = parser.next()) != XmlPullParser.END_DOCUMENT) {
+				if (tok == XmlPullParser.START_TAG && parser.getName().equals("renderingConstant")) {
+					if (!renderingConstants.containsKey(parser.getAttributeValue("", "name"))) {
+						renderingConstants.put(parser.getAttributeValue("", "name"),
+								parser.getAttributeValue("", "value"));
+					}
+				}
+			}
+		} finally {
+			is.close();
+		}
+		RenderingRulesStorage storage = new RenderingRulesStorage(name, renderingConstants);
+		is = openStyle(name, dir);
+		try {
+			storage.parseRulesFromXmlInputStream(is, new RenderingRulesStorageResolver() {
+				@Override
+				public RenderingRulesStorage resolve(String name, RenderingRulesStorageResolver ref)
+						throws XmlPullParserException, IOException {
+					return loadStorage(name, dir, renderingConstants);
+				}
+			});
+		} finally {
+			is.close();
+		}
+		return storage;
+	}
+
+	private static InputStream openStyle(String name, File dir) throws IOException {
+		if (dir != null) {
+			File f = new File(dir, name + ".render.xml");
+			if (f.exists()) {
+				return new FileInputStream(f);
+			}
+		}
+		return RenderingRulesStorage.class.getResourceAsStream(name + ".render.xml");
+	}
+}
@@ -36,7 +36,7 @@ public class RenderingRulesStorage {
 	public final static int ORDER_RULES = 5;
 	private final static int LENGTH_RULES = 6;
 	
-	private final static int SHIFT_TAG_VAL = 16;
+	final static int SHIFT_TAG_VAL = 16;
 	
 	// C++
 	List<String> dictionary = new ArrayList<String>();
@@ -52,6 +52,9 @@ public class RenderingRulesStorage {
 	
 	private String renderingName;
 	private String internalRenderingName;
+	// changed when rules are added, so cached search results are dropped
+	private int modificationCount;
+	private RenderingRulesProgram compiledRules;
 	
 	
 	public static interface RenderingRulesStorageResolver {
@@ -91,6 +94,17 @@ public class RenderingRulesStorage {
 		return internalRenderingName;
 	}
 	
+	int getModificationCount() {
+		return modificationCount;
+	}
+	
+	synchronized RenderingRulesProgram getCompiledRules() {
+		if (compiledRules == null || !compiledRules.isCompiledFor(this)) {
+			compiledRules = new RenderingRulesProgram(this);
+		}
+		return compiledRules;
+	}
+	
 	
 	public void parseRulesFromXmlInputStream(InputStream is, RenderingRulesStorageResolver resolver) throws XmlPullParserException,
 			IOException {
@@ -141,6 +155,7 @@ public class RenderingRulesStorage {
 			}
 
 		}
+		modificationCount++;
 	}
 
 	public static String colorToString(int color) {
@@ -166,7 +181,8 @@ public class RenderingRulesStorage {
 		} else {
 			insert = rr;
 		}
-		tagValueGlobalRules[state].put(key, insert);			
+		tagValueGlobalRules[state].put(key, insert);
+		modificationCount++;
 	}
 	
 
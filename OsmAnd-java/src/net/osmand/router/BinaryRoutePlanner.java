@@ -119,6 +119,10 @@ public class BinaryRoutePlanner {
 				throw new IllegalStateException("There is no enough memory " + ctx.config.memoryLimitation/(1<<20) + " Mb");
 			}
 			ctx.visitedSegments++;
+			if (ctx.tilePrefetcher != null) {
+				ctx.prefetchTiles(segment.road.getPoint31XTile(segment.getSegmentStart()),
+						segment.road.getPoint31YTile(segment.getSegmentStart()), !forwardSearch);
+			}
 			if (forwardSearch) {
 				boolean doNotAddIntersections = onlyBackward;
 				processRouteSegment(ctx, false, graphDirectSegments, visitedDirectSegments, 
@@ -319,7 +323,7 @@ public class BinaryRoutePlanner {
 				" ds=" + ((float)segment.distanceFromStart) + " es="+((float)segment.distanceToEnd) + pr);
 	}
 
-	private float estimatedDistance(final RoutingContext ctx, int targetEndX, int targetEndY,
+	float estimatedDistance(final RoutingContext ctx, int targetEndX, int targetEndY,
 			int startX, int startY) {
 		double distance = squareRootDist(startX, startY, targetEndX, targetEndY);
 		return (float) (distance / ctx.getRouter().getMaxDefaultSpeed());
@@ -552,7 +556,7 @@ public class BinaryRoutePlanner {
 	}
 	
 
-	private float calculateTimeWithObstacles(RoutingContext ctx, RouteDataObject road, float distOnRoadToPass, float obstaclesTime) {
+	float calculateTimeWithObstacles(RoutingContext ctx, RouteDataObject road, float distOnRoadToPass, float obstaclesTime) {
 		float priority = ctx.getRouter().defineSpeedPriority(road);
 		float speed = (ctx.getRouter().defineRoutingSpeed(road) * priority);
 		if (speed == 0) {
@@ -565,7 +569,7 @@ public class BinaryRoutePlanner {
 		return obstaclesTime + distOnRoadToPass / speed;
 	}
 
-	private long calculateRoutePointId(final RouteDataObject road, int intervalId, boolean positive) {
+	long calculateRoutePointId(final RouteDataObject road, int intervalId, boolean positive) {
 		if(intervalId < 0) {
 			// should be assert
 			throw new IllegalStateException("Assert failed");
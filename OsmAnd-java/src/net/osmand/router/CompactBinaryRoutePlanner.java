@@ -0,0 +1,461 @@
+package net.osmand.router;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import net.osmand.binary.RouteDataObject;
+import net.osmand.osm.MapRenderingTypes;
+import net.osmand.router.RouteSegmentStore.SegmentQueue;
+import net.osmand.router.RouteSegmentStore.VisitedSegments;
+import net.osmand.util.MapUtils;
+
+/**
+ * Same A* as {@link BinaryRoutePlanner} but search state (parents, g/h costs, direction) is kept in
+ * {@link RouteSegmentStore} instead of {@link RouteSegment} objects. Segments are visited in the same order,
+ * so the calculated route is the same, but the search needs several times less memory per segment.
+ * Route segment objects are created only for the found route.
+ */
+public class CompactBinaryRoutePlanner extends BinaryRoutePlanner {
+
+	private static final int NO_SEGMENT = RouteSegmentStore.NO_SEGMENT;
+
+	private RouteSegmentStore store;
+	private final boolean[] processFurther = new boolean[1];
+
+	@Override
+	FinalRouteSegment searchRouteInternal(final RoutingContext ctx, RouteSegmentPoint start, RouteSegmentPoint end)
+			throws InterruptedException, IOException {
+		// measure time
+		ctx.timeToLoad = 0;
+		ctx.visitedSegments = 0;
+		ctx.memoryOverhead = 1000;
+		ctx.timeToCalculate = System.nanoTime();
+		store = new RouteSegmentStore(ctx);
+		SegmentQueue graphDirectSegments = store.new SegmentQueue();
+		SegmentQueue graphReverseSegments = store.new SegmentQueue();
+
+		// Set to not visit one segment twice (stores road.id << X + segmentStart)
+		VisitedSegments visitedDirectSegments = new VisitedSegments();
+		VisitedSegments visitedOppositeSegments = new VisitedSegments();
+
+		initQueuesWithStartEnd(ctx, start, end, graphDirectSegments, graphReverseSegments);
+
+		// Extract & analyze segment with min(f(x)) from queue while final segment is not found
+		boolean forwardSearch = true;
+		SegmentQueue graphSegments = graphDirectSegments;
+		FinalRouteSegment finalSegment = null;
+		boolean onlyBackward = ctx.getPlanRoadDirection() < 0;
+		boolean onlyForward = ctx.getPlanRoadDirection() > 0;
+		while (!graphSegments.isEmpty()) {
+			int segment = graphSegments.poll();
+			ctx.memoryOverhead = store.getEstimatedSize() + visitedDirectSegments.getEstimatedSize()
+					+ visitedOppositeSegments.getEstimatedSize() + graphDirectSegments.getEstimatedSize()
+					+ graphReverseSegments.getEstimatedSize();
+			if (store.isFinal(segment)) {
+				finalSegment = store.toFinalRouteSegment(segment);
+				break;
+			}
+			if (ctx.memoryOverhead > ctx.config.memoryLimitation * 0.95) {
+				throw new IllegalStateException("There is no enough memory " + ctx.config.memoryLimitation / (1 << 20) + " Mb");
+			}
+			ctx.visitedSegments++;
+			if (ctx.tilePrefetcher != null) {
+				RouteDataObject road = store.getRoad(segment);
+				short segmentStart = store.getSegmentStart(segment);
+				ctx.prefetchTiles(road.getPoint31XTile(segmentStart), road.getPoint31YTile(segmentStart), !forwardSearch);
+			}
+			if (forwardSearch) {
+				boolean doNotAddIntersections = onlyBackward;
+				processRouteSegment(ctx, false, graphDirectSegments, visitedDirectSegments,
+						segment, visitedOppositeSegments, doNotAddIntersections);
+			} else {
+				boolean doNotAddIntersections = onlyForward;
+				processRouteSegment(ctx, true, graphReverseSegments, visitedOppositeSegments, segment,
+						visitedDirectSegments, doNotAddIntersections);
+			}
+			updateCalculationProgress(ctx, graphDirectSegments, graphReverseSegments);
+
+			checkIfGraphIsEmpty(ctx, ctx.getPlanRoadDirection() <= 0, graphReverseSegments, end, visitedOppositeSegments,
+					"Route is not found to selected target point.");
+			checkIfGraphIsEmpty(ctx, ctx.getPlanRoadDirection() >= 0, graphDirectSegments, start, visitedDirectSegments,
+					"Route is not found from selected start point.");
+			if (ctx.planRouteIn2Directions()) {
+				int d = graphDirectSegments.peek();
+				int r = graphReverseSegments.peek();
+				forwardSearch = roadPriorityComparator(store.getDistanceFromStart(d), store.getDistanceToEnd(d),
+						store.getDistanceFromStart(r), store.getDistanceToEnd(r), 0.5) < 0;
+			} else {
+				// different strategy : use onedirectional graph
+				forwardSearch = onlyForward;
+				if (onlyBackward && !graphDirectSegments.isEmpty()) {
+					forwardSearch = true;
+				}
+				if (onlyForward && !graphReverseSegments.isEmpty()) {
+					forwardSearch = false;
+				}
+			}
+
+			if (forwardSearch) {
+				graphSegments = graphDirectSegments;
+			} else {
+				graphSegments = graphReverseSegments;
+			}
+			// check if interrupted
+			if (ctx.calculationProgress != null && ctx.calculationProgress.isCancelled) {
+				throw new InterruptedException("Route calculation interrupted");
+			}
+		}
+		printDebugMemoryInformation(ctx, null, null, null, null);
+		log.warn("Priority queues sizes : " + graphDirectSegments.size() + "/" + graphReverseSegments.size()
+				+ ", visited interval sizes: " + visitedDirectSegments.size() + "/" + visitedOppositeSegments.size()
+				+ ", stored segments " + store.size() + " (" + ctx.memoryOverhead / (1 << 10) + " KB)");
+		store = null;
+		return finalSegment;
+	}
+
+	private void checkIfGraphIsEmpty(final RoutingContext ctx, boolean allowDirection,
+			SegmentQueue graphSegments, RouteSegmentPoint pnt, VisitedSegments visited, String msg) {
+		if (allowDirection && graphSegments.isEmpty()) {
+			if (pnt.others != null) {
+				Iterator<RouteSegmentPoint> pntIterator = pnt.others.iterator();
+				while (pntIterator.hasNext()) {
+					RouteSegmentPoint next = pntIterator.next();
+					boolean visitedAlready = false;
+					if (next.getSegmentStart() > 0 && visited.containsKey(calculateRoutePointId(next.getRoad(),
+							next.getSegmentStart() - 1, false))) {
+						visitedAlready = true;
+					} else if (next.getSegmentStart() < next.getRoad().getPointsLength() - 1
+							&& visited.containsKey(calculateRoutePointId(next.getRoad(), next.getSegmentStart(), true))) {
+						visitedAlready = true;
+					}
+					pntIterator.remove();
+					if (!visitedAlready) {
+						float estimatedDistance = estimatedDistance(ctx, ctx.targetX, ctx.targetY, ctx.startX,
+								ctx.startY);
+						addToQueue(graphSegments, next.initRouteSegment(true), estimatedDistance);
+						addToQueue(graphSegments, next.initRouteSegment(false), estimatedDistance);
+						log.info("Reiterate point with new start/destination " + next.getRoad());
+						break;
+					}
+				}
+				if (graphSegments.isEmpty()) {
+					throw new IllegalArgumentException(msg);
+				}
+			}
+		}
+	}
+
+	private void addToQueue(SegmentQueue graphSegments, RouteSegment s, float estimatedDistance) {
+		if (s != null) {
+			s.distanceToEnd = estimatedDistance;
+			graphSegments.add(store.add(s.getRoad(), s.getSegmentStart(), s.getDirectionAssigned(),
+					s.distanceFromStart, s.distanceToEnd, NO_SEGMENT, s.getParentSegmentEnd()));
+		}
+	}
+
+	private void initQueuesWithStartEnd(final RoutingContext ctx, RouteSegment start, RouteSegment end,
+			SegmentQueue graphDirectSegments, SegmentQueue graphReverseSegments) {
+		RouteSegment startPos = initRouteSegment(ctx, start, true);
+		RouteSegment startNeg = initRouteSegment(ctx, start, false);
+		RouteSegment endPos = initRouteSegment(ctx, end, true);
+		RouteSegment endNeg = initRouteSegment(ctx, end, false);
+		// for start : f(start) = g(start) + h(start) = 0 + h(start) = h(start)
+		if (ctx.config.initialDirection != null) {
+			// mark here as positive for further check
+			double plusDir = start.getRoad().directionRoute(start.getSegmentStart(), true);
+			double diff = plusDir - ctx.config.initialDirection;
+			if (Math.abs(MapUtils.alignAngleDifference(diff)) <= Math.PI / 3) {
+				if (startNeg != null) {
+					startNeg.distanceFromStart += 500;
+				}
+			} else if (Math.abs(MapUtils.alignAngleDifference(diff - Math.PI)) <= Math.PI / 3) {
+				if (startPos != null) {
+					startPos.distanceFromStart += 500;
+				}
+			}
+		}
+		float estimatedDistance = estimatedDistance(ctx, ctx.targetX, ctx.targetY, ctx.startX, ctx.startY);
+		addToQueue(graphDirectSegments, startPos, estimatedDistance);
+		addToQueue(graphDirectSegments, startNeg, estimatedDistance);
+		addToQueue(graphReverseSegments, endPos, estimatedDistance);
+		addToQueue(graphReverseSegments, endNeg, estimatedDistance);
+	}
+
+	private void updateCalculationProgress(final RoutingContext ctx, SegmentQueue graphDirectSegments,
+			SegmentQueue graphReverseSegments) {
+		if (ctx.calculationProgress != null) {
+			ctx.calculationProgress.reverseSegmentQueueSize = graphReverseSegments.size();
+			ctx.calculationProgress.directSegmentQueueSize = graphDirectSegments.size();
+			if (graphDirectSegments.size() > 0 && ctx.getPlanRoadDirection() >= 0) {
+				int peek = graphDirectSegments.peek();
+				ctx.calculationProgress.distanceFromBegin = Math.max(store.getDistanceFromStart(peek),
+						ctx.calculationProgress.distanceFromBegin);
+				ctx.calculationProgress.directDistance = store.getDistanceFromStart(peek) + store.getDistanceToEnd(peek);
+			}
+			if (graphReverseSegments.size() > 0 && ctx.getPlanRoadDirection() <= 0) {
+				int peek = graphReverseSegments.peek();
+				ctx.calculationProgress.distanceFromEnd = Math.max(store.getDistanceFromStart(peek) + store.getDistanceToEnd(peek),
+						ctx.calculationProgress.distanceFromEnd);
+				ctx.calculationProgress.reverseDistance = store.getDistanceFromStart(peek) + store.getDistanceToEnd(peek);
+			}
+		}
+	}
+
+	private void processRouteSegment(final RoutingContext ctx, boolean reverseWaySearch,
+			SegmentQueue graphSegments, VisitedSegments visitedSegments,
+			int segment, VisitedSegments oppositeSegments, boolean doNotAddIntersections) throws IOException {
+		final RouteDataObject road = store.getRoad(segment);
+		boolean initDirectionAllowed = checkIfInitialMovementAllowedOnSegment(ctx, reverseWaySearch, visitedSegments, segment, road);
+		boolean directionAllowed = initDirectionAllowed;
+		if (!directionAllowed) {
+			return;
+		}
+		// Go through all point of the way and find ways to continue
+		float obstaclesTime = 0;
+		float segmentDist = 0;
+		// +/- diff from middle point
+		short segmentPoint = store.getSegmentStart(segment);
+		int previous = segment;
+		boolean dir = store.isPositive(segment);
+		// segment view is needed only to calculate turn time
+		RouteSegment segmentView = null;
+		while (directionAllowed) {
+			// mark previous interval as visited and move to next intersection
+			short prevInd = segmentPoint;
+			if (dir) {
+				segmentPoint++;
+			} else {
+				segmentPoint--;
+			}
+			if (segmentPoint < 0 || segmentPoint >= road.getPointsLength()) {
+				directionAllowed = false;
+				continue;
+			}
+			// store <segment> in order to not have unique <segment, direction> in visitedSegments
+			visitedSegments.put(calculateRoutePointId(road, dir ? segmentPoint - 1 : segmentPoint, dir),
+					previous != NO_SEGMENT ? previous : segment);
+			final int x = road.getPoint31XTile(segmentPoint);
+			final int y = road.getPoint31YTile(segmentPoint);
+			final int prevx = road.getPoint31XTile(prevInd);
+			final int prevy = road.getPoint31YTile(prevInd);
+			if (x == prevx && y == prevy) {
+				continue;
+			}
+
+			// 2. calculate point and try to load neighbor ways if they are not loaded
+			segmentDist += squareRootDist(x, y, prevx, prevy);
+
+			// 2.1 calculate possible obstacle plus time
+			double obstacle = ctx.getRouter().defineRoutingObstacle(road, segmentPoint);
+			if (obstacle < 0) {
+				directionAllowed = false;
+				continue;
+			}
+			obstaclesTime += obstacle;
+
+			boolean alreadyVisited = checkIfOppositeSegmentWasVisited(ctx, reverseWaySearch, graphSegments, segment,
+					oppositeSegments, segmentPoint, segmentDist, obstaclesTime);
+			if (alreadyVisited) {
+				directionAllowed = false;
+				continue;
+			}
+			// 3. get intersected ways
+			final RouteSegment roadNext = ctx.loadRouteSegment(x, y, ctx.config.memoryLimitation - ctx.memoryOverhead);
+			float distStartObstacles = store.getDistanceFromStart(segment)
+					+ calculateTimeWithObstacles(ctx, road, segmentDist, obstaclesTime);
+			if (ctx.precalculatedRouteDirection != null && ctx.precalculatedRouteDirection.isFollowNext()) {
+				distStartObstacles = ctx.precalculatedRouteDirection.getDeviationDistance(x, y) / ctx.getRouter().getMaxDefaultSpeed();
+			}
+			if (segmentView == null && !doNotAddIntersections) {
+				segmentView = new RouteSegment(road, store.getSegmentStart(segment));
+			}
+
+			// We don't check if there are outgoing connections
+			previous = processIntersections(ctx, graphSegments, visitedSegments, distStartObstacles,
+					segment, segmentView, segmentPoint, roadNext, reverseWaySearch, doNotAddIntersections, processFurther);
+			if (!processFurther[0]) {
+				directionAllowed = false;
+				continue;
+			}
+		}
+		if (initDirectionAllowed && ctx.visitor != null) {
+			ctx.visitor.visitSegment(store.toRouteSegment(segment), segmentPoint, true);
+		}
+	}
+
+	private long calculateRoutePointId(int segment, boolean direction) {
+		RouteDataObject road = store.getRoad(segment);
+		short segStart = store.getSegmentStart(segment);
+		if (segStart == 0 && !direction) {
+			throw new IllegalStateException("Assert failed");
+		}
+		if (segStart == road.getPointsLength() - 1 && direction) {
+			throw new IllegalStateException("Assert failed");
+		}
+		return calculateRoutePointId(road, direction ? segStart : segStart - 1, direction);
+	}
+
+	private boolean checkIfInitialMovementAllowedOnSegment(final RoutingContext ctx, boolean reverseWaySearch,
+			VisitedSegments visitedSegments, int segment, final RouteDataObject road) {
+		boolean directionAllowed;
+		int oneway = ctx.getRouter().isOneWay(road);
+		boolean positive = store.isPositive(segment);
+		// use positive direction as agreed
+		if (!reverseWaySearch) {
+			directionAllowed = positive ? oneway >= 0 : oneway <= 0;
+		} else {
+			directionAllowed = positive ? oneway <= 0 : oneway >= 0;
+		}
+		if (directionAllowed && visitedSegments.containsKey(calculateRoutePointId(segment, positive))) {
+			directionAllowed = false;
+		}
+		return directionAllowed;
+	}
+
+	private boolean checkViaRestrictions(int from, int to) {
+		if (from != NO_SEGMENT && to != NO_SEGMENT) {
+			long fid = store.getRoad(to).getId();
+			RouteDataObject fromRoad = store.getRoad(from);
+			for (int i = 0; i < fromRoad.getRestrictionLength(); i++) {
+				long id = fromRoad.getRestrictionId(i);
+				if (fid == id) {
+					int tp = fromRoad.getRestrictionType(i);
+					if (tp == MapRenderingTypes.RESTRICTION_NO_LEFT_TURN ||
+							tp == MapRenderingTypes.RESTRICTION_NO_RIGHT_TURN ||
+							tp == MapRenderingTypes.RESTRICTION_NO_STRAIGHT_ON ||
+							tp == MapRenderingTypes.RESTRICTION_NO_U_TURN) {
+						return false;
+					}
+					break;
+				}
+			}
+		}
+		return true;
+	}
+
+	private int getParentDiffId(int s) {
+		int parent = store.getParent(s);
+		while (parent != NO_SEGMENT && store.getRoad(parent).getId() == store.getRoad(s).getId()) {
+			s = parent;
+			parent = store.getParent(s);
+		}
+		return parent;
+	}
+
+	private boolean checkIfOppositeSegmentWasVisited(final RoutingContext ctx, boolean reverseWaySearch,
+			SegmentQueue graphSegments, int segment, VisitedSegments oppositeSegments,
+			int segmentPoint, float segmentDist, float obstaclesTime) {
+		RouteDataObject road = store.getRoad(segment);
+		boolean positive = store.isPositive(segment);
+		long opp = calculateRoutePointId(road, positive ? segmentPoint - 1 : segmentPoint, !positive);
+		int opposite = oppositeSegments.get(opp);
+		if (opposite != NO_SEGMENT) {
+			int to = reverseWaySearch ? getParentDiffId(segment) : getParentDiffId(opposite);
+			int from = !reverseWaySearch ? getParentDiffId(segment) : getParentDiffId(opposite);
+			if (checkViaRestrictions(from, to)) {
+				float distStartObstacles = store.getDistanceFromStart(segment)
+						+ calculateTimeWithObstacles(ctx, road, segmentDist, obstaclesTime);
+				int frs = store.addFinal(road, segmentPoint, store.getDistanceFromStart(opposite) + distStartObstacles,
+						segment, segmentPoint, reverseWaySearch, opposite);
+				graphSegments.add(frs);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean proccessRestrictions(RoutingContext ctx, int segment, RouteSegment inputNext, boolean reverseWay) {
+		if (!ctx.getRouter().restrictionsAware()) {
+			return false;
+		}
+		RouteDataObject road = store.getRoad(segment);
+		int parent = getParentDiffId(segment);
+		if (!reverseWay && road.getRestrictionLength() == 0 &&
+				(parent == NO_SEGMENT || store.getRoad(parent).getRestrictionLength() == 0)) {
+			return false;
+		}
+		ctx.segmentsToVisitPrescripted.clear();
+		ctx.segmentsToVisitNotForbidden.clear();
+		processRestriction(ctx, inputNext, reverseWay, false, road);
+		if (parent != NO_SEGMENT) {
+			processRestriction(ctx, inputNext, reverseWay, true, store.getRoad(parent));
+		}
+		return true;
+	}
+
+	private int processIntersections(RoutingContext ctx, SegmentQueue graphSegments,
+			VisitedSegments visitedSegments, float distFromStart, int segment, RouteSegment segmentView,
+			short segmentPoint, RouteSegment inputNext, boolean reverseWaySearch, boolean doNotAddIntersections,
+			boolean[] processFurther) {
+		boolean thereAreRestrictions;
+		int itself = NO_SEGMENT;
+		processFurther[0] = true;
+		Iterator<RouteSegment> nextIterator = null;
+		RouteDataObject road = store.getRoad(segment);
+		boolean positive = store.isPositive(segment);
+		if (inputNext != null && inputNext.getRoad().getId() == road.getId() && inputNext.next == null) {
+			thereAreRestrictions = false;
+		} else {
+			thereAreRestrictions = proccessRestrictions(ctx, segment, inputNext, reverseWaySearch);
+			if (thereAreRestrictions) {
+				nextIterator = ctx.segmentsToVisitPrescripted.iterator();
+			}
+		}
+		int targetEndX = reverseWaySearch ? ctx.startX : ctx.targetX;
+		int targetEndY = reverseWaySearch ? ctx.startY : ctx.targetY;
+		float distanceToEnd = h(ctx, road.getPoint31XTile(segmentPoint), road.getPoint31YTile(segmentPoint),
+				targetEndX, targetEndY);
+		// Calculate possible ways to put into priority queue
+		RouteSegment next = inputNext;
+		boolean hasNext = nextIterator == null || nextIterator.hasNext();
+		while (hasNext) {
+			if (nextIterator != null) {
+				next = nextIterator.next();
+			}
+			if (next.getSegmentStart() == segmentPoint && next.getRoad().getId() == road.id) {
+				// find segment itself (segments loaded from context are always new, so there is no previous state)
+				if (canMove(next, positive)) {
+					itself = store.add(next.getRoad(), next.getSegmentStart(), positive ? 1 : -1, distFromStart,
+							distanceToEnd, segment, segmentPoint);
+				}
+			} else if (!doNotAddIntersections) {
+				processOneRoadIntersection(ctx, graphSegments, visitedSegments, distFromStart, distanceToEnd, segment,
+						segmentView, segmentPoint, next, true);
+				processOneRoadIntersection(ctx, graphSegments, visitedSegments, distFromStart, distanceToEnd, segment,
+						segmentView, segmentPoint, next, false);
+			}
+			// iterate to next road
+			if (nextIterator == null) {
+				next = next.next;
+				hasNext = next != null;
+			} else {
+				hasNext = nextIterator.hasNext();
+			}
+		}
+		return itself;
+	}
+
+	private static boolean canMove(RouteSegment s, boolean positive) {
+		if (positive) {
+			return s.getSegmentStart() != s.getRoad().getPointsLength() - 1;
+		}
+		return s.getSegmentStart() != 0;
+	}
+
+	private void processOneRoadIntersection(RoutingContext ctx, SegmentQueue graphSegments,
+			VisitedSegments visitedSegments, float distFromStart, float distanceToEnd, int segment,
+			RouteSegment segmentView, int segmentPoint, RouteSegment next, boolean positive) {
+		if (canMove(next, positive)) {
+			RouteDataObject nextRoad = next.getRoad();
+			float obstaclesTime = (float) ctx.getRouter().calculateTurnTime(next,
+					positive ? nextRoad.getPointsLength() - 1 : 0, segmentView, segmentPoint);
+			distFromStart += obstaclesTime;
+			short nextStart = next.getSegmentStart();
+			if (!visitedSegments.containsKey(calculateRoutePointId(nextRoad, positive ? nextStart : nextStart - 1, positive))) {
+				// put additional information to recover whole route after
+				graphSegments.add(store.add(nextRoad, nextStart, positive ? 1 : -1, distFromStart, distanceToEnd,
+						segment, segmentPoint));
+			}
+		}
+	}
+}
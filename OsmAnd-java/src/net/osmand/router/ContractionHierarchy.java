@@ -0,0 +1,512 @@
+package net.osmand.router;
+
+import gnu.trove.iterator.TLongIterator;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TIntHashSet;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import net.osmand.PlatformUtil;
+import net.osmand.ResultMatcher;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteSubregion;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+import net.osmand.router.RoadGraph.AccessPoint;
+import net.osmand.router.GeneralRouter.RouteAttributeContext;
+import net.osmand.router.GeneralRouter.RouteDataObjectAttribute;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Contraction hierarchy (shortcut overlay) of the road graph of a set of obf files for one routing profile.
+ * Graph nodes are road junctions, edges are parts of roads between junctions (weighted by routing time)
+ * and shortcuts created by {@link ContractionHierarchyBuilder}. Turn restrictions and turn costs are not
+ * part of the hierarchy.
+ *
+ * Hierarchy is valid only for the same obf files and the same profile parameters it was built with,
+ * see {@link #isUpToDate(RoutingContext)}.
+ */
+public class ContractionHierarchy {
+
+	private static final Log log = PlatformUtil.getLog(ContractionHierarchy.class);
+	private static final String FILE_HEADER = "OsmAnd contraction hierarchy";
+	private static final int VERSION = 1;
+
+	static final long SHORTCUT = -1;
+
+	private final String profile;
+	private final List<String> maps;
+	// (x31 << 31) + y31 of junctions, sorted (index is node id)
+	private final long[] nodes;
+	// original edges : road id, start and end point index; shortcuts : SHORTCUT, 2 child edges
+	private final int[] edgeFrom;
+	private final int[] edgeTo;
+	private final float[] edgeCost;
+	private final long[] edgeRoad;
+	private final int[] edgeA;
+	private final int[] edgeB;
+	// edges to nodes with higher rank (for forward search)
+	private final int[] upFirst;
+	private final int[] upEdges;
+	// edges from nodes with higher rank stored at target node (for backward search)
+	private final int[] downFirst;
+	private final int[] downEdges;
+
+	ContractionHierarchy(String profile, List<String> maps, long[] nodes, int[] edgeFrom, int[] edgeTo, float[] edgeCost,
+			long[] edgeRoad, int[] edgeA, int[] edgeB, int[] upFirst, int[] upEdges, int[] downFirst, int[] downEdges) {
+		this.profile = profile;
+		this.maps = maps;
+		this.nodes = nodes;
+		this.edgeFrom = edgeFrom;
+		this.edgeTo = edgeTo;
+		this.edgeCost = edgeCost;
+		this.edgeRoad = edgeRoad;
+		this.edgeA = edgeA;
+		this.edgeB = edgeB;
+		this.upFirst = upFirst;
+		this.upEdges = upEdges;
+		this.downFirst = downFirst;
+		this.downEdges = downEdges;
+	}
+
+	/**
+	 * Profile name with parameters (avoid motorways, short way...), they change weights of the graph
+	 */
+	static String getProfileSignature(RoutingConfiguration config) {
+		StringBuilder sb = new StringBuilder(config.routerName);
+		RouteAttributeContext c = config.router.getObjContext(RouteDataObjectAttribute.ROAD_SPEED);
+		String[] keys = c.getParamKeys();
+		String[] values = c.getParamValues();
+		TreeMap<String, String> sorted = new TreeMap<String, String>();
+		for (int i = 0; i < keys.length; i++) {
+			sorted.put(keys[i], values[i]);
+		}
+		for (String k : sorted.keySet()) {
+			sb.append(";").append(k).append("=").append(sorted.get(k));
+		}
+		return sb.toString();
+	}
+
+	static List<String> getMapSignatures(BinaryMapIndexReader[] readers) throws IOException {
+		List<String> res = new ArrayList<String>();
+		for (BinaryMapIndexReader r : readers) {
+			for (RouteRegion reg : r.getRoutingIndexes()) {
+				res.add(reg.getName() + ":" + r.getDateCreated() + ":" + r.getRaf().length());
+			}
+		}
+		Collections.sort(res);
+		return res;
+	}
+
+	public String getProfile() {
+		return profile;
+	}
+
+	public List<String> getMaps() {
+		return maps;
+	}
+
+	public int getNodesCount() {
+		return nodes.length;
+	}
+
+	public int getEdgesCount() {
+		return edgeFrom.length;
+	}
+
+	/**
+	 * Checks that hierarchy was built for the same maps and profile parameters.
+	 * Impassable roads and initial direction are not supported by hierarchy.
+	 */
+	public boolean isUpToDate(RoutingContext ctx) throws IOException {
+		String p = getProfileSignature(ctx.config);
+		if (!profile.equals(p)) {
+			log.info("Contraction hierarchy is built for " + profile + " not for " + p);
+			return false;
+		}
+		List<String> m = getMapSignatures(ctx.getMaps());
+		if (!maps.equals(m)) {
+			log.info("Contraction hierarchy is built for other maps " + maps);
+			return false;
+		}
+		return ctx.config.router.getImpassableRoadIds().length == 0 && ctx.config.initialDirection == null;
+	}
+
+	public static ContractionHierarchy read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if (!FILE_HEADER.equals(in.readUTF()) || in.readInt() != VERSION) {
+				throw new IOException("Unsupported contraction hierarchy file " + file.getName());
+			}
+			String profile = in.readUTF();
+			int mapsCount = in.readInt();
+			List<String> maps = new ArrayList<String>();
+			for (int i = 0; i < mapsCount; i++) {
+				maps.add(in.readUTF());
+			}
+			long[] nodes = readLongs(in);
+			int[] edgeFrom = readInts(in);
+			int[] edgeTo = readInts(in);
+			float[] edgeCost = new float[in.readInt()];
+			for (int i = 0; i < edgeCost.length; i++) {
+				edgeCost[i] = in.readFloat();
+			}
+			long[] edgeRoad = readLongs(in);
+			int[] edgeA = readInts(in);
+			int[] edgeB = readInts(in);
+			int[] upFirst = readInts(in);
+			int[] upEdges = readInts(in);
+			int[] downFirst = readInts(in);
+			int[] downEdges = readInts(in);
+			return new ContractionHierarchy(profile, maps, nodes, edgeFrom, edgeTo, edgeCost, edgeRoad, edgeA, edgeB,
+					upFirst, upEdges, downFirst, downEdges);
+		} finally {
+			in.close();
+		}
+	}
+
+	public void write(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeUTF(FILE_HEADER);
+			out.writeInt(VERSION);
+			out.writeUTF(profile);
+			out.writeInt(maps.size());
+			for (String m : maps) {
+				out.writeUTF(m);
+			}
+			writeLongs(out, nodes);
+			writeInts(out, edgeFrom);
+			writeInts(out, edgeTo);
+			out.writeInt(edgeCost.length);
+			for (float f : edgeCost) {
+				out.writeFloat(f);
+			}
+			writeLongs(out, edgeRoad);
+			writeInts(out, edgeA);
+			writeInts(out, edgeB);
+			writeInts(out, upFirst);
+			writeInts(out, upEdges);
+			writeInts(out, downFirst);
+			writeInts(out, downEdges);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static int[] readInts(DataInputStream in) throws IOException {
+		int[] r = new int[in.readInt()];
+		for (int i = 0; i < r.length; i++) {
+			r[i] = in.readInt();
+		}
+		return r;
+	}
+
+	private static long[] readLongs(DataInputStream in) throws IOException {
+		long[] r = new long[in.readInt()];
+		for (int i = 0; i < r.length; i++) {
+			r[i] = in.readLong();
+		}
+		return r;
+	}
+
+	private static void writeInts(DataOutputStream out, int[] r) throws IOException {
+		out.writeInt(r.length);
+		for (int i : r) {
+			out.writeInt(i);
+		}
+	}
+
+	private static void writeLongs(DataOutputStream out, long[] r) throws IOException {
+		out.writeInt(r.length);
+		for (long l : r) {
+			out.writeLong(l);
+		}
+	}
+
+	/**
+	 * Finds the fastest route between junctions, some of start nodes and some of target nodes with initial costs.
+	 * @return original edges of the route in order from start to target or null if there is no route
+	 */
+	TIntArrayList searchPath(int[] startNodes, float[] startCosts, int[] targetNodes, float[] targetCosts) {
+		TIntObjectHashMap<SearchNode> forward = new TIntObjectHashMap<SearchNode>();
+		TIntObjectHashMap<SearchNode> backward = new TIntObjectHashMap<SearchNode>();
+		PriorityQueue<SearchNode> forwardQueue = new PriorityQueue<SearchNode>();
+		PriorityQueue<SearchNode> backwardQueue = new PriorityQueue<SearchNode>();
+		for (int i = 0; i < startNodes.length; i++) {
+			relax(forward, forwardQueue, startNodes[i], startCosts[i], -1);
+		}
+		for (int i = 0; i < targetNodes.length; i++) {
+			relax(backward, backwardQueue, targetNodes[i], targetCosts[i], -1);
+		}
+		float best = Float.POSITIVE_INFINITY;
+		int meeting = -1;
+		while (true) {
+			boolean forwardDone = forwardQueue.isEmpty() || forwardQueue.peek().cost >= best;
+			boolean backwardDone = backwardQueue.isEmpty() || backwardQueue.peek().cost >= best;
+			if (forwardDone && backwardDone) {
+				break;
+			}
+			boolean forwardStep = !forwardDone && (backwardDone || forwardQueue.peek().cost <= backwardQueue.peek().cost);
+			PriorityQueue<SearchNode> queue = forwardStep ? forwardQueue : backwardQueue;
+			TIntObjectHashMap<SearchNode> visited = forwardStep ? forward : backward;
+			TIntObjectHashMap<SearchNode> opposite = forwardStep ? backward : forward;
+			SearchNode n = queue.poll();
+			if (visited.get(n.node) != n) {
+				// better cost was found later
+				continue;
+			}
+			SearchNode o = opposite.get(n.node);
+			if (o != null && n.cost + o.cost < best) {
+				best = n.cost + o.cost;
+				meeting = n.node;
+			}
+			if (forwardStep) {
+				for (int i = upFirst[n.node]; i < upFirst[n.node + 1]; i++) {
+					int e = upEdges[i];
+					relax(forward, forwardQueue, edgeTo[e], n.cost + edgeCost[e], e);
+				}
+			} else {
+				for (int i = downFirst[n.node]; i < downFirst[n.node + 1]; i++) {
+					int e = downEdges[i];
+					relax(backward, backwardQueue, edgeFrom[e], n.cost + edgeCost[e], e);
+				}
+			}
+		}
+		if (meeting == -1) {
+			return null;
+		}
+		TIntArrayList path = new TIntArrayList();
+		SearchNode n = forward.get(meeting);
+		while (n.edge != -1) {
+			path.add(n.edge);
+			n = forward.get(edgeFrom[n.edge]);
+		}
+		path.reverse();
+		n = backward.get(meeting);
+		while (n.edge != -1) {
+			path.add(n.edge);
+			n = backward.get(edgeTo[n.edge]);
+		}
+		return unpack(path);
+	}
+
+	private static void relax(TIntObjectHashMap<SearchNode> visited, PriorityQueue<SearchNode> queue, int node, float cost, int edge) {
+		SearchNode n = visited.get(node);
+		if (n == null || cost < n.cost) {
+			n = new SearchNode(node, cost, edge);
+			visited.put(node, n);
+			queue.add(n);
+		}
+	}
+
+	private TIntArrayList unpack(TIntArrayList path) {
+		TIntArrayList res = new TIntArrayList();
+		TIntArrayList stack = new TIntArrayList();
+		for (int i = path.size() - 1; i >= 0; i--) {
+			stack.add(path.get(i));
+		}
+		while (!stack.isEmpty()) {
+			int e = stack.removeAt(stack.size() - 1);
+			if (edgeRoad[e] == SHORTCUT) {
+				stack.add(edgeB[e]);
+				stack.add(edgeA[e]);
+			} else {
+				res.add(e);
+			}
+		}
+		return res;
+	}
+
+	private static class SearchNode implements Comparable<SearchNode> {
+		final int node;
+		final float cost;
+		final int edge;
+
+		SearchNode(int node, float cost, int edge) {
+			this.node = node;
+			this.cost = cost;
+			this.edge = edge;
+		}
+
+		@Override
+		public int compareTo(SearchNode o) {
+			return Float.compare(cost, o.cost);
+		}
+	}
+
+	/**
+	 * Calculates route between 2 points found by {@link RoutePlannerFrontEnd#findRouteSegment(double, double, RoutingContext)}.
+	 * @return route segments (not prepared) or null if hierarchy can't be used for these points
+	 */
+	public List<RouteSegmentResult> searchRoute(RoutingContext ctx, RouteSegmentPoint start, RouteSegmentPoint end)
+			throws IOException {
+		if (start.getRoad().getId() == end.getRoad().getId()) {
+			// short route : hierarchy doesn't have parts of roads between points
+			return null;
+		}
+		BinaryRoutePlanner planner = new BinaryRoutePlanner();
+		List<AccessPoint> starts = new ArrayList<AccessPoint>();
+		RoadGraph.addAccessPoint(ctx, planner, nodes, start, true, true, starts);
+		RoadGraph.addAccessPoint(ctx, planner, nodes, start, false, true, starts);
+		List<AccessPoint> targets = new ArrayList<AccessPoint>();
+		RoadGraph.addAccessPoint(ctx, planner, nodes, end, true, false, targets);
+		RoadGraph.addAccessPoint(ctx, planner, nodes, end, false, false, targets);
+		if (starts.isEmpty() || targets.isEmpty()) {
+			return null;
+		}
+		int[] startNodes = new int[starts.size()];
+		float[] startCosts = new float[starts.size()];
+		for (int i = 0; i < starts.size(); i++) {
+			startNodes[i] = starts.get(i).node;
+			startCosts[i] = starts.get(i).cost;
+		}
+		int[] targetNodes = new int[targets.size()];
+		float[] targetCosts = new float[targets.size()];
+		for (int i = 0; i < targets.size(); i++) {
+			targetNodes[i] = targets.get(i).node;
+			targetCosts[i] = targets.get(i).cost;
+		}
+		TIntArrayList path = searchPath(startNodes, startCosts, targetNodes, targetCosts);
+		if (path == null) {
+			return null;
+		}
+		int first = path.isEmpty() ? -1 : edgeFrom[path.get(0)];
+		int last = path.isEmpty() ? -1 : edgeTo[path.get(path.size() - 1)];
+		AccessPoint s = null;
+		for (AccessPoint a : starts) {
+			if ((first == -1 || a.node == first) && (s == null || a.cost < s.cost)) {
+				s = a;
+			}
+		}
+		AccessPoint t = null;
+		for (AccessPoint a : targets) {
+			if ((last == -1 ? a.node == s.node : a.node == last) && (t == null || a.cost < t.cost)) {
+				t = a;
+			}
+		}
+		if (s == null || t == null) {
+			return null;
+		}
+		List<RouteSegmentResult> result = new ArrayList<RouteSegmentResult>();
+		addResult(result, new RouteSegmentResult(start.getRoad(), s.positive ? start.getSegmentStart() - 1
+				: start.getSegmentStart(), s.pointIndex), s.cost);
+		float routingTime = s.cost + t.cost;
+		TLongObjectHashMap<RouteDataObject> roads = loadPathRoads(ctx, path);
+		for (int i = 0; i < path.size(); i++) {
+			int e = path.get(i);
+			RouteDataObject road = roads.get(edgeRoad[e]);
+			if (road != null && !isEdgeOfRoad(road, e)) {
+				road = null;
+			}
+			if (road == null) {
+				log.warn("Road " + edgeRoad[e] + " of contraction hierarchy is not found in maps");
+				return null;
+			}
+			addResult(result, new RouteSegmentResult(road, edgeA[e], edgeB[e]), edgeCost[e]);
+			routingTime += edgeCost[e];
+		}
+		addResult(result, new RouteSegmentResult(end.getRoad(), t.pointIndex, t.positive ? end.getSegmentStart() - 1
+				: end.getSegmentStart()), t.cost);
+		ctx.routingTime += routingTime;
+		return result;
+	}
+
+	private void addResult(List<RouteSegmentResult> result, RouteSegmentResult res, float routingTime) {
+		if (res.getStartPointIndex() == res.getEndPointIndex()) {
+			return;
+		}
+		res.setRoutingTime(routingTime);
+		if (result.size() > 0) {
+			RouteSegmentResult last = result.get(result.size() - 1);
+			if (last.getObject().getId() == res.getObject().getId() && last.getEndPointIndex() == res.getStartPointIndex()
+					&& last.isForwardDirection() == res.isForwardDirection()) {
+				last.setEndPointIndex(res.getEndPointIndex());
+				last.setRoutingTime(last.getRoutingTime() + routingTime);
+				return;
+			}
+		}
+		result.add(res);
+	}
+
+	/**
+	 * Loads only roads of the route edges : route index blocks of tiles of the edges are read once for all edges
+	 * (roads are not put into routing tiles of the context).
+	 */
+	private TLongObjectHashMap<RouteDataObject> loadPathRoads(RoutingContext ctx, TIntArrayList path)
+			throws IOException {
+		final TLongObjectHashMap<RouteDataObject> roads = new TLongObjectHashMap<RouteDataObject>();
+		final TLongHashSet ids = new TLongHashSet();
+		TLongHashSet tiles = new TLongHashSet();
+		int zoomShift = 31 - ctx.config.ZOOM_TO_LOAD_TILES;
+		for (int i = 0; i < path.size(); i++) {
+			int e = path.get(i);
+			long key = nodes[edgeFrom[e]];
+			ids.add(edgeRoad[e]);
+			tiles.add(RoadGraph.getNodeKey(RoadGraph.getNodeX(key) >> zoomShift, RoadGraph.getNodeY(key) >> zoomShift));
+		}
+		for (BinaryMapIndexReader reader : ctx.getMaps()) {
+			for (RouteRegion reg : reader.getRoutingIndexes()) {
+				TIntHashSet loaded = new TIntHashSet();
+				List<RouteSubregion> toLoad = new ArrayList<RouteSubregion>();
+				TLongIterator it = tiles.iterator();
+				while (it.hasNext()) {
+					long tile = it.next();
+					int left = RoadGraph.getNodeX(tile) << zoomShift;
+					int top = RoadGraph.getNodeY(tile) << zoomShift;
+					SearchRequest<RouteDataObject> req = BinaryMapIndexReader.buildSearchRouteRequest(left,
+							left + (1 << zoomShift), top, top + (1 << zoomShift), null);
+					for (RouteSubregion sub : reader.searchRouteIndexTree(req, reg.getSubregions())) {
+						if (loaded.add(sub.filePointer)) {
+							toLoad.add(sub);
+						}
+					}
+				}
+				reader.loadRouteIndexData(toLoad, new ResultMatcher<RouteDataObject>() {
+					@Override
+					public boolean publish(RouteDataObject ro) {
+						if (ro != null && ids.contains(ro.getId())) {
+							// same road could be stored in several subregions (or maps), take the longest one
+							RouteDataObject existing = roads.get(ro.getId());
+							if (existing == null || existing.getPointsLength() < ro.getPointsLength()) {
+								roads.put(ro.getId(), ro);
+							}
+						}
+						return false;
+					}
+
+					@Override
+					public boolean isCancelled() {
+						return false;
+					}
+				});
+			}
+		}
+		return roads;
+	}
+
+	private boolean isEdgeOfRoad(RouteDataObject r, int e) {
+		long key = nodes[edgeFrom[e]];
+		return edgeA[e] < r.getPointsLength() && edgeB[e] < r.getPointsLength()
+				&& r.getPoint31XTile(edgeA[e]) == RoadGraph.getNodeX(key)
+				&& r.getPoint31YTile(edgeA[e]) == RoadGraph.getNodeY(key);
+	}
+}
@@ -0,0 +1,320 @@
+package net.osmand.router;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.router.RoadGraph.NodeHeap;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Offline preprocessing : builds {@link ContractionHierarchy} of the road graph of obf files for one routing profile.
+ * Whole graph is loaded into memory, so memory consumption is proportional to the size of road network.
+ *
+ * Nodes are contracted in order of edge difference (added shortcuts - removed edges) + number of contracted neighbours,
+ * witness search is limited by {@link #WITNESS_SEARCH_LIMIT} settled nodes (so some extra shortcuts could be added).
+ */
+public class ContractionHierarchyBuilder {
+
+	private static final Log log = PlatformUtil.getLog(ContractionHierarchyBuilder.class);
+	private static final int WITNESS_SEARCH_LIMIT = 300;
+	// smaller limit to estimate priority of node
+	private static final int SIMULATE_WITNESS_SEARCH_LIMIT = 40;
+
+	private final RoutingContext ctx;
+
+	private long[] nodes;
+	private int edgesSize = 0;
+	private int[] edgeFrom = new int[1024];
+	private int[] edgeTo = new int[1024];
+	private float[] edgeCost = new float[1024];
+	private long[] edgeRoad = new long[1024];
+	private int[] edgeA = new int[1024];
+	private int[] edgeB = new int[1024];
+
+	// contraction state
+	private TIntArrayList[] outEdges;
+	private TIntArrayList[] inEdges;
+	private boolean[] contracted;
+	private int[] rank;
+	private int[] contractedNeighbours;
+	private float[] witnessCost;
+	private TIntArrayList witnessVisited = new TIntArrayList();
+	private NodeHeap witnessQueue = new NodeHeap();
+
+	public ContractionHierarchyBuilder(RoutingConfiguration config, BinaryMapIndexReader[] maps) {
+		this.ctx = new RoutePlannerFrontEnd(false).buildRoutingContext(config, null, maps);
+	}
+
+	public ContractionHierarchy build() throws IOException {
+		long time = System.currentTimeMillis();
+		List<RouteDataObject> roads = RoadGraph.loadRoads(ctx, 0, Integer.MAX_VALUE, 0, Integer.MAX_VALUE);
+		log.info("Roads loaded " + roads.size() + " in " + (System.currentTimeMillis() - time) + " ms");
+		RoadGraph graph = RoadGraph.create(ctx, roads);
+		roads = null;
+		initNodes(graph.nodes);
+		for (int e = 0; e < graph.edgesSize; e++) {
+			addEdge(graph.edgeFrom[e], graph.edgeTo[e], graph.edgeTime[e], graph.edgeRoad[e], graph.edgeStart[e],
+					graph.edgeEnd[e]);
+		}
+		graph = null;
+		log.info("Graph created : nodes " + nodes.length + ", edges " + edgesSize);
+		contract();
+		log.info("Graph contracted : edges with shortcuts " + edgesSize + " in " + (System.currentTimeMillis() - time) + " ms");
+		return createHierarchy(ContractionHierarchy.getProfileSignature(ctx.config),
+				ContractionHierarchy.getMapSignatures(ctx.getMaps()));
+	}
+
+	void initNodes(long[] sortedNodes) {
+		this.nodes = sortedNodes;
+	}
+
+	int addEdge(int from, int to, float cost, long road, int a, int b) {
+		if (edgesSize == edgeFrom.length) {
+			int capacity = edgesSize + (edgesSize >> 1);
+			edgeFrom = Arrays.copyOf(edgeFrom, capacity);
+			edgeTo = Arrays.copyOf(edgeTo, capacity);
+			edgeCost = Arrays.copyOf(edgeCost, capacity);
+			edgeRoad = Arrays.copyOf(edgeRoad, capacity);
+			edgeA = Arrays.copyOf(edgeA, capacity);
+			edgeB = Arrays.copyOf(edgeB, capacity);
+		}
+		int e = edgesSize++;
+		edgeFrom[e] = from;
+		edgeTo[e] = to;
+		edgeCost[e] = cost;
+		edgeRoad[e] = road;
+		edgeA[e] = a;
+		edgeB[e] = b;
+		if (outEdges != null) {
+			outEdges[from].add(e);
+			inEdges[to].add(e);
+		}
+		return e;
+	}
+
+	void contract() {
+		int n = nodes.length;
+		outEdges = new TIntArrayList[n];
+		inEdges = new TIntArrayList[n];
+		for (int i = 0; i < n; i++) {
+			outEdges[i] = new TIntArrayList(4);
+			inEdges[i] = new TIntArrayList(4);
+		}
+		for (int e = 0; e < edgesSize; e++) {
+			outEdges[edgeFrom[e]].add(e);
+			inEdges[edgeTo[e]].add(e);
+		}
+		contracted = new boolean[n];
+		rank = new int[n];
+		contractedNeighbours = new int[n];
+		witnessCost = new float[n];
+		Arrays.fill(witnessCost, Float.POSITIVE_INFINITY);
+		NodeHeap queue = new NodeHeap();
+		for (int v = 0; v < n; v++) {
+			queue.add(v, calculatePriority(v));
+		}
+		int order = 0;
+		while (!queue.isEmpty()) {
+			int v = queue.poll();
+			// lazy update : priority could be changed after neighbours were contracted
+			float priority = calculatePriority(v);
+			if (!queue.isEmpty() && priority > queue.peekKey()) {
+				queue.add(v, priority);
+				continue;
+			}
+			contractNode(v, false);
+			contracted[v] = true;
+			rank[v] = order++;
+			updateNeighbours(outEdges[v], edgeTo, inEdges);
+			updateNeighbours(inEdges[v], edgeFrom, outEdges);
+			if (order % 100000 == 0) {
+				log.info("Contracted " + order + " nodes of " + n + ", edges " + edgesSize);
+			}
+		}
+		outEdges = null;
+		inEdges = null;
+		witnessCost = null;
+	}
+
+	private void updateNeighbours(TIntArrayList edges, int[] ends, TIntArrayList[] neighbourEdges) {
+		for (int i = 0; i < edges.size(); i++) {
+			int e = edges.get(i);
+			int u = ends[e];
+			if (!contracted[u]) {
+				contractedNeighbours[u]++;
+				// edges of contracted nodes are not needed anymore for contraction
+				neighbourEdges[u].remove(e);
+			}
+		}
+	}
+
+	private float calculatePriority(int v) {
+		int removed = 0;
+		for (int i = 0; i < outEdges[v].size(); i++) {
+			if (!contracted[edgeTo[outEdges[v].get(i)]]) {
+				removed++;
+			}
+		}
+		for (int i = 0; i < inEdges[v].size(); i++) {
+			if (!contracted[edgeFrom[inEdges[v].get(i)]]) {
+				removed++;
+			}
+		}
+		return contractNode(v, true) - removed + contractedNeighbours[v];
+	}
+
+	/**
+	 * Adds shortcuts u -> w for paths u -> v -> w which don't have witness path (not through v) with smaller cost
+	 * @return number of shortcuts
+	 */
+	private int contractNode(int v, boolean simulate) {
+		int shortcuts = 0;
+		TIntArrayList in = inEdges[v];
+		TIntArrayList out = outEdges[v];
+		float maxOut = 0;
+		for (int j = 0; j < out.size(); j++) {
+			int e2 = out.get(j);
+			if (!contracted[edgeTo[e2]]) {
+				maxOut = Math.max(maxOut, edgeCost[e2]);
+			}
+		}
+		for (int i = 0; i < in.size(); i++) {
+			int e1 = in.get(i);
+			int u = edgeFrom[e1];
+			if (contracted[u]) {
+				continue;
+			}
+			witnessSearch(u, v, edgeCost[e1] + maxOut, simulate ? SIMULATE_WITNESS_SEARCH_LIMIT : WITNESS_SEARCH_LIMIT);
+			for (int j = 0; j < out.size(); j++) {
+				int e2 = out.get(j);
+				int w = edgeTo[e2];
+				if (contracted[w] || w == u) {
+					continue;
+				}
+				float cost = edgeCost[e1] + edgeCost[e2];
+				if (witnessCost[w] > cost) {
+					shortcuts++;
+					if (!simulate) {
+						addEdge(u, w, cost, ContractionHierarchy.SHORTCUT, e1, e2);
+						// following witness searches could use the shortcut
+						if (witnessCost[w] == Float.POSITIVE_INFINITY) {
+							witnessVisited.add(w);
+						}
+						witnessCost[w] = cost;
+					}
+				}
+			}
+			clearWitnessSearch();
+		}
+		return shortcuts;
+	}
+
+	private void witnessSearch(int source, int excluded, float maxCost, int limit) {
+		witnessQueue.clear();
+		witnessCost[source] = 0;
+		witnessVisited.add(source);
+		witnessQueue.add(source, 0);
+		int settled = 0;
+		while (!witnessQueue.isEmpty() && settled < limit) {
+			float cost = witnessQueue.peekKey();
+			int node = witnessQueue.poll();
+			if (cost > witnessCost[node]) {
+				continue;
+			}
+			if (cost > maxCost) {
+				break;
+			}
+			settled++;
+			TIntArrayList out = outEdges[node];
+			for (int i = 0; i < out.size(); i++) {
+				int e = out.get(i);
+				int to = edgeTo[e];
+				if (contracted[to] || to == excluded) {
+					continue;
+				}
+				float c = cost + edgeCost[e];
+				if (c < witnessCost[to]) {
+					if (witnessCost[to] == Float.POSITIVE_INFINITY) {
+						witnessVisited.add(to);
+					}
+					witnessCost[to] = c;
+					witnessQueue.add(to, c);
+				}
+			}
+		}
+	}
+
+	private void clearWitnessSearch() {
+		for (int i = 0; i < witnessVisited.size(); i++) {
+			witnessCost[witnessVisited.get(i)] = Float.POSITIVE_INFINITY;
+		}
+		witnessVisited.clear();
+	}
+
+	ContractionHierarchy createHierarchy(String profile, List<String> maps) {
+		int n = nodes.length;
+		int[] upFirst = new int[n + 1];
+		int[] downFirst = new int[n + 1];
+		for (int e = 0; e < edgesSize; e++) {
+			if (rank[edgeFrom[e]] < rank[edgeTo[e]]) {
+				upFirst[edgeFrom[e] + 1]++;
+			} else {
+				downFirst[edgeTo[e] + 1]++;
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			upFirst[i + 1] += upFirst[i];
+			downFirst[i + 1] += downFirst[i];
+		}
+		int[] upEdges = new int[upFirst[n]];
+		int[] downEdges = new int[downFirst[n]];
+		int[] upPos = Arrays.copyOf(upFirst, n);
+		int[] downPos = Arrays.copyOf(downFirst, n);
+		for (int e = 0; e < edgesSize; e++) {
+			if (rank[edgeFrom[e]] < rank[edgeTo[e]]) {
+				upEdges[upPos[edgeFrom[e]]++] = e;
+			} else {
+				downEdges[downPos[edgeTo[e]]++] = e;
+			}
+		}
+		return new ContractionHierarchy(profile, maps, nodes, Arrays.copyOf(edgeFrom, edgesSize),
+				Arrays.copyOf(edgeTo, edgesSize), Arrays.copyOf(edgeCost, edgesSize), Arrays.copyOf(edgeRoad, edgesSize),
+				Arrays.copyOf(edgeA, edgesSize), Arrays.copyOf(edgeB, edgesSize), upFirst, upEdges, downFirst, downEdges);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.out.println("Usage : <output file> <routing profile> <obf file or folder>...");
+			return;
+		}
+		List<BinaryMapIndexReader> readers = new ArrayList<BinaryMapIndexReader>();
+		for (int i = 2; i < args.length; i++) {
+			File f = new File(args[i]);
+			File[] files = f.isDirectory() ? f.listFiles() : new File[] { f };
+			for (File obf : files) {
+				if (obf.getName().endsWith(".obf")) {
+					readers.add(new BinaryMapIndexReader(new RandomAccessFile(obf, "r")));
+				}
+			}
+		}
+		RoutingConfiguration config = RoutingConfiguration.getDefault().build(args[1], RoutingConfiguration.DEFAULT_MEMORY_LIMIT);
+		ContractionHierarchyBuilder builder = new ContractionHierarchyBuilder(config,
+				readers.toArray(new BinaryMapIndexReader[readers.size()]));
+		ContractionHierarchy ch = builder.build();
+		ch.write(new File(args[0]));
+		System.out.println("Contraction hierarchy is written : nodes " + ch.getNodesCount() + ", edges " + ch.getEdgesCount());
+		for (BinaryMapIndexReader r : readers) {
+			r.close();
+		}
+	}
+}
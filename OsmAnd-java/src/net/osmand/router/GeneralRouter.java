@@ -4,8 +4,8 @@ import gnu.trove.set.hash.TLongHashSet;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -13,6 +13,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteTypeRule;
@@ -24,6 +26,8 @@ import net.osmand.util.MapUtils;
 public class GeneralRouter implements VehicleRouter {
 	
 	private static final float CAR_SHORTEST_DEFAULT_SPEED = 55/3.6f;
+	// limit of evaluated type combinations cached by one attribute context and region
+	private static final int MAX_EVALUATED_TYPES = 1 << 14;
 	public static final String USE_SHORTEST_WAY = "short_way";
 	public static final String AVOID_FERRIES = "avoid_ferries";
 	public static final String AVOID_TOLL = "avoid_toll";
@@ -40,7 +44,8 @@ public class GeneralRouter implements VehicleRouter {
 	private final ArrayList<Object> ruleToValue;
 	private boolean shortestRoute;
 	
-	private Map<RouteRegion, Map<Integer, Integer>> regionConvert = new LinkedHashMap<RouteRegion, Map<Integer,Integer>>();
+	// region type id -> universal rule id + 1 (0 - not registered yet)
+	private Map<RouteRegion, int[]> regionConvert = new LinkedHashMap<RouteRegion, int[]>();
 	
 	// cached values
 	private boolean restrictionsAware = true;
@@ -259,6 +264,23 @@ public class GeneralRouter implements VehicleRouter {
 	public GeneralRouter build(Map<String, String> params) {
 		return new GeneralRouter(this, params);
 	}
+	
+	/**
+	 * Router with the same rules, parameters and impassable roads but with own cache of evaluated rules,
+	 * so routers of different threads don't fill one cache
+	 */
+	public GeneralRouter copy() {
+		ParameterContext pc = objectAttributes[0].paramContext;
+		GeneralRouter r = new GeneralRouter(this, pc == null ? new LinkedHashMap<String, String>() : pc.vars);
+		for (int i = 0; i < objectAttributes.length; i++) {
+			// rules are already selected by parameters
+			r.objectAttributes[i] = r.new RouteAttributeContext(objectAttributes[i]);
+		}
+		r.shortestRoute = shortestRoute;
+		r.maxDefaultSpeed = maxDefaultSpeed;
+		r.addImpassableRoads(impassableRoads);
+		return r;
+	}
 
 	@Override
 	public boolean restrictionsAware() {
@@ -438,6 +460,11 @@ public class GeneralRouter implements VehicleRouter {
 		
 		public RouteAttributeContext(){
 		}
+		
+		private RouteAttributeContext(RouteAttributeContext original) {
+			paramContext = original.paramContext;
+			rules.addAll(original.rules);
+		}
 		public RouteAttributeContext(RouteAttributeContext original, Map<String, String> params){
 			if (params != null) {
 				paramContext = new ParameterContext();
@@ -468,8 +495,46 @@ public class GeneralRouter implements VehicleRouter {
 			return paramContext.vars.values().toArray(new String[paramContext.vars.size()]);
 		}
 		
+		// results of rules evaluation don't change for the same types of the region (parameters are fixed).
+		// Cache is own for every router, lookups don't take locks and only evaluation of new types is done under
+		// lock of universal rules (region types conversion registers rules shared by routers of the same parent)
+		private final ConcurrentHashMap<RouteRegion, EvaluatedTable> evaluated =
+				new ConcurrentHashMap<RouteRegion, EvaluatedTable>();
+		private volatile EvaluatedTable lastEvaluated;
+
 		private Object evaluate(RouteDataObject ro) {
-			return evaluate(convert(ro.region, ro.types));
+			return evaluate(ro.region, ro.types);
+		}
+
+		private Object evaluate(RouteRegion region, int[] types) {
+			EvaluatedTable table = lastEvaluated;
+			if (table == null || table.region != region) {
+				table = evaluated.get(region);
+				if (table == null) {
+					table = new EvaluatedTable(region);
+					EvaluatedTable existing = evaluated.putIfAbsent(region, table);
+					if (existing != null) {
+						table = existing;
+					}
+				}
+				lastEvaluated = table;
+			}
+			long hash = typesHash(types);
+			EvaluatedTypes e = table.get(hash, types);
+			if (e != null) {
+				return e.value;
+			}
+			Object o;
+			synchronized (universalRules) {
+				o = evaluate(convert(region, types));
+			}
+			table.put(hash, types.clone(), o);
+			return o;
+		}
+
+		private void clearEvaluated() {
+			evaluated.clear();
+			lastEvaluated = null;
 		}
 
 		public void printRules(PrintStream out) {
@@ -479,6 +544,7 @@ public class GeneralRouter implements VehicleRouter {
 		}
 
 		public RouteAttributeEvalRule registerNewRule(String selectValue, String selectType) {
+			clearEvaluated();
 			RouteAttributeEvalRule ev = new RouteAttributeEvalRule();
 			ev.registerSelectValue(selectValue, selectType);
 			rules.add(ev);	
@@ -486,6 +552,8 @@ public class GeneralRouter implements VehicleRouter {
 		}
 		
 		public RouteAttributeEvalRule getLastRule() {
+			// rule could be modified
+			clearEvaluated();
 			return rules.get(rules.size() - 1);
 		}
 
@@ -528,7 +596,7 @@ public class GeneralRouter implements VehicleRouter {
 		}
 		
 		public int evaluateInt(RouteRegion region, int[] types, int defValue) {
-			Object o = evaluate(convert(region, types));
+			Object o = evaluate(region, types);
 			if(!(o instanceof Number)){
 				return defValue;
 			}
@@ -544,7 +612,7 @@ public class GeneralRouter implements VehicleRouter {
 		}
 		
 		public float evaluateFloat(RouteRegion region, int[] types, float defValue) {
-			Object o = evaluate(convert(region, types));
+			Object o = evaluate(region, types);
 			if(!(o instanceof Number)) {
 				return defValue;
 			}
@@ -553,17 +621,18 @@ public class GeneralRouter implements VehicleRouter {
 		
 		private BitSet convert(RouteRegion reg, int[] types) {
 			BitSet b = new BitSet(universalRules.size());
-			Map<Integer, Integer> map = regionConvert.get(reg);
-			if(map == null){
-				map = new HashMap<Integer, Integer>();
-				regionConvert.put(reg, map);
-			}
+			int[] map = regionConvert.get(reg);
 			for(int k = 0; k < types.length; k++) {
-				Integer nid = map.get(types[k]);
-				if(nid == null){
-					RouteTypeRule r = reg.quickGetEncodingRule(types[k]);
+				int type = types[k];
+				if(map == null || type >= map.length) {
+					map = map == null ? new int[Math.max(type + 1, 64)] : Arrays.copyOf(map, Math.max(type + 1, map.length * 2));
+					regionConvert.put(reg, map);
+				}
+				int nid = map[type] - 1;
+				if(nid < 0){
+					RouteTypeRule r = reg.quickGetEncodingRule(type);
 					nid = registerTagValueAttribute(r.getTag(), r.getValue());
-					map.put(types[k], nid);
+					map[type] = nid + 1;
 				}
 				b.set(nid);
 			}
@@ -571,6 +640,89 @@ public class GeneralRouter implements VehicleRouter {
 		}
 	}
 
+	private static long typesHash(int[] types) {
+		long h = 0xcbf29ce484222325L;
+		for (int t : types) {
+			h = (h ^ t) * 0x100000001b3L;
+		}
+		return h;
+	}
+
+	/**
+	 * Evaluated value of one types combination (immutable list of combinations of the same bucket)
+	 */
+	private static class EvaluatedTypes {
+		final long hash;
+		final int[] types;
+		final Object value;
+		final EvaluatedTypes next;
+
+		EvaluatedTypes(long hash, int[] types, Object value, EvaluatedTypes next) {
+			this.hash = hash;
+			this.types = types;
+			this.value = value;
+			this.next = next;
+		}
+	}
+
+	/**
+	 * Evaluated types combinations of one region. Readers don't lock : buckets hold immutable lists and
+	 * table grows by publishing new buckets, writers are serialized.
+	 */
+	private static class EvaluatedTable {
+		private static final int INITIAL_BUCKETS = 64;
+
+		final RouteRegion region;
+		private volatile AtomicReferenceArray<EvaluatedTypes> buckets =
+				new AtomicReferenceArray<EvaluatedTypes>(INITIAL_BUCKETS);
+		private int size;
+
+		EvaluatedTable(RouteRegion region) {
+			this.region = region;
+		}
+
+		EvaluatedTypes get(long hash, int[] types) {
+			AtomicReferenceArray<EvaluatedTypes> b = buckets;
+			EvaluatedTypes e = b.get(bucket(hash, b.length()));
+			while (e != null) {
+				if (e.hash == hash && Arrays.equals(e.types, types)) {
+					return e;
+				}
+				e = e.next;
+			}
+			return null;
+		}
+
+		synchronized void put(long hash, int[] types, Object value) {
+			if (get(hash, types) != null) {
+				// evaluated by other thread
+				return;
+			}
+			AtomicReferenceArray<EvaluatedTypes> b = buckets;
+			if (size >= MAX_EVALUATED_TYPES) {
+				b = new AtomicReferenceArray<EvaluatedTypes>(INITIAL_BUCKETS);
+				size = 0;
+			} else if (size >= b.length()) {
+				AtomicReferenceArray<EvaluatedTypes> nb = new AtomicReferenceArray<EvaluatedTypes>(b.length() * 2);
+				for (int i = 0; i < b.length(); i++) {
+					for (EvaluatedTypes e = b.get(i); e != null; e = e.next) {
+						int k = bucket(e.hash, nb.length());
+						nb.set(k, new EvaluatedTypes(e.hash, e.types, e.value, nb.get(k)));
+					}
+				}
+				b = nb;
+			}
+			int k = bucket(hash, b.length());
+			b.set(k, new EvaluatedTypes(hash, types, value, b.get(k)));
+			size++;
+			buckets = b;
+		}
+
+		private static int bucket(long hash, int length) {
+			return (int) (hash ^ (hash >>> 32)) & (length - 1);
+		}
+	}
+
 	public class RouteAttributeExpression {
 		public static final int LESS_EXPRESSION = 1;
 		public static final int GREAT_EXPRESSION = 2;
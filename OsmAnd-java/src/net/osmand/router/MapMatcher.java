@@ -0,0 +1,575 @@
+package net.osmand.router;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.data.LatLon;
+import net.osmand.data.QuadPoint;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+import net.osmand.router.RoutePlannerFrontEnd.RouteCalculationMode;
+import net.osmand.util.MapUtils;
+import net.osmand.util.ParallelTasks;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Matching of GPS traces to roads (hidden Markov model) : candidates of every point are its projections on the roads
+ * near it, transition between candidates of consecutive points is more probable when the distance along roads is
+ * close to the distance between the points. The most probable sequence of candidates is found by Viterbi algorithm.
+ *
+ * Roads are read through tiles of {@link RoutingContext} which are kept between traces. Every thread uses its own
+ * context with own cursors of the readers and own copy of the router, so traces could be matched in parallel by
+ * {@link #matchTraces(ExecutorService, List)}. If some reader is not memory mapped, one context is shared
+ * and traces are matched in turn.
+ */
+public class MapMatcher {
+
+	private static final Log log = PlatformUtil.getLog(MapMatcher.class);
+	// distance along roads between candidates is searched up to this factor of the distance between points
+	private static final float MAX_DETOUR = 2;
+
+	private final RoutingConfiguration config;
+	private final BinaryMapIndexReader[] maps;
+	private final RoutingContext sharedContext;
+	private final ThreadLocal<RoutingContext> contexts = new ThreadLocal<RoutingContext>();
+
+	// meters
+	private float gpsSigma = 10;
+	private float transitionBeta = 20;
+	private float candidateRadius = 50;
+	private float minPointDistance = 20;
+	private int maxCandidates = 8;
+
+	public static class MatchedPoint {
+		private final int pointIndex;
+		private final RouteDataObject road;
+		private final int segmentStart;
+		private final int x31;
+		private final int y31;
+		private final float distance;
+
+		MatchedPoint(int pointIndex, RouteDataObject road, int segmentStart, int x31, int y31, float distance) {
+			this.pointIndex = pointIndex;
+			this.road = road;
+			this.segmentStart = segmentStart;
+			this.x31 = x31;
+			this.y31 = y31;
+			this.distance = distance;
+		}
+
+		/**
+		 * Index of the point in the trace
+		 */
+		public int getPointIndex() {
+			return pointIndex;
+		}
+
+		public RouteDataObject getRoad() {
+			return road;
+		}
+
+		/**
+		 * Point is matched to the segment between points segmentStart - 1 and segmentStart of the road
+		 */
+		public int getSegmentStart() {
+			return segmentStart;
+		}
+
+		public int getX31() {
+			return x31;
+		}
+
+		public int getY31() {
+			return y31;
+		}
+
+		public LatLon getLocation() {
+			return new LatLon(MapUtils.get31LatitudeY(y31), MapUtils.get31LongitudeX(x31));
+		}
+
+		/**
+		 * Distance in meters between the GPS point and the matched point
+		 */
+		public float getDistance() {
+			return distance;
+		}
+	}
+
+	public MapMatcher(RoutingConfiguration config, BinaryMapIndexReader[] maps) {
+		this.config = config;
+		this.maps = maps;
+		boolean mapped = true;
+		for (BinaryMapIndexReader r : maps) {
+			mapped &= r.isMemoryMapped();
+		}
+		sharedContext = mapped ? null : new RoutingContext(config, null, maps, RouteCalculationMode.NORMAL);
+	}
+
+	/**
+	 * Standard deviation of GPS measurements (meters)
+	 */
+	public void setGpsSigma(float gpsSigma) {
+		this.gpsSigma = gpsSigma;
+	}
+
+	/**
+	 * Difference between route distance and distance of the points (meters) for which probability of transition
+	 * is e times less
+	 */
+	public void setTransitionBeta(float transitionBeta) {
+		this.transitionBeta = transitionBeta;
+	}
+
+	public void setCandidateRadius(float candidateRadius) {
+		this.candidateRadius = candidateRadius;
+	}
+
+	/**
+	 * Points closer than the distance to the previous matched point are not used by the model
+	 * (they are projected on the road of the previous point)
+	 */
+	public void setMinPointDistance(float minPointDistance) {
+		this.minPointDistance = minPointDistance;
+	}
+
+	public void setMaxCandidates(int maxCandidates) {
+		this.maxCandidates = maxCandidates;
+	}
+
+	private RoutingContext getContext() throws IOException {
+		if (sharedContext != null) {
+			return sharedContext;
+		}
+		RoutingContext ctx = contexts.get();
+		if (ctx == null) {
+			BinaryMapIndexReader[] cursors = new BinaryMapIndexReader[maps.length];
+			for (int i = 0; i < maps.length; i++) {
+				cursors[i] = new BinaryMapIndexReader(maps[i].getRaf(), maps[i]);
+			}
+			ctx = new RoutingContext(config.copy(), null, cursors, RouteCalculationMode.NORMAL);
+			contexts.set(ctx);
+		}
+		return ctx;
+	}
+
+	/**
+	 * Session for matching points of one trace one by one, it uses context of the thread where it was created
+	 */
+	public MatchingSession newSession() throws IOException {
+		return new MatchingSession(getContext());
+	}
+
+	/**
+	 * @return matched point for every point of the trace (null if point is not matched)
+	 */
+	public List<MatchedPoint> matchTrace(List<LatLon> trace) throws IOException {
+		MatchingSession session = newSession();
+		List<MatchedPoint> res = new ArrayList<MatchedPoint>(trace.size());
+		for (LatLon l : trace) {
+			res.addAll(session.addPoint(l.getLatitude(), l.getLongitude()));
+		}
+		res.addAll(session.finish());
+		return res;
+	}
+
+	/**
+	 * Matches traces on threads of the executor
+	 */
+	public List<List<MatchedPoint>> matchTraces(ExecutorService executor, List<List<LatLon>> traces)
+			throws IOException, InterruptedException {
+		long time = System.currentTimeMillis();
+		List<Future<List<MatchedPoint>>> futures = new ArrayList<Future<List<MatchedPoint>>>();
+		for (final List<LatLon> trace : traces) {
+			futures.add(executor.submit(new Callable<List<MatchedPoint>>() {
+				@Override
+				public List<MatchedPoint> call() throws Exception {
+					return matchTrace(trace);
+				}
+			}));
+		}
+		List<List<MatchedPoint>> res = ParallelTasks.waitAll(futures, null);
+		log.info("Map matching of " + traces.size() + " traces is done in " + (System.currentTimeMillis() - time)
+				+ " ms");
+		return res;
+	}
+
+	/**
+	 * Point used by the model with its candidates and points following it which are not used
+	 */
+	private static class Step {
+		final int pointIndex;
+		final int x31;
+		final int y31;
+		final List<RouteSegmentPoint> candidates;
+		final double[] scores;
+		final int[] parents;
+		// points following the step : index, x, y and 1 if point should be projected on the matched road
+		final List<int[]> followers = new ArrayList<int[]>();
+
+		Step(int pointIndex, int x31, int y31, List<RouteSegmentPoint> candidates) {
+			this.pointIndex = pointIndex;
+			this.x31 = x31;
+			this.y31 = y31;
+			this.candidates = candidates;
+			this.scores = new double[candidates.size()];
+			this.parents = new int[candidates.size()];
+			Arrays.fill(parents, -1);
+		}
+	}
+
+	/**
+	 * Point of the road reached by the route distance search
+	 */
+	private static class Position {
+		final RouteDataObject road;
+		final int point;
+		float distance;
+
+		Position(RouteDataObject road, int point, float distance) {
+			this.road = road;
+			this.point = point;
+			this.distance = distance;
+		}
+	}
+
+	/**
+	 * Online Viterbi decoding : points are returned as soon as all probable paths pass through the same candidate
+	 * before them. Session is not thread safe.
+	 */
+	public class MatchingSession {
+		private final RoutingContext ctx;
+		private final BinaryRoutePlanner planner = new BinaryRoutePlanner();
+		private final List<Step> steps = new ArrayList<Step>();
+		private int pointsCount;
+
+		private final PriorityQueue<Position> queue = new PriorityQueue<Position>(64, new Comparator<Position>() {
+			@Override
+			public int compare(Position o1, Position o2) {
+				return Float.compare(o1.distance, o2.distance);
+			}
+		});
+		private final TLongObjectHashMap<Position> visited = new TLongObjectHashMap<Position>();
+
+		MatchingSession(RoutingContext ctx) {
+			this.ctx = ctx;
+		}
+
+		/**
+		 * @return points of the trace which matching is final now, in order of adding (null for points which could
+		 * not be matched)
+		 */
+		public List<MatchedPoint> addPoint(double lat, double lon) {
+			int index = pointsCount++;
+			int x31 = MapUtils.get31TileNumberX(lon);
+			int y31 = MapUtils.get31TileNumberY(lat);
+			Step last = steps.isEmpty() ? null : steps.get(steps.size() - 1);
+			if (last != null && MapUtils.squareRootDist31(last.x31, last.y31, x31, y31) < minPointDistance) {
+				last.followers.add(new int[] { index, x31, y31, 1 });
+				return Collections.emptyList();
+			}
+			List<RouteSegmentPoint> candidates;
+			synchronized (ctx) {
+				candidates = findCandidates(x31, y31);
+			}
+			if (candidates.isEmpty()) {
+				if (last == null) {
+					return Collections.<MatchedPoint> singletonList(null);
+				}
+				last.followers.add(new int[] { index, x31, y31, 0 });
+				return Collections.emptyList();
+			}
+			Step step = new Step(index, x31, y31, candidates);
+			for (int j = 0; j < candidates.size(); j++) {
+				step.scores[j] = emission(candidates.get(j));
+			}
+			if (last == null) {
+				steps.add(step);
+				return Collections.emptyList();
+			}
+			boolean connected;
+			synchronized (ctx) {
+				connected = calculateTransitions(last, step);
+			}
+			if (!connected) {
+				// route between points is not found, trace is matched as 2 separate parts
+				List<MatchedPoint> res = finish();
+				for (int j = 0; j < candidates.size(); j++) {
+					step.scores[j] = emission(candidates.get(j));
+				}
+				steps.add(step);
+				return res;
+			}
+			steps.add(step);
+			return decodeConverged();
+		}
+
+		/**
+		 * @return all points which are not returned yet
+		 */
+		public List<MatchedPoint> finish() {
+			List<MatchedPoint> res = new ArrayList<MatchedPoint>();
+			if (steps.isEmpty()) {
+				return res;
+			}
+			Step last = steps.get(steps.size() - 1);
+			int best = 0;
+			for (int j = 1; j < last.scores.length; j++) {
+				if (last.scores[j] > last.scores[best]) {
+					best = j;
+				}
+			}
+			decode(steps.size() - 1, best, res);
+			return res;
+		}
+
+		private double emission(RouteSegmentPoint c) {
+			// dist is square of the distance
+			return -0.5 * c.dist / (gpsSigma * gpsSigma);
+		}
+
+		/**
+		 * Finds the last step where all candidates of the last step have the same ancestor and returns points
+		 * up to that step
+		 */
+		private List<MatchedPoint> decodeConverged() {
+			int last = steps.size() - 1;
+			boolean[] alive = new boolean[steps.get(last).scores.length];
+			for (int j = 0; j < alive.length; j++) {
+				alive[j] = steps.get(last).scores[j] != Double.NEGATIVE_INFINITY;
+			}
+			for (int s = last; s > 0; s--) {
+				Step step = steps.get(s);
+				boolean[] parents = new boolean[steps.get(s - 1).scores.length];
+				int count = 0;
+				int single = -1;
+				for (int j = 0; j < alive.length; j++) {
+					if (alive[j] && !parents[step.parents[j]]) {
+						parents[step.parents[j]] = true;
+						single = step.parents[j];
+						count++;
+					}
+				}
+				if (count == 1) {
+					List<MatchedPoint> res = new ArrayList<MatchedPoint>();
+					decode(s - 1, single, res);
+					return res;
+				}
+				alive = parents;
+			}
+			return Collections.emptyList();
+		}
+
+		/**
+		 * Adds points of steps 0..s (candidate of step s is given) to the result and removes the steps
+		 */
+		private void decode(int s, int candidate, List<MatchedPoint> res) {
+			int[] chosen = new int[s + 1];
+			chosen[s] = candidate;
+			for (int i = s; i > 0; i--) {
+				chosen[i - 1] = steps.get(i).parents[chosen[i]];
+			}
+			for (int i = 0; i <= s; i++) {
+				Step step = steps.get(i);
+				RouteSegmentPoint c = step.candidates.get(chosen[i]);
+				res.add(new MatchedPoint(step.pointIndex, c.getRoad(), c.getSegmentStart(), c.preciseX, c.preciseY,
+						(float) Math.sqrt(c.dist)));
+				for (int[] f : step.followers) {
+					if (f[3] == 0) {
+						res.add(null);
+					} else {
+						RouteSegmentPoint p = project(c.getRoad(), f[1], f[2]);
+						res.add(new MatchedPoint(f[0], p.getRoad(), p.getSegmentStart(), p.preciseX, p.preciseY,
+								(float) Math.sqrt(p.dist)));
+					}
+				}
+			}
+			steps.subList(0, s + 1).clear();
+		}
+
+		private List<RouteSegmentPoint> findCandidates(int x31, int y31) {
+			List<RouteDataObject> roads = new ArrayList<RouteDataObject>();
+			ctx.loadTileData(x31, y31, 17, roads);
+			double maxDist = candidateRadius * candidateRadius;
+			List<RouteSegmentPoint> res = new ArrayList<RouteSegmentPoint>();
+			for (RouteDataObject r : roads) {
+				if (r.getPointsLength() > 1 && ctx.getRouter().acceptLine(r)) {
+					RouteSegmentPoint p = project(r, x31, y31);
+					if (p.dist <= maxDist) {
+						res.add(p);
+					}
+				}
+			}
+			Collections.sort(res, new Comparator<RouteSegmentPoint>() {
+				@Override
+				public int compare(RouteSegmentPoint o1, RouteSegmentPoint o2) {
+					return Double.compare(o1.dist, o2.dist);
+				}
+			});
+			if (res.size() > maxCandidates) {
+				res = new ArrayList<RouteSegmentPoint>(res.subList(0, maxCandidates));
+			}
+			return res;
+		}
+
+		/**
+		 * Nearest projection of the point on the road (dist is square of the distance as in
+		 * {@link RoutePlannerFrontEnd#findRouteSegment(double, double, RoutingContext)})
+		 */
+		private RouteSegmentPoint project(RouteDataObject r, int x31, int y31) {
+			RouteSegmentPoint road = null;
+			for (int j = 1; j < r.getPointsLength(); j++) {
+				QuadPoint pr = MapUtils.getProjectionPoint31(x31, y31, r.getPoint31XTile(j - 1),
+						r.getPoint31YTile(j - 1), r.getPoint31XTile(j), r.getPoint31YTile(j));
+				double dist = MapUtils.squareDist31TileMetric((int) pr.x, (int) pr.y, x31, y31);
+				if (road == null || dist < road.dist) {
+					road = new RouteSegmentPoint(r, j, dist);
+					road.preciseX = (int) pr.x;
+					road.preciseY = (int) pr.y;
+				}
+			}
+			return road;
+		}
+
+		/**
+		 * Calculates scores of candidates of the step
+		 * @return false if no candidate could be reached from the previous step
+		 */
+		private boolean calculateTransitions(Step prev, Step step) {
+			double pointsDistance = MapUtils.squareRootDist31(prev.x31, prev.y31, step.x31, step.y31);
+			float maxDistance = (float) (pointsDistance * MAX_DETOUR + 2 * candidateRadius);
+			double[] scores = new double[step.scores.length];
+			Arrays.fill(scores, Double.NEGATIVE_INFINITY);
+			float[] routeDistances = new float[step.candidates.size()];
+			for (int i = 0; i < prev.candidates.size(); i++) {
+				if (prev.scores[i] == Double.NEGATIVE_INFINITY) {
+					continue;
+				}
+				RouteSegmentPoint from = prev.candidates.get(i);
+				searchRouteDistances(from, step.candidates, maxDistance, routeDistances);
+				for (int j = 0; j < routeDistances.length; j++) {
+					float[] direct = RoadGraph.calculateDirectRoute(ctx, planner, from, step.candidates.get(j));
+					if (direct != null) {
+						routeDistances[j] = Math.min(routeDistances[j], direct[1]);
+					}
+					if (routeDistances[j] <= maxDistance) {
+						double score = prev.scores[i] - Math.abs(routeDistances[j] - pointsDistance) / transitionBeta;
+						if (score > scores[j]) {
+							scores[j] = score;
+							step.parents[j] = i;
+						}
+					}
+				}
+			}
+			boolean connected = false;
+			for (int j = 0; j < scores.length; j++) {
+				if (scores[j] != Double.NEGATIVE_INFINITY) {
+					step.scores[j] += scores[j];
+					connected = true;
+				} else {
+					step.scores[j] = Double.NEGATIVE_INFINITY;
+				}
+			}
+			return connected;
+		}
+
+		/**
+		 * Dijkstra search by distance along roads (oneway roads are respected) from the candidate up to maxDistance,
+		 * candidates are reached through the ends of their segments.
+		 */
+		private void searchRouteDistances(RouteSegmentPoint from, List<RouteSegmentPoint> targets, float maxDistance,
+				float[] res) {
+			Arrays.fill(res, Float.POSITIVE_INFINITY);
+			queue.clear();
+			visited.clear();
+			RouteDataObject road = from.getRoad();
+			int oneway = ctx.getRouter().isOneWay(road);
+			int s = from.getSegmentStart();
+			if (oneway >= 0) {
+				relax(road, s, (float) BinaryRoutePlanner.squareRootDist(from.preciseX, from.preciseY,
+						road.getPoint31XTile(s), road.getPoint31YTile(s)));
+			}
+			if (oneway <= 0) {
+				relax(road, s - 1, (float) BinaryRoutePlanner.squareRootDist(from.preciseX, from.preciseY,
+						road.getPoint31XTile(s - 1), road.getPoint31YTile(s - 1)));
+			}
+			int targetsLeft = targets.size();
+			while (!queue.isEmpty() && targetsLeft > 0) {
+				Position p = queue.poll();
+				if (p.distance > maxDistance) {
+					break;
+				}
+				if (visited.get(getPositionId(p.road, p.point)) != p) {
+					continue;
+				}
+				int x = p.road.getPoint31XTile(p.point);
+				int y = p.road.getPoint31YTile(p.point);
+				for (int j = 0; j < targets.size(); j++) {
+					RouteSegmentPoint t = targets.get(j);
+					if (t.getRoad().getId() != p.road.getId()) {
+						continue;
+					}
+					int ts = t.getSegmentStart();
+					RouteDataObject tr = t.getRoad();
+					int toneway = ctx.getRouter().isOneWay(tr);
+					boolean segmentStart = tr.getPoint31XTile(ts - 1) == x && tr.getPoint31YTile(ts - 1) == y;
+					boolean segmentEnd = tr.getPoint31XTile(ts) == x && tr.getPoint31YTile(ts) == y;
+					if ((segmentStart && toneway >= 0) || (segmentEnd && toneway <= 0)) {
+						float d = p.distance + (float) BinaryRoutePlanner.squareRootDist(x, y, t.preciseX, t.preciseY);
+						if (res[j] == Float.POSITIVE_INFINITY) {
+							targetsLeft--;
+						}
+						res[j] = Math.min(res[j], d);
+					}
+				}
+				int roneway = ctx.getRouter().isOneWay(p.road);
+				if (roneway >= 0 && p.point + 1 < p.road.getPointsLength()) {
+					relax(p.road, p.point + 1, p.distance + segmentDistance(p.road, p.point, p.point + 1));
+				}
+				if (roneway <= 0 && p.point > 0) {
+					relax(p.road, p.point - 1, p.distance + segmentDistance(p.road, p.point, p.point - 1));
+				}
+				RouteSegment segment = ctx.loadRouteSegment(x, y, config.memoryLimitation);
+				while (segment != null) {
+					if (segment.getRoad().getId() != p.road.getId()) {
+						relax(segment.getRoad(), segment.getSegmentStart(), p.distance);
+					}
+					segment = segment.getNext();
+				}
+			}
+		}
+
+		private float segmentDistance(RouteDataObject road, int from, int to) {
+			return (float) BinaryRoutePlanner.squareRootDist(road.getPoint31XTile(from), road.getPoint31YTile(from),
+					road.getPoint31XTile(to), road.getPoint31YTile(to));
+		}
+
+		private void relax(RouteDataObject road, int point, float distance) {
+			long id = getPositionId(road, point);
+			Position p = visited.get(id);
+			if (p == null || distance < p.distance) {
+				// positions in the queue are not changed, better one replaces the old one in visited
+				p = new Position(road, point, distance);
+				visited.put(id, p);
+				queue.add(p);
+			}
+		}
+	}
+
+	private static long getPositionId(RouteDataObject road, int point) {
+		return (road.getId() << 10) + point;
+	}
+}
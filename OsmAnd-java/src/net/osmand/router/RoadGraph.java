@@ -0,0 +1,499 @@
+package net.osmand.router;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.osmand.ResultMatcher;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteSubregion;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+
+/**
+ * Road graph of junctions : nodes are points shared by several roads (or visited twice by one road) and ends of roads,
+ * edges are parts of roads between junctions with routing time and distance for one routing profile.
+ * Graph is not changed after creation, so it could be searched from several threads at once.
+ */
+class RoadGraph {
+
+	final long[] nodes;
+	final int edgesSize;
+	final int[] edgeFrom;
+	final int[] edgeTo;
+	final float[] edgeTime;
+	final float[] edgeDistance;
+	final long[] edgeRoad;
+	// point indexes of the road
+	final int[] edgeStart;
+	final int[] edgeEnd;
+	// outgoing edges of node i are outEdges[outFirst[i]] .. outEdges[outFirst[i + 1] - 1]
+	private final int[] outFirst;
+	private final int[] outEdges;
+
+	private RoadGraph(long[] nodes, EdgeList edges) {
+		this.nodes = nodes;
+		this.edgesSize = edges.size;
+		this.edgeFrom = Arrays.copyOf(edges.from, edgesSize);
+		this.edgeTo = Arrays.copyOf(edges.to, edgesSize);
+		this.edgeTime = Arrays.copyOf(edges.time, edgesSize);
+		this.edgeDistance = Arrays.copyOf(edges.distance, edgesSize);
+		this.edgeRoad = Arrays.copyOf(edges.road, edgesSize);
+		this.edgeStart = Arrays.copyOf(edges.start, edgesSize);
+		this.edgeEnd = Arrays.copyOf(edges.end, edgesSize);
+		int n = nodes.length;
+		outFirst = new int[n + 1];
+		for (int e = 0; e < edgesSize; e++) {
+			outFirst[edgeFrom[e] + 1]++;
+		}
+		for (int i = 0; i < n; i++) {
+			outFirst[i + 1] += outFirst[i];
+		}
+		outEdges = new int[edgesSize];
+		int[] pos = Arrays.copyOf(outFirst, n);
+		for (int e = 0; e < edgesSize; e++) {
+			outEdges[pos[edgeFrom[e]]++] = e;
+		}
+	}
+
+	static long getNodeKey(int x31, int y31) {
+		return (((long) x31) << 31) + (long) y31;
+	}
+
+	static int getNodeX(long key) {
+		return (int) (key >> 31);
+	}
+
+	static int getNodeY(long key) {
+		return (int) (key & ((1L << 31) - 1));
+	}
+
+	static int getNode(long[] nodes, int x31, int y31) {
+		int i = Arrays.binarySearch(nodes, getNodeKey(x31, y31));
+		return i < 0 ? -1 : i;
+	}
+
+	int getNodesCount() {
+		return nodes.length;
+	}
+
+	/**
+	 * Loads all roads (accepted by router) of subregions intersecting the area directly from the maps of the context,
+	 * roads are not put into routing tiles of the context.
+	 */
+	static List<RouteDataObject> loadRoads(final RoutingContext ctx, int left, int right, int top, int bottom)
+			throws IOException {
+		return loadRoads(ctx, left, right, top, bottom, 0);
+	}
+
+	/**
+	 * Same as {@link #loadRoads(RoutingContext, int, int, int, int)} but subregions are read one by one and loading
+	 * stops with {@link IllegalStateException} as soon as estimated size of loaded roads exceeds memory limit
+	 * (0 - no limit).
+	 */
+	static List<RouteDataObject> loadRoads(final RoutingContext ctx, int left, int right, int top, int bottom,
+			long memoryLimit) throws IOException {
+		final TLongObjectHashMap<RouteDataObject> roads = new TLongObjectHashMap<RouteDataObject>();
+		final long[] size = new long[1];
+		ResultMatcher<RouteDataObject> matcher = new ResultMatcher<RouteDataObject>() {
+			@Override
+			public boolean publish(RouteDataObject ro) {
+				if (ro != null && ro.getPointsLength() > 1 && ctx.getRouter().acceptLine(ro)) {
+					// same road could be stored in several subregions (or maps), take the longest one
+					RouteDataObject existing = roads.get(ro.getId());
+					if (existing == null || existing.getPointsLength() < ro.getPointsLength()) {
+						roads.put(ro.getId(), ro);
+						size[0] += RoutingContext.getEstimatedSize(ro)
+								- (existing == null ? 0 : RoutingContext.getEstimatedSize(existing));
+					}
+				}
+				return false;
+			}
+
+			@Override
+			public boolean isCancelled() {
+				return false;
+			}
+		};
+		List<RouteSubregion> chunk = new ArrayList<RouteSubregion>(1);
+		for (BinaryMapIndexReader reader : ctx.getMaps()) {
+			for (RouteRegion reg : reader.getRoutingIndexes()) {
+				SearchRequest<RouteDataObject> req = BinaryMapIndexReader.buildSearchRouteRequest(left, right, top,
+						bottom, null);
+				List<RouteSubregion> subregions = reader.searchRouteIndexTree(req, reg.getSubregions());
+				for (RouteSubregion sub : subregions) {
+					chunk.clear();
+					chunk.add(sub);
+					reader.loadRouteIndexData(chunk, matcher);
+					if (memoryLimit > 0 && size[0] > memoryLimit) {
+						throw new IllegalStateException("There is no enough memory " + memoryLimit / (1 << 20)
+								+ " Mb to load " + roads.size() + " roads of the area");
+					}
+				}
+			}
+		}
+		return new ArrayList<RouteDataObject>(roads.valueCollection());
+	}
+
+	static RoadGraph create(RoutingContext ctx, List<RouteDataObject> roads) {
+		long[] nodes = createNodes(roads);
+		EdgeList edges = new EdgeList();
+		BinaryRoutePlanner planner = new BinaryRoutePlanner();
+		for (RouteDataObject road : roads) {
+			createRoadEdges(ctx, planner, nodes, road, edges);
+		}
+		return new RoadGraph(nodes, edges);
+	}
+
+	private static long[] createNodes(List<RouteDataObject> roads) {
+		TLongArrayList points = new TLongArrayList();
+		for (RouteDataObject road : roads) {
+			int last = road.getPointsLength() - 1;
+			for (int i = 0; i <= last; i++) {
+				points.add(getNodeKey(road.getPoint31XTile(i), road.getPoint31YTile(i)));
+			}
+			points.add(getNodeKey(road.getPoint31XTile(0), road.getPoint31YTile(0)));
+			points.add(getNodeKey(road.getPoint31XTile(last), road.getPoint31YTile(last)));
+		}
+		points.sort();
+		TLongArrayList junctions = new TLongArrayList();
+		for (int i = 1; i < points.size(); i++) {
+			long p = points.get(i);
+			if (p == points.get(i - 1) && (junctions.isEmpty() || junctions.get(junctions.size() - 1) != p)) {
+				junctions.add(p);
+			}
+		}
+		return junctions.toArray();
+	}
+
+	private static void createRoadEdges(RoutingContext ctx, BinaryRoutePlanner planner, long[] nodes,
+			RouteDataObject road, EdgeList edges) {
+		int oneway = ctx.getRouter().isOneWay(road);
+		int prev = -1;
+		int prevNode = -1;
+		for (int i = 0; i < road.getPointsLength(); i++) {
+			int node = getNode(nodes, road.getPoint31XTile(i), road.getPoint31YTile(i));
+			if (node == -1) {
+				continue;
+			}
+			if (prevNode != -1 && prevNode != node) {
+				float distance = calculateRoadDistance(road, prev, i);
+				if (oneway >= 0) {
+					float time = calculateRoadTime(ctx, planner, road, prev, i, distance);
+					if (time >= 0) {
+						edges.add(prevNode, node, time, distance, road.getId(), prev, i);
+					}
+				}
+				if (oneway <= 0) {
+					float time = calculateRoadTime(ctx, planner, road, i, prev, distance);
+					if (time >= 0) {
+						edges.add(node, prevNode, time, distance, road.getId(), i, prev);
+					}
+				}
+			}
+			prev = i;
+			prevNode = node;
+		}
+	}
+
+	private static float calculateRoadDistance(RouteDataObject road, int from, int to) {
+		float dist = 0;
+		for (int i = from; i < to; i++) {
+			dist += BinaryRoutePlanner.squareRootDist(road.getPoint31XTile(i), road.getPoint31YTile(i),
+					road.getPoint31XTile(i + 1), road.getPoint31YTile(i + 1));
+		}
+		return dist;
+	}
+
+	/**
+	 * Routing time along the road as it is calculated by {@link BinaryRoutePlanner}, -1 if road is not passable
+	 */
+	private static float calculateRoadTime(RoutingContext ctx, BinaryRoutePlanner planner, RouteDataObject road,
+			int from, int to, float distance) {
+		int step = from < to ? 1 : -1;
+		float obstaclesTime = 0;
+		for (int i = from; i != to; i += step) {
+			int next = i + step;
+			if (road.getPoint31XTile(next) == road.getPoint31XTile(i) && road.getPoint31YTile(next) == road.getPoint31YTile(i)) {
+				continue;
+			}
+			float obstacle = ctx.getRouter().defineRoutingObstacle(road, next);
+			if (obstacle < 0) {
+				return -1;
+			}
+			obstaclesTime += obstacle;
+		}
+		return planner.calculateTimeWithObstacles(ctx, road, distance, obstaclesTime);
+	}
+
+	private static class EdgeList {
+		int size = 0;
+		int[] from = new int[1024];
+		int[] to = new int[1024];
+		float[] time = new float[1024];
+		float[] distance = new float[1024];
+		long[] road = new long[1024];
+		int[] start = new int[1024];
+		int[] end = new int[1024];
+
+		void add(int f, int t, float tm, float dist, long r, int a, int b) {
+			if (size == from.length) {
+				int capacity = size + (size >> 1);
+				from = Arrays.copyOf(from, capacity);
+				to = Arrays.copyOf(to, capacity);
+				time = Arrays.copyOf(time, capacity);
+				distance = Arrays.copyOf(distance, capacity);
+				road = Arrays.copyOf(road, capacity);
+				start = Arrays.copyOf(start, capacity);
+				end = Arrays.copyOf(end, capacity);
+			}
+			from[size] = f;
+			to[size] = t;
+			time[size] = tm;
+			distance[size] = dist;
+			road[size] = r;
+			start[size] = a;
+			end[size] = b;
+			size++;
+		}
+	}
+
+	/**
+	 * Nearest junction on the road of the point in one direction with time and distance to get from the point to it
+	 * (or from it to the point)
+	 */
+	static class AccessPoint {
+		int node;
+		int pointIndex;
+		float cost;
+		float distance;
+		// direction of movement along the road
+		boolean positive;
+	}
+
+	/**
+	 * Finds nearest junction on the road of the point (in one direction) and adds it to the list.
+	 * @param start true if we move from the point, false if we move to the point
+	 */
+	static void addAccessPoint(RoutingContext ctx, BinaryRoutePlanner planner, long[] nodes, RouteSegmentPoint pnt,
+			boolean positive, boolean start, List<AccessPoint> res) {
+		RouteDataObject road = pnt.getRoad();
+		int oneway = ctx.getRouter().isOneWay(road);
+		// from start we move away from the point, to the end we move towards it
+		boolean movePositive = start ? positive : !positive;
+		if ((movePositive && oneway < 0) || (!movePositive && oneway > 0)) {
+			return;
+		}
+		int px = pnt.preciseX;
+		int py = pnt.preciseY;
+		float dist = 0;
+		float obstacles = 0;
+		int i = positive ? pnt.getSegmentStart() : pnt.getSegmentStart() - 1;
+		while (i >= 0 && i < road.getPointsLength()) {
+			int x = road.getPoint31XTile(i);
+			int y = road.getPoint31YTile(i);
+			dist += BinaryRoutePlanner.squareRootDist(px, py, x, y);
+			px = x;
+			py = y;
+			double obstacle = ctx.getRouter().defineRoutingObstacle(road, i);
+			if (obstacle < 0) {
+				return;
+			}
+			obstacles += obstacle;
+			int node = getNode(nodes, x, y);
+			if (node != -1) {
+				AccessPoint a = new AccessPoint();
+				a.node = node;
+				a.pointIndex = i;
+				a.positive = positive;
+				a.distance = dist;
+				a.cost = planner.calculateTimeWithObstacles(ctx, road, dist, obstacles);
+				res.add(a);
+				return;
+			}
+			i += positive ? 1 : -1;
+		}
+	}
+
+	/**
+	 * Route between 2 points of the same road which doesn't pass any junction
+	 * (obstacles between points are not taken into account).
+	 * @return {time, distance} or null if points are on different roads or road is oneway in other direction
+	 */
+	static float[] calculateDirectRoute(RoutingContext ctx, BinaryRoutePlanner planner, RouteSegmentPoint s,
+			RouteSegmentPoint t) {
+		RouteDataObject road = s.getRoad();
+		if (road.getId() != t.getRoad().getId()) {
+			return null;
+		}
+		int js = s.getSegmentStart();
+		int jt = t.getSegmentStart();
+		boolean positive;
+		if (js == jt) {
+			int bx = road.getPoint31XTile(js - 1);
+			int by = road.getPoint31YTile(js - 1);
+			positive = BinaryRoutePlanner.squareRootDist(bx, by, s.preciseX, s.preciseY) <= BinaryRoutePlanner
+					.squareRootDist(bx, by, t.preciseX, t.preciseY);
+		} else {
+			positive = js < jt;
+		}
+		int oneway = ctx.getRouter().isOneWay(road);
+		if ((positive && oneway < 0) || (!positive && oneway > 0)) {
+			return null;
+		}
+		float dist;
+		if (js == jt) {
+			dist = (float) BinaryRoutePlanner.squareRootDist(s.preciseX, s.preciseY, t.preciseX, t.preciseY);
+		} else {
+			int first = positive ? js : js - 1;
+			int last = positive ? jt - 1 : jt;
+			dist = (float) BinaryRoutePlanner.squareRootDist(s.preciseX, s.preciseY, road.getPoint31XTile(first),
+					road.getPoint31YTile(first));
+			dist += calculateRoadDistance(road, Math.min(first, last), Math.max(first, last));
+			dist += BinaryRoutePlanner.squareRootDist(road.getPoint31XTile(last), road.getPoint31YTile(last),
+					t.preciseX, t.preciseY);
+		}
+		return new float[] { planner.calculateTimeWithObstacles(ctx, road, dist, 0), dist };
+	}
+
+	/**
+	 * Dijkstra search from several start nodes to all nodes of the graph by time.
+	 * Every search keeps its own state, so one instance should be used by one thread.
+	 */
+	class OneToManySearch {
+		final float[] time;
+		final float[] distance;
+		private final boolean[] settled;
+		private final TIntArrayList visited = new TIntArrayList();
+		private final NodeHeap queue = new NodeHeap();
+
+		OneToManySearch() {
+			time = new float[nodes.length];
+			distance = new float[nodes.length];
+			settled = new boolean[nodes.length];
+			Arrays.fill(time, Float.POSITIVE_INFINITY);
+		}
+
+		/**
+		 * Search stops when all target nodes are settled (time and distance of other nodes could be not final).
+		 * @param targets nodes which should be reached, targetsCount - number of true values
+		 */
+		void search(int[] startNodes, float[] startTimes, float[] startDistances, boolean[] targets, int targetsCount) {
+			clear();
+			for (int i = 0; i < startNodes.length; i++) {
+				relax(startNodes[i], startTimes[i], startDistances[i]);
+			}
+			int left = targetsCount;
+			while (!queue.isEmpty() && left > 0) {
+				float cost = queue.peekKey();
+				int node = queue.poll();
+				if (settled[node] || cost > time[node]) {
+					continue;
+				}
+				settled[node] = true;
+				if (targets[node]) {
+					left--;
+				}
+				for (int i = outFirst[node]; i < outFirst[node + 1]; i++) {
+					int e = outEdges[i];
+					relax(edgeTo[e], cost + edgeTime[e], distance[node] + edgeDistance[e]);
+				}
+			}
+		}
+
+		private void relax(int node, float t, float d) {
+			if (t < time[node]) {
+				if (time[node] == Float.POSITIVE_INFINITY) {
+					visited.add(node);
+				}
+				time[node] = t;
+				distance[node] = d;
+				queue.add(node, t);
+			}
+		}
+
+		private void clear() {
+			for (int i = 0; i < visited.size(); i++) {
+				int node = visited.get(i);
+				time[node] = Float.POSITIVE_INFINITY;
+				settled[node] = false;
+			}
+			visited.clear();
+			queue.clear();
+		}
+	}
+
+	/**
+	 * Binary min heap of nodes with float keys (node could be added several times)
+	 */
+	static class NodeHeap {
+		private int[] heapNodes = new int[64];
+		private float[] keys = new float[64];
+		private int size = 0;
+
+		void add(int node, float key) {
+			if (size == heapNodes.length) {
+				heapNodes = Arrays.copyOf(heapNodes, size * 2);
+				keys = Arrays.copyOf(keys, size * 2);
+			}
+			int k = size++;
+			while (k > 0) {
+				int p = (k - 1) >>> 1;
+				if (keys[p] <= key) {
+					break;
+				}
+				heapNodes[k] = heapNodes[p];
+				keys[k] = keys[p];
+				k = p;
+			}
+			heapNodes[k] = node;
+			keys[k] = key;
+		}
+
+		float peekKey() {
+			return keys[0];
+		}
+
+		int poll() {
+			int result = heapNodes[0];
+			int s = --size;
+			if (s > 0) {
+				int node = heapNodes[s];
+				float key = keys[s];
+				int k = 0;
+				int half = s >>> 1;
+				while (k < half) {
+					int child = (k << 1) + 1;
+					int right = child + 1;
+					if (right < s && keys[right] < keys[child]) {
+						child = right;
+					}
+					if (key <= keys[child]) {
+						break;
+					}
+					heapNodes[k] = heapNodes[child];
+					keys[k] = keys[child];
+					k = child;
+				}
+				heapNodes[k] = node;
+				keys[k] = key;
+			}
+			return result;
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		void clear() {
+			size = 0;
+		}
+	}
+}
@@ -0,0 +1,218 @@
+package net.osmand.router;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+import net.osmand.router.RoadGraph.AccessPoint;
+import net.osmand.router.RoadGraph.OneToManySearch;
+import net.osmand.util.ParallelTasks;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Routing time (seconds) and distance (meters) of the fastest routes from every source point to every target point.
+ * Unreachable pairs (or points which are not found on roads) have {@link Float#POSITIVE_INFINITY} values.
+ */
+public class RouteMatrix {
+
+	private static final Log log = PlatformUtil.getLog(RouteMatrix.class);
+	// roads are loaded in the area of points extended by quarter of its size (not more than ~40 km at equator)
+	// and this margin (~5 km at equator)
+	private static final int AREA_MARGIN_31 = 1 << 18;
+	private static final int AREA_MAX_EXTENSION_31 = 1 << 21;
+
+	private final float[][] times;
+	private final float[][] distances;
+
+	RouteMatrix(int sources, int targets) {
+		times = new float[sources][targets];
+		distances = new float[sources][targets];
+		for (int i = 0; i < sources; i++) {
+			Arrays.fill(times[i], Float.POSITIVE_INFINITY);
+			Arrays.fill(distances[i], Float.POSITIVE_INFINITY);
+		}
+	}
+
+	public int getSourcesCount() {
+		return times.length;
+	}
+
+	public int getTargetsCount() {
+		return times.length == 0 ? 0 : times[0].length;
+	}
+
+	public float getTime(int source, int target) {
+		return times[source][target];
+	}
+
+	public float getDistance(int source, int target) {
+		return distances[source][target];
+	}
+
+	public boolean isReachable(int source, int target) {
+		return times[source][target] != Float.POSITIVE_INFINITY;
+	}
+
+	public float[][] getTimes() {
+		return times;
+	}
+
+	public float[][] getDistances() {
+		return distances;
+	}
+
+	/**
+	 * Matrix of costs for {@link net.osmand.TspAnt} and {@link net.osmand.TspHeldKarp},
+	 * unreachable pairs get cost bigger than sum of all reachable ones.
+	 */
+	public double[][] getCostMatrix(boolean time) {
+		float[][] m = time ? times : distances;
+		double max = 0;
+		for (float[] row : m) {
+			for (float c : row) {
+				if (c != Float.POSITIVE_INFINITY) {
+					max += c;
+				}
+			}
+		}
+		double[][] res = new double[m.length][];
+		for (int i = 0; i < m.length; i++) {
+			res[i] = new double[m[i].length];
+			for (int j = 0; j < m[i].length; j++) {
+				res[i][j] = m[i][j] == Float.POSITIVE_INFINITY ? max + 1 : m[i][j];
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Loads road graph of the area around all points once and runs one-to-many search from every source,
+	 * sources are distributed between threads of executor. Points should be found on roads by the calling thread
+	 * (null for points which are not found).
+	 * @throws IllegalStateException if roads of the area don't fit into memory limitation of the routing config
+	 */
+	static RouteMatrix calculate(final RoutingContext ctx, final List<RouteSegmentPoint> sources,
+			final List<RouteSegmentPoint> targets, ExecutorService executor, int threads) throws IOException,
+			InterruptedException {
+		final RouteMatrix matrix = new RouteMatrix(sources.size(), targets.size());
+		int left = Integer.MAX_VALUE, right = 0, top = Integer.MAX_VALUE, bottom = 0;
+		List<RouteSegmentPoint> all = new ArrayList<RouteSegmentPoint>(sources);
+		all.addAll(targets);
+		for (RouteSegmentPoint p : all) {
+			if (p != null) {
+				left = Math.min(left, p.preciseX);
+				right = Math.max(right, p.preciseX);
+				top = Math.min(top, p.preciseY);
+				bottom = Math.max(bottom, p.preciseY);
+			}
+		}
+		if (left > right) {
+			return matrix;
+		}
+		long time = System.currentTimeMillis();
+		int mx = Math.min((right - left) / 4, AREA_MAX_EXTENSION_31) + AREA_MARGIN_31;
+		int my = Math.min((bottom - top) / 4, AREA_MAX_EXTENSION_31) + AREA_MARGIN_31;
+		// graph (arrays of edges and nodes) is smaller than roads, so roads could take all memory of the context
+		List<RouteDataObject> roads = RoadGraph.loadRoads(ctx, Math.max(0, left - mx), (int) Math.min(Integer.MAX_VALUE,
+				(long) right + mx), Math.max(0, top - my), (int) Math.min(Integer.MAX_VALUE, (long) bottom + my),
+				ctx.config.memoryLimitation);
+		final RoadGraph graph = RoadGraph.create(ctx, roads);
+		roads = null;
+		log.info("Route matrix graph : nodes " + graph.getNodesCount() + ", edges " + graph.edgesSize + " loaded in "
+				+ (System.currentTimeMillis() - time) + " ms");
+
+		final BinaryRoutePlanner planner = new BinaryRoutePlanner();
+		final List<List<AccessPoint>> sourceAccess = new ArrayList<List<AccessPoint>>();
+		for (RouteSegmentPoint p : sources) {
+			List<AccessPoint> l = new ArrayList<AccessPoint>();
+			if (p != null) {
+				RoadGraph.addAccessPoint(ctx, planner, graph.nodes, p, true, true, l);
+				RoadGraph.addAccessPoint(ctx, planner, graph.nodes, p, false, true, l);
+			}
+			sourceAccess.add(l);
+		}
+		final List<List<AccessPoint>> targetAccess = new ArrayList<List<AccessPoint>>();
+		final boolean[] targetNodes = new boolean[graph.getNodesCount()];
+		int targetsCount = 0;
+		for (RouteSegmentPoint p : targets) {
+			List<AccessPoint> l = new ArrayList<AccessPoint>();
+			if (p != null) {
+				RoadGraph.addAccessPoint(ctx, planner, graph.nodes, p, true, false, l);
+				RoadGraph.addAccessPoint(ctx, planner, graph.nodes, p, false, false, l);
+			}
+			for (AccessPoint a : l) {
+				if (!targetNodes[a.node]) {
+					targetNodes[a.node] = true;
+					targetsCount++;
+				}
+			}
+			targetAccess.add(l);
+		}
+		// access points and direct routes use router of the context, so they are calculated before threads start
+		for (int i = 0; i < sources.size(); i++) {
+			for (int j = 0; j < targets.size(); j++) {
+				if (sources.get(i) != null && targets.get(j) != null) {
+					float[] direct = RoadGraph.calculateDirectRoute(ctx, planner, sources.get(i), targets.get(j));
+					if (direct != null) {
+						matrix.times[i][j] = direct[0];
+						matrix.distances[i][j] = direct[1];
+					}
+				}
+			}
+		}
+
+		final AtomicInteger nextSource = new AtomicInteger();
+		final int allTargets = targetsCount;
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int k = 0; k < Math.min(threads, sources.size()); k++) {
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					OneToManySearch search = null;
+					int i;
+					while ((i = nextSource.getAndIncrement()) < sources.size()) {
+						List<AccessPoint> starts = sourceAccess.get(i);
+						if (starts.isEmpty()) {
+							continue;
+						}
+						if (search == null) {
+							search = graph.new OneToManySearch();
+						}
+						int[] startNodes = new int[starts.size()];
+						float[] startTimes = new float[starts.size()];
+						float[] startDistances = new float[starts.size()];
+						for (int s = 0; s < starts.size(); s++) {
+							startNodes[s] = starts.get(s).node;
+							startTimes[s] = starts.get(s).cost;
+							startDistances[s] = starts.get(s).distance;
+						}
+						search.search(startNodes, startTimes, startDistances, targetNodes, allTargets);
+						for (int j = 0; j < targetAccess.size(); j++) {
+							for (AccessPoint a : targetAccess.get(j)) {
+								float t = search.time[a.node] + a.cost;
+								if (t < matrix.times[i][j]) {
+									matrix.times[i][j] = t;
+									matrix.distances[i][j] = search.distance[a.node] + a.distance;
+								}
+							}
+						}
+					}
+					return null;
+				}
+			}));
+		}
+		ParallelTasks.waitAll(futures, null);
+		log.info("Route matrix " + sources.size() + "x" + targets.size() + " is calculated in "
+				+ (System.currentTimeMillis() - time) + " ms");
+		return matrix;
+	}
+}
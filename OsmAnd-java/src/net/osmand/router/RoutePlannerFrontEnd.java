@@ -7,6 +7,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import net.osmand.NativeLibrary;
 import net.osmand.PlatformUtil;
@@ -18,6 +19,7 @@ import net.osmand.data.LatLon;
 import net.osmand.data.QuadPoint;
 import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
 import net.osmand.util.MapUtils;
+import net.osmand.util.ParallelTasks;
 
 import org.apache.commons.logging.Log;
 
@@ -96,6 +98,35 @@ public class RoutePlannerFrontEnd {
 	}
 	
 	
+	/**
+	 * Calculates routing times and distances from every source to every target (for example to order
+	 * intermediate points by {@link net.osmand.TspAnt} with real road costs).
+	 * Road graph of the area is loaded once and one-to-many searches from sources run in parallel threads,
+	 * loading fails with {@link IllegalStateException} if roads of the area exceed memory limitation of the config.
+	 */
+	public RouteMatrix calculateRouteMatrix(final RoutingContext ctx, List<LatLon> sources, List<LatLon> targets,
+			int threads) throws IOException, InterruptedException {
+		ExecutorService executor = ParallelTasks.newDaemonThreadPool(threads, "Route matrix");
+		try {
+			return calculateRouteMatrix(ctx, sources, targets, executor, threads);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public RouteMatrix calculateRouteMatrix(final RoutingContext ctx, List<LatLon> sources, List<LatLon> targets,
+			ExecutorService executor, int threads) throws IOException, InterruptedException {
+		List<RouteSegmentPoint> sourcePoints = new ArrayList<RouteSegmentPoint>();
+		for (LatLon l : sources) {
+			sourcePoints.add(findRouteSegment(l.getLatitude(), l.getLongitude(), ctx));
+		}
+		List<RouteSegmentPoint> targetPoints = new ArrayList<RouteSegmentPoint>();
+		for (LatLon l : targets) {
+			targetPoints.add(findRouteSegment(l.getLatitude(), l.getLongitude(), ctx));
+		}
+		return RouteMatrix.calculate(ctx, sourcePoints, targetPoints, executor, threads);
+	}
+	
 	public List<RouteSegmentResult> searchRoute(final RoutingContext ctx, LatLon start, LatLon end, List<LatLon> intermediates) throws IOException, InterruptedException {
 		return searchRoute(ctx, start, end, intermediates, null);
 	}
@@ -115,6 +146,12 @@ public class RoutePlannerFrontEnd {
 				b = l;
 			}
 		}
+		if(ctx.contractionHierarchy != null && routeDirection == null && ctx.nativeLib == null) {
+			List<RouteSegmentResult> res = searchRouteWithHierarchy(ctx, start, end, intermediates);
+			if(res != null) {
+				return res;
+			}
+		}
 		if(ctx.calculationMode == RouteCalculationMode.COMPLEX && routeDirection == null
 				&& maxDistance > ctx.config.DEVIATION_RADIUS * 6) {
 			RoutingContext nctx = buildRoutingContext(ctx.config, ctx.nativeLib, ctx.getMaps(), RouteCalculationMode.BASE);
@@ -161,6 +198,48 @@ public class RoutePlannerFrontEnd {
 		return res;
 	}
 
+	/**
+	 * Calculates route using contraction hierarchy, returns null if hierarchy is not up to date or can't be used
+	 * for these points (so the route should be calculated by planner)
+	 */
+	private List<RouteSegmentResult> searchRouteWithHierarchy(final RoutingContext ctx, LatLon start, LatLon end,
+			List<LatLon> intermediates) throws IOException {
+		ContractionHierarchy ch = ctx.contractionHierarchy;
+		if(!ch.isUpToDate(ctx)) {
+			log.info("Contraction hierarchy is not up to date, use route planner");
+			return null;
+		}
+		List<LatLon> all = new ArrayList<LatLon>();
+		all.add(start);
+		if(intermediates != null) {
+			all.addAll(intermediates);
+		}
+		all.add(end);
+		int indexNotFound = 0;
+		List<RouteSegmentPoint> points = new ArrayList<RouteSegmentPoint>();
+		for(LatLon l : all) {
+			if(!addSegment(l, ctx, indexNotFound++, points)) {
+				return null;
+			}
+		}
+		long time = System.nanoTime();
+		ctx.routingTime = 0;
+		List<RouteSegmentResult> res = new ArrayList<RouteSegmentResult>();
+		for (int i = 0; i < points.size() - 1; i++) {
+			List<RouteSegmentResult> leg = ch.searchRoute(ctx, points.get(i), points.get(i + 1));
+			if (leg == null) {
+				log.info("Contraction hierarchy route is not found for " + all.get(i) + " " + all.get(i + 1));
+				return null;
+			}
+			res.addAll(leg);
+		}
+		log.info("Contraction hierarchy route is calculated in " + (System.nanoTime() - time) / 1e6 + " ms");
+		new RouteResultPreparation().prepareResult(ctx, res);
+		makeStartEndPointsPrecise(res, start, end, intermediates);
+		new RouteResultPreparation().printResults(ctx, start, end, res);
+		return res;
+	}
+
 	protected void makeStartEndPointsPrecise(List<RouteSegmentResult> res, LatLon start, LatLon end, List<LatLon> intermediates) {
 		if (res.size() > 0) {
 			updateResult(res.get(0), start, true);
@@ -294,6 +373,8 @@ public class RoutePlannerFrontEnd {
 			// Split into 2 methods to let GC work in between
 			if(useOldVersion) {
 				new BinaryRoutePlannerOld().searchRouteInternal(ctx, start, end);
+			} else if(ctx.config.compactSegmentStore) {
+				ctx.finalRouteSegment =  new CompactBinaryRoutePlanner().searchRouteInternal(ctx, start, end);
 			} else {
 				ctx.finalRouteSegment =  new BinaryRoutePlanner().searchRouteInternal(ctx, start, end);
 			}
@@ -0,0 +1,349 @@
+package net.osmand.router;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.util.Arrays;
+
+import net.osmand.binary.RouteDataObject;
+import net.osmand.router.BinaryRoutePlanner.FinalRouteSegment;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+
+/**
+ * Search state of A* kept in parallel primitive arrays instead of {@link RouteSegment} objects.
+ * Every segment put into the queue (or stored as visited) gets an int index,
+ * parent pointers are indexes as well, so the search doesn't allocate objects per segment.
+ * Segments are never removed till the end of the search.
+ */
+class RouteSegmentStore {
+
+	public static final int NO_SEGMENT = -1;
+
+	private static final byte POSITIVE = 1;
+	private static final byte NEGATIVE = 2;
+	private static final byte FINAL = 4;
+	private static final byte REVERSE_WAY_SEARCH = 8;
+
+	// road reference, segment start, parent segment end, parent, distance from start, distance to end, flags
+	private static final int SEGMENT_SIZE = 8 + 2 + 2 + 4 + 4 + 4 + 1;
+
+	private final RoutingContext ctx;
+	private int size = 0;
+	private RouteDataObject[] roads;
+	private short[] segStart;
+	private short[] parentSegmentEnd;
+	private int[] parent;
+	private float[] distanceFromStart;
+	private float[] distanceToEnd;
+	private byte[] flags;
+	// final segments are only a few per search
+	private TIntArrayList finalSegments = new TIntArrayList();
+	private TIntArrayList finalOpposites = new TIntArrayList();
+
+	public RouteSegmentStore(RoutingContext ctx) {
+		this(ctx, 256);
+	}
+
+	public RouteSegmentStore(RoutingContext ctx, int capacity) {
+		this.ctx = ctx;
+		roads = new RouteDataObject[capacity];
+		segStart = new short[capacity];
+		parentSegmentEnd = new short[capacity];
+		parent = new int[capacity];
+		distanceFromStart = new float[capacity];
+		distanceToEnd = new float[capacity];
+		flags = new byte[capacity];
+	}
+
+	/**
+	 * @param direction 1 - positive, -1 - negative, 0 - not assigned
+	 */
+	public int add(RouteDataObject road, int segmentStart, int direction, float distFromStart, float distToEnd,
+			int parentSegment, int parentEnd) {
+		if (size == roads.length) {
+			grow();
+		}
+		int i = size++;
+		roads[i] = road;
+		segStart[i] = (short) segmentStart;
+		parentSegmentEnd[i] = (short) parentEnd;
+		parent[i] = parentSegment;
+		distanceFromStart[i] = distFromStart;
+		distanceToEnd[i] = distToEnd;
+		flags[i] = direction > 0 ? POSITIVE : (direction < 0 ? NEGATIVE : 0);
+		return i;
+	}
+
+	public int addFinal(RouteDataObject road, int segmentStart, float distFromStart, int parentSegment, int parentEnd,
+			boolean reverseWaySearch, int opposite) {
+		int i = add(road, segmentStart, 0, distFromStart, 0, parentSegment, parentEnd);
+		flags[i] |= FINAL;
+		if (reverseWaySearch) {
+			flags[i] |= REVERSE_WAY_SEARCH;
+		}
+		finalSegments.add(i);
+		finalOpposites.add(opposite);
+		return i;
+	}
+
+	private void grow() {
+		int capacity = roads.length + (roads.length >> 1) + 1;
+		roads = Arrays.copyOf(roads, capacity);
+		segStart = Arrays.copyOf(segStart, capacity);
+		parentSegmentEnd = Arrays.copyOf(parentSegmentEnd, capacity);
+		parent = Arrays.copyOf(parent, capacity);
+		distanceFromStart = Arrays.copyOf(distanceFromStart, capacity);
+		distanceToEnd = Arrays.copyOf(distanceToEnd, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getEstimatedSize() {
+		return roads.length * SEGMENT_SIZE;
+	}
+
+	public RouteDataObject getRoad(int i) {
+		return roads[i];
+	}
+
+	public short getSegmentStart(int i) {
+		return segStart[i];
+	}
+
+	public int getParent(int i) {
+		return parent[i];
+	}
+
+	public short getParentSegmentEnd(int i) {
+		return parentSegmentEnd[i];
+	}
+
+	public float getDistanceFromStart(int i) {
+		return distanceFromStart[i];
+	}
+
+	public float getDistanceToEnd(int i) {
+		return distanceToEnd[i];
+	}
+
+	public boolean isPositive(int i) {
+		return (flags[i] & POSITIVE) != 0;
+	}
+
+	public byte getDirectionAssigned(int i) {
+		return (byte) ((flags[i] & POSITIVE) != 0 ? 1 : ((flags[i] & NEGATIVE) != 0 ? -1 : 0));
+	}
+
+	public boolean isFinal(int i) {
+		return (flags[i] & FINAL) != 0;
+	}
+
+	public int compare(int o1, int o2) {
+		return ctx.roadPriorityComparator(distanceFromStart[o1], distanceToEnd[o1], distanceFromStart[o2], distanceToEnd[o2]);
+	}
+
+	/**
+	 * Creates object view of one segment (with its parent but without further parents)
+	 */
+	public RouteSegment toRouteSegment(int i) {
+		RouteSegment s = createRouteSegment(i);
+		if (parent[i] != NO_SEGMENT) {
+			s.parentRoute = createRouteSegment(parent[i]);
+		}
+		return s;
+	}
+
+	/**
+	 * Converts final segment with both parent chains to objects as they are created by {@link BinaryRoutePlanner}
+	 */
+	public FinalRouteSegment toFinalRouteSegment(int i) {
+		TIntObjectHashMap<RouteSegment> created = new TIntObjectHashMap<RouteSegment>();
+		FinalRouteSegment frs = (FinalRouteSegment) createChain(i, created);
+		frs.reverseWaySearch = (flags[i] & REVERSE_WAY_SEARCH) != 0;
+		frs.opposite = createChain(finalOpposites.get(finalSegments.indexOf(i)), created);
+		return frs;
+	}
+
+	private RouteSegment createChain(int i, TIntObjectHashMap<RouteSegment> created) {
+		RouteSegment first = null;
+		RouteSegment last = null;
+		while (i != NO_SEGMENT) {
+			RouteSegment s = created.get(i);
+			boolean exists = s != null;
+			if (!exists) {
+				s = createRouteSegment(i);
+				created.put(i, s);
+			}
+			if (last == null) {
+				first = s;
+			} else {
+				last.parentRoute = s;
+			}
+			if (exists) {
+				break;
+			}
+			last = s;
+			i = parent[i];
+		}
+		return first;
+	}
+
+	private RouteSegment createRouteSegment(int i) {
+		RouteSegment s = isFinal(i) ? new FinalRouteSegment(roads[i], segStart[i]) : new RouteSegment(roads[i], segStart[i]);
+		s.directionAssgn = getDirectionAssigned(i);
+		s.parentSegmentEnd = parentSegmentEnd[i];
+		s.distanceFromStart = distanceFromStart[i];
+		s.distanceToEnd = distanceToEnd[i];
+		return s;
+	}
+
+	/**
+	 * Binary heap of segment indexes, ordered as {@link RoutingContext#roadPriorityComparator}.
+	 * Sift operations are the same as in {@link java.util.PriorityQueue}, so segments with equal priority
+	 * are polled in the same order as by {@link BinaryRoutePlanner}.
+	 */
+	public class SegmentQueue {
+		private int[] queue = new int[64];
+		private int queueSize = 0;
+
+		public void add(int segment) {
+			if (queueSize == queue.length) {
+				queue = Arrays.copyOf(queue, queue.length < 64 ? queue.length * 2 + 2 : queue.length + (queue.length >> 1));
+			}
+			int k = queueSize++;
+			while (k > 0) {
+				int p = (k - 1) >>> 1;
+				int e = queue[p];
+				if (compare(segment, e) >= 0) {
+					break;
+				}
+				queue[k] = e;
+				k = p;
+			}
+			queue[k] = segment;
+		}
+
+		public int peek() {
+			return queueSize == 0 ? NO_SEGMENT : queue[0];
+		}
+
+		public int poll() {
+			if (queueSize == 0) {
+				return NO_SEGMENT;
+			}
+			int s = --queueSize;
+			int result = queue[0];
+			if (s != 0) {
+				int x = queue[s];
+				int k = 0;
+				int half = s >>> 1;
+				while (k < half) {
+					int child = (k << 1) + 1;
+					int c = queue[child];
+					int right = child + 1;
+					if (right < s && compare(c, queue[right]) > 0) {
+						c = queue[child = right];
+					}
+					if (compare(x, c) <= 0) {
+						break;
+					}
+					queue[k] = c;
+					k = child;
+				}
+				queue[k] = x;
+			}
+			return result;
+		}
+
+		public boolean isEmpty() {
+			return queueSize == 0;
+		}
+
+		public int size() {
+			return queueSize;
+		}
+
+		public int getEstimatedSize() {
+			return queue.length * 4;
+		}
+	}
+
+	/**
+	 * Open addressing map from route point id (see {@link BinaryRoutePlanner}) to segment index
+	 */
+	public static class VisitedSegments {
+		private long[] keys = new long[1024];
+		// segment index + 1, 0 - free cell
+		private int[] values = new int[1024];
+		private int visitedSize = 0;
+
+		public int get(long key) {
+			int mask = keys.length - 1;
+			int i = hash(key) & mask;
+			while (values[i] != 0) {
+				if (keys[i] == key) {
+					return values[i] - 1;
+				}
+				i = (i + 1) & mask;
+			}
+			return NO_SEGMENT;
+		}
+
+		public boolean containsKey(long key) {
+			return get(key) != NO_SEGMENT;
+		}
+
+		public void put(long key, int segment) {
+			if ((visitedSize + 1) * 2 > keys.length) {
+				rehash(keys.length * 2);
+			}
+			if (insert(keys, values, key, segment + 1)) {
+				visitedSize++;
+			}
+		}
+
+		private static boolean insert(long[] keys, int[] values, long key, int value) {
+			int mask = keys.length - 1;
+			int i = hash(key) & mask;
+			while (values[i] != 0) {
+				if (keys[i] == key) {
+					values[i] = value;
+					return false;
+				}
+				i = (i + 1) & mask;
+			}
+			keys[i] = key;
+			values[i] = value;
+			return true;
+		}
+
+		private void rehash(int capacity) {
+			long[] nkeys = new long[capacity];
+			int[] nvalues = new int[capacity];
+			for (int i = 0; i < keys.length; i++) {
+				if (values[i] != 0) {
+					insert(nkeys, nvalues, keys[i], values[i]);
+				}
+			}
+			keys = nkeys;
+			values = nvalues;
+		}
+
+		private static int hash(long key) {
+			int h = (int) (key ^ (key >>> 32));
+			h *= 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+
+		public int size() {
+			return visitedSize;
+		}
+
+		public int getEstimatedSize() {
+			return keys.length * (8 + 4);
+		}
+	}
+}
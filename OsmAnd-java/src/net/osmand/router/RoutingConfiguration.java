@@ -33,6 +33,8 @@ public class RoutingConfiguration {
 	// 1.1 tile load parameters (should not affect routing)
 	public int ZOOM_TO_LOAD_TILES = 16;
 	public int memoryLimitation;
+	// keep A* search state in primitive arrays (CompactBinaryRoutePlanner), needs less memory per visited segment
+	public boolean compactSegmentStore = false;
 
 	// 1.2 Build A* graph in backward/forward direction (can affect results)
 	// 0 - 2 ways, 1 - direct way, -1 - reverse way
@@ -50,6 +52,24 @@ public class RoutingConfiguration {
 	public float recalculateDistance = 10000f;
 	
 
+	/**
+	 * Configuration with the same values and own copy of the router ({@link GeneralRouter#copy()})
+	 */
+	public RoutingConfiguration copy() {
+		RoutingConfiguration c = new RoutingConfiguration();
+		c.attributes.putAll(attributes);
+		c.heuristicCoefficient = heuristicCoefficient;
+		c.ZOOM_TO_LOAD_TILES = ZOOM_TO_LOAD_TILES;
+		c.memoryLimitation = memoryLimitation;
+		c.compactSegmentStore = compactSegmentStore;
+		c.planRoadDirection = planRoadDirection;
+		c.router = router.copy();
+		c.routerName = routerName;
+		c.initialDirection = initialDirection;
+		c.recalculateDistance = recalculateDistance;
+		return c;
+	}
+
 	public static class Builder {
 		// Design time storage
 		private String defaultRouter = "";
@@ -99,6 +119,7 @@ public class RoutingConfiguration {
 				i.memoryLimitation = memoryLimitMB * (1 << 20);
 			}
 			i.planRoadDirection = parseSilentInt(getAttribute(i.router, "planRoadDirection"), i.planRoadDirection);
+			i.compactSegmentStore = parseSilentBoolean(getAttribute(i.router, "compactSegmentStore"), i.compactSegmentStore);
 //			i.planRoadDirection = 1;
 			
 			return i;
@@ -145,6 +166,13 @@ public class RoutingConfiguration {
 		}
 	}
 
+	private static boolean parseSilentBoolean(String t, boolean v) {
+		if (t == null || t.length() == 0) {
+			return v;
+		}
+		return Boolean.parseBoolean(t);
+	}
+
 	private static int parseSilentInt(String t, int v) {
 		if (t == null || t.length() == 0) {
 			return v;
@@ -67,6 +67,10 @@ public class RoutingContext {
 	public boolean leftSideNavigation;
 	public List<RouteSegmentResult> previouslyCalculatedRoute;
 	public PrecalculatedRouteDirection precalculatedRouteDirection;
+	// used by RoutePlannerFrontEnd if it is up to date
+	public ContractionHierarchy contractionHierarchy;
+	// loads tiles in background threads if it is set (not used with native library), it can't be shared with other contexts
+	public RoutingTilePrefetcher tilePrefetcher;
 
 	// 2. Routing memory cache (big objects)
 	TLongObjectHashMap<List<RoutingSubregionTile>> indexedSubregions = new TLongObjectHashMap<List<RoutingSubregionTile>>();
@@ -74,6 +78,9 @@ public class RoutingContext {
 	
 	// Needs to be a sorted array list . Another option to use hashmap but it will be more memory expensive
 	List<RoutingSubregionTile> subregionTiles = new ArrayList<RoutingSubregionTile>();
+	// last tiles checked by prefetch for direct and reverse search
+	private long lastPrefetchDirectTile = -1;
+	private long lastPrefetchReverseTile = -1;
 	
 	// 3. Warm object caches
 	ArrayList<RouteSegment> segmentsToVisitPrescripted = new ArrayList<BinaryRoutePlanner.RouteSegment>(5);
@@ -230,6 +237,11 @@ public class RoutingContext {
 		subregionTiles.clear();
 		tileRoutes.clear();		
 		indexedSubregions.clear();
+		if (tilePrefetcher != null) {
+			tilePrefetcher.clear();
+		}
+		lastPrefetchDirectTile = -1;
+		lastPrefetchReverseTile = -1;
 	}
 	
 	private int searchSubregionTile(RouteSubregion subregion){
@@ -311,7 +323,10 @@ public class RoutingContext {
 			try {
 				BinaryMapIndexReader reader = reverseMap.get(ts.subregion.routeReg);
 				ts.setLoadedNonNative();
-				List<RouteDataObject> res = reader.loadRouteIndexData(ts.subregion);
+				List<RouteDataObject> res = tilePrefetcher == null ? null : tilePrefetcher.take(ts);
+				if (res == null) {
+					res = reader.loadRouteIndexData(ts.subregion);
+				}
 //				System.out.println(ts.subregion.shiftToData + " " + res);
 				if(toLoad != null) {
 					toLoad.addAll(res);
@@ -453,6 +468,57 @@ public class RoutingContext {
 		timeToFindInitialSegments += (System.nanoTime() - now);
 	}
 	
+	/**
+	 * Starts background loading of tiles which the search frontier at the point is going to reach :
+	 * tile of the point and neighbour tiles in the direction of the heuristic (target for direct search, start for reverse).
+	 * It is called for segments polled from the queue, so only tiles on the queue boundary are prefetched.
+	 */
+	public void prefetchTiles(int x31, int y31, boolean reverseWaySearch) {
+		if (tilePrefetcher == null || nativeLib != null) {
+			return;
+		}
+		int zoomToLoad = 31 - config.ZOOM_TO_LOAD_TILES;
+		int tileX = x31 >> zoomToLoad;
+		int tileY = y31 >> zoomToLoad;
+		long tileId = (((long) tileX) << config.ZOOM_TO_LOAD_TILES) + tileY;
+		if (tileId == (reverseWaySearch ? lastPrefetchReverseTile : lastPrefetchDirectTile)) {
+			return;
+		}
+		if (reverseWaySearch) {
+			lastPrefetchReverseTile = tileId;
+		} else {
+			lastPrefetchDirectTile = tileId;
+		}
+		int dx = Integer.signum(((reverseWaySearch ? startX : targetX) >> zoomToLoad) - tileX);
+		int dy = Integer.signum(((reverseWaySearch ? startY : targetY) >> zoomToLoad) - tileY);
+		prefetchTile(tileX, tileY);
+		if (dx != 0 || dy != 0) {
+			prefetchTile(tileX + dx, tileY + dy);
+		}
+		if (dx != 0 && dy != 0) {
+			prefetchTile(tileX + dx, tileY);
+			prefetchTile(tileX, tileY + dy);
+		}
+	}
+
+	private void prefetchTile(int tileX, int tileY) {
+		if (tileX < 0 || tileY < 0 || tileX >= (1 << config.ZOOM_TO_LOAD_TILES) || tileY >= (1 << config.ZOOM_TO_LOAD_TILES)) {
+			return;
+		}
+		long tileId = (((long) tileX) << config.ZOOM_TO_LOAD_TILES) + tileY;
+		if (!indexedSubregions.containsKey(tileId)) {
+			indexedSubregions.put(tileId, loadTileHeaders(31 - config.ZOOM_TO_LOAD_TILES, tileX, tileY));
+		}
+		List<RoutingSubregionTile> subregions = indexedSubregions.get(tileId);
+		if (subregions != null) {
+			for (RoutingSubregionTile ts : subregions) {
+				if (!ts.isLoaded()) {
+					tilePrefetcher.prefetch(reverseMap.get(ts.subregion.routeReg), ts);
+				}
+			}
+		}
+	}
+
 	@SuppressWarnings("unused")
 	private long getRoutingTile(int x31, int y31, int memoryLimit, int loadOptions){
 //		long now = System.nanoTime();
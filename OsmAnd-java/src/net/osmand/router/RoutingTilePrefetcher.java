@@ -0,0 +1,156 @@
+package net.osmand.router;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.router.RoutingContext.RoutingSubregionTile;
+import net.osmand.util.ParallelTasks;
+
+/**
+ * Decodes route data of subregion tiles in background threads before the search needs them.
+ * Tiles to load are chosen by {@link RoutingContext#prefetchTiles(int, int, boolean)} on the search thread,
+ * decoded objects are given back to the context on the search thread as well (when the tile is really loaded),
+ * so routing structures of the context are never touched by background threads.
+ *
+ * Only memory mapped readers are prefetched : background cursor shares the mapping, so it doesn't interfere
+ * with the reader used by the search thread.
+ *
+ * Prefetcher belongs to one routing context and is not thread safe (pending tiles are accessed without locks
+ * and {@link #clear()} drops all of them) : contexts calculated in parallel should have their own prefetchers,
+ * they could share the executor by {@link #RoutingTilePrefetcher(ExecutorService, int)}.
+ */
+public class RoutingTilePrefetcher {
+
+	private final ExecutorService executor;
+	private final int maxPending;
+	// in order of submission
+	private final Map<RoutingSubregionTile, Future<List<RouteDataObject>>> pending =
+			new LinkedHashMap<RoutingSubregionTile, Future<List<RouteDataObject>>>();
+	// free cursors of readers, they are held by the prefetcher (not by pool threads) and released on shutdown
+	private final ConcurrentHashMap<BinaryMapIndexReader, Queue<BinaryMapIndexReader>> cursors =
+			new ConcurrentHashMap<BinaryMapIndexReader, Queue<BinaryMapIndexReader>>();
+
+	/**
+	 * @param maxPending limit of decoded tiles waiting to be used by the search (limits memory used by prefetch)
+	 */
+	public RoutingTilePrefetcher(ExecutorService executor, int maxPending) {
+		this.executor = executor;
+		this.maxPending = maxPending;
+	}
+
+	public RoutingTilePrefetcher(int threads) {
+		this(ParallelTasks.newDaemonThreadPool(threads, "Routing tile prefetch"), threads * 4);
+	}
+
+	/**
+	 * Stops the executor too, so it should not be called for prefetchers with a shared executor
+	 */
+	public void shutdown() {
+		clear();
+		executor.shutdown();
+		cursors.clear();
+	}
+
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * Submits tile for background decoding
+	 * @return false if tile can't be prefetched now
+	 */
+	boolean prefetch(final BinaryMapIndexReader reader, final RoutingSubregionTile ts) {
+		if (reader == null || !reader.isMemoryMapped() || pending.containsKey(ts)) {
+			return false;
+		}
+		if (pending.size() >= maxPending) {
+			// decoded tiles which were not needed by the search are dropped first
+			Iterator<Future<List<RouteDataObject>>> it = pending.values().iterator();
+			while (it.hasNext() && pending.size() >= maxPending) {
+				if (it.next().isDone()) {
+					it.remove();
+				}
+			}
+			if (pending.size() >= maxPending) {
+				return false;
+			}
+		}
+		pending.put(ts, executor.submit(new Callable<List<RouteDataObject>>() {
+			@Override
+			public List<RouteDataObject> call() throws Exception {
+				BinaryMapIndexReader cursor = takeCursor(reader);
+				try {
+					return cursor.loadRouteIndexData(ts.subregion);
+				} finally {
+					releaseCursor(reader, cursor);
+				}
+			}
+		}));
+		return true;
+	}
+
+	private BinaryMapIndexReader takeCursor(BinaryMapIndexReader reader) throws IOException {
+		Queue<BinaryMapIndexReader> free = cursors.get(reader);
+		BinaryMapIndexReader cursor = free == null ? null : free.poll();
+		if (cursor == null) {
+			cursor = new BinaryMapIndexReader(reader.getRaf(), reader);
+		}
+		return cursor;
+	}
+
+	private void releaseCursor(BinaryMapIndexReader reader, BinaryMapIndexReader cursor) {
+		Queue<BinaryMapIndexReader> free = cursors.get(reader);
+		if (free == null) {
+			free = new ConcurrentLinkedQueue<BinaryMapIndexReader>();
+			Queue<BinaryMapIndexReader> existing = cursors.putIfAbsent(reader, free);
+			if (existing != null) {
+				free = existing;
+			}
+		}
+		free.offer(cursor);
+	}
+
+	/**
+	 * Waits for the prefetched data of the tile
+	 * @return decoded objects or null if tile was not prefetched (it should be loaded by the caller)
+	 */
+	List<RouteDataObject> take(RoutingSubregionTile ts) throws IOException {
+		Future<List<RouteDataObject>> f = pending.remove(ts);
+		if (f == null) {
+			return null;
+		}
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	void clear() {
+		for (Future<List<RouteDataObject>> f : pending.values()) {
+			f.cancel(false);
+		}
+		pending.clear();
+	}
+}
@@ -0,0 +1,361 @@
+package net.osmand.router;
+
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TIntHashSet;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.data.LatLon;
+import net.osmand.data.TransportRoute;
+import net.osmand.data.TransportStop;
+import net.osmand.util.MapUtils;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Stops and routes of obf transport indexes preloaded to primitive arrays for {@link TransportRoutePlanner}.
+ * Every direction of the route is a pattern (sequence of stops with travel time from the first stop),
+ * stops reference patterns passing through them and stops in walking distance (transfers).
+ *
+ * Obf files don't contain timetables, so travel time is estimated by the average speed of the route type
+ * and time spent at every stop. Network is immutable after loading and could be shared between threads.
+ */
+public class TransportNetwork {
+
+	private static final Log log = PlatformUtil.getLog(TransportNetwork.class);
+
+	public static final float DEFAULT_MAX_TRANSFER_DISTANCE = 300;
+	// seconds spent at every intermediate stop
+	public static final float STOP_TIME = 20;
+	// km/h
+	public static final float DEFAULT_SPEED = 18;
+	public static final Map<String, Float> DEFAULT_SPEEDS = new LinkedHashMap<String, Float>();
+	static {
+		DEFAULT_SPEEDS.put("bus", 18f);
+		DEFAULT_SPEEDS.put("trolleybus", 18f);
+		DEFAULT_SPEEDS.put("share_taxi", 22f);
+		DEFAULT_SPEEDS.put("tram", 16f);
+		DEFAULT_SPEEDS.put("subway", 35f);
+		DEFAULT_SPEEDS.put("light_rail", 30f);
+		DEFAULT_SPEEDS.put("train", 50f);
+		DEFAULT_SPEEDS.put("railway", 50f);
+		DEFAULT_SPEEDS.put("ferry", 15f);
+	}
+	// grid cells of ~1 km for search of stops near point
+	private static final int GRID_SHIFT = 31 - 15;
+
+	final long[] stopIds;
+	final int[] stopX;
+	final int[] stopY;
+	final String[] stopNames;
+
+	// stops and travel time (seconds from the first stop) of pattern i are in [patternStart[i], patternStart[i + 1])
+	final int[] patternStart;
+	final int[] patternStops;
+	final float[] patternTimes;
+	final int[] patternRoutes;
+	final TransportRoute[] routes;
+
+	// patterns passing through stop i (with position of the stop in the pattern) are in [stopPatternStart[i], stopPatternStart[i + 1])
+	final int[] stopPatternStart;
+	final int[] stopPatterns;
+	final int[] stopPatternPositions;
+
+	// stops in walking distance from stop i are in [transferStart[i], transferStart[i + 1])
+	final int[] transferStart;
+	final int[] transferStops;
+	final float[] transferDistances;
+
+	private final TLongObjectHashMap<int[]> grid;
+
+	private TransportNetwork(Builder b, float maxTransferDistance) {
+		int stops = b.stopIds.size();
+		stopIds = b.stopIds.toArray();
+		stopX = b.stopX.toArray();
+		stopY = b.stopY.toArray();
+		stopNames = b.stopNames.toArray(new String[stops]);
+		patternStart = b.patternStart.toArray();
+		patternStops = b.patternStops.toArray();
+		patternTimes = new float[b.patternTimesSize];
+		System.arraycopy(b.patternTimes, 0, patternTimes, 0, b.patternTimesSize);
+		patternRoutes = b.patternRoutes.toArray();
+		routes = b.routes.toArray(new TransportRoute[b.routes.size()]);
+
+		int[] counts = new int[stops + 1];
+		for (int s : patternStops) {
+			counts[s + 1]++;
+		}
+		stopPatternStart = cumulative(counts);
+		stopPatterns = new int[patternStops.length];
+		stopPatternPositions = new int[patternStops.length];
+		int[] fill = stopPatternStart.clone();
+		for (int p = 0; p < patternRoutes.length; p++) {
+			for (int i = patternStart[p]; i < patternStart[p + 1]; i++) {
+				int s = patternStops[i];
+				stopPatterns[fill[s]] = p;
+				stopPatternPositions[fill[s]] = i - patternStart[p];
+				fill[s]++;
+			}
+		}
+
+		TLongObjectHashMap<TIntArrayList> cells = new TLongObjectHashMap<TIntArrayList>();
+		for (int s = 0; s < stops; s++) {
+			long key = cellKey(stopX[s] >> GRID_SHIFT, stopY[s] >> GRID_SHIFT);
+			TIntArrayList l = cells.get(key);
+			if (l == null) {
+				l = new TIntArrayList(4);
+				cells.put(key, l);
+			}
+			l.add(s);
+		}
+		grid = new TLongObjectHashMap<int[]>(cells.size());
+		TLongObjectIterator<TIntArrayList> it = cells.iterator();
+		while (it.hasNext()) {
+			it.advance();
+			grid.put(it.key(), it.value().toArray());
+		}
+
+		transferStart = new int[stops + 1];
+		TIntArrayList tStops = new TIntArrayList();
+		TIntArrayList near = new TIntArrayList();
+		for (int s = 0; s < stops; s++) {
+			near.clear();
+			findStops(stopX[s], stopY[s], maxTransferDistance, near);
+			for (int i = 0; i < near.size(); i++) {
+				if (near.get(i) != s) {
+					tStops.add(near.get(i));
+				}
+			}
+			transferStart[s + 1] = tStops.size();
+		}
+		transferStops = tStops.toArray();
+		transferDistances = new float[transferStops.length];
+		for (int s = 0; s < stops; s++) {
+			for (int i = transferStart[s]; i < transferStart[s + 1]; i++) {
+				transferDistances[i] = getDistance(transferStops[i], stopX[s], stopY[s]);
+			}
+		}
+	}
+
+	private static int[] cumulative(int[] counts) {
+		for (int i = 1; i < counts.length; i++) {
+			counts[i] += counts[i - 1];
+		}
+		return counts;
+	}
+
+	private static long cellKey(int cx, int cy) {
+		return (((long) cx) << 32) | (cy & 0xffffffffL);
+	}
+
+	public static TransportNetwork load(List<BinaryMapIndexReader> readers) throws IOException {
+		return load(readers, DEFAULT_SPEEDS, DEFAULT_MAX_TRANSFER_DISTANCE);
+	}
+
+	/**
+	 * Loads all stops and routes of transport indexes of the files (stops and routes present in several files are loaded once)
+	 * @param speeds average speed (km/h) by route type
+	 * @param maxTransferDistance max walking distance (meters) between stops to change the route
+	 */
+	public static TransportNetwork load(List<BinaryMapIndexReader> readers, Map<String, Float> speeds,
+			float maxTransferDistance) throws IOException {
+		long time = System.currentTimeMillis();
+		Builder b = new Builder(speeds);
+		for (BinaryMapIndexReader reader : readers) {
+			if (!reader.hasTransportData()) {
+				continue;
+			}
+			List<TransportStop> stops = reader.searchTransportIndex(BinaryMapIndexReader.buildSearchTransportRequest(0,
+					Integer.MAX_VALUE, 0, Integer.MAX_VALUE, -1, null));
+			TIntHashSet references = new TIntHashSet();
+			for (TransportStop s : stops) {
+				b.getStop(s);
+				if (s.getReferencesToRoutes() != null) {
+					references.addAll(s.getReferencesToRoutes());
+				}
+			}
+			TIntObjectHashMap<TransportRoute> routes = reader.getTransportRoutes(references.toArray());
+			int[] pointers = routes.keys();
+			// the same order of patterns for the same files
+			Arrays.sort(pointers);
+			for (int pointer : pointers) {
+				b.addRoute(routes.get(pointer));
+			}
+		}
+		TransportNetwork network = new TransportNetwork(b, maxTransferDistance);
+		log.info("Transport network : " + network.getStopsCount() + " stops, " + network.getPatternsCount()
+				+ " patterns, " + network.transferStops.length + " transfers loaded in "
+				+ (System.currentTimeMillis() - time) + " ms");
+		return network;
+	}
+
+	private static class Builder {
+		final Map<String, Float> speeds;
+		final TLongArrayList stopIds = new TLongArrayList();
+		final TIntArrayList stopX = new TIntArrayList();
+		final TIntArrayList stopY = new TIntArrayList();
+		final List<String> stopNames = new ArrayList<String>();
+		final TLongObjectHashMap<Integer> stopsById = new TLongObjectHashMap<Integer>();
+		final TLongHashSet routeIds = new TLongHashSet();
+
+		final TIntArrayList patternStart = new TIntArrayList();
+		final TIntArrayList patternStops = new TIntArrayList();
+		float[] patternTimes = new float[256];
+		int patternTimesSize;
+		final TIntArrayList patternRoutes = new TIntArrayList();
+		final List<TransportRoute> routes = new ArrayList<TransportRoute>();
+
+		Builder(Map<String, Float> speeds) {
+			this.speeds = speeds;
+			patternStart.add(0);
+		}
+
+		int getStop(TransportStop s) {
+			long id = s.getId() == null ? -(stopIds.size() + 1) : s.getId();
+			Integer ind = stopsById.get(id);
+			if (ind == null) {
+				ind = stopIds.size();
+				stopsById.put(id, ind);
+				stopIds.add(id);
+				stopX.add(MapUtils.get31TileNumberX(s.getLocation().getLongitude()));
+				stopY.add(MapUtils.get31TileNumberY(s.getLocation().getLatitude()));
+				stopNames.add(s.getName());
+			}
+			return ind;
+		}
+
+		void addRoute(TransportRoute route) {
+			if (route.getId() != null && !routeIds.add(route.getId())) {
+				return;
+			}
+			Float kmh = route.getType() == null ? null : speeds.get(route.getType().toLowerCase());
+			float speed = (kmh == null ? DEFAULT_SPEED : kmh) / 3.6f;
+			int ind = routes.size();
+			boolean added = addPattern(ind, route.getForwardStops(), speed);
+			added |= addPattern(ind, route.getBackwardStops(), speed);
+			if (added) {
+				// stops are kept in the patterns
+				route.getForwardStops().clear();
+				route.getBackwardStops().clear();
+				routes.add(route);
+			}
+		}
+
+		private boolean addPattern(int route, List<TransportStop> stops, float speed) {
+			int start = patternStops.size();
+			float time = 0;
+			int prev = -1;
+			for (TransportStop s : stops) {
+				int ind = getStop(s);
+				if (ind == prev) {
+					continue;
+				}
+				if (prev != -1) {
+					time += STOP_TIME + MapUtils.squareRootDist31(stopX.get(prev), stopY.get(prev), stopX.get(ind),
+							stopY.get(ind)) / speed;
+				}
+				patternStops.add(ind);
+				if (patternTimesSize == patternTimes.length) {
+					float[] n = new float[patternTimes.length * 2];
+					System.arraycopy(patternTimes, 0, n, 0, patternTimesSize);
+					patternTimes = n;
+				}
+				patternTimes[patternTimesSize++] = time;
+				prev = ind;
+			}
+			if (patternStops.size() - start < 2) {
+				if (patternStops.size() > start) {
+					patternStops.remove(start, patternStops.size() - start);
+				}
+				patternTimesSize = start;
+				return false;
+			}
+			patternStart.add(patternStops.size());
+			patternRoutes.add(route);
+			return true;
+		}
+	}
+
+	public int getStopsCount() {
+		return stopIds.length;
+	}
+
+	public int getPatternsCount() {
+		return patternRoutes.length;
+	}
+
+	public long getStopId(int stop) {
+		return stopIds[stop];
+	}
+
+	public String getStopName(int stop) {
+		return stopNames[stop];
+	}
+
+	public int getStop31X(int stop) {
+		return stopX[stop];
+	}
+
+	public int getStop31Y(int stop) {
+		return stopY[stop];
+	}
+
+	public LatLon getStopLocation(int stop) {
+		return new LatLon(MapUtils.get31LatitudeY(stopY[stop]), MapUtils.get31LongitudeX(stopX[stop]));
+	}
+
+	/**
+	 * Route of the pattern (stops of the route are not loaded, they are available by {@link #getPatternStops(int)})
+	 */
+	public TransportRoute getPatternRoute(int pattern) {
+		return routes[patternRoutes[pattern]];
+	}
+
+	public int[] getPatternStops(int pattern) {
+		int[] res = new int[patternStart[pattern + 1] - patternStart[pattern]];
+		System.arraycopy(patternStops, patternStart[pattern], res, 0, res.length);
+		return res;
+	}
+
+	/**
+	 * @return distance (meters) from the stop to the point
+	 */
+	public float getDistance(int stop, int x31, int y31) {
+		return (float) MapUtils.squareRootDist31(x31, y31, stopX[stop], stopY[stop]);
+	}
+
+	/**
+	 * Finds stops in the radius (meters) of the point
+	 */
+	public void findStops(int x31, int y31, float radius, TIntArrayList stops) {
+		double cellSize = MapUtils.squareRootDist31(x31, y31, x31 + (1 << GRID_SHIFT), y31);
+		int cells = (int) Math.ceil(radius / Math.max(cellSize, 1));
+		int cx = x31 >> GRID_SHIFT;
+		int cy = y31 >> GRID_SHIFT;
+		for (int x = cx - cells; x <= cx + cells; x++) {
+			for (int y = cy - cells; y <= cy + cells; y++) {
+				int[] cell = grid.get(cellKey(x, y));
+				if (cell == null) {
+					continue;
+				}
+				for (int s : cell) {
+					if (getDistance(s, x31, y31) <= radius) {
+						stops.add(s);
+					}
+				}
+			}
+		}
+	}
+}
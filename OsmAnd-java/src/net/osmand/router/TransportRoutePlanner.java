@@ -0,0 +1,437 @@
+package net.osmand.router;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import net.osmand.data.LatLon;
+import net.osmand.data.TransportRoute;
+import net.osmand.util.MapUtils;
+import net.osmand.util.ParallelTasks;
+
+/**
+ * Public transport journey planner over {@link TransportNetwork} (round based RAPTOR algorithm) : round k finds the
+ * fastest arrival to every stop with k rides, so the result is the set of journeys where every journey with more
+ * transfers is faster than all journeys with less transfers.
+ *
+ * Network has no timetables, so time of the ride is the travel time of the route pattern plus the average waiting time
+ * for every boarding. Planner is thread safe : every thread uses its own search arrays, many queries could be answered
+ * in parallel by {@link #planJourneys(ExecutorService, List, List)}.
+ */
+public class TransportRoutePlanner {
+
+	private final TransportNetwork network;
+	// m/s
+	private float walkSpeed = 1.3f;
+	// meters to the first and from the last stop
+	private float maxWalkDistance = 800;
+	// seconds of waiting for every boarding (half of the average interval)
+	private float boardingTime = 300;
+	private int maxTransfers = 4;
+
+	private final ThreadLocal<RaptorSearch> searches = new ThreadLocal<RaptorSearch>() {
+		@Override
+		protected RaptorSearch initialValue() {
+			return new RaptorSearch();
+		}
+	};
+
+	public static class TransportLeg {
+		private final TransportRoute route;
+		private final int[] stops;
+		private final LatLon start;
+		private final LatLon end;
+		private final float startTime;
+		private final float endTime;
+		private final float distance;
+
+		TransportLeg(TransportRoute route, int[] stops, LatLon start, LatLon end, float startTime, float endTime,
+				float distance) {
+			this.route = route;
+			this.stops = stops;
+			this.start = start;
+			this.end = end;
+			this.startTime = startTime;
+			this.endTime = endTime;
+			this.distance = distance;
+		}
+
+		public boolean isWalk() {
+			return route == null;
+		}
+
+		/**
+		 * @return route of the ride (null for walking)
+		 */
+		public TransportRoute getRoute() {
+			return route;
+		}
+
+		/**
+		 * Network stops of the ride from boarding to leaving stop, for walking legs : stop where walking starts
+		 * and stop where it ends (-1 for start and end points of the journey)
+		 */
+		public int[] getStops() {
+			return stops;
+		}
+
+		public LatLon getStart() {
+			return start;
+		}
+
+		public LatLon getEnd() {
+			return end;
+		}
+
+		/**
+		 * Seconds from the journey start (ride starts after waiting at the stop)
+		 */
+		public float getStartTime() {
+			return startTime;
+		}
+
+		public float getEndTime() {
+			return endTime;
+		}
+
+		/**
+		 * Walking distance in meters (0 for rides)
+		 */
+		public float getDistance() {
+			return distance;
+		}
+	}
+
+	public static class TransportJourney {
+		private final List<TransportLeg> legs;
+
+		TransportJourney(List<TransportLeg> legs) {
+			this.legs = legs;
+		}
+
+		public List<TransportLeg> getLegs() {
+			return legs;
+		}
+
+		/**
+		 * Seconds
+		 */
+		public float getTime() {
+			return legs.isEmpty() ? 0 : legs.get(legs.size() - 1).getEndTime();
+		}
+
+		public int getRides() {
+			int rides = 0;
+			for (TransportLeg l : legs) {
+				if (!l.isWalk()) {
+					rides++;
+				}
+			}
+			return rides;
+		}
+
+		public int getTransfers() {
+			return Math.max(0, getRides() - 1);
+		}
+
+		public float getWalkDistance() {
+			float d = 0;
+			for (TransportLeg l : legs) {
+				d += l.getDistance();
+			}
+			return d;
+		}
+	}
+
+	public TransportRoutePlanner(TransportNetwork network) {
+		this.network = network;
+	}
+
+	public TransportNetwork getNetwork() {
+		return network;
+	}
+
+	public void setWalkSpeed(float walkSpeed) {
+		this.walkSpeed = walkSpeed;
+	}
+
+	public void setMaxWalkDistance(float maxWalkDistance) {
+		this.maxWalkDistance = maxWalkDistance;
+	}
+
+	public void setBoardingTime(float boardingTime) {
+		this.boardingTime = boardingTime;
+	}
+
+	public void setMaxTransfers(int maxTransfers) {
+		this.maxTransfers = maxTransfers;
+	}
+
+	/**
+	 * @return journeys sorted by number of rides, every next journey is faster (walking only journey is the first one
+	 * if the points are in walking distance)
+	 */
+	public List<TransportJourney> planJourneys(LatLon start, LatLon end) {
+		return searches.get().search(start, end);
+	}
+
+	/**
+	 * Plans journeys from starts[i] to ends[i] on threads of the executor
+	 */
+	public List<List<TransportJourney>> planJourneys(ExecutorService executor, List<LatLon> starts,
+			final List<LatLon> ends) throws InterruptedException {
+		List<Future<List<TransportJourney>>> futures = new ArrayList<Future<List<TransportJourney>>>();
+		for (int i = 0; i < starts.size(); i++) {
+			final LatLon start = starts.get(i);
+			final LatLon end = ends.get(i);
+			futures.add(executor.submit(new Callable<List<TransportJourney>>() {
+				@Override
+				public List<TransportJourney> call() throws Exception {
+					return planJourneys(start, end);
+				}
+			}));
+		}
+		try {
+			return ParallelTasks.waitAll(futures, null);
+		} catch (IOException e) {
+			// search doesn't read files
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Labels of all rounds, round 0 contains walking from the start point
+	 */
+	private class RaptorSearch {
+		private final int stops = network.getStopsCount();
+		private final float[] best = new float[stops];
+		private final float[] egress = new float[stops];
+		private final boolean[] marked = new boolean[stops];
+		private final TIntArrayList markedStops = new TIntArrayList();
+		private final TIntArrayList transitStops = new TIntArrayList();
+		private final int[] patternFirstPosition = new int[network.getPatternsCount()];
+		private final TIntArrayList patterns = new TIntArrayList();
+		private final TIntArrayList accessStops = new TIntArrayList();
+		private final TIntArrayList egressStops = new TIntArrayList();
+		private final List<Round> rounds = new ArrayList<Round>();
+
+		private class Round {
+			// arrival by the ride of the round : pattern and positions of boarding and leaving stops
+			final float[] transitTime = new float[stops];
+			final int[] pattern = new int[stops];
+			final int[] boardPosition = new int[stops];
+			final int[] alightPosition = new int[stops];
+			// arrival by walking from the stop reached by the ride of the round (-1 for walking from start point)
+			final float[] walkTime = new float[stops];
+			final int[] walkFrom = new int[stops];
+
+			void clear() {
+				Arrays.fill(transitTime, Float.POSITIVE_INFINITY);
+				Arrays.fill(walkTime, Float.POSITIVE_INFINITY);
+			}
+
+			float time(int stop) {
+				return Math.min(transitTime[stop], walkTime[stop]);
+			}
+		}
+
+		RaptorSearch() {
+			Arrays.fill(patternFirstPosition, Integer.MAX_VALUE);
+			Arrays.fill(egress, Float.POSITIVE_INFINITY);
+		}
+
+		private Round getRound(int k) {
+			while (rounds.size() <= k) {
+				rounds.add(new Round());
+			}
+			Round r = rounds.get(k);
+			r.clear();
+			return r;
+		}
+
+		List<TransportJourney> search(LatLon start, LatLon end) {
+			List<TransportJourney> result = new ArrayList<TransportJourney>();
+			int sx = MapUtils.get31TileNumberX(start.getLongitude());
+			int sy = MapUtils.get31TileNumberY(start.getLatitude());
+			int ex = MapUtils.get31TileNumberX(end.getLongitude());
+			int ey = MapUtils.get31TileNumberY(end.getLatitude());
+			float bound = Float.POSITIVE_INFINITY;
+			float direct = (float) MapUtils.squareRootDist31(sx, sy, ex, ey);
+			if (direct <= maxWalkDistance) {
+				bound = direct / walkSpeed;
+				result.add(new TransportJourney(Collections.singletonList(new TransportLeg(null, new int[] { -1, -1 },
+						start, end, 0, bound, direct))));
+			}
+			Arrays.fill(best, Float.POSITIVE_INFINITY);
+			accessStops.clear();
+			egressStops.clear();
+			network.findStops(sx, sy, maxWalkDistance, accessStops);
+			network.findStops(ex, ey, maxWalkDistance, egressStops);
+			for (int i = 0; i < egressStops.size(); i++) {
+				int s = egressStops.get(i);
+				egress[s] = network.getDistance(s, ex, ey) / walkSpeed;
+			}
+			try {
+				Round r0 = getRound(0);
+				for (int i = 0; i < accessStops.size(); i++) {
+					int s = accessStops.get(i);
+					r0.walkTime[s] = network.getDistance(s, sx, sy) / walkSpeed;
+					r0.walkFrom[s] = -1;
+					best[s] = r0.walkTime[s];
+					mark(s);
+				}
+				for (int k = 1; k <= maxTransfers + 1 && !markedStops.isEmpty(); k++) {
+					Round prev = rounds.get(k - 1);
+					Round round = getRound(k);
+					collectPatterns();
+					scanPatterns(prev, round, bound);
+					relaxTransfers(round, bound);
+					int bestEgress = -1;
+					for (int i = 0; i < egressStops.size(); i++) {
+						int s = egressStops.get(i);
+						float t = round.time(s) + egress[s];
+						if (t < bound) {
+							bound = t;
+							bestEgress = s;
+						}
+					}
+					if (bestEgress != -1) {
+						result.add(createJourney(k, bestEgress, start, end, network.getDistance(bestEgress, ex, ey)));
+					}
+				}
+			} finally {
+				for (int i = 0; i < egressStops.size(); i++) {
+					egress[egressStops.get(i)] = Float.POSITIVE_INFINITY;
+				}
+				for (int i = 0; i < markedStops.size(); i++) {
+					marked[markedStops.get(i)] = false;
+				}
+				markedStops.clear();
+			}
+			return result;
+		}
+
+		private void mark(int stop) {
+			if (!marked[stop]) {
+				marked[stop] = true;
+				markedStops.add(stop);
+			}
+		}
+
+		/**
+		 * Patterns passing through marked stops with the first position where they could be boarded
+		 */
+		private void collectPatterns() {
+			patterns.clear();
+			for (int i = 0; i < markedStops.size(); i++) {
+				int s = markedStops.get(i);
+				marked[s] = false;
+				for (int j = network.stopPatternStart[s]; j < network.stopPatternStart[s + 1]; j++) {
+					int p = network.stopPatterns[j];
+					int pos = network.stopPatternPositions[j];
+					if (patternFirstPosition[p] == Integer.MAX_VALUE) {
+						patterns.add(p);
+					}
+					patternFirstPosition[p] = Math.min(patternFirstPosition[p], pos);
+				}
+			}
+			markedStops.clear();
+		}
+
+		private void scanPatterns(Round prev, Round round, float bound) {
+			transitStops.clear();
+			for (int j = 0; j < patterns.size(); j++) {
+				int p = patterns.get(j);
+				int start = network.patternStart[p];
+				int end = network.patternStart[p + 1];
+				int first = patternFirstPosition[p];
+				patternFirstPosition[p] = Integer.MAX_VALUE;
+				// arrival to the stop of the pattern is offset + time of the stop in the pattern
+				float offset = Float.POSITIVE_INFINITY;
+				int boardPosition = -1;
+				for (int i = start + first; i < end; i++) {
+					int s = network.patternStops[i];
+					float time = network.patternTimes[i];
+					if (boardPosition != -1) {
+						float arrival = offset + time;
+						if (arrival < best[s] && arrival < bound) {
+							best[s] = arrival;
+							round.transitTime[s] = arrival;
+							round.pattern[s] = p;
+							round.boardPosition[s] = boardPosition;
+							round.alightPosition[s] = i - start;
+							if (!marked[s]) {
+								transitStops.add(s);
+							}
+							mark(s);
+						}
+					}
+					float departure = prev.time(s) + boardingTime - time;
+					if (departure < offset) {
+						offset = departure;
+						boardPosition = i - start;
+					}
+				}
+			}
+		}
+
+		private void relaxTransfers(Round round, float bound) {
+			for (int j = 0; j < transitStops.size(); j++) {
+				int s = transitStops.get(j);
+				float t = round.transitTime[s];
+				for (int i = network.transferStart[s]; i < network.transferStart[s + 1]; i++) {
+					int to = network.transferStops[i];
+					float arrival = t + network.transferDistances[i] / walkSpeed;
+					if (arrival < best[to] && arrival < bound) {
+						best[to] = arrival;
+						round.walkTime[to] = arrival;
+						round.walkFrom[to] = s;
+						mark(to);
+					}
+				}
+			}
+		}
+
+		private TransportJourney createJourney(int k, int stop, LatLon start, LatLon end, float egressDistance) {
+			List<TransportLeg> legs = new ArrayList<TransportLeg>();
+			Round last = rounds.get(k);
+			float time = last.time(stop);
+			legs.add(new TransportLeg(null, new int[] { stop, -1 }, network.getStopLocation(stop), end, time, time
+					+ egress[stop], egressDistance));
+			int s = stop;
+			for (int i = k; i >= 0; i--) {
+				Round r = rounds.get(i);
+				if (r.walkTime[s] <= r.transitTime[s]) {
+					int from = r.walkFrom[s];
+					LatLon fromLocation = from == -1 ? start : network.getStopLocation(from);
+					float fromTime = from == -1 ? 0 : r.transitTime[from];
+					float distance = from == -1 ? r.walkTime[s] * walkSpeed : (r.walkTime[s] - fromTime) * walkSpeed;
+					legs.add(new TransportLeg(null, new int[] { from, s }, fromLocation, network.getStopLocation(s),
+							fromTime, r.walkTime[s], distance));
+					if (from == -1) {
+						break;
+					}
+					s = from;
+				}
+				int p = r.pattern[s];
+				int pstart = network.patternStart[p];
+				int[] rideStops = new int[r.alightPosition[s] - r.boardPosition[s] + 1];
+				System.arraycopy(network.patternStops, pstart + r.boardPosition[s], rideStops, 0, rideStops.length);
+				int board = rideStops[0];
+				float rideStart = rounds.get(i - 1).time(board) + boardingTime;
+				legs.add(new TransportLeg(network.getPatternRoute(p), rideStops, network.getStopLocation(board), network
+						.getStopLocation(s), rideStart, r.transitTime[s], 0));
+				s = board;
+			}
+			Collections.reverse(legs);
+			return new TransportJourney(legs);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package net.osmand.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Common handling of tasks submitted to executor : daemon thread pools and waiting for results,
+ * so failure or interruption of one task stops the others the same way everywhere.
+ */
+public class ParallelTasks {
+
+	/**
+	 * Fixed thread pool of daemon threads (they don't keep jvm running) with the name
+	 */
+	public static ExecutorService newDaemonThreadPool(int threads, final String name) {
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Waits for all tasks in the order of futures and returns their results.
+	 * If a task fails or waiting is interrupted, failed flag is set (running tasks could check it to stop early)
+	 * and tasks not started yet are cancelled. Failure of the task is thrown as is for IOException and
+	 * RuntimeException, other exceptions are wrapped into IllegalStateException.
+	 * @param failed flag shared with tasks, could be null
+	 */
+	public static <T> List<T> waitAll(Iterable<? extends Future<? extends T>> futures, AtomicBoolean failed)
+			throws IOException, InterruptedException {
+		List<T> res = new ArrayList<T>();
+		try {
+			for (Future<? extends T> f : futures) {
+				res.add(f.get());
+			}
+		} catch (InterruptedException e) {
+			stop(futures, failed);
+			throw e;
+		} catch (ExecutionException e) {
+			stop(futures, failed);
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+		return res;
+	}
+
+	/**
+	 * Same as {@link #waitAll(Iterable, AtomicBoolean)} for callers reporting only IOException,
+	 * interruption is thrown as InterruptedIOException with the message and interrupt flag of the thread is restored
+	 */
+	public static <T> List<T> waitAll(Iterable<? extends Future<? extends T>> futures, AtomicBoolean failed,
+			String interruptedMessage) throws IOException {
+		try {
+			return waitAll(futures, failed);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(interruptedMessage);
+		}
+	}
+
+	/**
+	 * Sets failed flag and cancels tasks which are not started yet (running tasks are not interrupted)
+	 */
+	public static void stop(Iterable<? extends Future<?>> futures, AtomicBoolean failed) {
+		if (failed != null) {
+			failed.set(true);
+		}
+		for (Future<?> f : futures) {
+			f.cancel(false);
+		}
+	}
+}
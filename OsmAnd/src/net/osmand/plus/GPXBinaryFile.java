@@ -0,0 +1,939 @@
+package net.osmand.plus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.osmand.IndexConstants;
+import net.osmand.PlatformUtil;
+import net.osmand.data.QuadRect;
+import net.osmand.plus.GPXStreamUtilities.GPXPointsBuffer;
+import net.osmand.plus.GPXUtilities.GPXExtensions;
+import net.osmand.plus.GPXUtilities.GPXFile;
+import net.osmand.plus.GPXUtilities.GPXTrackAnalysis;
+import net.osmand.plus.GPXUtilities.Route;
+import net.osmand.plus.GPXUtilities.Track;
+import net.osmand.plus.GPXUtilities.TrkSegment;
+import net.osmand.plus.GPXUtilities.WptPt;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Compact binary copy of a gpx file. The header contains {@link GPXTrackAnalysis} of the file, names of tracks
+ * and routes and for every segment its bbox, number of points and position of its points block, so tracks could be
+ * listed by reading the header only. Points blocks are read from the memory mapped file on demand.
+ *
+ * Points are delta encoded (zigzag varints) : lat/lon in 1e-7 degrees, time in ms, ele, speed and hdop in 1/100.
+ * Values which are not restored exactly by this encoding are stored as raw doubles, so conversion of
+ * {@link GPXFile} is lossless.
+ *
+ * File : int magic, int version, long source timestamp, long source length, int header length, header, points blocks
+ */
+public class GPXBinaryFile {
+
+	private static final Log log = PlatformUtil.getLog(GPXBinaryFile.class);
+
+	private static final int MAGIC = 0x4f475042; // OGPB
+	private static final int VERSION = 1;
+	private static final int FIXED_HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+	private static final String TMP_EXT = ".tmp";
+	private static final long TMP_FILE_TIMEOUT = 24 * 60 * 60 * 1000;
+
+	private static final double LAT_LON_SCALE = 1e7;
+	private static final double VALUE_SCALE = 100;
+
+	// point flags
+	private static final int HAS_TIME = 1;
+	private static final int HAS_ELE = 2;
+	private static final int HAS_SPEED = 4;
+	private static final int HAS_HDOP = 8;
+	private static final int HAS_INFO = 16;
+	// ele, speed and hdop are restored through float (as they are read from gpx)
+	private static final int FLOAT_VALUES = 32;
+	private static final int RAW_VALUES = 64;
+
+	private static class PointsBlock {
+		int pointsCount;
+		int offset;
+		int length;
+		QuadRect bounds;
+		Map<String, String> extensions;
+	}
+
+	private static class TrackInfo {
+		String name;
+		String desc;
+		Map<String, String> extensions;
+		List<PointsBlock> blocks = new ArrayList<PointsBlock>();
+	}
+
+	private final File file;
+	private RandomAccessFile raf;
+	private MappedByteBuffer data;
+	private long dataOffset;
+
+	private long sourceTimestamp;
+	private long sourceLength;
+	private String author;
+	private Map<String, String> extensions;
+	private GPXTrackAnalysis analysis;
+	private QuadRect bounds;
+	private List<TrackInfo> tracks = new ArrayList<TrackInfo>();
+	private List<TrackInfo> routes = new ArrayList<TrackInfo>();
+	private PointsBlock wayPoints;
+
+	private GPXBinaryFile(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Opens the file and reads its header, points are read later from the memory mapped file
+	 */
+	public static GPXBinaryFile open(File file) throws IOException {
+		GPXBinaryFile f = new GPXBinaryFile(file);
+		f.raf = new RandomAccessFile(file, "r");
+		boolean ok = false;
+		try {
+			f.readHeader();
+			ok = true;
+		} catch (RuntimeException e) {
+			// buffer underflow, negative sizes and so on
+			throw f.corrupted(e);
+		} finally {
+			if (!ok) {
+				f.close();
+			}
+		}
+		return f;
+	}
+
+	private void readHeader() throws IOException {
+		if (raf.length() < FIXED_HEADER_SIZE || raf.readInt() != MAGIC) {
+			throw new IOException("Not binary gpx file " + file.getName());
+		}
+		int version = raf.readInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported version " + version + " of " + file.getName());
+		}
+		sourceTimestamp = raf.readLong();
+		sourceLength = raf.readLong();
+		int headerLength = raf.readInt();
+		dataOffset = FIXED_HEADER_SIZE + (long) headerLength;
+		if (dataOffset > raf.length()) {
+			throw new IOException("Corrupted binary gpx file " + file.getName());
+		}
+		byte[] header = new byte[headerLength];
+		raf.readFully(header);
+		ByteBuffer buf = ByteBuffer.wrap(header);
+		author = readString(buf);
+		extensions = readExtensions(buf);
+		analysis = readAnalysis(buf);
+		bounds = readBounds(buf);
+		int tracksCount = readVarint(buf);
+		for (int i = 0; i < tracksCount; i++) {
+			TrackInfo t = readTrackInfo(buf);
+			int segments = readVarint(buf);
+			for (int j = 0; j < segments; j++) {
+				t.blocks.add(readBlock(buf));
+			}
+			tracks.add(t);
+		}
+		int routesCount = readVarint(buf);
+		for (int i = 0; i < routesCount; i++) {
+			TrackInfo t = readTrackInfo(buf);
+			t.blocks.add(readBlock(buf));
+			routes.add(t);
+		}
+		wayPoints = readBlock(buf);
+		if (buf.hasRemaining()) {
+			throw new IOException("Corrupted binary gpx file " + file.getName());
+		}
+	}
+
+	private IOException corrupted(RuntimeException e) {
+		return new IOException("Corrupted binary gpx file " + file.getName(), e);
+	}
+
+	public void close() throws IOException {
+		data = null;
+		if (raf != null) {
+			raf.close();
+			raf = null;
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Last modified time of the gpx file which was converted
+	 */
+	public long getSourceTimestamp() {
+		return sourceTimestamp;
+	}
+
+	public long getSourceLength() {
+		return sourceLength;
+	}
+
+	public String getAuthor() {
+		return author;
+	}
+
+	public GPXTrackAnalysis getAnalysis() {
+		return analysis;
+	}
+
+	/**
+	 * @return bounds of all points (lon/lat) or null if there are no points
+	 */
+	public QuadRect getBounds() {
+		return bounds;
+	}
+
+	public int getTracksCount() {
+		return tracks.size();
+	}
+
+	public String getTrackName(int track) {
+		return tracks.get(track).name;
+	}
+
+	public int getSegmentsCount(int track) {
+		return tracks.get(track).blocks.size();
+	}
+
+	public int getPointsCount(int track, int segment) {
+		return tracks.get(track).blocks.get(segment).pointsCount;
+	}
+
+	/**
+	 * @return bounds of the segment (lon/lat) or null if the segment is empty
+	 */
+	public QuadRect getSegmentBounds(int track, int segment) {
+		return tracks.get(track).blocks.get(segment).bounds;
+	}
+
+	/**
+	 * Reads points of the segment into the buffer (new buffer is created if it's null or small)
+	 */
+	public GPXPointsBuffer readSegmentPoints(int track, int segment, GPXPointsBuffer buffer) throws IOException {
+		PointsBlock block = tracks.get(track).blocks.get(segment);
+		if (buffer == null || buffer.capacity() < block.pointsCount) {
+			buffer = new GPXPointsBuffer(block.pointsCount);
+		}
+		buffer.clear();
+		ByteBuffer buf = getBlockData(block);
+		long[] prev = new long[6];
+		WptPt p = new WptPt();
+		try {
+			for (int i = 0; i < block.pointsCount; i++) {
+				readPoint(buf, prev, p, false);
+				buffer.add(p);
+			}
+		} catch (RuntimeException e) {
+			throw corrupted(e);
+		}
+		return buffer;
+	}
+
+	public List<WptPt> readSegment(int track, int segment) throws IOException {
+		return readPoints(tracks.get(track).blocks.get(segment));
+	}
+
+	public List<WptPt> readWayPoints() throws IOException {
+		return readPoints(wayPoints);
+	}
+
+	/**
+	 * Restores the gpx file, precomputed analysis is set as {@link GPXFile#storedAnalysis}
+	 */
+	public GPXFile loadGPXFile() throws IOException {
+		GPXFile gpx = new GPXFile();
+		gpx.author = author;
+		gpx.extensions = copy(extensions);
+		gpx.storedAnalysis = analysis;
+		for (TrackInfo t : tracks) {
+			Track track = new Track();
+			track.name = t.name;
+			track.desc = t.desc;
+			track.extensions = copy(t.extensions);
+			for (PointsBlock b : t.blocks) {
+				TrkSegment segment = new TrkSegment();
+				segment.extensions = copy(b.extensions);
+				segment.points = readPoints(b);
+				track.segments.add(segment);
+			}
+			gpx.tracks.add(track);
+		}
+		for (TrackInfo t : routes) {
+			Route route = new Route();
+			route.name = t.name;
+			route.desc = t.desc;
+			route.extensions = copy(t.extensions);
+			route.points = readPoints(t.blocks.get(0));
+			gpx.routes.add(route);
+		}
+		gpx.points = readPoints(wayPoints);
+		return gpx;
+	}
+
+	private List<WptPt> readPoints(PointsBlock block) throws IOException {
+		List<WptPt> points = new ArrayList<WptPt>(block.pointsCount);
+		ByteBuffer buf = getBlockData(block);
+		long[] prev = new long[6];
+		try {
+			for (int i = 0; i < block.pointsCount; i++) {
+				WptPt p = new WptPt();
+				readPoint(buf, prev, p, true);
+				points.add(p);
+			}
+		} catch (RuntimeException e) {
+			throw corrupted(e);
+		}
+		return points;
+	}
+
+	private ByteBuffer getBlockData(PointsBlock block) throws IOException {
+		ByteBuffer buf;
+		synchronized (this) {
+			if (raf == null) {
+				throw new IOException("File is closed " + file.getName());
+			}
+			if (data == null) {
+				data = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, dataOffset, raf.length() - dataOffset);
+			}
+			buf = data.duplicate();
+		}
+		if (block.offset < 0 || block.length < 0 || block.offset + block.length > buf.limit()) {
+			throw new IOException("Corrupted binary gpx file " + file.getName());
+		}
+		buf.position(block.offset);
+		buf.limit(block.offset + block.length);
+		return buf;
+	}
+
+	/**
+	 * Writes the binary file, analysis is stored in the header
+	 */
+	public static void write(GPXFile gpx, GPXTrackAnalysis analysis, File out, long sourceTimestamp, long sourceLength)
+			throws IOException {
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		DataOutputStream dataOut = new DataOutputStream(data);
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream h = new DataOutputStream(header);
+		QuadRect bounds = null;
+		writeString(h, gpx.author);
+		writeExtensions(h, gpx);
+		writeAnalysis(h, analysis);
+		List<PointsBlock> blocks = new ArrayList<PointsBlock>();
+		for (Track t : gpx.tracks) {
+			for (TrkSegment s : t.segments) {
+				blocks.add(writePoints(dataOut, s.points, s));
+			}
+		}
+		for (Route r : gpx.routes) {
+			blocks.add(writePoints(dataOut, r.points, null));
+		}
+		PointsBlock wpt = writePoints(dataOut, gpx.points, null);
+		blocks.add(wpt);
+		for (PointsBlock b : blocks) {
+			if (b.bounds != null) {
+				bounds = expand(bounds, b.bounds.left, b.bounds.top);
+				expand(bounds, b.bounds.right, b.bounds.bottom);
+			}
+		}
+		writeBounds(h, bounds);
+		int ind = 0;
+		writeVarint(h, gpx.tracks.size());
+		for (Track t : gpx.tracks) {
+			writeTrackInfo(h, t.name, t.desc, t);
+			writeVarint(h, t.segments.size());
+			for (int i = 0; i < t.segments.size(); i++) {
+				writeBlock(h, blocks.get(ind++));
+			}
+		}
+		writeVarint(h, gpx.routes.size());
+		for (Route r : gpx.routes) {
+			writeTrackInfo(h, r.name, r.desc, r);
+			writeBlock(h, blocks.get(ind++));
+		}
+		writeBlock(h, wpt);
+		h.flush();
+		dataOut.flush();
+
+		RandomAccessFile raf = new RandomAccessFile(out, "rw");
+		try {
+			raf.setLength(0);
+			raf.writeInt(MAGIC);
+			raf.writeInt(VERSION);
+			raf.writeLong(sourceTimestamp);
+			raf.writeLong(sourceLength);
+			raf.writeInt(header.size());
+			raf.write(header.toByteArray());
+			raf.write(data.toByteArray());
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static PointsBlock writePoints(DataOutputStream out, List<WptPt> points, GPXExtensions ext)
+			throws IOException {
+		PointsBlock b = new PointsBlock();
+		b.offset = out.size();
+		b.pointsCount = points.size();
+		b.extensions = ext == null ? null : ext.extensions;
+		long[] prev = new long[6];
+		for (WptPt p : points) {
+			writePoint(out, p, prev);
+			b.bounds = expand(b.bounds, p.lon, p.lat);
+		}
+		b.length = out.size() - b.offset;
+		return b;
+	}
+
+	// lat/lon bounds : top is max latitude
+	private static QuadRect expand(QuadRect r, double lon, double lat) {
+		if (r == null) {
+			return new QuadRect(lon, lat, lon, lat);
+		}
+		r.left = Math.min(r.left, lon);
+		r.right = Math.max(r.right, lon);
+		r.top = Math.max(r.top, lat);
+		r.bottom = Math.min(r.bottom, lat);
+		return r;
+	}
+
+	// prev : lat, lon, time, ele, speed, hdop of the previous point
+	private static void writePoint(DataOutputStream out, WptPt p, long[] prev) throws IOException {
+		int flags = 0;
+		if (p.time != 0) {
+			flags |= HAS_TIME;
+		}
+		if (!Double.isNaN(p.ele)) {
+			flags |= HAS_ELE;
+		}
+		if (p.speed != 0) {
+			flags |= HAS_SPEED;
+		}
+		if (!Double.isNaN(p.hdop)) {
+			flags |= HAS_HDOP;
+		}
+		if (p.name != null || p.desc != null || p.link != null || p.category != null || p.extensions != null) {
+			flags |= HAS_INFO;
+		}
+		long lat = Math.round(p.lat * LAT_LON_SCALE);
+		long lon = Math.round(p.lon * LAT_LON_SCALE);
+		long ele = Math.round(p.ele * VALUE_SCALE);
+		long speed = Math.round(p.speed * VALUE_SCALE);
+		long hdop = Math.round(p.hdop * VALUE_SCALE);
+		if (!same(lat / LAT_LON_SCALE, p.lat) || !same(lon / LAT_LON_SCALE, p.lon)) {
+			flags |= RAW_VALUES;
+		} else if (!sameValues(flags, ele, speed, hdop, p, false)) {
+			flags |= sameValues(flags, ele, speed, hdop, p, true) ? FLOAT_VALUES : RAW_VALUES;
+		}
+		out.writeByte(flags);
+		if ((flags & HAS_TIME) != 0) {
+			writeSVarint(out, p.time - prev[2]);
+			prev[2] = p.time;
+		}
+		if ((flags & RAW_VALUES) != 0) {
+			out.writeDouble(p.lat);
+			out.writeDouble(p.lon);
+			if ((flags & HAS_ELE) != 0) {
+				out.writeDouble(p.ele);
+			}
+			if ((flags & HAS_SPEED) != 0) {
+				out.writeDouble(p.speed);
+			}
+			if ((flags & HAS_HDOP) != 0) {
+				out.writeDouble(p.hdop);
+			}
+		} else {
+			writeSVarint(out, lat - prev[0]);
+			writeSVarint(out, lon - prev[1]);
+			prev[0] = lat;
+			prev[1] = lon;
+			if ((flags & HAS_ELE) != 0) {
+				writeSVarint(out, ele - prev[3]);
+				prev[3] = ele;
+			}
+			if ((flags & HAS_SPEED) != 0) {
+				writeSVarint(out, speed - prev[4]);
+				prev[4] = speed;
+			}
+			if ((flags & HAS_HDOP) != 0) {
+				writeSVarint(out, hdop - prev[5]);
+				prev[5] = hdop;
+			}
+		}
+		if ((flags & HAS_INFO) != 0) {
+			writeString(out, p.name);
+			writeString(out, p.desc);
+			writeString(out, p.link);
+			writeString(out, p.category);
+			writeExtensions(out, p);
+		}
+	}
+
+	private static boolean sameValues(int flags, long ele, long speed, long hdop, WptPt p, boolean floatValues) {
+		return ((flags & HAS_ELE) == 0 || same(decodeValue(ele, floatValues), p.ele))
+				&& ((flags & HAS_SPEED) == 0 || same(decodeValue(speed, floatValues), p.speed))
+				&& ((flags & HAS_HDOP) == 0 || same(decodeValue(hdop, floatValues), p.hdop));
+	}
+
+	private static double decodeValue(long v, boolean floatValue) {
+		double d = v / VALUE_SCALE;
+		return floatValue ? (float) d : d;
+	}
+
+	private static boolean same(double a, double b) {
+		return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+	}
+
+	private static void readPoint(ByteBuffer buf, long[] prev, WptPt p, boolean readInfo) {
+		int flags = buf.get() & 0xff;
+		if ((flags & HAS_TIME) != 0) {
+			prev[2] += readSVarint(buf);
+			p.time = prev[2];
+		} else {
+			p.time = 0;
+		}
+		p.ele = Double.NaN;
+		p.speed = 0;
+		p.hdop = Double.NaN;
+		if ((flags & RAW_VALUES) != 0) {
+			p.lat = buf.getDouble();
+			p.lon = buf.getDouble();
+			if ((flags & HAS_ELE) != 0) {
+				p.ele = buf.getDouble();
+			}
+			if ((flags & HAS_SPEED) != 0) {
+				p.speed = buf.getDouble();
+			}
+			if ((flags & HAS_HDOP) != 0) {
+				p.hdop = buf.getDouble();
+			}
+		} else {
+			boolean floatValues = (flags & FLOAT_VALUES) != 0;
+			prev[0] += readSVarint(buf);
+			prev[1] += readSVarint(buf);
+			p.lat = prev[0] / LAT_LON_SCALE;
+			p.lon = prev[1] / LAT_LON_SCALE;
+			if ((flags & HAS_ELE) != 0) {
+				prev[3] += readSVarint(buf);
+				p.ele = decodeValue(prev[3], floatValues);
+			}
+			if ((flags & HAS_SPEED) != 0) {
+				prev[4] += readSVarint(buf);
+				p.speed = decodeValue(prev[4], floatValues);
+			}
+			if ((flags & HAS_HDOP) != 0) {
+				prev[5] += readSVarint(buf);
+				p.hdop = decodeValue(prev[5], floatValues);
+			}
+		}
+		if ((flags & HAS_INFO) != 0) {
+			String name = readString(buf);
+			String desc = readString(buf);
+			String link = readString(buf);
+			String category = readString(buf);
+			Map<String, String> ext = readExtensions(buf);
+			if (readInfo) {
+				p.name = name;
+				p.desc = desc;
+				p.link = link;
+				p.category = category;
+				p.extensions = ext;
+			}
+		}
+	}
+
+	private static void writeAnalysis(DataOutputStream out, GPXTrackAnalysis a) throws IOException {
+		out.writeFloat(a.totalDistance);
+		writeVarint(out, a.totalTracks);
+		out.writeLong(a.startTime);
+		out.writeLong(a.endTime);
+		out.writeLong(a.timeSpan);
+		out.writeLong(a.timeMoving);
+		out.writeFloat(a.totalDistanceMoving);
+		out.writeDouble(a.diffElevationUp);
+		out.writeDouble(a.diffElevationDown);
+		out.writeDouble(a.avgElevation);
+		out.writeDouble(a.minElevation);
+		out.writeDouble(a.maxElevation);
+		out.writeFloat(a.maxSpeed);
+		out.writeFloat(a.avgSpeed);
+		writeVarint(out, a.points);
+		writeVarint(out, a.wptPoints);
+		out.writeDouble(a.metricEnd);
+		writeAnalysisPoint(out, a.locationStart);
+		writeAnalysisPoint(out, a.locationEnd);
+	}
+
+	private static GPXTrackAnalysis readAnalysis(ByteBuffer buf) {
+		GPXTrackAnalysis a = new GPXTrackAnalysis();
+		a.totalDistance = buf.getFloat();
+		a.totalTracks = readVarint(buf);
+		a.startTime = buf.getLong();
+		a.endTime = buf.getLong();
+		a.timeSpan = buf.getLong();
+		a.timeMoving = buf.getLong();
+		a.totalDistanceMoving = buf.getFloat();
+		a.diffElevationUp = buf.getDouble();
+		a.diffElevationDown = buf.getDouble();
+		a.avgElevation = buf.getDouble();
+		a.minElevation = buf.getDouble();
+		a.maxElevation = buf.getDouble();
+		a.maxSpeed = buf.getFloat();
+		a.avgSpeed = buf.getFloat();
+		a.points = readVarint(buf);
+		a.wptPoints = readVarint(buf);
+		a.metricEnd = buf.getDouble();
+		a.locationStart = readAnalysisPoint(buf);
+		a.locationEnd = readAnalysisPoint(buf);
+		return a;
+	}
+
+	private static void writeAnalysisPoint(DataOutputStream out, WptPt p) throws IOException {
+		out.writeBoolean(p != null);
+		if (p != null) {
+			writePoint(out, p, new long[6]);
+		}
+	}
+
+	private static WptPt readAnalysisPoint(ByteBuffer buf) {
+		if (buf.get() == 0) {
+			return null;
+		}
+		WptPt p = new WptPt();
+		readPoint(buf, new long[6], p, true);
+		return p;
+	}
+
+	private static void writeTrackInfo(DataOutputStream out, String name, String desc, GPXExtensions ext)
+			throws IOException {
+		writeString(out, name);
+		writeString(out, desc);
+		writeExtensions(out, ext);
+	}
+
+	private static TrackInfo readTrackInfo(ByteBuffer buf) {
+		TrackInfo t = new TrackInfo();
+		t.name = readString(buf);
+		t.desc = readString(buf);
+		t.extensions = readExtensions(buf);
+		return t;
+	}
+
+	private static void writeBlock(DataOutputStream out, PointsBlock b) throws IOException {
+		writeVarint(out, b.pointsCount);
+		writeVarint(out, b.offset);
+		writeVarint(out, b.length);
+		writeBounds(out, b.bounds);
+		writeExtensions(out, b.extensions);
+	}
+
+	private static PointsBlock readBlock(ByteBuffer buf) {
+		PointsBlock b = new PointsBlock();
+		b.pointsCount = readVarint(buf);
+		b.offset = readVarint(buf);
+		b.length = readVarint(buf);
+		b.bounds = readBounds(buf);
+		b.extensions = readExtensions(buf);
+		return b;
+	}
+
+	// bounds are rounded outside to 1e-7 degrees
+	private static void writeBounds(DataOutputStream out, QuadRect r) throws IOException {
+		out.writeBoolean(r != null);
+		if (r != null) {
+			writeSVarint(out, (long) Math.floor(r.left * LAT_LON_SCALE));
+			writeSVarint(out, (long) Math.ceil(r.top * LAT_LON_SCALE));
+			writeSVarint(out, (long) Math.ceil(r.right * LAT_LON_SCALE));
+			writeSVarint(out, (long) Math.floor(r.bottom * LAT_LON_SCALE));
+		}
+	}
+
+	private static QuadRect readBounds(ByteBuffer buf) {
+		if (buf.get() == 0) {
+			return null;
+		}
+		double left = readSVarint(buf) / LAT_LON_SCALE;
+		double top = readSVarint(buf) / LAT_LON_SCALE;
+		double right = readSVarint(buf) / LAT_LON_SCALE;
+		double bottom = readSVarint(buf) / LAT_LON_SCALE;
+		return new QuadRect(left, top, right, bottom);
+	}
+
+	private static void writeExtensions(DataOutputStream out, GPXExtensions ext) throws IOException {
+		writeExtensions(out, ext == null ? null : ext.extensions);
+	}
+
+	private static void writeExtensions(DataOutputStream out, Map<String, String> ext) throws IOException {
+		if (ext == null) {
+			writeVarint(out, 0);
+			return;
+		}
+		writeVarint(out, ext.size() + 1);
+		for (Map.Entry<String, String> e : ext.entrySet()) {
+			writeString(out, e.getKey());
+			writeString(out, e.getValue());
+		}
+	}
+
+	// null and empty extensions are different for GPXExtensions
+	private static Map<String, String> readExtensions(ByteBuffer buf) {
+		int size = readVarint(buf) - 1;
+		if (size < 0) {
+			return null;
+		}
+		Map<String, String> ext = new LinkedHashMap<String, String>();
+		for (int i = 0; i < size; i++) {
+			String key = readString(buf);
+			ext.put(key, readString(buf));
+		}
+		return ext;
+	}
+
+	private static Map<String, String> copy(Map<String, String> ext) {
+		return ext == null ? null : new LinkedHashMap<String, String>(ext);
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			writeVarint(out, 0);
+		} else {
+			byte[] bytes = s.getBytes("UTF-8");
+			writeVarint(out, bytes.length + 1);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(ByteBuffer buf) {
+		int len = readVarint(buf) - 1;
+		if (len < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[len];
+		buf.get(bytes);
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void writeVarint(DataOutputStream out, long v) throws IOException {
+		while ((v & ~0x7fL) != 0) {
+			out.writeByte((int) ((v & 0x7f) | 0x80));
+			v >>>= 7;
+		}
+		out.writeByte((int) v);
+	}
+
+	private static void writeSVarint(DataOutputStream out, long v) throws IOException {
+		writeVarint(out, (v << 1) ^ (v >> 63));
+	}
+
+	private static long readVarLong(ByteBuffer buf) {
+		long r = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buf.get();
+			r |= (long) (b & 0x7f) << shift;
+			shift += 7;
+		} while (b < 0);
+		return r;
+	}
+
+	private static int readVarint(ByteBuffer buf) {
+		return (int) readVarLong(buf);
+	}
+
+	private static long readSVarint(ByteBuffer buf) {
+		long v = readVarLong(buf);
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	/**
+	 * Binary copy of the gpx file in the application cache (it's not listed with gpx files)
+	 */
+	public static File getCacheFile(OsmandApplication app, File gpx) {
+		String name = gpx.getName();
+		if (name.toLowerCase().endsWith(".gpx")) {
+			name = name.substring(0, name.length() - ".gpx".length());
+		}
+		File dir = app.getAppPath(IndexConstants.GPX_CACHE_DIR);
+		return new File(dir, name + "_" + Integer.toHexString(gpx.getAbsolutePath().hashCode())
+				+ IndexConstants.GPX_BINARY_EXT);
+	}
+
+	/**
+	 * @return binary copy of the gpx file or null if there is no copy or the gpx file was changed after conversion,
+	 * copy which couldn't be read is deleted
+	 */
+	public static GPXBinaryFile openCached(OsmandApplication app, File gpx) {
+		File f = getCacheFile(app, gpx);
+		if (!f.exists()) {
+			return null;
+		}
+		try {
+			GPXBinaryFile bf = open(f);
+			if (bf.sourceTimestamp == gpx.lastModified() && bf.sourceLength == gpx.length()) {
+				return bf;
+			}
+			bf.close();
+		} catch (IOException e) {
+			log.warn("Error reading binary gpx " + f.getName(), e);
+			f.delete();
+		}
+		return null;
+	}
+
+	/**
+	 * Reads only the header of the cached binary copy
+	 */
+	public static GPXTrackAnalysis readCachedAnalysis(OsmandApplication app, File gpx) {
+		GPXBinaryFile bf = openCached(app, gpx);
+		if (bf == null) {
+			return null;
+		}
+		try {
+			bf.close();
+		} catch (IOException e) {
+		}
+		return bf.getAnalysis();
+	}
+
+	/**
+	 * Writes binary copy of the gpx file which was just written. The file is read again, so the copy has the values
+	 * as they are read from gpx (coordinates are rounded to 7 decimals and time to seconds by the gpx format).
+	 * The whole file is loaded in memory, so it shouldn't be called where the failure matters (errors are only logged).
+	 */
+	public static boolean writeCache(OsmandApplication app, File gpx) {
+		try {
+			GPXFile file = GPXUtilities.loadGPXFile(app, gpx);
+			return file.warning == null && writeCache(app, gpx, file);
+		} catch (RuntimeException e) {
+			log.error("Error writing binary gpx for " + gpx.getName(), e);
+		} catch (OutOfMemoryError e) {
+			log.error("Not enough memory to write binary gpx for " + gpx.getName(), e);
+		}
+		return false;
+	}
+
+	/**
+	 * Deletes binary copy of the gpx file, should be called when the gpx file is deleted
+	 */
+	public static void deleteCache(OsmandApplication app, File gpx) {
+		getCacheFile(app, gpx).delete();
+	}
+
+	/**
+	 * Renames binary copy of the gpx file which was renamed (renamed file keeps timestamp and length, so the copy
+	 * stays valid)
+	 */
+	public static void renameCache(OsmandApplication app, File from, File to) {
+		File f = getCacheFile(app, from);
+		if (f.exists()) {
+			File dest = getCacheFile(app, to);
+			dest.delete();
+			if (!f.renameTo(dest)) {
+				f.delete();
+			}
+		}
+	}
+
+	/**
+	 * Deletes binary copies of all files except of the given gpx files (copies of files deleted or renamed
+	 * outside of the application)
+	 */
+	public static void deleteUnusedCache(OsmandApplication app, Collection<File> gpxFiles) {
+		File[] files = app.getAppPath(IndexConstants.GPX_CACHE_DIR).listFiles();
+		if (files == null) {
+			return;
+		}
+		Set<String> used = new HashSet<String>();
+		for (File gpx : gpxFiles) {
+			used.add(getCacheFile(app, gpx).getName());
+		}
+		long time = System.currentTimeMillis();
+		for (File f : files) {
+			if (f.getName().endsWith(IndexConstants.GPX_BINARY_EXT)) {
+				if (!used.contains(f.getName())) {
+					f.delete();
+				}
+			} else if (f.getName().endsWith(TMP_EXT) && time - f.lastModified() > TMP_FILE_TIMEOUT) {
+				// temporary files left by interrupted writing (recent ones could be written now)
+				f.delete();
+			}
+		}
+	}
+
+	// gpx should be read from the file, so the copy is the same as the file
+	private static boolean writeCache(OsmandApplication app, File gpx, GPXFile file) {
+		File f = getCacheFile(app, gpx);
+		File tmp = null;
+		try {
+			f.getParentFile().mkdirs();
+			// unique name, so the same file could be cached concurrently
+			tmp = File.createTempFile(f.getName(), TMP_EXT, f.getParentFile());
+			long timestamp = gpx.lastModified();
+			write(file, file.getAnalysis(timestamp), tmp, timestamp, gpx.length());
+			f.delete();
+			if (tmp.renameTo(f)) {
+				return true;
+			}
+		} catch (IOException e) {
+			log.error("Error writing binary gpx " + f.getName(), e);
+		}
+		if (tmp != null) {
+			tmp.delete();
+		}
+		return false;
+	}
+
+	/**
+	 * Loads gpx file from the cached binary copy if it's up to date, otherwise reads gpx and writes the copy
+	 */
+	public static GPXFile loadGPXFile(OsmandApplication app, File gpx) {
+		GPXBinaryFile bf = openCached(app, gpx);
+		if (bf != null) {
+			try {
+				GPXFile res = bf.loadGPXFile();
+				res.path = gpx.getAbsolutePath();
+				return res;
+			} catch (IOException e) {
+				log.warn("Error reading binary gpx " + bf.getFile().getName(), e);
+			} finally {
+				try {
+					bf.close();
+				} catch (IOException e) {
+				}
+			}
+			// copy is corrupted, it's replaced below
+			bf.getFile().delete();
+		}
+		GPXFile res = GPXUtilities.loadGPXFile(app, gpx);
+		if (res.warning == null) {
+			writeCache(app, gpx, res);
+		}
+		return res;
+	}
+}
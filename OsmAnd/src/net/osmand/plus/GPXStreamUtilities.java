@@ -0,0 +1,671 @@
+package net.osmand.plus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Map;
+import java.util.TimeZone;
+
+import net.osmand.PlatformUtil;
+import net.osmand.plus.GPXUtilities.GPXTrackAnalysis;
+import net.osmand.plus.GPXUtilities.WptPt;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Streaming reading and writing of gpx files. Unlike {@link GPXUtilities#loadGPXFile} no {@link GPXUtilities.GPXFile}
+ * is built : track points are passed by chunks of columnar primitive buffers and waypoints by one reused object, so
+ * files of any size are processed with constant memory and almost no allocations per point.
+ */
+public class GPXStreamUtilities {
+
+	public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+	private static final long[] POW10 = new long[] { 1, 10, 100, 1000, 10000, 100000, 1000000, 10000000,
+			100000000, 1000000000 };
+	private static final long MS_IN_DAY = 24 * 60 * 60 * 1000;
+
+	private static final int NO_POINT = 0;
+	private static final int TRACK_POINT = 1;
+	private static final int WAY_POINT = 2;
+	private static final int ROUTE_POINT = 3;
+
+	/**
+	 * Columnar buffer of track points, missing values are stored as in {@link WptPt} (NaN for ele and hdop, 0 for
+	 * time and speed)
+	 */
+	public static class GPXPointsBuffer {
+		public final double[] lat;
+		public final double[] lon;
+		public final double[] ele;
+		public final double[] speed;
+		public final double[] hdop;
+		public final long[] time;
+		private int size;
+
+		public GPXPointsBuffer(int capacity) {
+			lat = new double[capacity];
+			lon = new double[capacity];
+			ele = new double[capacity];
+			speed = new double[capacity];
+			hdop = new double[capacity];
+			time = new long[capacity];
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int capacity() {
+			return lat.length;
+		}
+
+		public boolean isFull() {
+			return size == lat.length;
+		}
+
+		public void clear() {
+			size = 0;
+		}
+
+		public void add(double lat, double lon, long time, double ele, double speed, double hdop) {
+			this.lat[size] = lat;
+			this.lon[size] = lon;
+			this.time[size] = time;
+			this.ele[size] = ele;
+			this.speed[size] = speed;
+			this.hdop[size] = hdop;
+			size++;
+		}
+
+		public void add(WptPt p) {
+			add(p.lat, p.lon, p.time, p.ele, p.speed, p.hdop);
+		}
+
+		/**
+		 * Fills the point (it could be reused for all points) by the values of i-th point
+		 */
+		public WptPt get(int i, WptPt p) {
+			p.lat = lat[i];
+			p.lon = lon[i];
+			p.time = time[i];
+			p.ele = ele[i];
+			p.speed = speed[i];
+			p.hdop = hdop[i];
+			return p;
+		}
+	}
+
+	public interface GPXStreamListener {
+
+		/**
+		 * Track points (trkpt) of the current segment read after the previous call, buffer is cleared after the call.
+		 * segmentEnd is true for the last part of the segment (it could be empty), next points belong to the next segment.
+		 */
+		public void trackPoints(GPXPointsBuffer points, boolean segmentEnd) throws IOException;
+
+		/**
+		 * Waypoint (wpt) or route point (rtept), the object is reused for the next points and should be copied
+		 * by {@link WptPt#WptPt(WptPt)} to be kept
+		 */
+		public void wayPoint(WptPt point, boolean routePoint) throws IOException;
+	}
+
+	public static void readGPX(InputStream is, GPXStreamListener listener) throws IOException {
+		readGPX(is, listener, new GPXPointsBuffer(DEFAULT_BUFFER_SIZE));
+	}
+
+	/**
+	 * Reads the file tag by tag and passes points to the listener, names and extensions are read only for waypoints
+	 * and route points, speed of track points is read from the extensions as {@link GPXUtilities#loadGPXFile} does.
+	 */
+	public static void readGPX(InputStream is, GPXStreamListener listener, GPXPointsBuffer buffer) throws IOException {
+		SimpleDateFormat format = new SimpleDateFormat(GPXUtilities.GPX_TIME_FORMAT);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		WptPt point = new WptPt();
+		buffer.clear();
+		// type of the point which is read and its tag
+		int pointType = NO_POINT;
+		String pointTag = null;
+		boolean inSegment = false;
+		boolean extensionReadMode = false;
+		try {
+			XmlPullParser parser = PlatformUtil.newXMLPullParser();
+			parser.setInput(GPXUtilities.getUTF8Reader(is));
+			int tok;
+			while ((tok = parser.next()) != XmlPullParser.END_DOCUMENT) {
+				if (tok == XmlPullParser.START_TAG) {
+					String tag = parser.getName();
+					if (pointType == NO_POINT) {
+						if (tag.equals("trkseg")) {
+							inSegment = true;
+						} else if (inSegment && tag.equals("trkpt")) {
+							pointType = TRACK_POINT;
+						} else if (tag.equals("wpt")) {
+							pointType = WAY_POINT;
+						} else if (tag.equals("rtept")) {
+							pointType = ROUTE_POINT;
+						}
+						if (pointType != NO_POINT) {
+							pointTag = tag;
+							resetPoint(point);
+							parsePointAttributes(parser, point);
+						}
+					} else if (extensionReadMode) {
+						String value = GPXUtilities.readText(parser, tag);
+						if (value != null) {
+							if (tag.equals("speed")) {
+								point.speed = parseFloat(value, point.speed);
+							}
+							if (pointType != TRACK_POINT) {
+								point.getExtensionsToWrite().put(tag, value);
+							}
+						}
+					} else if (tag.equals("extensions")) {
+						extensionReadMode = true;
+					} else if (tag.equals("ele")) {
+						point.ele = parseFloat(GPXUtilities.readText(parser, tag), point.ele);
+					} else if (tag.equals("hdop")) {
+						point.hdop = parseFloat(GPXUtilities.readText(parser, tag), point.hdop);
+					} else if (tag.equals("time")) {
+						String text = GPXUtilities.readText(parser, tag);
+						if (text != null) {
+							point.time = parseTime(text, format);
+						}
+					} else if (pointType != TRACK_POINT) {
+						if (tag.equals("name")) {
+							point.name = GPXUtilities.readText(parser, tag);
+						} else if (tag.equals("desc")) {
+							point.desc = GPXUtilities.readText(parser, tag);
+						} else if (tag.equals("link")) {
+							point.link = parser.getAttributeValue("", "href");
+						} else if (tag.equals("category")) {
+							point.category = GPXUtilities.readText(parser, tag);
+						} else if (tag.equals("type")) {
+							if (point.category == null) {
+								point.category = GPXUtilities.readText(parser, tag);
+							}
+						}
+					}
+				} else if (tok == XmlPullParser.END_TAG) {
+					String tag = parser.getName();
+					if (tag.equals("extensions")) {
+						extensionReadMode = false;
+					} else if (pointType != NO_POINT && tag.equals(pointTag)) {
+						if (pointType == TRACK_POINT) {
+							buffer.add(point);
+							if (buffer.isFull()) {
+								listener.trackPoints(buffer, false);
+								buffer.clear();
+							}
+						} else {
+							listener.wayPoint(point, pointType == ROUTE_POINT);
+						}
+						pointType = NO_POINT;
+					} else if (inSegment && tag.equals("trkseg")) {
+						listener.trackPoints(buffer, true);
+						buffer.clear();
+						inSegment = false;
+					}
+				}
+			}
+		} catch (XmlPullParserException e) {
+			throw new IOException("Error reading gpx : " + e.getMessage());
+		}
+	}
+
+	private static void resetPoint(WptPt p) {
+		p.lat = 0;
+		p.lon = 0;
+		p.name = null;
+		p.link = null;
+		p.category = null;
+		p.desc = null;
+		p.time = 0;
+		p.ele = Double.NaN;
+		p.speed = 0;
+		p.hdop = Double.NaN;
+		if (p.extensions != null) {
+			p.extensions.clear();
+		}
+	}
+
+	private static void parsePointAttributes(XmlPullParser parser, WptPt p) {
+		try {
+			p.lat = Double.parseDouble(parser.getAttributeValue("", "lat")); //$NON-NLS-1$ //$NON-NLS-2$
+			p.lon = Double.parseDouble(parser.getAttributeValue("", "lon")); //$NON-NLS-1$ //$NON-NLS-2$
+		} catch (NumberFormatException e) {
+		} catch (NullPointerException e) {
+		}
+	}
+
+	private static double parseFloat(String text, double def) {
+		if (text != null) {
+			try {
+				return Float.parseFloat(text);
+			} catch (NumberFormatException e) {
+			}
+		}
+		return def;
+	}
+
+	/**
+	 * Parses xml schema time (yyyy-MM-ddTHH:mm:ss with optional fraction of seconds and zone) without allocations,
+	 * other formats are parsed by the format. Returns 0 if the time couldn't be parsed.
+	 */
+	public static long parseTime(String text, SimpleDateFormat format) {
+		int len = text.length();
+		if (len >= 19 && text.charAt(4) == '-' && text.charAt(7) == '-' && text.charAt(10) == 'T'
+				&& text.charAt(13) == ':' && text.charAt(16) == ':') {
+			int year = parseDigits(text, 0, 4);
+			int month = parseDigits(text, 5, 7);
+			int day = parseDigits(text, 8, 10);
+			int hour = parseDigits(text, 11, 13);
+			int minute = parseDigits(text, 14, 16);
+			int second = parseDigits(text, 17, 19);
+			int pos = 19;
+			int millis = 0;
+			if (pos < len && text.charAt(pos) == '.') {
+				pos++;
+				int scale = 100;
+				while (pos < len && text.charAt(pos) >= '0' && text.charAt(pos) <= '9') {
+					millis += (text.charAt(pos) - '0') * scale;
+					scale /= 10;
+					pos++;
+				}
+			}
+			int offset = 0;
+			boolean valid = year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= 31 && hour >= 0
+					&& hour <= 24 && minute >= 0 && minute < 60 && second >= 0 && second <= 60;
+			if (pos < len && text.charAt(pos) == 'Z') {
+				pos++;
+			} else if (pos + 6 == len && (text.charAt(pos) == '+' || text.charAt(pos) == '-')
+					&& text.charAt(pos + 3) == ':') {
+				int h = parseDigits(text, pos + 1, pos + 3);
+				int m = parseDigits(text, pos + 4, pos + 6);
+				valid &= h >= 0 && m >= 0;
+				offset = (h * 60 + m) * 60 * 1000;
+				if (text.charAt(pos) == '+') {
+					offset = -offset;
+				}
+				pos = len;
+			}
+			if (valid && pos == len) {
+				return daysFromCivil(year, month, day) * MS_IN_DAY + ((hour * 60 + minute) * 60 + second) * 1000L
+						+ millis + offset;
+			}
+		}
+		try {
+			return format.parse(text).getTime();
+		} catch (ParseException e) {
+			return 0;
+		}
+	}
+
+	private static int parseDigits(String text, int start, int end) {
+		int r = 0;
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			r = r * 10 + (c - '0');
+		}
+		return r;
+	}
+
+	// days since 1970-01-01 of the proleptic gregorian date
+	private static long daysFromCivil(long y, int m, int d) {
+		y -= m <= 2 ? 1 : 0;
+		long era = (y >= 0 ? y : y - 399) / 400;
+		long yoe = y - era * 400;
+		long doy = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+		long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097 + doe - 719468;
+	}
+
+	/**
+	 * Appends time in GPX format (yyyy-MM-ddTHH:mm:ssZ in UTC)
+	 */
+	public static StringBuilder appendTime(StringBuilder sb, long time) {
+		long days = time / MS_IN_DAY;
+		long ms = time % MS_IN_DAY;
+		if (ms < 0) {
+			ms += MS_IN_DAY;
+			days--;
+		}
+		// civil date from days
+		long z = days + 719468;
+		long era = (z >= 0 ? z : z - 146096) / 146097;
+		long doe = z - era * 146097;
+		long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+		long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+		long mp = (5 * doy + 2) / 153;
+		long day = doy - (153 * mp + 2) / 5 + 1;
+		long month = mp < 10 ? mp + 3 : mp - 9;
+		long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+		int sec = (int) (ms / 1000);
+		appendDigits(sb, year, 4).append('-');
+		appendDigits(sb, month, 2).append('-');
+		appendDigits(sb, day, 2).append('T');
+		appendDigits(sb, sec / 3600, 2).append(':');
+		appendDigits(sb, (sec / 60) % 60, 2).append(':');
+		appendDigits(sb, sec % 60, 2).append('Z');
+		return sb;
+	}
+
+	private static StringBuilder appendDigits(StringBuilder sb, long value, int digits) {
+		for (long p = POW10[digits - 1]; p > 1 && value < p; p /= 10) {
+			sb.append('0');
+		}
+		return sb.append(value);
+	}
+
+	/**
+	 * Appends the number with at least minDecimals and at most maxDecimals (<= 9) digits after the point
+	 * (trailing zeros are cut), same as {@link java.text.DecimalFormat} pattern "0.00###" but without allocations.
+	 */
+	public static StringBuilder appendNumber(StringBuilder sb, double value, int minDecimals, int maxDecimals) {
+		if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= 1e9) {
+			return sb.append(value);
+		}
+		long scale = POW10[maxDecimals];
+		long scaled = Math.round(Math.abs(value) * scale);
+		if (value < 0 && scaled != 0) {
+			sb.append('-');
+		}
+		sb.append(scaled / scale);
+		long fraction = scaled % scale;
+		int decimals = maxDecimals;
+		while (decimals > minDecimals && fraction % 10 == 0) {
+			fraction /= 10;
+			decimals--;
+		}
+		if (decimals > 0) {
+			sb.append('.');
+			appendDigits(sb, fraction, decimals);
+		}
+		return sb;
+	}
+
+	public static String formatLatLon(double value) {
+		return appendNumber(new StringBuilder(12), value, 2, 7).toString();
+	}
+
+	/**
+	 * Writes gpx directly to the writer point by point. Elements and values are written as by
+	 * {@link GPXUtilities#writeGpx(Writer, GPXUtilities.GPXFile, OsmandApplication)} (lat/lon with 7 decimals,
+	 * ele, hdop and speed with full precision) with the differences:
+	 * <ul>
+	 * <li>there is no indentation, every file is written in one line;</li>
+	 * <li>link is written as gpx 1.1 requires {@code <link href="..."/>} (it is read so by both readers),
+	 * writeGpx writes it to the {@code link} attribute.</li>
+	 * </ul>
+	 * Tracks should be written before route points and waypoints as gpx schema requires.
+	 */
+	public static class GPXStreamWriter {
+		private final Writer out;
+		private final StringBuilder sb = new StringBuilder(256);
+		private boolean inTrack;
+		private boolean inSegment;
+		private boolean inRoute;
+		private boolean closed;
+
+		public GPXStreamWriter(Writer out, String creator) throws IOException {
+			this.out = out;
+			sb.append("<?xml version='1.0' encoding='UTF-8' standalone='yes' ?>\n");
+			sb.append("<gpx version=\"1.1\" creator=\"");
+			appendEscaped(sb, creator);
+			sb.append("\" xmlns=\"http://www.topografix.com/GPX/1/1\" ");
+			sb.append("xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" ");
+			sb.append("xsi:schemaLocation=\"http://www.topografix.com/GPX/1/1 http://www.topografix.com/GPX/1/1/gpx.xsd\">");
+			flushBuffer();
+		}
+
+		public void startTrack(String name, String desc) throws IOException {
+			endRoute();
+			endTrack();
+			sb.append("<trk>");
+			appendText(sb, "name", name);
+			appendText(sb, "desc", desc);
+			inTrack = true;
+			flushBuffer();
+		}
+
+		public void startSegment() throws IOException {
+			if (!inTrack) {
+				startTrack(null, null);
+			}
+			endSegment();
+			sb.append("<trkseg>");
+			inSegment = true;
+		}
+
+		public void writeTrackPoint(double lat, double lon, long time, double ele, double speed, double hdop)
+				throws IOException {
+			if (!inSegment) {
+				startSegment();
+			}
+			sb.append("<trkpt");
+			appendPointStart(lat, lon, time, ele);
+			appendPointEnd(hdop, speed, null);
+			sb.append("</trkpt>");
+			if (sb.length() > 8192) {
+				flushBuffer();
+			}
+		}
+
+		public void writeTrackPoints(GPXPointsBuffer points) throws IOException {
+			for (int i = 0; i < points.size(); i++) {
+				writeTrackPoint(points.lat[i], points.lon[i], points.time[i], points.ele[i], points.speed[i],
+						points.hdop[i]);
+			}
+		}
+
+		public void endSegment() throws IOException {
+			if (inSegment) {
+				sb.append("</trkseg>");
+				inSegment = false;
+				flushBuffer();
+			}
+		}
+
+		public void endTrack() throws IOException {
+			endSegment();
+			if (inTrack) {
+				sb.append("</trk>");
+				inTrack = false;
+				flushBuffer();
+			}
+		}
+
+		public void startRoute(String name, String desc) throws IOException {
+			endTrack();
+			endRoute();
+			sb.append("<rte>");
+			appendText(sb, "name", name);
+			appendText(sb, "desc", desc);
+			inRoute = true;
+		}
+
+		public void writeRoutePoint(WptPt p) throws IOException {
+			if (!inRoute) {
+				startRoute(null, null);
+			}
+			writePoint("rtept", p);
+		}
+
+		public void endRoute() throws IOException {
+			if (inRoute) {
+				sb.append("</rte>");
+				inRoute = false;
+				flushBuffer();
+			}
+		}
+
+		public void writeWayPoint(WptPt p) throws IOException {
+			endTrack();
+			endRoute();
+			writePoint("wpt", p);
+		}
+
+		/**
+		 * Closes open elements and flushes the writer, the writer itself is not closed
+		 */
+		public void finish() throws IOException {
+			if (!closed) {
+				endTrack();
+				endRoute();
+				sb.append("</gpx>");
+				flushBuffer();
+				out.flush();
+				closed = true;
+			}
+		}
+
+		private void writePoint(String tag, WptPt p) throws IOException {
+			sb.append('<').append(tag);
+			appendPointStart(p.lat, p.lon, p.time, p.ele);
+			appendText(sb, "name", p.name);
+			appendText(sb, "desc", p.desc);
+			if (p.link != null) {
+				sb.append("<link href=\"");
+				appendEscaped(sb, p.link);
+				sb.append("\"/>");
+			}
+			appendText(sb, "type", p.category);
+			appendPointEnd(p.hdop, p.speed, p.getExtensionsToRead());
+			sb.append("</").append(tag).append('>');
+			flushBuffer();
+		}
+
+		// appends attributes, closes the start tag and appends first children of the point
+		private void appendPointStart(double lat, double lon, long time, double ele) {
+			sb.append(" lat=\"");
+			appendNumber(sb, lat, 2, 7);
+			sb.append("\" lon=\"");
+			appendNumber(sb, lon, 2, 7);
+			sb.append("\">");
+			if (!Double.isNaN(ele)) {
+				sb.append("<ele>").append(ele);
+				sb.append("</ele>");
+			}
+			if (time != 0) {
+				sb.append("<time>");
+				appendTime(sb, time);
+				sb.append("</time>");
+			}
+		}
+
+		private void appendPointEnd(double hdop, double speed, Map<String, String> extensions) {
+			if (!Double.isNaN(hdop)) {
+				sb.append("<hdop>").append(hdop);
+				sb.append("</hdop>");
+			}
+			boolean writeSpeed = speed > 0 && (extensions == null || !extensions.containsKey("speed"));
+			if (writeSpeed || (extensions != null && !extensions.isEmpty())) {
+				sb.append("<extensions>");
+				if (extensions != null) {
+					for (Map.Entry<String, String> e : extensions.entrySet()) {
+						appendText(sb, e.getKey(), e.getValue());
+					}
+				}
+				if (writeSpeed) {
+					sb.append("<speed>").append(speed);
+					sb.append("</speed>");
+				}
+				sb.append("</extensions>");
+			}
+		}
+
+		private void flushBuffer() throws IOException {
+			out.append(sb);
+			sb.setLength(0);
+		}
+
+		private static void appendText(StringBuilder sb, String tag, String value) {
+			if (value != null) {
+				sb.append('<').append(tag).append('>');
+				appendEscaped(sb, value);
+				sb.append("</").append(tag).append('>');
+			}
+		}
+
+		private static void appendEscaped(StringBuilder sb, String value) {
+			if (value == null) {
+				return;
+			}
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				switch (c) {
+				case '&':
+					sb.append("&amp;");
+					break;
+				case '<':
+					sb.append("&lt;");
+					break;
+				case '>':
+					sb.append("&gt;");
+					break;
+				case '"':
+					sb.append("&quot;");
+					break;
+				default:
+					sb.append(c);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Calculates the same analysis as {@link GPXUtilities.GPXFile#getAnalysis(long)} in one pass through the file
+	 * without building the file in memory
+	 */
+	public static GPXTrackAnalysis analyze(InputStream is, long fileTimestamp) throws IOException {
+		final GPXTrackAnalysis analysis = new GPXTrackAnalysis();
+		readGPX(is, new GPXStreamListener() {
+			// only segments with more than 1 point are analyzed, so the first point is added with the second one
+			private WptPt prev = new WptPt();
+			private WptPt point = new WptPt();
+			private int segmentPoints = 0;
+
+			@Override
+			public void trackPoints(GPXPointsBuffer points, boolean segmentEnd) {
+				for (int i = 0; i < points.size(); i++) {
+					points.get(i, point);
+					if (segmentPoints == 1) {
+						if (analysis.locationStart == null) {
+							analysis.locationStart = new WptPt(prev);
+						}
+						analysis.addPoint(prev, null);
+					}
+					if (segmentPoints > 0) {
+						analysis.addPoint(point, prev);
+					}
+					segmentPoints++;
+					WptPt t = prev;
+					prev = point;
+					point = t;
+				}
+				if (segmentEnd) {
+					if (segmentPoints > 1) {
+						analysis.locationEnd = new WptPt(prev);
+					}
+					analysis.totalTracks++;
+					segmentPoints = 0;
+				}
+			}
+
+			@Override
+			public void wayPoint(WptPt p, boolean routePoint) {
+				if (!routePoint) {
+					analysis.wptPoints++;
+				}
+			}
+		});
+		return analysis.finishInformation(fileTimestamp);
+	}
+}
@@ -12,17 +12,12 @@ import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
-import java.text.NumberFormat;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Stack;
 import java.util.TimeZone;
@@ -45,10 +40,7 @@ import android.graphics.Color;
 public class GPXUtilities {
 	public final static Log log = PlatformUtil.getLog(GPXUtilities.class);
 
-	private final static String GPX_TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'"; //$NON-NLS-1$
-
-	private final static NumberFormat latLonFormat = new DecimalFormat("0.00#####", new DecimalFormatSymbols(
-			new Locale("EN", "US")));
+	final static String GPX_TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'"; //$NON-NLS-1$
 
 	public static class GPXExtensions {
 		Map<String, String> extensions = null;
@@ -122,6 +114,22 @@ public class GPXUtilities {
 			return new PointDescription(PointDescription.POINT_TYPE_WPT, name);
 		}
 
+		public WptPt(WptPt p) {
+			this.lat = p.lat;
+			this.lon = p.lon;
+			this.name = p.name;
+			this.link = p.link;
+			this.category = p.category;
+			this.desc = p.desc;
+			this.time = p.time;
+			this.ele = p.ele;
+			this.speed = p.speed;
+			this.hdop = p.hdop;
+			if (p.extensions != null) {
+				this.extensions = new LinkedHashMap<String, String>(p.extensions);
+			}
+		}
+
 		public WptPt(double lat, double lon, long time, double ele, double speed, double hdop) {
 			this.lat = lat;
 			this.lon = lon;
@@ -217,19 +225,23 @@ public class GPXUtilities {
 			return new GPXTrackAnalysis().prepareInformation(filetimestamp, new SplitSegment(segment));
 		}
 		
-		public GPXTrackAnalysis prepareInformation(long filestamp, SplitSegment... splitSegments) {
-			float[] calculations = new float[1];
+		// values accumulated by addPoint
+		private float totalElevation = 0;
+		private int elevationPoints = 0;
+		private int speedCount = 0;
+		private double totalSpeedSum = 0;
+		private float[] calculations = new float[1];
 
-			float totalElevation = 0;
-			int elevationPoints = 0;
-			int speedCount = 0;
-			double totalSpeedSum = 0;
+		public GPXTrackAnalysis prepareInformation(long filestamp, SplitSegment... splitSegments) {
+			totalElevation = 0;
+			elevationPoints = 0;
+			speedCount = 0;
+			totalSpeedSum = 0;
 			points = 0;
 			
 			for (SplitSegment s : splitSegments) {
 				final int numberOfPoints = s.getNumberOfPoints();
 				metricEnd += s.metricEnd;
-				points += numberOfPoints;
 				for (int j = 0; j < numberOfPoints; j++) {
 					WptPt point = s.get(j);
 					if(j == 0 && locationStart == null) {
@@ -238,53 +250,64 @@ public class GPXUtilities {
 					if(j == numberOfPoints - 1) {
 						locationEnd = point;
 					}
-					long time = point.time;
-					if (time != 0) {
-						startTime = Math.min(startTime, time);
-						endTime = Math.max(endTime, time);
-					}
+					addPoint(point, j > 0 ? s.get(j - 1) : null);
+				}
+			}
+			return finishInformation(filestamp);
+		}
 
-					double elevation = point.ele;
-					if (!Double.isNaN(elevation)) {
-						totalElevation += elevation;
-						elevationPoints++;
-						minElevation = Math.min(elevation, minElevation);
-						maxElevation = Math.max(elevation, maxElevation);
-					}
+		/**
+		 * Adds the next point of the segment (prev is null for the first point), points could be added one by one
+		 * while the file is read (see {@link GPXStreamUtilities#analyze(InputStream, long)})
+		 */
+		void addPoint(WptPt point, WptPt prev) {
+			points++;
+			long time = point.time;
+			if (time != 0) {
+				startTime = Math.min(startTime, time);
+				endTime = Math.max(endTime, time);
+			}
 
-					float speed = (float) point.speed;
-					if (speed > 0) {
-						totalSpeedSum += speed;
-						maxSpeed = Math.max(speed, maxSpeed);
-						speedCount++;
-					}
+			double elevation = point.ele;
+			if (!Double.isNaN(elevation)) {
+				totalElevation += elevation;
+				elevationPoints++;
+				minElevation = Math.min(elevation, minElevation);
+				maxElevation = Math.max(elevation, maxElevation);
+			}
 
-					if (j > 0) {
-						WptPt prev = s.get(j - 1);
+			float speed = (float) point.speed;
+			if (speed > 0) {
+				totalSpeedSum += speed;
+				maxSpeed = Math.max(speed, maxSpeed);
+				speedCount++;
+			}
 
-						if (!Double.isNaN(point.ele) && !Double.isNaN(prev.ele)) {
-							double diff = point.ele - prev.ele;
-							if (diff > 0) {
-								diffElevationUp += diff;
-							} else {
-								diffElevationDown -= diff;
-							}
-						}
+			if (prev != null) {
+				if (!Double.isNaN(point.ele) && !Double.isNaN(prev.ele)) {
+					double diff = point.ele - prev.ele;
+					if (diff > 0) {
+						diffElevationUp += diff;
+					} else {
+						diffElevationDown -= diff;
+					}
+				}
 
-						// totalDistance += MapUtils.getDistance(prev.lat, prev.lon, point.lat, point.lon);
-						// using ellipsoidal 'distanceBetween' instead of spherical haversine (MapUtils.getDistance) is
-						// a little more exact, also seems slightly faster:
-						net.osmand.Location.distanceBetween(prev.lat, prev.lon, point.lat, point.lon, calculations);
-						totalDistance += calculations[0];
+				// totalDistance += MapUtils.getDistance(prev.lat, prev.lon, point.lat, point.lon);
+				// using ellipsoidal 'distanceBetween' instead of spherical haversine (MapUtils.getDistance) is
+				// a little more exact, also seems slightly faster:
+				net.osmand.Location.distanceBetween(prev.lat, prev.lon, point.lat, point.lon, calculations);
+				totalDistance += calculations[0];
 
-						// Averaging speed values is less exact than totalDistance/timeMoving
-						if (speed > 0 && point.time != 0 && prev.time != 0) {
-							timeMoving = timeMoving + (point.time - prev.time);
-							totalDistanceMoving += calculations[0];
-						}
-					}
+				// Averaging speed values is less exact than totalDistance/timeMoving
+				if (speed > 0 && point.time != 0 && prev.time != 0) {
+					timeMoving = timeMoving + (point.time - prev.time);
+					totalDistanceMoving += calculations[0];
 				}
 			}
+		}
+
+		GPXTrackAnalysis finishInformation(long filestamp) {
 			if(!isTimeSpecified()){
 				startTime = filestamp;
 				endTime = filestamp;
@@ -484,6 +507,8 @@ public class GPXUtilities {
 		public String path = "";
 		public boolean showCurrentTrack;
 		public long modifiedTime = 0;
+		// analysis read from the binary copy of the file (see GPXBinaryFile), valid while modifiedTime is not changed
+		public GPXTrackAnalysis storedAnalysis;
 
 		public boolean isCloudmadeRouteFile() {
 			return "cloudmade".equalsIgnoreCase(author);
@@ -717,8 +742,8 @@ public class GPXUtilities {
 	}
 
 	private static void writeWpt(SimpleDateFormat format, XmlSerializer serializer, WptPt p) throws IOException {
-		serializer.attribute(null, "lat", latLonFormat.format(p.lat)); //$NON-NLS-1$ //$NON-NLS-2$
-		serializer.attribute(null, "lon", latLonFormat.format(p.lon)); //$NON-NLS-1$ //$NON-NLS-2$
+		serializer.attribute(null, "lat", GPXStreamUtilities.formatLatLon(p.lat)); //$NON-NLS-1$ //$NON-NLS-2$
+		serializer.attribute(null, "lon", GPXStreamUtilities.formatLatLon(p.lon)); //$NON-NLS-1$ //$NON-NLS-2$
 
 		if (!Double.isNaN(p.ele)) {
 			writeNotNullText(serializer, "ele", p.ele + "");
@@ -764,7 +789,7 @@ public class GPXUtilities {
 		}
 	}
 
-	private static String readText(XmlPullParser parser, String key) throws XmlPullParserException, IOException {
+	static String readText(XmlPullParser parser, String key) throws XmlPullParserException, IOException {
 		int tok;
 		String text = null;
 		while ((tok = parser.next()) != XmlPullParser.END_DOCUMENT) {
@@ -921,10 +946,8 @@ public class GPXUtilities {
 							} else if (parser.getName().equals("time")) {
 								String text = readText(parser, "time");
 								if (text != null) {
-									try {
-										((WptPt) parse).time = format.parse(text).getTime();
-									} catch (ParseException e) {
-									}
+									// fraction of seconds and time zones are accepted as by the streaming reader
+									((WptPt) parse).time = GPXStreamUtilities.parseTime(text, format);
 								}
 							}
 						}
@@ -983,7 +1006,7 @@ public class GPXUtilities {
 		return res;
 	}
 
-	private static Reader getUTF8Reader(InputStream f) throws IOException {
+	static Reader getUTF8Reader(InputStream f) throws IOException {
 		BufferedInputStream bis = new BufferedInputStream(f);
 		assert bis.markSupported();
 		bis.mark(3);
@@ -306,7 +306,7 @@ public class GpxSelectionHelper {
 						if(p != null) {
 							p.startTask(getString(R.string.loading_smth, fl.getName()), -1);
 						}
-						GPXFile gpx = GPXUtilities.loadGPXFile(app, fl);
+						GPXFile gpx = GPXBinaryFile.loadGPXFile(app, fl);
 						if(gpx.warning != null) {
 							save = true;
 						} else {
@@ -409,9 +409,13 @@ public class GpxSelectionHelper {
 
 		private void update() {
 			modifiedTime = gpxFile.modifiedTime;
-			trackAnalysis = gpxFile.getAnalysis(
-					Algorithms.isEmpty(gpxFile.path) ? System.currentTimeMillis() :
-					new File(gpxFile.path).lastModified());
+			if (gpxFile.storedAnalysis != null && modifiedTime == 0) {
+				trackAnalysis = gpxFile.storedAnalysis;
+			} else {
+				trackAnalysis = gpxFile.getAnalysis(
+						Algorithms.isEmpty(gpxFile.path) ? System.currentTimeMillis() :
+						new File(gpxFile.path).lastModified());
+			}
 			displayGroups = null;
 		}
 
@@ -905,6 +905,10 @@ public class OsmandSettings {
 	// this value string is synchronized with settings_pref.xml preference name
 	public final OsmandPreference<Boolean> DEBUG_RENDERING_INFO = new BooleanPreference("debug_rendering", false).makeGlobal();
 	
+	public final OsmandPreference<Boolean> RENDERING_RESULT_CACHE = new BooleanPreference("rendering_result_cache", false).makeGlobal();
+	
+	public final OsmandPreference<Boolean> COMPILED_RENDERING_RULES = new BooleanPreference("compiled_rendering_rules", false).makeGlobal();
+	
 	// this value string is synchronized with settings_pref.xml preference name
 	public final OsmandPreference<Boolean> SHOW_FAVORITES = new BooleanPreference("show_favorites", false).makeGlobal();
 	
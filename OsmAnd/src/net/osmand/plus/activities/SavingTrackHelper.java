@@ -10,6 +10,7 @@ import java.util.Map;
 
 import net.osmand.PlatformUtil;
 import net.osmand.data.LatLon;
+import net.osmand.plus.GPXBinaryFile;
 import net.osmand.plus.GPXUtilities;
 import net.osmand.plus.GPXUtilities.GPXFile;
 import net.osmand.plus.GPXUtilities.GPXTrackAnalysis;
@@ -163,6 +164,7 @@ public class SavingTrackHelper extends SQLiteOpenHelper {
 	 */
 	public synchronized List<String> saveDataToGpx(File dir ) {
 		List<String> warnings = new ArrayList<String>();
+		final List<File> savedFiles = new ArrayList<File>();
 		dir.mkdirs();
 		if (dir.getParentFile().canWrite()) {
 			if (dir.exists()) {
@@ -186,6 +188,7 @@ public class SavingTrackHelper extends SQLiteOpenHelper {
 						warnings.add(warn);
 						return warnings;
 					}
+					savedFiles.add(fout);
 				}
 			}
 		}
@@ -210,6 +213,18 @@ public class SavingTrackHelper extends SQLiteOpenHelper {
 		currentTrack.getModifiablePointsToDisplay().clear();
 		currentTrack.getModifiableGpxFile().modifiedTime = System.currentTimeMillis();
 		prepareCurrentTrackForRecording();
+		if (!savedFiles.isEmpty()) {
+			// binary copies are only cache (they are created when files are opened otherwise), so they are written
+			// after saving and failures don't matter
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (File f : savedFiles) {
+						GPXBinaryFile.writeCache(ctx, f);
+					}
+				}
+			}, "Writing binary gpx").start();
+		}
 		return warnings;
 	}
 
@@ -40,6 +40,11 @@ public class SettingsDevelopmentActivity extends SettingsBaseActivity {
 				R.string.trace_rendering, R.string.trace_rendering_descr);
 		cat.addPreference(dbg);
 		
+		cat.addPreference(createCheckBoxPreference(settings.RENDERING_RESULT_CACHE, 
+				R.string.rendering_result_cache, R.string.rendering_result_cache_descr));
+		cat.addPreference(createCheckBoxPreference(settings.COMPILED_RENDERING_RULES, 
+				R.string.compiled_rendering_rules, R.string.compiled_rendering_rules_descr));
+		
 		cat.addPreference(createCheckBoxPreference(settings.DISABLE_COMPLEX_ROUTING, R.string.disable_complex_routing, R.string.disable_complex_routing_descr));
 		
 		cat.addPreference(createCheckBoxPreference(settings.USE_MAGNETIC_FIELD_SENSOR_COMPASS, R.string.use_magnetic_sensor, R.string.use_magnetic_sensor_descr));
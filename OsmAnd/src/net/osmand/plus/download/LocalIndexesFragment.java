@@ -42,6 +42,7 @@ import net.osmand.IndexConstants;
 import net.osmand.access.AccessibleToast;
 import net.osmand.plus.ContextMenuAdapter;
 import net.osmand.plus.ContextMenuAdapter.OnContextMenuClick;
+import net.osmand.plus.GPXBinaryFile;
 import net.osmand.plus.IconsCache;
 import net.osmand.plus.OsmandApplication;
 import net.osmand.plus.OsmandPlugin;
@@ -259,6 +260,9 @@ public class LocalIndexesFragment extends OsmandExpandableListFragment {
 							dest.getParentFile().mkdirs();
 						}
 						if(f.renameTo(dest)){
+							if (ext.equalsIgnoreCase(".gpx")) {
+								GPXBinaryFile.renameCache((OsmandApplication) a.getApplication(), f, dest);
+							}
 							if(callback != null) { 
 								callback.run();
 							}
@@ -480,24 +480,6 @@ public class WaypointHelper {
 		}
 	}
 	
-	private float dist(LocationPoint l, List<Location> locations, int[] ind) {
-		float dist = Float.POSITIVE_INFINITY;
-		// Special iterations because points stored by pairs!
-		for (int i = 1; i < locations.size(); i ++) {
-			final double ld = MapUtils.getOrthogonalDistance(
-					l.getLatitude(), l.getLongitude(), 
-					locations.get(i - 1).getLatitude(), locations.get(i - 1).getLongitude(), 
-					locations.get(i).getLatitude(), locations.get(i).getLongitude());
-			if(ld < dist){
-				if(ind != null) {
-					ind[0] = i;
-				}
-				dist = (float) ld;
-			}
-		}
-		return dist;
-	}
-
 	protected synchronized void setLocationPoints(List<List<LocationPointWrapper>> locationPoints, RouteCalculationResult route) {
 		this.locationPoints = locationPoints;
 		//this.locationPointsStates.clear();
@@ -542,7 +524,7 @@ public class WaypointHelper {
 					});
 			for (Amenity a : amenities) {
 				AmenityRoutePoint rp = a.getRoutePoint();
-				int i = locs.indexOf(rp.pointA);
+				int i = indexOf(route, rp.pointA);
 				if (i >= 0) {
 					LocationPointWrapper lwp = new LocationPointWrapper(route, POI, new AmenityLocationPoint(a),
 							(float) rp.deviateDistance, i);
@@ -555,6 +537,23 @@ public class WaypointHelper {
 
 
 
+	/**
+	 * Index of the route location (found by segments index of the route instead of scanning all locations)
+	 */
+	private static int indexOf(RouteCalculationResult route, Location l) {
+		List<Location> locs = route.getImmutableAllLocations();
+		TIntArrayList segments = route.getSegmentsInCorridor(l.getLatitude(), l.getLongitude(), 1);
+		for (int k = 0; k < segments.size(); k++) {
+			int i = segments.get(k);
+			if (locs.get(i - 1) == l) {
+				return i - 1;
+			} else if (locs.get(i) == l) {
+				return i;
+			}
+		}
+		return locs.indexOf(l);
+	}
+
 	private void calculateAlarms(RouteCalculationResult route, List<LocationPointWrapper> array) {
 		for(AlarmInfo i : route.getAlarmInfo()) {
 			if(i.getType() == AlarmInfoType.SPEED_CAMERA) {
@@ -588,11 +587,10 @@ public class WaypointHelper {
 
 	private void findLocationPoints(RouteCalculationResult rt, int type, List<LocationPointWrapper> locationPoints,
 			List<? extends LocationPoint> points, boolean announce) {
-		List<Location> immutableAllLocations = rt.getImmutableAllLocations();
 		int[] ind = new int[1];
+		int rad = getSearchDeviationRadius(type);
 		for(LocationPoint p : points) {
-			float dist = dist(p, immutableAllLocations, ind);
-			int rad = getSearchDeviationRadius(type);
+			float dist = rt.getNearestSegment(p.getLatitude(), p.getLongitude(), rad, ind);
 			if(dist <= rad) {
 				LocationPointWrapper lpw = new LocationPointWrapper(rt, type, p, dist, ind[0]);
 				lpw.setAnnounce(announce);
@@ -38,7 +38,7 @@ import net.osmand.IndexConstants;
 import net.osmand.access.AccessibleToast;
 import net.osmand.plus.ContextMenuAdapter;
 import net.osmand.plus.ContextMenuAdapter.OnContextMenuClick;
-import net.osmand.plus.GPXUtilities;
+import net.osmand.plus.GPXBinaryFile;
 import net.osmand.plus.GPXUtilities.GPXFile;
 import net.osmand.plus.GPXUtilities.GPXTrackAnalysis;
 import net.osmand.plus.GPXUtilities.WptPt;
@@ -543,7 +543,7 @@ public class AvailableGPXFragment extends OsmandExpandableListFragment {
 	}
 
 	private void showGpxOnMap(GpxInfo info) {
-		info.setGpx(GPXUtilities.loadGPXFile(app, info.file));
+		info.setGpx(GPXBinaryFile.loadGPXFile(app, info.file));
 		boolean e = true;
 		if (info != null && info.gpx != null) {
 			WptPt loc = info.gpx.findPointToShow();
@@ -568,6 +568,13 @@ public class AvailableGPXFragment extends OsmandExpandableListFragment {
 		protected List<GpxInfo> doInBackground(Activity... params) {
 			List<GpxInfo> result = new ArrayList<GpxInfo>();
 			loadGPXData(app.getAppPath(IndexConstants.GPX_INDEX_DIR), result, this);
+			if (!isCancelled()) {
+				List<File> files = new ArrayList<File>();
+				for (GpxInfo info : result) {
+					files.add(info.file);
+				}
+				GPXBinaryFile.deleteUnusedCache(app, files);
+			}
 			return result;
 		}
 
@@ -645,6 +652,7 @@ public class AvailableGPXFragment extends OsmandExpandableListFragment {
 					GpxInfo info = new GpxInfo();
 					info.subfolder = gpxSubfolder;
 					info.file = gpxFile;
+					info.storedAnalysis = GPXBinaryFile.readCachedAnalysis(app, gpxFile);
 					result.add(info);
 					progress.add(info);
 					if (progress.size() > 7) {
@@ -1035,6 +1043,7 @@ public class AvailableGPXFragment extends OsmandExpandableListFragment {
 					successfull = Algorithms.removeAllFiles(info.file);
 					total++;
 					if (successfull) {
+						GPXBinaryFile.deleteCache(app, info.file);
 						count++;
 						publishProgress(info);
 					}
@@ -1077,7 +1086,7 @@ public class AvailableGPXFragment extends OsmandExpandableListFragment {
 			for (GpxInfo info : params) {
 				if (!isCancelled()) {
 					if(!info.currentlyRecordingTrack) {
-						info.setGpx(GPXUtilities.loadGPXFile(app, info.file));
+						info.setGpx(GPXBinaryFile.loadGPXFile(app, info.file));
 					}
 					publishProgress(info);
 				}
@@ -1203,6 +1212,8 @@ public class AvailableGPXFragment extends OsmandExpandableListFragment {
 		public GPXFile gpx;
 		public File file;
 		public String subfolder;
+		// analysis from the header of the binary copy, if it's cached
+		public GPXTrackAnalysis storedAnalysis;
 
 		private String name = null;
 		private int sz = -1;
@@ -1296,6 +1307,8 @@ public class AvailableGPXFragment extends OsmandExpandableListFragment {
 			icon.setImageDrawable(app.getIconsCache().getIcon(R.drawable.ic_gpx_track, R.color.color_distance));
 			analysis = sgpx.getTrackAnalysis();
 
+		} else if (child.storedAnalysis != null) {
+			analysis = child.storedAnalysis;
 		}
 		boolean sectionRead = analysis == null;
 		if (sectionRead) {
@@ -26,6 +26,7 @@ import net.osmand.PlatformUtil;
 import net.osmand.ResultMatcher;
 import net.osmand.binary.BinaryMapIndexReader;
 import net.osmand.binary.CachedOsmandIndexes;
+import net.osmand.binary.CachedOsmandIndexes.StoredFileIndex;
 import net.osmand.data.Amenity;
 import net.osmand.data.LatLon;
 import net.osmand.data.RotatedTileBox;
@@ -623,8 +624,11 @@ public class ResourceManager {
 			progress.startTask(context.getString(R.string.indexing_map) + " " + f.getName(), -1); //$NON-NLS-1$
 			try {
 				BinaryMapIndexReader index = null;
+				StoredFileIndex info = null;
 				try {
+					// indexes of the cached file are not read till the reader is used
 					index = cachedOsmandIndexes.getReader(f);
+					info = cachedOsmandIndexes.getFileInfo(f);
 					if (index.getVersion() != IndexConstants.BINARY_MAP_VERSION) {
 						index = null;
 					}
@@ -645,13 +649,13 @@ public class ResourceManager {
 						dateCreated = f.lastModified();
 					}
 					indexFileNames.put(f.getName(), dateFormat.format(dateCreated)); //$NON-NLS-1$
-					for (String rName : index.getRegionNames()) {
+					for (String rName : info.getRegionNames()) {
 						// skip duplicate names (don't make collision between getName() and name in the map)
 						// it can be dangerous to use one file to different indexes if it is multithreaded
 						RegionAddressRepositoryBinary rarb = new RegionAddressRepositoryBinary(index, rName);
 						addressMap.put(rName, rarb);
 					}
-					if (index.hasTransportData()) {
+					if (info.hasTransportData()) {
 						try {
 							RandomAccessFile raf = new RandomAccessFile(f, "r"); //$NON-NLS-1$
 							transportRepositories.add(new TransportIndexRepositoryBinary(new BinaryMapIndexReader(raf, index)));
@@ -660,7 +664,7 @@ public class ResourceManager {
 							warnings.add(MessageFormat.format(context.getString(R.string.version_index_is_not_supported), f.getName())); //$NON-NLS-1$
 						}
 					}
-					if (index.containsRouteData()) {
+					if (info.containsRouteData()) {
 						try {
 							RandomAccessFile raf = new RandomAccessFile(f, "r"); //$NON-NLS-1$
 							routingMapFiles.put(f.getAbsolutePath(), new BinaryMapIndexReader(raf, index));
@@ -669,7 +673,7 @@ public class ResourceManager {
 							warnings.add(MessageFormat.format(context.getString(R.string.version_index_is_not_supported), f.getName())); //$NON-NLS-1$
 						}
 					}
-					if (index.containsPoiData()) {
+					if (info.containsPoiData()) {
 						try {
 							RandomAccessFile raf = new RandomAccessFile(f, "r"); //$NON-NLS-1$
 							amenityRepositories.add(new AmenityIndexRepositoryBinary(new BinaryMapIndexReader(raf, index)));
@@ -1,5 +1,7 @@
 package net.osmand.plus.routing;
 
+import gnu.trove.list.array.TIntArrayList;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -9,6 +11,8 @@ import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteTypeRule;
 import net.osmand.data.LatLon;
 import net.osmand.data.LocationPoint;
+import net.osmand.data.QuadRect;
+import net.osmand.data.QuadTree;
 import net.osmand.plus.ApplicationMode;
 import net.osmand.plus.R;
 import net.osmand.router.RouteSegmentResult;
@@ -19,6 +23,8 @@ import android.content.Context;
 
 public class RouteCalculationResult {
 	private static double distanceClosestToIntermediate = 400;
+	// size of the leaves of segments index (~1 km)
+	private static final int SEGMENTS_INDEX_LEAF_31 = 1 << (31 - 15);
 	// could not be null and immodifiable!
 	private final List<Location> locations;
 	private final List<RouteDirectionInfo> directions;
@@ -32,6 +38,7 @@ public class RouteCalculationResult {
 	protected int cacheCurrentTextDirectionInfo = -1;
 	protected List<RouteDirectionInfo> cacheAgreggatedDirections;
 	protected List<LocationPoint> locationPoints = new ArrayList<LocationPoint>();
+	private QuadTree<Integer> segmentsIndex;
 
 	// Note always currentRoute > get(currentDirectionInfo).routeOffset, 
 	//         but currentRoute <= get(currentDirectionInfo+1).routeOffset 
@@ -606,6 +613,108 @@ public class RouteCalculationResult {
 	public List<RouteDirectionInfo> getImmutableAllDirections() {
 		return directions;
 	}
+
+	/**
+	 * Segments of the route (segment i connects locations i - 1 and i) indexed by their bbox in 31 tile numbers,
+	 * index is built once on the first query
+	 */
+	private synchronized QuadTree<Integer> getSegmentsIndex() {
+		if (segmentsIndex == null) {
+			int[] x = new int[locations.size()];
+			int[] y = new int[locations.size()];
+			QuadRect bounds = new QuadRect(Integer.MAX_VALUE, Integer.MAX_VALUE, 0, 0);
+			for (int i = 0; i < locations.size(); i++) {
+				x[i] = MapUtils.get31TileNumberX(locations.get(i).getLongitude());
+				y[i] = MapUtils.get31TileNumberY(locations.get(i).getLatitude());
+				bounds.left = Math.min(bounds.left, x[i]);
+				bounds.right = Math.max(bounds.right, x[i]);
+				bounds.top = Math.min(bounds.top, y[i]);
+				bounds.bottom = Math.max(bounds.bottom, y[i]);
+			}
+			// every level of the tree is 0.55 of the parent
+			int depth = 1;
+			double size = Math.max(bounds.width(), bounds.height());
+			while (size > SEGMENTS_INDEX_LEAF_31 && depth < 20) {
+				size *= 0.55;
+				depth++;
+			}
+			QuadTree<Integer> index = new QuadTree<Integer>(bounds, depth, 0.55f);
+			for (int i = 1; i < locations.size(); i++) {
+				index.insert(i, new QuadRect(Math.min(x[i - 1], x[i]), Math.min(y[i - 1], y[i]),
+						Math.max(x[i - 1], x[i]), Math.max(y[i - 1], y[i])));
+			}
+			segmentsIndex = index;
+		}
+		return segmentsIndex;
+	}
+
+	/**
+	 * Segments of the route closer than radius (meters) to the point in order of the route
+	 * (segment i connects locations i - 1 and i)
+	 */
+	public TIntArrayList getSegmentsInCorridor(double lat, double lon, double radius) {
+		TIntArrayList res = new TIntArrayList();
+		if (locations.size() < 2) {
+			return res;
+		}
+		// degree of latitude is longer than 110 km
+		double dlat = radius / 110000;
+		double dlon = Math.min(180, dlat / Math.max(Math.cos(Math.toRadians(lat)), 0.01));
+		QuadRect box = new QuadRect(MapUtils.get31TileNumberX(lon - dlon), MapUtils.get31TileNumberY(lat + dlat),
+				MapUtils.get31TileNumberX(lon + dlon), MapUtils.get31TileNumberY(lat - dlat));
+		for (Integer i : getSegmentsIndex().queryInBox(box, new ArrayList<Integer>())) {
+			if (getOrthogonalDistance(lat, lon, i) <= radius) {
+				res.add(i);
+			}
+		}
+		res.sort();
+		return res;
+	}
+
+	/**
+	 * Finds the nearest segment of the route (segment i connects locations i - 1 and i) closer than radius (meters)
+	 * to the point, index of the segment is put to ind[0].
+	 * @return orthogonal distance to the segment or Float.POSITIVE_INFINITY if there is no segment within radius
+	 */
+	public float getNearestSegment(double lat, double lon, double radius, int[] ind) {
+		TIntArrayList segments = getSegmentsInCorridor(lat, lon, radius);
+		float dist = Float.POSITIVE_INFINITY;
+		for (int k = 0; k < segments.size(); k++) {
+			int i = segments.get(k);
+			double ld = getOrthogonalDistance(lat, lon, i);
+			if (ld < dist) {
+				if (ind != null) {
+					ind[0] = i;
+				}
+				dist = (float) ld;
+			}
+		}
+		return dist;
+	}
+
+	/**
+	 * @return distance (meters) from the start of the route to the projection of the point on the nearest segment
+	 * within radius or -1 if route doesn't pass the point
+	 */
+	public int getDistanceFromStart(double lat, double lon, double radius) {
+		int[] ind = new int[1];
+		if (getNearestSegment(lat, lon, radius, ind) == Float.POSITIVE_INFINITY) {
+			return -1;
+		}
+		Location from = locations.get(ind[0] - 1);
+		Location to = locations.get(ind[0]);
+		LatLon pr = MapUtils.getProjection(lat, lon, from.getLatitude(), from.getLongitude(), to.getLatitude(),
+				to.getLongitude());
+		return listDistance[0] - listDistance[ind[0] - 1]
+				+ (int) MapUtils.getDistance(from.getLatitude(), from.getLongitude(), pr.getLatitude(), pr.getLongitude());
+	}
+
+	private double getOrthogonalDistance(double lat, double lon, int segment) {
+		Location from = locations.get(segment - 1);
+		Location to = locations.get(segment);
+		return MapUtils.getOrthogonalDistance(lat, lon, from.getLatitude(), from.getLongitude(), to.getLatitude(),
+				to.getLongitude());
+	}
 	
 	
 	public List<Location> getRouteLocations() {